@@ -10,6 +10,7 @@ import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Vector;
 import java.util.prefs.BackingStoreException;
@@ -24,9 +25,12 @@ import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JTabbedPane;
 import javax.swing.JToolBar;
 import javax.swing.KeyStroke;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.event.UndoableEditEvent;
@@ -35,14 +39,18 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 
 import org.apache.log4j.Logger;
 import org.dom4j.Document;
-import org.dom4j.tree.DefaultDocument;
 
 import fs.fibu2.data.event.JournalChangeFlag;
+import fs.fibu2.data.format.BinaryJournalFormat;
 import fs.fibu2.data.format.Fsfibu1Converter;
+import fs.fibu2.data.format.JournalChangeLog;
+import fs.fibu2.data.format.JournalReader;
+import fs.fibu2.data.format.JournalWriter;
 import fs.fibu2.data.model.Journal;
 import fs.fibu2.lang.Fsfibu2StringTableMgr;
 import fs.fibu2.resource.Fsfibu2DefaultReference;
 import fs.fibu2.undo.JournalUndoManager;
+import fs.fibu2.view.event.ProgressListener;
 import fs.gui.EditCloseTabComponent;
 import fs.gui.GUIToolbox;
 import fs.gui.SwingAppender;
@@ -79,6 +87,11 @@ public class MainFrame extends JFrame implements ResourceDependent {
 	
 	private final static String sgroup = "fs.fibu2.MainFrame";
 	
+	/**
+	 * The time (in milliseconds) without changes, after which the change logs of all saved journals are compacted in the background
+	 */
+	public final static int compactionDelay = 60000;
+	
 	// COMPONENTS **********************************
 	// *********************************************
 
@@ -96,6 +109,8 @@ public class MainFrame extends JFrame implements ResourceDependent {
 		private JButton redoButton = new JButton(Fsfibu2StringTableMgr.getString(sgroup + ".button.redo"));
 		
 	private SwingAppender logAppender;	
+	
+	private JProgressBar progressBar = new JProgressBar(0,100);
 		
 	// LISTENERS ************************************
 	// **********************************************
@@ -124,14 +139,14 @@ public class MainFrame extends JFrame implements ResourceDependent {
 
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			saveJournal();
+			saveJournal(true);
 		}
 	};
 	
 	private ActionListener saveAsListener = new ActionListener() {
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			saveJournalAs();
+			saveJournalAs(true);
 		}
 	};
 	
@@ -201,9 +216,18 @@ public class MainFrame extends JFrame implements ResourceDependent {
 		@Override
 		public void undoableEditHappened(UndoableEditEvent e) {
 			updateTitleAndButtons();
+			compactionTimer.restart();
 		}
 	};
 	
+	//Compacts the change logs, when the journals haven't been changed for a while
+	private Timer compactionTimer = new Timer(compactionDelay, new ActionListener() {
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			for(JournalVector v : journalsOpen) compactInBackground(v);
+		}
+	});
+	
 	private ActionListener undoButtonListener = new ActionListener() {
 		@Override
 		public void actionPerformed(ActionEvent e) {
@@ -328,12 +352,15 @@ public class MainFrame extends JFrame implements ResourceDependent {
 			redoButton.addActionListener(redoButtonListener);
 		toolBar.setFloatable(false);
 		tabPane.addChangeListener(tabSelectionListener);
+		compactionTimer.setRepeats(false);
 		
 		logAppender = new SwingAppender(Fsfibu2StringTableMgr.getString(".appendertitle"));
 			
 		Logger.getLogger("fs.fibu2").addAppender(logAppender.getModel());
 		JPanel statusBar = new JPanel(new BorderLayout());
 		statusBar.add(logAppender,BorderLayout.WEST);
+		statusBar.add(progressBar, BorderLayout.EAST);
+			progressBar.setVisible(false);
 		
 		//Layout
 		setLayout(new BorderLayout());
@@ -392,7 +419,9 @@ public class MainFrame extends JFrame implements ResourceDependent {
 	/**
 	 * Adds a journal. If f == null, a new Journal is created, otherwise the journal is loaded from the file.
 	 * The method logs an error, if the file cannot be opened. The preference node is passed to the JournalView to
-	 * configure it. The method checks if the root node of the loaded document is named 'journal'. If this is not the case,
+	 * configure it. If the file is a binary journal (see {@link BinaryJournalFormat}), it is read directly. Otherwise the method checks if the root
+	 * node of the loaded document is named 'journal' (only reading the beginning of the file). 
+	 * In this case the journal is read by a {@link JournalReader} without loading the document. Otherwise
 	 * it checks, if the journal conforms to the fsfibu1 specification and in that case offers to import it. If the xml document does neither
 	 * conform to the fsfibu2 nor the fsfibu1 format, the user is asked, if he still wants to load this document.
 	 */
@@ -406,9 +435,16 @@ public class MainFrame extends JFrame implements ResourceDependent {
 		else {
 			try {
 				vector.file = f;
-				Document d = XMLToolbox.loadXMLFile(f);
-				//Now check if it actually can be an fsfibu2 document
-				if(!d.getRootElement().getName().equals("journal")) {
+				//If it is a binary journal, map it
+				if(BinaryJournalFormat.isBinaryJournal(f)) {
+					vector.journal = BinaryJournalFormat.read(f);
+				}
+				//If it is an fsfibu2 document, just stream it
+				else if(JournalReader.getRootElementName(f).equals("journal")) {
+					vector.journal = new JournalReader(f).read();
+				}
+				else {
+					Document d = XMLToolbox.loadXMLFile(f);
 					try {
 						logger.info(Fsfibu2StringTableMgr.getString("fs.fibu2.MainFrame.logfibu1format"));
 						Journal j = Fsfibu1Converter.convertFsfibu1Journal(d);
@@ -430,22 +466,112 @@ public class MainFrame extends JFrame implements ResourceDependent {
 						else vector.journal = new Journal(d.getRootElement());
 					}
 				}
-				//If this is the case just add it
-				else vector.journal = new Journal(d.getRootElement());
 			}
 			catch(Exception e) {
 				logger.error(Fsfibu2StringTableMgr.getString("fs.fibu2.MainFrame.journalfileerror", f.getName(),e.getMessage()));
 				return;
 			}
 		}
+		addLoadedJournal(vector, prefNode, converted);
+	}
+	
+	/**
+	 * Loads the journal from the given file in a background thread, while displaying the progress in the status bar. When it 
+	 * has been loaded, it is added. If the file is not an fsfibu2 xml journal, this is equivalent to addJournal(f, prefNode).
+	 */
+	private void addJournalInBackground(final File f, final Preferences prefNode) {
+		try {
+			//Binary journals are loaded fast enough without a background thread
+			if(BinaryJournalFormat.isBinaryJournal(f) || !JournalReader.getRootElementName(f).equals("journal")) {
+				addJournal(f, prefNode);
+				return;
+			}
+		}
+		catch(Exception e) {
+			logger.error(Fsfibu2StringTableMgr.getString("fs.fibu2.MainFrame.journalfileerror", f.getName(),e.getMessage()));
+			return;
+		}
+		JournalReader reader = new JournalReader(f);
+		reader.addProgressListener(new ProgressListener<Journal, Object>() {
+			@Override
+			public void taskBegins(SwingWorker<Journal, Object> source) {
+				progressBar.setValue(0);
+				progressBar.setVisible(true);
+				openButton.setEnabled(false);
+			}
+			@Override
+			public void progressed(SwingWorker<Journal, Object> source) {
+				progressBar.setValue(source.getProgress());
+			}
+			@Override
+			public void taskFinished(SwingWorker<Journal, Object> source) {
+				progressBar.setVisible(false);
+				openButton.setEnabled(true);
+				JournalVector vector = new JournalVector();
+				vector.file = f;
+				try {
+					vector.journal = source.get();
+				}
+				catch(Exception e) {
+					Throwable cause = e.getCause() == null? e : e.getCause();
+					logger.error(Fsfibu2StringTableMgr.getString("fs.fibu2.MainFrame.journalfileerror", f.getName(),cause.getMessage()));
+					return;
+				}
+				addLoadedJournal(vector, prefNode, false);
+			}
+		});
+		reader.start();
+	}
+	
+	/**
+	 * Creates the change log, view and change flag for a journal which has just been created or loaded and adds it. If the journal has been loaded from an
+	 * xml file, all changes from its change log are applied first.
+	 * @param converted Whether the journal was converted from another format (it is then considered unsaved)
+	 */
+	private void addLoadedJournal(JournalVector vector, Preferences prefNode, boolean converted) {
+		boolean changed = converted;
+		try {
+			if(vector.file == null || converted) vector.log = new JournalChangeLog(vector.journal);
+			else if(!BinaryJournalFormat.isBinaryJournal(vector.file)) {
+				vector.log = JournalChangeLog.open(vector.journal, vector.file);
+				//Changes which have not been saved before the application was closed
+				changed = vector.log.hasUncommittedChanges();
+			}
+		}
+		catch(IOException e) {
+			logger.warn(Fsfibu2StringTableMgr.getString(sgroup + ".changelogerror", vector.file.getName(), e.getMessage()));
+			//Without a log, the journal will be written completely on the next save
+			vector.log = new JournalChangeLog(vector.journal);
+			changed = true;
+		}
 		vector.view = new JournalView(vector.journal, prefNode);
 		JournalChangeFlag flag = new JournalChangeFlag();
 		vector.journal.addJournalListener(flag);
 		vector.flag = flag;
 		//Any converted journal is considered changed and unsaved
-		if(converted) vector.flag.setChangeFlag(true);
+		if(changed) vector.flag.setChangeFlag(true);
 		addVector(vector);
-		logger.info(Fsfibu2StringTableMgr.getString(f == null? "fs.fibu2.MainFrame.openednewjournal" : "fs.fibu2.MainFrame.openedjournal",vector.journal.getName()));
+		logger.info(Fsfibu2StringTableMgr.getString(vector.file == null && !converted? "fs.fibu2.MainFrame.openednewjournal" : "fs.fibu2.MainFrame.openedjournal",vector.journal.getName()));
+		if(vector.log != null && vector.log.getUnmatchedLog() != null) offerUnmatchedLog(vector);
+	}
+	
+	/**
+	 * Tells the user that the change log of the journal did not match its file, but contained saved changes, and has been kept under another name. 
+	 * Offers to apply the changes in it to the journal. They are then considered unsaved.
+	 */
+	private void offerUnmatchedLog(JournalVector vector) {
+		File unmatched = vector.log.getUnmatchedLog();
+		int ans = JOptionPane.showConfirmDialog(this, Fsfibu2StringTableMgr.getString(sgroup + ".unmatchedlog", vector.file.getName(), unmatched.getName()), 
+				Fsfibu2StringTableMgr.getString(sgroup + ".unmatchedlogtitle"), JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+		if(ans != JOptionPane.YES_OPTION) return;
+		try {
+			vector.log.applyLog(unmatched);
+		}
+		catch(IOException e) {
+			String msg = Fsfibu2StringTableMgr.getString(sgroup + ".changelogerror", unmatched.getName(), e.getMessage());
+			logger.error(msg);
+			JOptionPane.showMessageDialog(this,msg,Fsfibu2StringTableMgr.getString("fs.fibu2.global.error"),JOptionPane.ERROR_MESSAGE);
+		}
 	}
 	
 	/**
@@ -455,66 +581,233 @@ public class MainFrame extends JFrame implements ResourceDependent {
 		JFileChooser chooser = new JFileChooser(".");
 		int ans = chooser.showOpenDialog(this);
 		if(ans == JFileChooser.APPROVE_OPTION) {
-			addJournal(chooser.getSelectedFile(), null);
+			addJournalInBackground(chooser.getSelectedFile(), null);
 		}
 	}
 	
 	/**
 	 * Saves the currently selected journal. If no journals are open, this call is ignored. If there is no file associated to the 
 	 * journal, a dialog is opened, which prompts the user to give a file name
+	 * @param inBackground If true, the journal is written in a background thread, while the progress is displayed in the status bar. The return
+	 * value then only indicates, whether saving has been started.
 	 * @return true, if the journal was successfully saved
 	 */
-	private boolean saveJournal() {
+	private boolean saveJournal(boolean inBackground) {
 		if(tabPane.getTabCount() == 0) return true;
 		JournalVector vector = journalsOpen.get(tabPane.getSelectedIndex());
 		//If there is an associated file, just save to it
 		if(vector.file != null) {
-			DefaultDocument doc = new DefaultDocument();
-			try {
-				doc.setRootElement(vector.journal.getConfiguration());
-				XMLToolbox.saveXML(doc, vector.file.getAbsolutePath());
-				vector.flag.setChangeFlag(false);
-				updateTitleAndButtons();
-				return true;
-			} catch (Exception e) {
-				String msg = Fsfibu2StringTableMgr.getString("fs.fibu2.MainFrame.cannotsave");
-				logger.error(msg);
-				JOptionPane.showMessageDialog(this,msg,Fsfibu2StringTableMgr.getString("fs.fibu2.global.error"),JOptionPane.ERROR_MESSAGE);
-				return false;
-			}
+			return saveJournalTo(vector, vector.file, inBackground);
 		}
 		//Otherwise prompt the user to open a dialog
-		else return saveJournalAs();
+		else return saveJournalAs(inBackground);
 	}
 
 	/**
 	 * Prompts the user to enter a filename and tries to save the currently selected journal to the selected file. If no journals are open, this call is ignored. 
+	 * @param inBackground If true, the journal is written in a background thread (see {@link #saveJournal(boolean)})
 	 * @return true, if the journal was successfully saved
 	 */
-	private boolean saveJournalAs() {
+	private boolean saveJournalAs(boolean inBackground) {
 		if(tabPane.getTabCount() == 0) return true;
 		JournalVector vector = journalsOpen.get(tabPane.getSelectedIndex());
 		JFileChooser chooser = new JFileChooser();
 		chooser.addChoosableFileFilter(new FileNameExtensionFilter(Fsfibu2StringTableMgr.getString("fs.fibu2.global.xmldescription"),"xml"));
 		int ans = chooser.showSaveDialog(this);
 		if(ans == JFileChooser.APPROVE_OPTION) {
-			File f = chooser.getSelectedFile();
-			DefaultDocument doc = new DefaultDocument();
-			try {
-				doc.setRootElement(vector.journal.getConfiguration());
-				XMLToolbox.saveXML(doc, f.getAbsolutePath());
-				vector.file = f;
+			return saveJournalTo(vector, chooser.getSelectedFile(), inBackground);
+		}
+		else return false;
+	}
+	
+	/**
+	 * Saves the journal of the given vector to f. If f is the file of the journal's change log, all changes are already logged, so they only have to be
+	 * committed. If the log has become too large or f is another file, the journal is written to f using a {@link JournalWriter} obtained from the log.
+	 * Since the writer takes a snapshot of the journal, the change flag is reset immediately (so any changes made while writing in the background are
+	 * flagged again). If saving fails, the flag is set again. If f is a binary journal file, the journal is written in the binary format instead (never
+	 * in the background).
+	 * @return true, if the journal was successfully saved (or, if inBackground is true, saving has been started)
+	 */
+	private boolean saveJournalTo(final JournalVector vector, final File f, boolean inBackground) {
+		//Make sure an older snapshot does not overwrite this one
+		waitForWriter(vector);
+		//Keep the format of binary files
+		try {
+			if(f.exists() && BinaryJournalFormat.isBinaryJournal(f)) {
 				vector.flag.setChangeFlag(false);
+				BinaryJournalFormat.write(vector.journal, f);
+				//Binary journals have no change log. Changes not saved to the old file are dropped from its log
+				if(vector.log != null) vector.log.discard();
+				vector.log = null;
+				vector.file = f;
 				updateTitleAndButtons();
 				return true;
+			}
+		}
+		catch(Exception e) {
+			savingFailed(vector, f, e);
+			return false;
+		}
+		//If the changes are logged for this file, we only need to commit them
+		final boolean committed = vector.log != null && vector.log.commit(f);
+		if(committed) {
+			vector.flag.setChangeFlag(false);
+			vector.file = f;
+			updateTitleAndButtons();
+			//Compact the log in the background, if necessary. Otherwise it is compacted, when the journal is closed or the application is idle
+			if(!vector.log.needsCompaction()) {
+				compactionTimer.restart();
+				return true;
+			}
+			inBackground = true;
+		}
+		final JournalWriter writer;
+		try {
+			writer = vector.log != null? vector.log.beginWrite(f) : new JournalWriter(vector.journal, f);
+		}
+		catch(IOException e) {
+			if(!committed) savingFailed(vector, f, e);
+			return committed;
+		}
+		vector.flag.setChangeFlag(false);
+		if(!inBackground) {
+			try {
+				writer.write();
+				if(vector.log != null) vector.log.endWrite(writer, true);
 			} catch (Exception e) {
-				String msg = Fsfibu2StringTableMgr.getString("fs.fibu2.MainFrame.cannotsave");
-				logger.error(msg);
-				JOptionPane.showMessageDialog(this,msg,Fsfibu2StringTableMgr.getString("fs.fibu2.global.error"),JOptionPane.ERROR_MESSAGE);
+				if(vector.log != null) vector.log.endWrite(writer, false);
+				savingFailed(vector, f, e);
 				return false;
 			}
+			vector.file = f;
+			updateTitleAndButtons();
+			return true;
 		}
-		else return false;
+		writer.addProgressListener(new ProgressListener<Object, Object>() {
+			@Override
+			public void taskBegins(SwingWorker<Object, Object> source) {
+				progressBar.setValue(0);
+				progressBar.setVisible(true);
+			}
+			@Override
+			public void progressed(SwingWorker<Object, Object> source) {
+				progressBar.setValue(source.getProgress());
+			}
+			@Override
+			public void taskFinished(SwingWorker<Object, Object> source) {
+				progressBar.setVisible(false);
+				try {
+					source.get();
+					if(vector.log != null) vector.log.endWrite(writer, true);
+					vector.file = f;
+					updateTitleAndButtons();
+				} catch (Exception e) {
+					if(vector.log != null) vector.log.endWrite(writer, false);
+					Throwable cause = e.getCause() == null? e : e.getCause();
+					//If the changes have been committed to the log, they are saved anyway
+					if(committed) logger.warn(Fsfibu2StringTableMgr.getString(sgroup + ".cannotcompact", f.getName(), cause.getMessage()));
+					else savingFailed(vector, f, cause);
+				}
+			}
+		});
+		vector.writer = writer;
+		writer.start();
+		return true;
+	}
+	
+	/**
+	 * Flags the journal as changed and notifies the user that it could not be saved to f
+	 */
+	private void savingFailed(JournalVector vector, File f, Throwable e) {
+		vector.flag.setChangeFlag(true);
+		updateTitleAndButtons();
+		String msg = Fsfibu2StringTableMgr.getString("fs.fibu2.MainFrame.cannotsave", f.getName(), e.getMessage());
+		logger.error(msg);
+		JOptionPane.showMessageDialog(this,msg,Fsfibu2StringTableMgr.getString("fs.fibu2.global.error"),JOptionPane.ERROR_MESSAGE);
+	}
+	
+	/**
+	 * Blocks until the background writer of the given vector (if there is one) has finished writing and hands the result to the change log
+	 */
+	private void waitForWriter(JournalVector vector) {
+		if(vector.writer == null) return;
+		boolean success = false;
+		try {
+			vector.writer.get();
+			success = true;
+		}
+		catch(Exception e) {
+			//Failure is reported by the writer's listener
+		}
+		if(vector.log != null) vector.log.endWrite(vector.writer, success);
+		vector.writer = null;
+	}
+	
+	/**
+	 * Closes the change log of the given vector after all writers have finished. All saved changes in the log are then written to the journal
+	 * file (see {@link JournalChangeLog#compact()}), so the file does not depend on its log anymore. Errors are only logged, since the changes are
+	 * still saved in the log.
+	 * @param discard Whether uncommitted changes should be removed from the log (i.e. the user does not want to save them)
+	 */
+	private void closeLog(JournalVector vector, boolean discard) {
+		waitForWriter(vector);
+		if(vector.log == null) return;
+		try {
+			if(discard) {
+				vector.log.discard();
+				//The journal contains the discarded changes, so it is read again from the file
+				if(vector.file != null) JournalChangeLog.compactFile(vector.file);
+			}
+			else vector.log.compact();
+		}
+		catch(Exception e) {
+			logger.warn(Fsfibu2StringTableMgr.getString(sgroup + ".cannotcompact", vector.file.getName(), e.getMessage()));
+		}
+		finally {
+			if(!discard) vector.log.close();
+		}
+	}
+	
+	/**
+	 * Writes the journal of the given vector to its file in the background, if its change log contains saved changes and the journal has not
+	 * been changed since it was saved. Errors are only logged, since the changes are still saved in the log.
+	 */
+	private void compactInBackground(JournalVector vector) {
+		if(vector.log == null || vector.file == null || (vector.writer != null && !vector.writer.isDone()) || 
+				vector.flag.hasBeenChanged() || vector.log.hasUncommittedChanges() || !vector.log.hasCommittedChanges()) return;
+		final JournalChangeLog log = vector.log;
+		final File f = vector.file;
+		final JournalWriter writer;
+		try {
+			writer = log.beginWrite(f);
+		}
+		catch(IOException e) {
+			logger.warn(Fsfibu2StringTableMgr.getString(sgroup + ".cannotcompact", f.getName(), e.getMessage()));
+			return;
+		}
+		writer.addProgressListener(new ProgressListener<Object, Object>() {
+			@Override
+			public void taskBegins(SwingWorker<Object, Object> source) {
+				//Ignored
+			}
+			@Override
+			public void progressed(SwingWorker<Object, Object> source) {
+				//Ignored
+			}
+			@Override
+			public void taskFinished(SwingWorker<Object, Object> source) {
+				try {
+					source.get();
+					log.endWrite(writer, true);
+				} catch (Exception e) {
+					log.endWrite(writer, false);
+					Throwable cause = e.getCause() == null? e : e.getCause();
+					logger.warn(Fsfibu2StringTableMgr.getString(sgroup + ".cannotcompact", f.getName(), cause.getMessage()));
+				}
+			}
+		});
+		vector.writer = writer;
+		writer.start();
 	}
 	
 	/**
@@ -531,9 +824,10 @@ public class MainFrame extends JFrame implements ResourceDependent {
 			switch(ans) {
 			case JOptionPane.CANCEL_OPTION: return;
 			case JOptionPane.YES_OPTION: 
-				saveJournal();
+				saveJournal(false);
 			}
 		}
+		closeLog(vector, vector.flag.hasBeenChanged());
 		int index = tabPane.getSelectedIndex();
 		journalsOpen.remove(index);
 		tabPane.remove(index);
@@ -582,12 +876,14 @@ public class MainFrame extends JFrame implements ResourceDependent {
 				for(int i = 0; i < journalsOpen.size(); i++) {
 					tabPane.setSelectedIndex(i);
 					if(!journalsOpen.get(i).flag.hasBeenChanged()) continue;
-					boolean success = saveJournal();
+					boolean success = saveJournal(false);
 					//Abort, if any journal wasn't saved successfully
 					if(!success) return;
 				}
 			}
 		}
+		//Wait for journals still being written in the background. Changes which the user didn't want to save are removed from the logs
+		for(JournalVector v : journalsOpen) closeLog(v, v.flag.hasBeenChanged());
 		//Now save preferences
 		logger.info(Fsfibu2StringTableMgr.getString("fs.fibu2.MainFrame.savingprefs"));
 		optionManager.saveLanguage();
@@ -658,6 +954,8 @@ public class MainFrame extends JFrame implements ResourceDependent {
 		public File file;
 		public JournalView view;
 		public JournalChangeFlag flag;
+		public JournalWriter writer; //The last writer started in the background (might be null)
+		public JournalChangeLog log; //The change log of the journal. Null for binary journals
 	}
 
 }
@@ -10,9 +10,11 @@ import java.util.Vector;
 import java.util.prefs.Preferences;
 
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
 
+import fs.fibu2.data.ParallelCalculation;
 import fs.fibu2.lang.Fsfibu2StringTableMgr;
 import fs.fibu2.resource.Fsfibu2DefaultReference;
 import fs.gui.FrameworkDialog;
@@ -46,16 +48,25 @@ public class OptionManager {
 	 */
 	private String languageID = "en";
 	
+	/**
+	 * Whether long calculations are distributed over all processors (see {@link ParallelCalculation})
+	 */
+	private boolean parallel = ParallelCalculation.isEnabled();
+	
 	// CONSTRUCTOR ********************
 	// ********************************
 	
 	/**
 	 * Constructs an option manager. If a node is specified, all values which can be found in a subnode 'options'
 	 * in node, are read out. The manager does not 'apply' any options, they have to be obtained from other parts of
-	 * the application
+	 * the application. The only exception is the parallel calculation option, which is applied to {@link ParallelCalculation} directly
 	 */
 	public OptionManager(Preferences node) {
 		languageID = PolyglotStringTable.getGlobalLanguageID();
+		if(node != null) {
+			parallel = node.node("options").getBoolean("parallel", parallel);
+		}
+		ParallelCalculation.setEnabled(parallel);
 	}
 	
 	// CONTROL METHODS ****************
@@ -64,7 +75,7 @@ public class OptionManager {
 	 * Inserts the application preferences into a subnode 'options' in the given node
 	 */
 	public void insertPreferences(Preferences node) {
-		//So far: nothing :-)
+		node.node("options").putBoolean("parallel", parallel);
 	}
 	
 	/**
@@ -120,6 +131,8 @@ public class OptionManager {
 		
 		private JComboBox languageBox = new JComboBox();
 		
+		private JCheckBox parallelBox = new JCheckBox(Fsfibu2StringTableMgr.getString(sgroup + ".parallel"));
+		
 		// LISTENERS **************************
 		// ************************************
 		
@@ -128,6 +141,8 @@ public class OptionManager {
 			public void actionPerformed(ActionEvent e) {
 				Language l = (Language)languageBox.getSelectedItem();
 				OptionManager.this.languageID = l.id;
+				OptionManager.this.parallel = parallelBox.isSelected();
+				ParallelCalculation.setEnabled(parallelBox.isSelected());
 				dispose();
 			}
 		};
@@ -161,21 +176,25 @@ public class OptionManager {
 			
 			JLabel languageLabel = new JLabel(Fsfibu2StringTableMgr.getString(sgroup + ".language"));
 			
+			parallelBox.setSelected(parallel);
+			
 			//Init layout
 			GridBagLayout gbl = new GridBagLayout();
 			setLayout(gbl);
 			
 			GridBagConstraints gcLanguageLabel = GUIToolbox.buildConstraints(0, 0, 1, 1);
 			GridBagConstraints gcLanguage = GUIToolbox.buildConstraints(1, 0, 2, 1);
+			GridBagConstraints gcParallel = GUIToolbox.buildConstraints(0, 1, 3, 1);
 			GridBagConstraints gcOK = GUIToolbox.buildConstraints(1, 2, 1, 1);
 			GridBagConstraints gcCancel = GUIToolbox.buildConstraints(2, 2, 1, 1);
 			
-			for(GridBagConstraints gc : Arrays.asList(gcLanguage, gcLanguageLabel, gcOK, gcCancel)) {
+			for(GridBagConstraints gc : Arrays.asList(gcLanguage, gcLanguageLabel, gcParallel, gcOK, gcCancel)) {
 				gc.insets = new Insets(5,5,5,5);
 			}
 			
 			gbl.setConstraints(languageLabel, gcLanguageLabel);
 			gbl.setConstraints(languageBox, gcLanguage);
+			gbl.setConstraints(parallelBox, gcParallel);
 			gbl.setConstraints(okButton, gcOK);
 			gbl.setConstraints(cancelButton, gcCancel);
 			
@@ -183,6 +202,7 @@ public class OptionManager {
 			cancelButton.addActionListener(cancelListener);
 			
 			add(languageLabel); add(languageBox);
+			add(parallelBox);
 			add(okButton); add(cancelButton);
 			
 			pack();
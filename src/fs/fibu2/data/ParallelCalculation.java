@@ -0,0 +1,147 @@
+package fs.fibu2.data;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class controls whether long calculations on journals (filtering and summing up entries) are distributed over all processors. A calculation
+ * is expressed as a {@link Reduction}: The sequence of entries is split into chunks, each chunk is reduced to a partial result and the partial
+ * results are merged. If parallel calculation is enabled, the chunks are processed concurrently on a {@link ForkJoinPool}, otherwise the whole sequence
+ * is reduced at once in the calling thread. <br>
+ * Whether parallel calculation is enabled is an application option (see {@link fs.fibu2.application.OptionManager}). Note that filters are then used
+ * by several threads at the same time, which is already the case when several views recalculate at the same time.
+ * @author Simon Hampe
+ *
+ */
+public final class ParallelCalculation {
+
+	/**
+	 * Chunks are never smaller than this, since the overhead would outweigh the benefit
+	 */
+	public final static int minimalChunkSize = 2048;
+
+	private static volatile boolean enabled = Runtime.getRuntime().availableProcessors() > 1;
+
+	private static ForkJoinPool pool = null;
+
+	//The task each thread is computing reductions for
+	private static ThreadLocal<Future<?>> currentTask = new ThreadLocal<Future<?>>();
+
+	private ParallelCalculation() {
+		//Only static methods
+	}
+
+	// OPTIONS ********************************
+	// ****************************************
+
+	/**
+	 * @return Whether reductions are computed in parallel. The default is true, if there is more than one processor.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Sets whether reductions should be computed in parallel
+	 */
+	public static void setEnabled(boolean enabled) {
+		ParallelCalculation.enabled = enabled;
+	}
+
+	/**
+	 * Sets the task the current thread is computing reductions for (e.g. a {@link javax.swing.SwingWorker}). When this task is cancelled, all reductions
+	 * computed by this thread stop (see {@link Reduction#checkpoint()}).
+	 * @param task The task or null, if reductions of this thread should not be cancelled
+	 */
+	public static void setCurrentTask(Future<?> task) {
+		if(task == null) currentTask.remove();
+		else currentTask.set(task);
+	}
+
+	private static synchronized ForkJoinPool getPool() {
+		if(pool == null) pool = new ForkJoinPool();
+		return pool;
+	}
+
+	// REDUCTION ******************************
+	// ****************************************
+
+	/**
+	 * A reduction computes a result from the elements 0,...,size-1 of some sequence. Implementations define how to reduce a range of elements
+	 * and how to merge the results of two adjacent ranges. The merge has to be associative, i.e. the result must not depend on how the
+	 * sequence is split. The ranges are reduced by several threads, so reduce should only read shared data. <br>
+	 * A reduction is cancelled, if the task set for the thread calling {@link #compute(int)} (see {@link ParallelCalculation#setCurrentTask(Future)})
+	 * is cancelled. Then no further ranges are reduced and long reductions should call {@link #checkpoint()} regularly.
+	 * @param <R> The type of the result
+	 */
+	public static abstract class Reduction<R> {
+
+		//The task of the thread which called compute()
+		private volatile Future<?> task = null;
+
+		/**
+		 * @return The result for the elements from (inclusive) to to (exclusive)
+		 */
+		protected abstract R reduce(int from, int to);
+
+		/**
+		 * @param left The result of a range
+		 * @param right The result of the range directly after it
+		 * @return The result of both ranges. The arguments may be modified and returned
+		 */
+		protected abstract R merge(R left, R right);
+
+		/**
+		 * @return The result for the elements 0,...,size-1
+		 * @throws CancellationException - If the task of the calling thread has been cancelled
+		 */
+		public final R compute(int size) {
+			task = currentTask.get();
+			if(!enabled || size < 2 * minimalChunkSize) return reduce(0, size);
+			ForkJoinPool p = getPool();
+			int chunkSize = Math.max(minimalChunkSize, size / (4 * p.getParallelism()));
+			return p.invoke(new ReductionTask(0, size, chunkSize));
+		}
+
+		/**
+		 * A cancellation checkpoint for reduce(). Ranges are reduced by the threads of a {@link ForkJoinPool}, which know nothing about the
+		 * thread which called {@link #compute(int)} (whose interrupt status is even cleared while it waits for the pool), so the task of the latter is checked.
+		 * @throws CancellationException - If the task of the thread which called compute() has been cancelled
+		 */
+		protected final void checkpoint() {
+			Future<?> t = task;
+			if(t != null && t.isCancelled()) throw new CancellationException();
+		}
+
+		/**
+		 * Splits its range in halves until it is not larger than the chunk size
+		 */
+		private class ReductionTask extends RecursiveTask<R> {
+			private static final long serialVersionUID = 1L;
+
+			private int from;
+			private int to;
+			private int chunkSize;
+
+			public ReductionTask(int from, int to, int chunkSize) {
+				this.from = from;
+				this.to = to;
+				this.chunkSize = chunkSize;
+			}
+
+			@Override
+			protected R compute() {
+				checkpoint();
+				if(to - from <= chunkSize) return reduce(from, to);
+				int middle = (from + to) >>> 1;
+				ReductionTask left = new ReductionTask(from, middle, chunkSize);
+				left.fork();
+				R right = new ReductionTask(middle, to, chunkSize).compute();
+				return merge(left.join(), right);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+package fs.fibu2.data.format;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * This class replaces files safely: The new content is written to a temporary file in the same directory and forced to the disk. The temporary
+ * file is then renamed to the actual file (atomically, if the file system supports this). So the old file is never left in a partially written
+ * state. It is used by all writers of journal data ({@link JournalWriter}, {@link BinaryJournalFormat} and {@link JournalChangeLog}).
+ * @author Simon Hampe
+ *
+ */
+final class AtomicFileWriter {
+
+	/**
+	 * The content of a file written by {@link AtomicFileWriter#write(File, Content)}
+	 */
+	public interface Content {
+		/**
+		 * Writes the complete content to the given stream. Any buffered data must be flushed, but the stream must not be closed.
+		 */
+		public void writeTo(FileOutputStream out) throws IOException;
+	}
+
+	private AtomicFileWriter() {
+		//Only static methods
+	}
+
+	/**
+	 * Writes the content to a temporary file and replaces f by it.
+	 * @throws IOException - If any I/O error occurs. f is then left unchanged and the temporary file is deleted.
+	 */
+	public static void write(File f, Content content) throws IOException {
+		File dir = f.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(".~" + f.getName(), ".tmp", dir);
+		boolean success = false;
+		try {
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				content.writeTo(out);
+				//Make sure the data is actually on the disk before replacing the old file
+				out.getChannel().force(true);
+			}
+			finally {
+				out.close();
+			}
+			try {
+				Files.move(temp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch(AtomicMoveNotSupportedException ae) {
+				Files.move(temp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			success = true;
+		}
+		finally {
+			if(!success) temp.delete();
+		}
+	}
+
+}
@@ -0,0 +1,421 @@
+package fs.fibu2.data.format;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Calendar;
+import java.util.Currency;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Vector;
+
+import fs.fibu2.data.model.Account;
+import fs.fibu2.data.model.AccountLoader;
+import fs.fibu2.data.model.Category;
+import fs.fibu2.data.model.Entry;
+import fs.fibu2.data.model.Journal;
+import fs.fibu2.data.model.ReadingPoint;
+
+/**
+ * This class reads and writes journals in the binary fsfibu2 format. This format is much more compact than the xml format and can be
+ * read without any parsing: <br>
+ * - All strings (names, descriptions, account IDs, currency codes, category tails, account information) are stored once in a string dictionary
+ * and referred to by their index. <br>
+ * - Categories are stored once as sequences of dictionary indices and referred to by their index. <br>
+ * - The entries are stored column by column in fixed-width columns: date (as int yyyyMMdd), value (float), account, category, name, currency, additional
+ * information (dictionary/category indices) and the offset of the account information in a separate section. <br>
+ * - A footer at the end of the file contains the offsets of all sections, so a reader can map the file via {@link FileChannel#map(java.nio.channels.FileChannel.MapMode, long, long)}
+ * and access each section directly. <br>
+ * The file starts with the 4-byte magic number {@link #magic} and the format version, and ends with the offset of the footer and the magic number.
+ * All numbers are big-endian.
+ * @author Simon Hampe
+ *
+ */
+public final class BinaryJournalFormat {
+
+	/**
+	 * The magic number at the beginning and the end of each binary journal file ('FF2B')
+	 */
+	public final static int magic = 0x46463242;
+
+	/**
+	 * The current format version
+	 */
+	public final static int version = 1;
+
+	//The number of sections listed in the footer
+	private final static int sectionCount = 5;
+	private final static int DICTIONARY = 0;
+	private final static int JOURNAL = 1;
+	private final static int CATEGORIES = 2;
+	private final static int ENTRIES = 3;
+	private final static int ACCOUNTINFO = 4;
+
+	//The number of int columns in the entry section (apart from the value column)
+	private final static int intColumns = 7;
+
+	private BinaryJournalFormat() {
+		//Only static methods
+	}
+
+	// RECOGNITION ***********************************
+	// ***********************************************
+
+	/**
+	 * @return true, if the given file starts with the magic number of the binary format. Only the first 4 bytes are read.
+	 * @throws IOException - If the file cannot be read
+	 */
+	public static boolean isBinaryJournal(File f) throws IOException {
+		if(f == null || f.length() < 4) return false;
+		FileInputStream in = new FileInputStream(f);
+		try {
+			byte[] b = new byte[4];
+			int read = 0;
+			while(read < 4) {
+				int r = in.read(b, read, 4 - read);
+				if(r < 0) return false;
+				read += r;
+			}
+			return ByteBuffer.wrap(b).getInt() == magic;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	// WRITING ***************************************
+	// ***********************************************
+
+	/**
+	 * Writes the current state of the journal to f. As for {@link JournalWriter}, the data is written to a temporary file in the same directory first, which
+	 * then replaces f.
+	 * @throws IOException - If any I/O error occurs. f is then left unchanged.
+	 */
+	public static void write(Journal j, File f) throws IOException {
+		if(j == null || f == null) throw new NullPointerException("Cannot write null journal or to null file");
+		final ByteBuffer data;
+		synchronized (j) {
+			data = encode(j);
+		}
+		AtomicFileWriter.write(f, new AtomicFileWriter.Content() {
+			@Override
+			public void writeTo(FileOutputStream out) throws IOException {
+				FileChannel channel = out.getChannel();
+				while(data.hasRemaining()) channel.write(data);
+			}
+		});
+	}
+
+	/**
+	 * @return A buffer containing the complete binary representation of j, ready to be written (i.e. flipped)
+	 */
+	private static ByteBuffer encode(Journal j) {
+		Dictionary dict = new Dictionary();
+		Vector<Entry> entries = new Vector<Entry>(j.getEntryView());
+		int n = entries.size();
+
+		//Journal section and entry columns. They only contain indices, so the dictionary is filled on the way
+		HashMap<Account, Float> startValues = j.getStartValues();
+		Vector<ReadingPoint> readings = new Vector<ReadingPoint>(j.getReadingPoints());
+		ByteBuffer journal = ByteBuffer.allocate(4 * (4 + 2 * startValues.size() + 2 * readings.size()));
+		journal.putInt(dict.index(j.getName()));
+		journal.putInt(dict.index(j.getDescription()));
+		journal.putInt(startValues.size());
+		for(Account a : startValues.keySet()) {
+			journal.putInt(dict.index(a.getID()));
+			journal.putFloat(startValues.get(a));
+		}
+		journal.putInt(readings.size());
+		for(ReadingPoint rp : readings) {
+			journal.putInt(dict.index(rp.getName()));
+			journal.putInt(encodeDate(rp.getReadingDay()));
+		}
+
+		HashMap<Category, Integer> categoryIndices = new HashMap<Category, Integer>();
+		Vector<int[]> categories = new Vector<int[]>();
+		int categoryInts = 1;
+		int[][] columns = new int[intColumns][n];
+		float[] values = new float[n];
+		Vector<int[]> accountInfo = new Vector<int[]>();
+		int accountInfoInts = 0;
+		for(int i = 0; i < n; i++) {
+			Entry e = entries.get(i);
+			Integer c = categoryIndices.get(e.getCategory());
+			if(c == null) {
+				Vector<String> tails = e.getCategory().getOrderedList();
+				int[] seq = new int[tails.size()];
+				for(int k = 0; k < seq.length; k++) seq[k] = dict.index(tails.get(k));
+				c = categories.size();
+				categories.add(seq);
+				categoryIndices.put(e.getCategory(), c);
+				categoryInts += 1 + seq.length;
+			}
+			HashMap<String, String> info = e.getAccountInformation();
+			int[] infoIndices = new int[2 * info.size()];
+			int k = 0;
+			for(String key : info.keySet()) {
+				infoIndices[k++] = dict.index(key);
+				infoIndices[k++] = dict.index(info.get(key));
+			}
+			columns[0][i] = EpochDay.toYearMonthDay(e.getEpochDay());
+			columns[1][i] = dict.index(e.getAccount().getID());
+			columns[2][i] = c;
+			columns[3][i] = dict.index(e.getName());
+			columns[4][i] = dict.index(e.getCurrency().getCurrencyCode());
+			columns[5][i] = dict.index(e.getAdditionalInformation());
+			columns[6][i] = accountInfoInts;
+			values[i] = e.getValue();
+			accountInfo.add(infoIndices);
+			accountInfoInts += 1 + infoIndices.length;
+		}
+
+		//Now put everything together
+		Vector<byte[]> strings = dict.getEncodedStrings();
+		int dictionaryBytes = 4;
+		for(byte[] b : strings) dictionaryBytes += 4 + b.length;
+		int size = 8 + dictionaryBytes + journal.capacity() + 4 * categoryInts + 4 + 4 * (intColumns + 1) * n + 4 * accountInfoInts
+					+ 8 * sectionCount + 4 + 8;
+		ByteBuffer b = ByteBuffer.allocate(size);
+		int[] offsets = new int[sectionCount];
+		b.putInt(magic);
+		b.putInt(version);
+
+		offsets[DICTIONARY] = b.position();
+		b.putInt(strings.size());
+		for(byte[] s : strings) {
+			b.putInt(s.length);
+			b.put(s);
+		}
+
+		offsets[JOURNAL] = b.position();
+		journal.flip();
+		b.put(journal);
+
+		offsets[CATEGORIES] = b.position();
+		b.putInt(categories.size());
+		for(int[] seq : categories) {
+			b.putInt(seq.length);
+			for(int s : seq) b.putInt(s);
+		}
+
+		offsets[ENTRIES] = b.position();
+		b.putInt(n);
+		for(int i = 0; i < n; i++) b.putInt(columns[0][i]);
+		for(int i = 0; i < n; i++) b.putFloat(values[i]);
+		for(int col = 1; col < intColumns; col++) {
+			for(int i = 0; i < n; i++) b.putInt(columns[col][i]);
+		}
+
+		offsets[ACCOUNTINFO] = b.position();
+		for(int[] info : accountInfo) {
+			b.putInt(info.length / 2);
+			for(int s : info) b.putInt(s);
+		}
+
+		//Footer: The section offsets and lengths
+		int footer = b.position();
+		for(int s = 0; s < sectionCount; s++) {
+			int end = s + 1 < sectionCount? offsets[s+1] : footer;
+			b.putInt(offsets[s]);
+			b.putInt(end - offsets[s]);
+		}
+		b.putInt(n);
+		b.putInt(footer);
+		b.putInt(magic);
+		b.flip();
+		return b;
+	}
+
+	// READING ***************************************
+	// ***********************************************
+
+	/**
+	 * Reads a journal from the given binary file. The file is mapped into memory, so only the strings and the resulting objects are copied.
+	 * Note that all entries are created while reading (since a {@link Journal} holds its entries as objects), so reading avoids parsing,
+	 * but its cost still grows with the size of the journal, not with the part of it used by the views.
+	 * @throws IOException - If the file cannot be read or is not a valid binary journal file
+	 */
+	public static Journal read(File f) throws IOException {
+		if(f == null) throw new NullPointerException("Cannot read journal from null file");
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return decode(buffer, f.getName());
+		}
+		catch(RuntimeException e) {
+			//Buffer under- or overflows, invalid indices etc.
+			throw new IOException("File " + f.getName() + " is not a valid binary journal: " + e.getMessage());
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Creates a journal from the given buffer
+	 */
+	private static Journal decode(ByteBuffer b, String fileName) throws IOException {
+		int size = b.limit();
+		if(size < 16 || b.getInt(0) != magic || b.getInt(size - 4) != magic) {
+			throw new IOException("File " + fileName + " is not a binary journal");
+		}
+		if(b.getInt(4) > version) throw new IOException("File " + fileName + " has an unsupported format version: " + b.getInt(4));
+		int footer = b.getInt(size - 8);
+		int[] offsets = new int[sectionCount];
+		for(int s = 0; s < sectionCount; s++) offsets[s] = b.getInt(footer + 8 * s);
+		int n = b.getInt(footer + 8 * sectionCount);
+
+		//Dictionary
+		b.position(offsets[DICTIONARY]);
+		String[] dict = new String[b.getInt()];
+		byte[] bytes = new byte[0];
+		for(int i = 0; i < dict.length; i++) {
+			int length = b.getInt();
+			if(bytes.length < length) bytes = new byte[length];
+			b.get(bytes, 0, length);
+			dict[i] = new String(bytes, 0, length, "UTF-8");
+		}
+
+		//Journal data
+		b.position(offsets[JOURNAL]);
+		String name = dict[b.getInt()];
+		String description = dict[b.getInt()];
+		HashMap<Account, Float> startValues = new HashMap<Account, Float>();
+		int startValueCount = b.getInt();
+		for(int i = 0; i < startValueCount; i++) {
+			startValues.put(getAccount(dict[b.getInt()]), b.getFloat());
+		}
+		Vector<ReadingPoint> readings = new Vector<ReadingPoint>();
+		int readingCount = b.getInt();
+		for(int i = 0; i < readingCount; i++) {
+			String rpname = dict[b.getInt()];
+			readings.add(new ReadingPoint(rpname, decodeDate(b.getInt())));
+		}
+
+		//Categories
+		b.position(offsets[CATEGORIES]);
+		Category[] categories = new Category[b.getInt()];
+		for(int i = 0; i < categories.length; i++) {
+			Vector<String> tails = new Vector<String>();
+			int length = b.getInt();
+			for(int k = 0; k < length; k++) tails.add(dict[b.getInt()]);
+			categories[i] = Category.getCategory(tails);
+		}
+
+		//Entries: Views on the columns
+		b.position(offsets[ENTRIES] + 4);
+		IntBuffer dates = b.slice().asIntBuffer();
+		b.position(offsets[ENTRIES] + 4 + 4 * n);
+		FloatBuffer values = b.slice().asFloatBuffer();
+		b.position(offsets[ENTRIES] + 4 + 8 * n);
+		IntBuffer columns = b.slice().asIntBuffer();
+		b.position(offsets[ACCOUNTINFO]);
+		IntBuffer info = b.slice().asIntBuffer();
+
+		HashMap<String, Currency> currencies = new HashMap<String, Currency>();
+		HashMap<Integer, GregorianCalendar> days = new HashMap<Integer, GregorianCalendar>();
+		Vector<Entry> entries = new Vector<Entry>(n);
+		for(int i = 0; i < n; i++) {
+			String account = dict[columns.get(i)];
+			getAccount(account);
+			String code = dict[columns.get(3*n + i)];
+			Currency currency = currencies.get(code);
+			if(currency == null) {
+				currency = Currency.getInstance(code);
+				currencies.put(code, currency);
+			}
+			int day = dates.get(i);
+			GregorianCalendar date = days.get(day);
+			if(date == null) {
+				date = decodeDate(day);
+				days.put(day, date);
+			}
+			HashMap<String, String> accountInformation = new HashMap<String, String>();
+			int infoOffset = columns.get(5*n + i);
+			int infoCount = info.get(infoOffset);
+			for(int k = 0; k < infoCount; k++) {
+				accountInformation.put(dict[info.get(infoOffset + 1 + 2*k)], dict[info.get(infoOffset + 2 + 2*k)]);
+			}
+			//The entry clones the date, so we can share it
+			entries.add(new Entry(dict[columns.get(2*n + i)], values.get(i), currency, date, categories[columns.get(n + i)],
+					account, accountInformation, dict[columns.get(4*n + i)]));
+		}
+
+		Journal j = new Journal();
+		j.configure(name, description, startValues, readings, entries);
+		return j;
+	}
+
+	/**
+	 * @return The account with the given id
+	 * @throws IOException - If the account is unknown
+	 */
+	private static Account getAccount(String id) throws IOException {
+		try {
+			return AccountLoader.getAccount(id);
+		}
+		catch(IllegalArgumentException e) {
+			throw new IOException("Account ID " + id + " unknown.");
+		}
+	}
+
+	// DATES *****************************************
+	// ***********************************************
+
+	/**
+	 * @return The date as int yyyyMMdd
+	 */
+	static int encodeDate(GregorianCalendar c) {
+		return 10000 * c.get(Calendar.YEAR) + 100 * (c.get(Calendar.MONTH) + 1) + c.get(Calendar.DAY_OF_MONTH);
+	}
+
+	/**
+	 * @return The date represented by the int yyyyMMdd
+	 */
+	static GregorianCalendar decodeDate(int d) {
+		return new GregorianCalendar(d / 10000, (d / 100) % 100 - 1, d % 100);
+	}
+
+	// DICTIONARY ************************************
+	// ***********************************************
+
+	/**
+	 * Assigns consecutive indices to strings. Null is treated as the empty string
+	 */
+	private static class Dictionary {
+		private HashMap<String, Integer> indices = new HashMap<String, Integer>();
+		private Vector<String> strings = new Vector<String>();
+
+		public int index(String s) {
+			if(s == null) s = "";
+			Integer i = indices.get(s);
+			if(i == null) {
+				i = strings.size();
+				strings.add(s);
+				indices.put(s, i);
+			}
+			return i;
+		}
+
+		public Vector<byte[]> getEncodedStrings() {
+			Vector<byte[]> result = new Vector<byte[]>(strings.size());
+			try {
+				for(String s : strings) result.add(s.getBytes("UTF-8"));
+			}
+			catch(UnsupportedEncodingException e) {
+				//Will not happen, UTF-8 is always supported
+			}
+			return result;
+		}
+	}
+
+}
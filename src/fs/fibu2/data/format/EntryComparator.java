@@ -14,9 +14,6 @@ import fs.fibu2.data.model.Entry;
  */
 public class EntryComparator implements Comparator<Entry>{
 
-	//A private copy kept to save creation time
-	private final EntryDateComparator entryComparator = new EntryDateComparator();
-	
 	//If 0 is returned, when all fields are equal
 	private boolean allowNonStrictEquality = false;
 	
@@ -39,7 +36,7 @@ public class EntryComparator implements Comparator<Entry>{
 	 * least the order is irrelevant, we accept this small lack of well-definedness (in that case we would have o1 > o2 AND o2 > o1). <br>
 	 * If o1 is smaller than o2 is derived by comparing their fields in the following order (whenever for the first time a field of oi is greater than
 	 * the field of oj, we return oi > oj): <br>
-	 * - Date (ordered by {@link EntryDateComparator}) <br>
+	 * - Date (ordered by day, see {@link Entry#getEpochDay()}) <br>
 	 * - Name (ordered by the natural ordering on String) <br>
 	 * - Value (ordered by the natural ordering on float) <br>
 	 * - Category (ordered by the natural ordering on {@link Category} <br>
@@ -59,7 +56,7 @@ public class EntryComparator implements Comparator<Entry>{
 		if(o1 == null) return 1;
 		if(o2 == null) return -1;
 		
-		int cdate = entryComparator.compare(o1.getDate(), o2.getDate());
+		int cdate = EpochDay.compare(o1.getEpochDay(), o2.getEpochDay());
 		if(cdate != 0) return cdate;
 		
 		int cname = o1.getName().compareTo(o2.getName());
@@ -0,0 +1,78 @@
+package fs.fibu2.data.format;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * This class contains methods for the representation of days as epoch days, i.e. as the number of days since 1.1.1970 (negative for earlier days).
+ * Since an epoch day is just a primitive int, comparing two days is a single integer comparison, whereas comparing two {@link GregorianCalendar}s
+ * (as done by {@link EntryDateComparator}) requires computing several fields of both. Only dates of the gregorian calendar after the year 0 are supported.
+ * @author Simon Hampe
+ *
+ */
+public final class EpochDay {
+
+	private EpochDay() {
+		//Only static methods
+	}
+
+	/**
+	 * @return The epoch day of the given date. Only year, month and day of month are regarded.
+	 */
+	public static int valueOf(GregorianCalendar date) {
+		return valueOf(date.get(Calendar.YEAR), date.get(Calendar.MONTH) + 1, date.get(Calendar.DAY_OF_MONTH));
+	}
+
+	/**
+	 * @param month The month, starting with 1 for january (NOT as in {@link Calendar})
+	 * @return The epoch day of the given date
+	 */
+	public static int valueOf(int year, int month, int day) {
+		//Count years from march on, so the leap day is the last day of a year
+		int y = month <= 2? year - 1 : year;
+		int era = (y >= 0? y : y - 399) / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month > 2? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * @return The given day as an integer yyyyMMdd (e.g. 20090413 for 13.4.2009)
+	 */
+	public static int toYearMonthDay(int epochDay) {
+		int z = epochDay + 719468;
+		int era = (z >= 0? z : z - 146096) / 146097;
+		int dayOfEra = z - era * 146097;
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int mp = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		int month = mp < 10? mp + 3 : mp - 9;
+		int year = yearOfEra + era * 400 + (month <= 2? 1 : 0);
+		return 10000 * year + 100 * month + day;
+	}
+
+	/**
+	 * @return The year of the given day
+	 */
+	public static int getYear(int epochDay) {
+		return toYearMonthDay(epochDay) / 10000;
+	}
+
+	/**
+	 * @return A new calendar representing the beginning of the given day in the default time zone
+	 */
+	public static GregorianCalendar toCalendar(int epochDay) {
+		int ymd = toYearMonthDay(epochDay);
+		return new GregorianCalendar(ymd / 10000, (ymd / 100) % 100 - 1, ymd % 100);
+	}
+
+	/**
+	 * @return A negative integer, zero or a positive integer, if day1 is before, equal to or after day2
+	 */
+	public static int compare(int day1, int day2) {
+		return day1 < day2? -1 : (day1 > day2? 1 : 0);
+	}
+
+}
@@ -0,0 +1,919 @@
+package fs.fibu2.data.format;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Currency;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+
+import fs.fibu2.data.event.JournalListener;
+import fs.fibu2.data.model.Account;
+import fs.fibu2.data.model.AccountLoader;
+import fs.fibu2.data.model.Category;
+import fs.fibu2.data.model.Entry;
+import fs.fibu2.data.model.Journal;
+import fs.fibu2.data.model.ReadingPoint;
+import fs.xml.XMLWriteConfigurationException;
+
+/**
+ * A journal change log is an append-only sidecar file to a journal file (see {@link #getLogFile(File)}), which contains all changes made to the journal
+ * since the journal file was written. Each change reported to the log as a {@link JournalListener} is appended to the log and forced to the disk immediately,
+ * so no change is lost, even if the application crashes. Saving the journal to its file then only means appending a commit mark to the log via
+ * {@link #commit(File)}, which takes constant time. <br>
+ * When the log becomes too large (see {@link #needsCompaction()}), it should be compacted into the journal file: {@link #beginWrite(File)} takes a snapshot of the
+ * journal and returns a {@link JournalWriter} for it. All changes made while the writer is running are written to a second file. When the
+ * writer has finished, {@link #endWrite(JournalWriter, boolean)} replaces the log by this file. This mechanism is also used for writing the journal to a new file. <br>
+ * When a journal file is opened, {@link #open(Journal, File)} replays the log (including changes after the last commit, which have been made before a crash or
+ * discarded by the user, see {@link #hasUncommittedChanges()} and {@link #discard()}). <br>
+ * The log starts with a header containing the length and modification time of the journal file it belongs to. A log which does not match its journal file
+ * because the file has been replaced by an interrupted compaction is ignored. A log which does not match for any other reason (e.g. because the file has been copied
+ * without its modification time or restored from a backup) and contains saved changes is kept under another name (see {@link #getUnmatchedLog()}), so
+ * it can be applied with {@link #applyLog(File)}. Each change is written as a record consisting of its length and its data,
+ * so an incomplete record at the end of the log (e.g. after a crash) is simply ignored. <br>
+ * Since a saved journal file depends on its log, the log should be compacted with {@link #compact()} (or {@link #compactFile(File)}) when the journal is closed.
+ * @author Simon Hampe
+ *
+ */
+public class JournalChangeLog implements JournalListener {
+
+	/**
+	 * The magic number at the beginning of each log file ('FF2L')
+	 */
+	public final static int magic = 0x4646324C;
+
+	/**
+	 * The current format version
+	 */
+	public final static int version = 1;
+
+	/**
+	 * The size in bytes above which the log should be compacted
+	 */
+	public final static long compactionThreshold = 256 * 1024;
+
+	//Length of the header in bytes
+	private final static int headerLength = 24;
+
+	//Record types
+	private final static byte ADD = 1;
+	private final static byte REMOVE = 2;
+	private final static byte REPLACE = 3;
+	private final static byte STARTVALUE = 4;
+	private final static byte READINGPOINTADDED = 5;
+	private final static byte READINGPOINTREMOVED = 6;
+	private final static byte READINGPOINTCHANGED = 7;
+	private final static byte NAME = 8;
+	private final static byte DESCRIPTION = 9;
+	private final static byte COMMIT = 10;
+
+	private static Logger logger = Logger.getLogger(JournalChangeLog.class);
+
+	private Journal journal;
+
+	//The journal file this log belongs to (null if there is none), the log stream (null, if there is none or writing failed) and the length of the
+	//log up to the last commit mark
+	private File file;
+	private FileOutputStream log;
+	private long logCommit;
+
+	//If the journal is currently being written: The target file, the stream for all changes made since the snapshot and its length up to the last commit mark
+	private JournalWriter writer;
+	private File target;
+	private FileOutputStream next;
+	private long nextCommit;
+
+	//Whether there are changes, which have not been committed
+	private boolean uncommitted = false;
+
+	//The file a log not matching the journal file has been moved to by open() (null, if there is none)
+	private File unmatchedLog = null;
+
+	//The last known name and day (as yyyyMMdd) of each reading point. ReadingPointListener events only contain the new state
+	private HashMap<ReadingPoint, Object[]> readingPointStates = new HashMap<ReadingPoint, Object[]>();
+
+	// CONSTRUCTORS **********************************
+	// ***********************************************
+
+	/**
+	 * Creates a log for a journal, which has no file yet. Until the journal is written by {@link #beginWrite(File)}, no changes are logged.
+	 * The log adds itself as listener to the journal.
+	 * @throws NullPointerException - If j == null
+	 */
+	public JournalChangeLog(Journal j) {
+		if(j == null) throw new NullPointerException("Cannot create log for null journal");
+		journal = j;
+		synchronized (j) {
+			for(ReadingPoint rp : j.getReadingPoints()) storeState(rp);
+			j.addJournalListener(this);
+		}
+	}
+
+	/**
+	 * Opens the log of the given journal file and applies all changes in it to j, which should be the journal just loaded from f. If a compaction has
+	 * been interrupted after writing f, the remaining changes are taken from the second file. If the log does not match f for another reason, but contains
+	 * saved changes, it is not applied but kept (see {@link #getUnmatchedLog()}). The log is then rewritten and ready to log further changes.
+	 * @throws IOException - If the log cannot be read or written. A log with invalid content (e.g. unknown account IDs) is also reported as an IOException.
+	 */
+	public static JournalChangeLog open(Journal j, File f) throws IOException {
+		if(j == null || f == null) throw new NullPointerException("Cannot open log for null journal or file");
+		File logFile = getLogFile(f);
+		File nextFile = getNextFile(f);
+		byte[] records = null;
+		File unmatched = null;
+		if(logFile.exists()) {
+			byte[] data = readFile(logFile);
+			if(data.length >= headerLength && matchesHeader(data, f)) {
+				records = new byte[data.length - headerLength];
+				System.arraycopy(data, headerLength, records, 0, records.length);
+			}
+			else if(!nextFile.exists() && data.length >= headerLength && scan(data, headerLength)[2] > 0) {
+				//The log contains saved changes, which might not be contained in the journal file. Keep it
+				unmatched = getUnmatchedFile(f);
+				Files.move(logFile.toPath(), unmatched.toPath());
+				logger.warn("Change log " + logFile.getName() + " does not match the journal file. It has been kept as " + unmatched.getName());
+			}
+			else logger.warn("Ignoring change log " + logFile.getName() + ", since it does not match the journal file");
+		}
+		if(records == null && nextFile.exists()) {
+			records = readFile(nextFile);
+		}
+		if(records == null) records = new byte[0];
+
+		//Replay
+		int[] positions = replay(j, records);
+		int valid = positions[0];
+		int lastCommit = positions[1];
+
+		JournalChangeLog changelog = new JournalChangeLog(j);
+		synchronized (changelog) {
+			changelog.uncommitted = valid > lastCommit;
+			changelog.file = f;
+			ByteArrayInputStream in = new ByteArrayInputStream(records, 0, valid);
+			changelog.log = writeLog(f, in);
+			changelog.logCommit = headerLength + lastCommit;
+			changelog.unmatchedLog = unmatched;
+			nextFile.delete();
+		}
+		return changelog;
+	}
+
+	// FILES *****************************************
+	// ***********************************************
+
+	/**
+	 * @return The log file belonging to the given journal file
+	 */
+	public static File getLogFile(File f) {
+		return new File(f.getPath() + ".changes");
+	}
+
+	/**
+	 * @return The file containing the changes made while f is being written
+	 */
+	private static File getNextFile(File f) {
+		return new File(f.getPath() + ".changes.next");
+	}
+
+	/**
+	 * @return A file, which does not exist yet, for keeping a log of f which does not match f
+	 */
+	private static File getUnmatchedFile(File f) {
+		File unmatched = new File(f.getPath() + ".changes.unmatched");
+		for(int i = 2; unmatched.exists(); i++) unmatched = new File(f.getPath() + ".changes.unmatched" + i);
+		return unmatched;
+	}
+
+	/**
+	 * @return The header of the log of f
+	 */
+	private static byte[] getHeader(File f) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(headerLength);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(magic);
+		out.writeInt(version);
+		out.writeLong(f.length());
+		out.writeLong(f.lastModified());
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @return true, if data starts with the header of the log of f
+	 */
+	private static boolean matchesHeader(byte[] data, File f) throws IOException {
+		byte[] header = getHeader(f);
+		for(int i = 0; i < headerLength; i++) {
+			if(data[i] != header[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return The complete content of f
+	 */
+	private static byte[] readFile(File f) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			byte[] data = new byte[(int)f.length()];
+			in.readFully(data);
+			return data;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the lengths and types of the records in data starting at the given position, but not their content.
+	 * @return The end of the last complete record, the end of the last commit mark and the number of records other than commit marks before it
+	 */
+	private static int[] scan(byte[] data, int start) {
+		int position = start;
+		int lastCommit = start;
+		int changes = 0;
+		int committedChanges = 0;
+		while(position + 4 < data.length) {
+			int length = ((data[position] & 0xff) << 24) | ((data[position+1] & 0xff) << 16) |
+							((data[position+2] & 0xff) << 8) | (data[position+3] & 0xff);
+			if(length <= 0 || position + 4 + length > data.length) break;
+			if(data[position + 4] == COMMIT) {
+				lastCommit = position + 4 + length;
+				committedChanges = changes;
+			}
+			else changes++;
+			position += 4 + length;
+		}
+		return new int[] {position, lastCommit, committedChanges};
+	}
+
+	/**
+	 * Writes a new log for f, consisting of the header and the given records, to a temporary file and replaces the actual log by it.
+	 * @return A stream appending to the new log
+	 */
+	private static FileOutputStream writeLog(final File f, final java.io.InputStream records) throws IOException {
+		File logFile = getLogFile(f);
+		AtomicFileWriter.write(logFile, new AtomicFileWriter.Content() {
+			@Override
+			public void writeTo(FileOutputStream out) throws IOException {
+				out.write(getHeader(f));
+				byte[] buffer = new byte[65536];
+				int read;
+				while((read = records.read(buffer)) >= 0) out.write(buffer, 0, read);
+			}
+		});
+		return new FileOutputStream(logFile, true);
+	}
+
+	/**
+	 * Closes the stream and truncates the file to the given length. Errors are only logged.
+	 */
+	private static void truncate(FileOutputStream out, File f, long length) {
+		try {
+			out.close();
+			RandomAccessFile raf = new RandomAccessFile(f, "rw");
+			try {
+				raf.setLength(length);
+			}
+			finally {
+				raf.close();
+			}
+		}
+		catch(IOException e) {
+			logger.warn("Cannot truncate change log " + f.getName() + ": " + e.getMessage());
+		}
+	}
+
+	// SAVING ****************************************
+	// ***********************************************
+
+	/**
+	 * Marks all changes so far as saved. This is only possible, if f is the file the log belongs to (or is currently written to)
+	 * and all changes since the journal file was written have been logged successfully.
+	 * @return true, if the changes have been committed. Otherwise the journal has to be written to f.
+	 */
+	public synchronized boolean commit(File f) {
+		if(f == null) return false;
+		boolean toLog = log != null && f.equals(file);
+		boolean toNext = next != null && f.equals(target);
+		if(!toLog && !toNext) return false;
+		if(!append(new byte[] {COMMIT})) return false;
+		try {
+			if(log != null) logCommit = log.getChannel().size();
+			if(next != null) nextCommit = next.getChannel().size();
+		}
+		catch(IOException e) {
+			return false;
+		}
+		uncommitted = false;
+		return true;
+	}
+
+	/**
+	 * @return Whether there are changes since the last commit (also changes replayed by {@link #open(Journal, File)})
+	 */
+	public synchronized boolean hasUncommittedChanges() {
+		return uncommitted;
+	}
+
+	/**
+	 * @return Whether the log contains saved changes, i.e. the journal file is not up to date without its log. This is false while the journal is written.
+	 */
+	public synchronized boolean hasCommittedChanges() {
+		if(log == null || writer != null) return false;
+		try {
+			byte[] data = readFile(getLogFile(file));
+			return scan(data, headerLength)[2] > 0;
+		}
+		catch(IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return The file the log of the journal file has been moved to by {@link #open(Journal, File)}, since it did not match the journal file,
+	 * but contained saved changes. Null, if there is none
+	 */
+	public synchronized File getUnmatchedLog() {
+		return unmatchedLog;
+	}
+
+	/**
+	 * @return true, if the log is larger than {@link #compactionThreshold} and no compaction is running
+	 */
+	public synchronized boolean needsCompaction() {
+		try {
+			return log != null && writer == null && log.getChannel().size() > compactionThreshold;
+		}
+		catch(IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the journal for writing it to f. All changes made after the snapshot are logged for f. The returned writer can be
+	 * used directly or in the background, but {@link #endWrite(JournalWriter, boolean)} has to be called when it has finished. If the log
+	 * belongs to f, all changes so far are committed.
+	 * @return The writer for the snapshot
+	 * @throws IOException - If the file for the changes made while writing cannot be created
+	 */
+	public JournalWriter beginWrite(File f) throws IOException {
+		if(f == null) throw new NullPointerException("Cannot write journal to null file");
+		//Lock the journal first, as journal events do
+		synchronized (journal) {
+			synchronized (this) {
+				if(writer != null) endWrite(writer, false);
+				next = new FileOutputStream(getNextFile(f));
+				nextCommit = 0;
+				target = f;
+				writer = new JournalWriter(journal, f);
+				if(log != null && f.equals(file)) commit(f);
+				uncommitted = false;
+				return writer;
+			}
+		}
+	}
+
+	/**
+	 * Has to be called when the writer returned by {@link #beginWrite(File)} has finished. If it was successful, the log now belongs
+	 * to the file written and contains all changes made since the snapshot. If it was written to another file, all uncommitted changes are removed
+	 * from the log of the old file. If the call refers to an older writer, it is ignored.
+	 * @param success Whether the journal has been written successfully
+	 */
+	public synchronized void endWrite(JournalWriter w, boolean success) {
+		if(w == null || w != writer) return;
+		writer = null;
+		File nextFile = getNextFile(target);
+		try {
+			next.close();
+		}
+		catch(IOException e) {
+			success = false;
+		}
+		if(success) {
+			if(log != null) {
+				if(file.equals(target)) {
+					try {
+						log.close();
+					}
+					catch(IOException e) {
+						//Will be replaced anyway
+					}
+				}
+				else truncate(log, getLogFile(file), logCommit);
+			}
+			log = null;
+			file = target;
+			try {
+				FileInputStream in = new FileInputStream(nextFile);
+				try {
+					log = writeLog(file, in);
+				}
+				finally {
+					in.close();
+				}
+				logCommit = headerLength + nextCommit;
+			}
+			catch(IOException e) {
+				logger.warn("Cannot write change log for " + file.getName() + ": " + e.getMessage());
+				log = null;
+			}
+		}
+		nextFile.delete();
+		next = null;
+		target = null;
+	}
+
+	/**
+	 * Writes the journal to the file of the log, if the log contains saved changes and there are no unsaved changes. Afterwards the journal file
+	 * contains all saved changes by itself and the log is empty. The journal is written in the calling thread.
+	 * @return true, if the journal has been written
+	 * @throws IOException - If the journal cannot be written. The log is then left unchanged
+	 */
+	public boolean compact() throws IOException {
+		File f;
+		synchronized (this) {
+			if(uncommitted || !hasCommittedChanges()) return false;
+			f = file;
+		}
+		JournalWriter w = beginWrite(f);
+		boolean success = false;
+		try {
+			w.write();
+			success = true;
+		}
+		finally {
+			endWrite(w, success);
+		}
+		return true;
+	}
+
+	/**
+	 * Compacts the log of the given journal file, if it matches the file and contains only saved changes: The journal is read from f,
+	 * the log is applied and the journal is written back to f. This can be used after the log of an open journal has been discarded.
+	 * @return true, if the journal has been written
+	 * @throws IOException - If the journal cannot be read or written
+	 */
+	public static boolean compactFile(File f) throws IOException {
+		if(f == null) throw new NullPointerException("Cannot compact log of null file");
+		File logFile = getLogFile(f);
+		if(!logFile.exists() || getNextFile(f).exists()) return false;
+		byte[] data = readFile(logFile);
+		if(data.length < headerLength || !matchesHeader(data, f)) return false;
+		int[] positions = scan(data, headerLength);
+		if(positions[0] > positions[1] || positions[2] == 0) return false;
+		Journal j;
+		try {
+			j = new JournalReader(f).read();
+		}
+		catch(XMLWriteConfigurationException e) {
+			throw new IOException(e.getMessage());
+		}
+		JournalChangeLog changelog = open(j, f);
+		try {
+			return changelog.compact();
+		}
+		finally {
+			changelog.close();
+		}
+	}
+
+	/**
+	 * Applies all changes in the given log file to the journal, regardless of the journal file the log belongs to. This is intended for logs
+	 * kept by {@link #open(Journal, File)}. The changes are then logged by this log as unsaved changes.
+	 * @throws IOException - If the file cannot be read or is not a change log. Changes which could be read before the error are applied.
+	 */
+	public void applyLog(File logFile) throws IOException {
+		byte[] data = readFile(logFile);
+		if(data.length < headerLength || ((data[0] & 0xff) << 24 | (data[1] & 0xff) << 16 | (data[2] & 0xff) << 8 | (data[3] & 0xff)) != magic) {
+			throw new IOException("File " + logFile.getName() + " is not a change log");
+		}
+		byte[] records = new byte[data.length - headerLength];
+		System.arraycopy(data, headerLength, records, 0, records.length);
+		replay(journal, records);
+	}
+
+	/**
+	 * Removes all uncommitted changes from the log files and closes them. The log then stops listening to the journal.
+	 */
+	public synchronized void discard() {
+		if(log != null) truncate(log, getLogFile(file), logCommit);
+		if(next != null) truncate(next, getNextFile(target), nextCommit);
+		log = null;
+		next = null;
+		journal.remvoeJournalListener(this);
+	}
+
+	/**
+	 * Closes the log files. The log then stops listening to the journal. Uncommitted changes are kept and replayed when the journal is opened again.
+	 */
+	public synchronized void close() {
+		try {
+			if(log != null) log.close();
+			if(next != null) next.close();
+		}
+		catch(IOException e) {
+			logger.warn("Cannot close change log: " + e.getMessage());
+		}
+		log = null;
+		next = null;
+		journal.remvoeJournalListener(this);
+	}
+
+	// LOGGING ***************************************
+	// ***********************************************
+
+	/**
+	 * Appends the record to all open log files and forces them to the disk. If this fails for the log, it is closed, so the journal has to
+	 * be written completely on the next save.
+	 * @return true, if the record was written to all open log files
+	 */
+	private synchronized boolean append(byte[] record) {
+		uncommitted = true;
+		byte[] data = new byte[record.length + 4];
+		data[0] = (byte)(record.length >>> 24);
+		data[1] = (byte)(record.length >>> 16);
+		data[2] = (byte)(record.length >>> 8);
+		data[3] = (byte)record.length;
+		System.arraycopy(record, 0, data, 4, record.length);
+		boolean success = true;
+		if(log != null) {
+			try {
+				log.write(data);
+				log.getChannel().force(false);
+			}
+			catch(IOException e) {
+				logger.warn("Cannot write change log for " + file.getName() + ": " + e.getMessage());
+				truncate(log, getLogFile(file), logCommit);
+				log = null;
+				success = false;
+			}
+		}
+		if(next != null) {
+			try {
+				next.write(data);
+				next.getChannel().force(false);
+			}
+			catch(IOException e) {
+				//The writer's result cannot be used for the log anymore
+				logger.warn("Cannot write change log for " + target.getName() + ": " + e.getMessage());
+				endWrite(writer, false);
+				success = false;
+			}
+		}
+		return success;
+	}
+
+	/**
+	 * Creates a record stream starting with the given type
+	 */
+	private static DataOutputStream createRecord(ByteArrayOutputStream bytes, byte type) throws IOException {
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(type);
+		return out;
+	}
+
+	/**
+	 * Writes a string as its UTF-8 length and bytes. Null is written as the empty string.
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = (s == null? "" : s).getBytes("UTF-8");
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	/**
+	 * Writes all data of e. The account information is written sorted by key, so equal entries have equal representations.
+	 */
+	private static void writeEntry(DataOutputStream out, Entry e) throws IOException {
+		writeString(out, e.getName());
+		out.writeFloat(e.getValue());
+		writeString(out, e.getCurrency().getCurrencyCode());
+		out.writeInt(EpochDay.toYearMonthDay(e.getEpochDay()));
+		Vector<String> tails = e.getCategory().getOrderedList();
+		out.writeInt(tails.size());
+		for(String tail : tails) writeString(out, tail);
+		writeString(out, e.getAccount().getID());
+		TreeMap<String, String> info = new TreeMap<String, String>(e.getAccountInformation());
+		out.writeInt(info.size());
+		for(String key : info.keySet()) {
+			writeString(out, key);
+			writeString(out, info.get(key));
+		}
+		writeString(out, e.getAdditionalInformation());
+	}
+
+	/**
+	 * @return The representation of e as written by {@link #writeEntry(DataOutputStream, Entry)}. Used to identify equal entries.
+	 */
+	private static String getKey(Entry e) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		writeEntry(new DataOutputStream(bytes), e);
+		return bytes.toString("ISO-8859-1");
+	}
+
+	/**
+	 * Writes a record containing the given entries
+	 */
+	private void logEntries(byte type, Entry[] entries) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = createRecord(bytes, type);
+			out.writeInt(entries.length);
+			for(Entry e : entries) writeEntry(out, e);
+			append(bytes.toByteArray());
+		}
+		catch(IOException e) {
+			//Will not happen for a byte array stream
+		}
+	}
+
+	/**
+	 * Writes a record containing the given strings and days
+	 */
+	private void logStrings(byte type, String[] strings, int[] days) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = createRecord(bytes, type);
+			for(int i = 0; i < strings.length; i++) {
+				writeString(out, strings[i]);
+				if(days != null) out.writeInt(days[i]);
+			}
+			append(bytes.toByteArray());
+		}
+		catch(IOException e) {
+			//Will not happen for a byte array stream
+		}
+	}
+
+	/**
+	 * Remembers the current name and day of rp
+	 * @return The previous state or null, if there was none
+	 */
+	private Object[] storeState(ReadingPoint rp) {
+		return readingPointStates.put(rp, new Object[] {rp.getName(), BinaryJournalFormat.encodeDate(rp.getReadingDay())});
+	}
+
+	// REPLAY ****************************************
+	// ***********************************************
+
+	/**
+	 * Applies all complete records to j.
+	 * @return The length of all complete records and the length up to the last commit mark
+	 * @throws IOException - If a record contains invalid data
+	 */
+	private static int[] replay(Journal j, byte[] records) throws IOException {
+		int position = 0;
+		int lastCommit = 0;
+		//Entries by their content. Only created, when entries have to be found
+		HashMap<String, Vector<Entry>> index = null;
+		while(position + 4 <= records.length) {
+			int length = ((records[position] & 0xff) << 24) | ((records[position+1] & 0xff) << 16) |
+							((records[position+2] & 0xff) << 8) | (records[position+3] & 0xff);
+			if(length <= 0 || position + 4 + length > records.length) break;
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(records, position + 4, length));
+			try {
+				byte type = in.readByte();
+				switch(type) {
+				case ADD:
+					Vector<Entry> added = readEntries(in);
+					if(index != null) for(Entry e : added) addToIndex(index, e);
+					j.addAllEntries(added);
+					break;
+				case REMOVE:
+					if(index == null) index = createIndex(j);
+					Vector<Entry> removed = new Vector<Entry>();
+					for(Entry e : readEntries(in)) {
+						Entry old = removeFromIndex(index, e);
+						if(old != null) removed.add(old);
+					}
+					j.removeAllEntries(removed);
+					break;
+				case REPLACE:
+					if(index == null) index = createIndex(j);
+					Entry old = removeFromIndex(index, readEntry(in));
+					Entry replacement = readEntry(in);
+					if(old != null) {
+						addToIndex(index, replacement);
+						j.replaceEntry(old, replacement);
+					}
+					break;
+				case STARTVALUE:
+					Account a = getAccount(readString(in));
+					if(in.readBoolean()) j.setStartValue(a, in.readFloat());
+					else j.removeStartValue(a);
+					break;
+				case READINGPOINTADDED:
+					String name = readString(in);
+					j.addReadingPoint(new ReadingPoint(name, BinaryJournalFormat.decodeDate(in.readInt())));
+					break;
+				case READINGPOINTREMOVED:
+					ReadingPoint removedPoint = findReadingPoint(j, readString(in), in.readInt());
+					if(removedPoint != null) j.removeReadingPoint(removedPoint);
+					break;
+				case READINGPOINTCHANGED:
+					ReadingPoint changed = findReadingPoint(j, readString(in), in.readInt());
+					String newname = readString(in);
+					int newday = in.readInt();
+					if(changed != null) {
+						if(!changed.getName().equals(newname)) changed.setName(newname);
+						if(BinaryJournalFormat.encodeDate(changed.getReadingDay()) != newday) {
+							changed.setReadingDay(BinaryJournalFormat.decodeDate(newday));
+						}
+					}
+					break;
+				case NAME:
+					j.setName(readString(in));
+					break;
+				case DESCRIPTION:
+					j.setDescription(readString(in));
+					break;
+				case COMMIT:
+					lastCommit = position + 4 + length;
+					break;
+				default:
+					throw new IOException("Invalid change log: Unknown record type " + type);
+				}
+			}
+			catch(EOFException e) {
+				throw new IOException("Invalid change log: Incomplete record");
+			}
+			position += 4 + length;
+		}
+		return new int[] {position, lastCommit};
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] b = new byte[in.readInt()];
+		in.readFully(b);
+		return new String(b, "UTF-8");
+	}
+
+	private static Vector<Entry> readEntries(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		Vector<Entry> entries = new Vector<Entry>(count);
+		for(int i = 0; i < count; i++) entries.add(readEntry(in));
+		return entries;
+	}
+
+	private static Entry readEntry(DataInputStream in) throws IOException {
+		String name = readString(in);
+		float value = in.readFloat();
+		String currency = readString(in);
+		GregorianCalendar date = BinaryJournalFormat.decodeDate(in.readInt());
+		Vector<String> tails = new Vector<String>();
+		int tailCount = in.readInt();
+		for(int i = 0; i < tailCount; i++) tails.add(readString(in));
+		String account = readString(in);
+		getAccount(account);
+		HashMap<String, String> info = new HashMap<String, String>();
+		int infoCount = in.readInt();
+		for(int i = 0; i < infoCount; i++) info.put(readString(in), readString(in));
+		String additional = readString(in);
+		try {
+			return new Entry(name, value, Currency.getInstance(currency), date, Category.getCategory(tails), account, info, additional);
+		}
+		catch(IllegalArgumentException e) {
+			throw new IOException("Invalid change log: " + e.getMessage());
+		}
+	}
+
+	private static Account getAccount(String id) throws IOException {
+		try {
+			return AccountLoader.getAccount(id);
+		}
+		catch(IllegalArgumentException e) {
+			throw new IOException("Invalid change log: Account ID " + id + " unknown.");
+		}
+	}
+
+	private static ReadingPoint findReadingPoint(Journal j, String name, int day) {
+		for(ReadingPoint rp : j.getReadingPoints()) {
+			if(rp.getName().equals(name) && BinaryJournalFormat.encodeDate(rp.getReadingDay()) == day) return rp;
+		}
+		return null;
+	}
+
+	private static HashMap<String, Vector<Entry>> createIndex(Journal j) throws IOException {
+		HashMap<String, Vector<Entry>> index = new HashMap<String, Vector<Entry>>();
+		for(Entry e : j.getEntryView()) addToIndex(index, e);
+		return index;
+	}
+
+	private static void addToIndex(HashMap<String, Vector<Entry>> index, Entry e) throws IOException {
+		String key = getKey(e);
+		Vector<Entry> entries = index.get(key);
+		if(entries == null) {
+			entries = new Vector<Entry>(1);
+			index.put(key, entries);
+		}
+		entries.add(e);
+	}
+
+	/**
+	 * Removes an entry equal to e from the index
+	 * @return The removed entry or null, if there is none
+	 */
+	private static Entry removeFromIndex(HashMap<String, Vector<Entry>> index, Entry e) throws IOException {
+		Vector<Entry> entries = index.get(getKey(e));
+		if(entries == null || entries.size() == 0) return null;
+		return entries.remove(entries.size() - 1);
+	}
+
+	// LISTENER METHODS ******************************
+	// ***********************************************
+
+	@Override
+	public synchronized void entriesAdded(Journal source, Entry[] newEntries) {
+		if(newEntries.length > 0) logEntries(ADD, newEntries);
+	}
+
+	@Override
+	public synchronized void entriesRemoved(Journal source, Entry[] oldEntries) {
+		if(oldEntries.length > 0) logEntries(REMOVE, oldEntries);
+	}
+
+	@Override
+	public synchronized void entryReplaced(Journal source, Entry oldEntry, Entry newEntry) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = createRecord(bytes, REPLACE);
+			writeEntry(out, oldEntry);
+			writeEntry(out, newEntry);
+			append(bytes.toByteArray());
+		}
+		catch(IOException e) {
+			//Will not happen for a byte array stream
+		}
+	}
+
+	@Override
+	public synchronized void startValueChanged(Journal source, Account a, Float oldValue, Float newValue) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = createRecord(bytes, STARTVALUE);
+			writeString(out, a.getID());
+			out.writeBoolean(newValue != null);
+			if(newValue != null) out.writeFloat(newValue);
+			append(bytes.toByteArray());
+		}
+		catch(IOException e) {
+			//Will not happen for a byte array stream
+		}
+	}
+
+	@Override
+	public synchronized void readingPointAdded(Journal source, ReadingPoint point) {
+		storeState(point);
+		logStrings(READINGPOINTADDED, new String[] {point.getName()}, new int[] {BinaryJournalFormat.encodeDate(point.getReadingDay())});
+	}
+
+	@Override
+	public synchronized void readingPointRemoved(Journal source, ReadingPoint point) {
+		Object[] state = readingPointStates.remove(point);
+		if(state == null) state = new Object[] {point.getName(), BinaryJournalFormat.encodeDate(point.getReadingDay())};
+		logStrings(READINGPOINTREMOVED, new String[] {(String)state[0]}, new int[] {(Integer)state[1]});
+	}
+
+	@Override
+	public synchronized void nameChanged(Journal source, String oldValue, String newValue) {
+		logStrings(NAME, new String[] {newValue}, null);
+	}
+
+	@Override
+	public synchronized void descriptionChanged(Journal source, String oldValue, String newValue) {
+		logStrings(DESCRIPTION, new String[] {newValue}, null);
+	}
+
+	@Override
+	public synchronized void dateChanged(ReadingPoint source) {
+		logReadingPointChange(source);
+	}
+
+	@Override
+	public synchronized void nameChanged(ReadingPoint source) {
+		logReadingPointChange(source);
+	}
+
+	/**
+	 * Logs the change from the last known state of rp to its current state
+	 */
+	private void logReadingPointChange(ReadingPoint rp) {
+		Object[] old = storeState(rp);
+		Object[] state = readingPointStates.get(rp);
+		if(old == null) old = state;
+		logStrings(READINGPOINTCHANGED, new String[] {(String)old[0], (String)state[0]}, new int[] {(Integer)old[1], (Integer)state[1]});
+	}
+
+}
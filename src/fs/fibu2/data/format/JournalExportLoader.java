@@ -3,6 +3,7 @@ package fs.fibu2.data.format;
 import java.util.HashMap;
 import java.util.HashSet;
 
+import fs.fibu2.export.BinaryJournalExport;
 import fs.fibu2.export.CSVTableExport;
 import fs.fibu2.export.OldJournalExport;
 import fs.fibu2.export.StandardJournalExport;
@@ -25,6 +26,7 @@ public class JournalExportLoader {
 		exportMap.put((new OldJournalExport()).getID(), new OldJournalExport());
 		exportMap.put((new VeryOldJournalExport()).getID(),new VeryOldJournalExport());
 		exportMap.put((new CSVTableExport()).getID(), new CSVTableExport());
+		exportMap.put((new BinaryJournalExport()).getID(), new BinaryJournalExport());
 	}
 	
 	/**
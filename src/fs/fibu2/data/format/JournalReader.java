@@ -0,0 +1,410 @@
+package fs.fibu2.data.format;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Currency;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+
+import javax.swing.SwingWorker;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import fs.fibu2.data.model.Account;
+import fs.fibu2.data.model.AccountLoader;
+import fs.fibu2.data.model.Category;
+import fs.fibu2.data.model.Entry;
+import fs.fibu2.data.model.Journal;
+import fs.fibu2.data.model.ReadingPoint;
+import fs.fibu2.view.event.ProgressListener;
+import fs.xml.XMLWriteConfigurationException;
+
+/**
+ * A JournalReader reads an fsfibu2 journal file (as specified by {@link Journal#configure(org.dom4j.Node)}) in a single forward pass, without
+ * building a DOM tree and without any XPath evaluation. Only the data of the element currently read is kept in memory (apart from the
+ * entries and reading points themselves, of course). The result is the same as when loading the document and calling {@link Journal#Journal(org.dom4j.Node)}.<br>
+ * The reader can be used directly via {@link #read()} or as a {@link SwingWorker} via {@link #start()}. In the latter case, all registered
+ * {@link ProgressListener}s are notified of the beginning, the progress (the fraction of the file read so far) and the end of the task. The
+ * result can then be retrieved via get().
+ * @author Simon Hampe
+ *
+ */
+public class JournalReader extends SwingWorker<Journal, Object> {
+
+	private File file;
+
+	//Bytes read so far
+	private long bytesRead = 0;
+
+	//The date format used for all dates
+	private SimpleDateFormat dateFormat = Fsfibu2DateFormats.getEntryDateFormat();
+
+	//Categories already used. Looking up a category by its sequence is rather expensive, so we only do it once per category
+	private HashMap<Vector<String>, Category> categories = new HashMap<Vector<String>, Category>();
+
+	private HashSet<ProgressListener<Journal, Object>> listeners = new HashSet<ProgressListener<Journal,Object>>();
+
+	// CONSTRUCTOR ***********************************
+	// ***********************************************
+
+	/**
+	 * Creates a reader for the given file
+	 * @throws NullPointerException - If f == null
+	 */
+	public JournalReader(File f) {
+		if(f == null) throw new NullPointerException("Cannot read journal from null file");
+		file = f;
+		addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				if("progress".equals(evt.getPropertyName())) fireProgressed();
+			}
+		});
+	}
+
+	// READING ***************************************
+	// ***********************************************
+
+	/**
+	 * @return The name of the root element of the given xml file. Only the beginning of the file is read.
+	 * @throws IOException - If the file cannot be read or is not an xml document
+	 */
+	public static String getRootElementName(File f) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(f));
+		try {
+			XMLStreamReader r = XMLInputFactory.newInstance().createXMLStreamReader(in);
+			try {
+				while(r.hasNext()) {
+					if(r.next() == XMLStreamConstants.START_ELEMENT) return r.getLocalName();
+				}
+				throw new IOException("File " + f.getName() + " contains no elements");
+			}
+			finally {
+				r.close();
+			}
+		}
+		catch(XMLStreamException e) {
+			throw new IOException("File " + f.getName() + " is not a valid xml document: " + e.getMessage());
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the journal from the file. If this reader is executed as a SwingWorker, the progress property is updated while reading.
+	 * @throws IOException - If the file cannot be read or is not a well-formed xml document
+	 * @throws XMLWriteConfigurationException - If the root element is not called 'journal' or any of its elements is invalid
+	 * (as in {@link Journal#configure(org.dom4j.Node)}).
+	 */
+	public Journal read() throws IOException, XMLWriteConfigurationException {
+		final long length = Math.max(1, file.length());
+		bytesRead = 0;
+		InputStream in = new BufferedInputStream(new FilterInputStream(new FileInputStream(file)) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if(b >= 0) bytesRead++;
+				return b;
+			}
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if(n > 0) bytesRead += n;
+				return n;
+			}
+		}, 65536);
+		try {
+			XMLStreamReader r = XMLInputFactory.newInstance().createXMLStreamReader(in);
+			try {
+				return readJournal(r, length);
+			}
+			finally {
+				r.close();
+			}
+		}
+		catch(XMLStreamException e) {
+			throw new IOException("File " + file.getName() + " is not a valid xml document: " + e.getMessage());
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the complete journal element
+	 */
+	private Journal readJournal(XMLStreamReader r, long length) throws XMLStreamException, XMLWriteConfigurationException {
+		while(r.next() != XMLStreamConstants.START_ELEMENT);
+		if(!"journal".equals(r.getLocalName())) throw new XMLWriteConfigurationException("Invalid journal configuration: Root element is not called 'journal'");
+
+		String newname = null;
+		String newdescription = null;
+		HashMap<Account, Float> newstartvalues = null;
+		Vector<ReadingPoint> newreadings = new Vector<ReadingPoint>();
+		Vector<Entry> newentries = new Vector<Entry>();
+
+		int progress = 0;
+		while(nextChild(r)) {
+			String element = r.getLocalName();
+			//As in the DOM version, only the first name, description and start value nodes are regarded
+			if(element.equals("name") && newname == null) newname = readText(r);
+			else if(element.equals("description") && newdescription == null) newdescription = readText(r);
+			else if(element.equals("startvalues") && newstartvalues == null) newstartvalues = readStartValues(r);
+			else if(element.equals("readingpoint")) newreadings.add(readReadingPoint(r));
+			else if(element.equals("entry")) newentries.add(readEntry(r));
+			else skipElement(r);
+
+			if(isCancelled()) throw new XMLWriteConfigurationException("Reading journal has been cancelled");
+			int newprogress = (int)Math.min(100, (100 * bytesRead) / length);
+			if(newprogress != progress) {
+				progress = newprogress;
+				setProgress(progress);
+			}
+		}
+
+		Journal j = new Journal();
+		j.configure(newname, newdescription, newstartvalues, newreadings, newentries);
+		return j;
+	}
+
+	/**
+	 * Reads a startvalues element. Unknown account IDs cause an exception
+	 */
+	private HashMap<Account, Float> readStartValues(XMLStreamReader r) throws XMLStreamException, XMLWriteConfigurationException {
+		HashMap<Account, Float> values = new HashMap<Account, Float>();
+		while(nextChild(r)) {
+			String id = r.getLocalName();
+			String text = readText(r);
+			try {
+				Account a = AccountLoader.getAccount(id);
+				values.put(a, Float.parseFloat(text));
+			}
+			catch(NumberFormatException ne) {
+				throw new XMLWriteConfigurationException("Invalid journal configuration: " +
+						"The value " + text + " for account " + id + " is not a valid float value");
+			}
+			catch(IllegalArgumentException ie) {
+				throw new XMLWriteConfigurationException("Invalid journal configuration: Account ID " + id + " unknown.");
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Reads a readingpoint element as specified by {@link ReadingPoint#configure(org.dom4j.Node)}
+	 */
+	private ReadingPoint readReadingPoint(XMLStreamReader r) throws XMLStreamException, XMLWriteConfigurationException {
+		String name = null;
+		String day = null;
+		while(nextChild(r)) {
+			String element = r.getLocalName();
+			if(element.equals("name") && name == null) name = readText(r);
+			else if(element.equals("readingday") && day == null) day = readText(r);
+			else skipElement(r);
+		}
+		if(name == null) throw new XMLWriteConfigurationException("Invalid reading point configuration: name node missing");
+		if(day == null) throw new XMLWriteConfigurationException("Invalid reading point configuration: date node missing");
+		try {
+			return new ReadingPoint(name, parseDate(day));
+		}
+		catch(ParseException pe) {
+			throw new XMLWriteConfigurationException("Invalid reading point configuration: Date node contains invalid data.");
+		}
+	}
+
+	/**
+	 * Reads an entry element as specified by {@link Entry#Entry(org.dom4j.Node)}
+	 */
+	private Entry readEntry(XMLStreamReader r) throws XMLStreamException, XMLWriteConfigurationException {
+		String name = null, value = null, currency = null, date = null, account = null, additional = null;
+		Category category = null;
+		HashMap<String, String> accountInformation = null;
+
+		while(nextChild(r)) {
+			String element = r.getLocalName();
+			if(element.equals("name") && name == null) name = readText(r);
+			else if(element.equals("value") && value == null) value = readText(r);
+			else if(element.equals("currency") && currency == null) currency = readText(r);
+			else if(element.equals("date") && date == null) date = readText(r);
+			else if(element.equals("category") && category == null) category = readCategory(r);
+			else if(element.equals("account") && account == null) account = readText(r);
+			else if(element.equals("accountinformation") && accountInformation == null) {
+				accountInformation = new HashMap<String, String>();
+				while(nextChild(r)) {
+					accountInformation.put(r.getLocalName(), readText(r));
+				}
+			}
+			else if(element.equals("additionalinformation") && additional == null) additional = readText(r);
+			else skipElement(r);
+		}
+
+		if(name == null) throw new XMLWriteConfigurationException("Invalid entry configuration: Name node missing");
+		if(value == null) throw new XMLWriteConfigurationException("Invalid entry configuration: Value node missing");
+		float fvalue;
+		try {
+			fvalue = Float.parseFloat(value);
+		}
+		catch(NumberFormatException ne) {
+			throw new XMLWriteConfigurationException("Invalid entry configuration: Value node contains nonnumerical data '" + value + "'");
+		}
+		if(currency == null) throw new XMLWriteConfigurationException("Invalid entry configuration: Currency node missing");
+		Currency cur;
+		try {
+			cur = Currency.getInstance(currency);
+		}
+		catch(IllegalArgumentException ie) {
+			throw new XMLWriteConfigurationException("Invalid entry configuration: Currency code '" + currency + "' unknown");
+		}
+		if(date == null) throw new XMLWriteConfigurationException("Invalid entry configuration: Date node missing");
+		GregorianCalendar cal;
+		try {
+			cal = parseDate(date);
+		}
+		catch(ParseException pe) {
+			throw new XMLWriteConfigurationException("Invalid entry configuration: Date format '" + date + "' not conforming to " +
+					Fsfibu2DateFormats.entryDateFormat);
+		}
+		if(account == null) throw new XMLWriteConfigurationException("Invalid entry configuration: Account node missing");
+		try {
+			return new Entry(name, fvalue, cur, cal, category, account, accountInformation, additional);
+		}
+		catch(IllegalArgumentException ie) {
+			throw new XMLWriteConfigurationException("Invalid entry configuration: Account id '" + account + "' unknown");
+		}
+	}
+
+	/**
+	 * Reads a category element as specified by {@link Category#getCategory(org.dom4j.Node)}
+	 */
+	private Category readCategory(XMLStreamReader r) throws XMLStreamException {
+		Vector<String> sequence = new Vector<String>();
+		while(nextChild(r)) {
+			if(r.getLocalName().equals("tail")) sequence.add(readText(r));
+			else skipElement(r);
+		}
+		Category c = categories.get(sequence);
+		if(c == null) {
+			c = Category.getCategory(sequence);
+			categories.put(sequence, c);
+		}
+		return c;
+	}
+
+	/**
+	 * @return The text directly contained in the current element (child elements are skipped, as for dom4j's getText()). Afterwards the reader is
+	 * positioned at the end of the element.
+	 */
+	private static String readText(XMLStreamReader r) throws XMLStreamException {
+		StringBuilder b = null;
+		String text = "";
+		while(true) {
+			int event = r.next();
+			switch(event) {
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+			case XMLStreamConstants.ENTITY_REFERENCE:
+				//Most elements contain only one chunk of text, so we only use a builder if necessary
+				if(b == null && text.length() == 0) text = r.getText();
+				else {
+					if(b == null) b = new StringBuilder(text);
+					b.append(r.getText());
+				}
+				break;
+			case XMLStreamConstants.START_ELEMENT:
+				skipElement(r);
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				return b == null? text : b.toString();
+			}
+		}
+	}
+
+	/**
+	 * Moves to the next child element of the current element, ignoring any text, comments etc.
+	 * @return true, if the reader is positioned at the start of the next child element, false, if it is positioned at the end of the current element
+	 */
+	private static boolean nextChild(XMLStreamReader r) throws XMLStreamException {
+		while(true) {
+			int event = r.next();
+			if(event == XMLStreamConstants.START_ELEMENT) return true;
+			if(event == XMLStreamConstants.END_ELEMENT) return false;
+		}
+	}
+
+	/**
+	 * Skips the current element including all its children. Afterwards the reader is positioned at the end of the element.
+	 */
+	private static void skipElement(XMLStreamReader r) throws XMLStreamException {
+		int depth = 1;
+		while(depth > 0) {
+			int event = r.next();
+			if(event == XMLStreamConstants.START_ELEMENT) depth++;
+			if(event == XMLStreamConstants.END_ELEMENT) depth--;
+		}
+	}
+
+	private GregorianCalendar parseDate(String s) throws ParseException {
+		GregorianCalendar cal = new GregorianCalendar();
+		cal.setTime(dateFormat.parse(s));
+		return cal;
+	}
+
+	// SWINGWORKER ***********************************
+	// ***********************************************
+
+	/**
+	 * Notifies all listeners that the task begins and executes this reader in a background thread
+	 */
+	public void start() {
+		fireTaskBegins();
+		execute();
+	}
+
+	@Override
+	protected Journal doInBackground() throws Exception {
+		return read();
+	}
+
+	@Override
+	protected void done() {
+		fireTaskFinished();
+	}
+
+	// LISTENER MECHANISM ****************************
+	// ***********************************************
+
+	public void addProgressListener(ProgressListener<Journal, Object> l) {
+		if(l != null) listeners.add(l);
+	}
+
+	public void removeProgressListener(ProgressListener<Journal, Object> l) {
+		listeners.remove(l);
+	}
+
+	protected void fireTaskBegins() {
+		for(ProgressListener<Journal, Object> l : listeners) l.taskBegins(this);
+	}
+
+	protected void fireProgressed() {
+		for(ProgressListener<Journal, Object> l : listeners) l.progressed(this);
+	}
+
+	protected void fireTaskFinished() {
+		for(ProgressListener<Journal, Object> l : listeners) l.taskFinished(this);
+	}
+
+}
@@ -0,0 +1,243 @@
+package fs.fibu2.data.format;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+
+import javax.swing.SwingWorker;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import fs.fibu2.data.model.Account;
+import fs.fibu2.data.model.Category;
+import fs.fibu2.data.model.Entry;
+import fs.fibu2.data.model.Journal;
+import fs.fibu2.data.model.ReadingPoint;
+import fs.fibu2.view.event.ProgressListener;
+
+/**
+ * A JournalWriter writes an fsfibu2 journal to a file in the format specified by {@link Journal#configure(org.dom4j.Node)}, without building
+ * a DOM tree: The elements are written directly to a buffered stream. The data written is a snapshot of the journal taken when the writer is
+ * created, so the journal can be modified while the file is written (e.g. in a background thread). <br>
+ * The data is first written to a temporary file in the same directory, which is then renamed to the actual file (atomically, if the file system
+ * supports this). So the old file is never left in a partially written state. <br>
+ * The writer can be used directly via {@link #write()} or as a {@link SwingWorker} via {@link #start()}. In the latter case, all registered
+ * {@link ProgressListener}s are notified of the beginning, the progress and the end of the task. Any exception can be retrieved via get().
+ * @author Simon Hampe
+ *
+ */
+public class JournalWriter extends SwingWorker<Object, Object> {
+
+	private File file;
+
+	//The snapshot
+	private String name;
+	private String description;
+	private HashMap<String, Float> startValues = new HashMap<String, Float>();
+	private Vector<String> readingPointNames = new Vector<String>();
+	private Vector<String> readingPointDays = new Vector<String>();
+	private Vector<Entry> entries;
+
+	private SimpleDateFormat dateFormat = Fsfibu2DateFormats.getEntryDateFormat();
+
+	private HashSet<ProgressListener<Object, Object>> listeners = new HashSet<ProgressListener<Object,Object>>();
+
+	// CONSTRUCTOR ***********************************
+	// ***********************************************
+
+	/**
+	 * Creates a writer, which writes the current state of j to f
+	 * @throws NullPointerException - If any of the parameters is null
+	 */
+	public JournalWriter(Journal j, File f) {
+		if(j == null || f == null) throw new NullPointerException("Cannot write null journal or to null file");
+		file = f;
+		//Journal methods synchronize on the journal, so this is a consistent state
+		synchronized (j) {
+			name = j.getName();
+			description = j.getDescription();
+			HashMap<Account, Float> values = j.getStartValues();
+			for(Account a : values.keySet()) startValues.put(a.getID(), values.get(a));
+			for(ReadingPoint rp : j.getReadingPoints()) {
+				readingPointNames.add(rp.getName());
+				readingPointDays.add(dateFormat.format(rp.getReadingDay().getTime()));
+			}
+			entries = new Vector<Entry>(j.getEntryView());
+		}
+		addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				if("progress".equals(evt.getPropertyName())) fireProgressed();
+			}
+		});
+	}
+
+	// WRITING ***************************************
+	// ***********************************************
+
+	/**
+	 * Writes the journal to a temporary file and then replaces the actual file by it.
+	 * @throws IOException - If any I/O errors occur. The actual file is then left unchanged.
+	 */
+	public void write() throws IOException {
+		AtomicFileWriter.write(file, new AtomicFileWriter.Content() {
+			@Override
+			public void writeTo(FileOutputStream fout) throws IOException {
+				OutputStream out = new BufferedOutputStream(fout, 65536);
+				writeJournal(out);
+				out.flush();
+			}
+		});
+	}
+
+	/**
+	 * Writes the journal as UTF-8 encoded xml to the given stream. The stream is not closed.
+	 */
+	public void writeJournal(OutputStream out) throws IOException {
+		try {
+			XMLStreamWriter w = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+			w.writeStartDocument("UTF-8", "1.0");
+			w.writeCharacters("\n\n");
+			w.writeStartElement("journal");
+				writeElement(w, 1, "name", name);
+				writeElement(w, 1, "description", description);
+				indent(w, 1);
+				w.writeStartElement("startvalues");
+				for(String id : startValues.keySet()) {
+					writeElement(w, 2, id, startValues.get(id).toString());
+				}
+				if(startValues.size() > 0) indent(w, 1);
+				w.writeEndElement();
+				for(int i = 0; i < readingPointNames.size(); i++) {
+					indent(w, 1);
+					w.writeStartElement("readingpoint");
+						writeElement(w, 2, "name", readingPointNames.get(i));
+						writeElement(w, 2, "readingday", readingPointDays.get(i));
+					indent(w, 1);
+					w.writeEndElement();
+				}
+				int progress = 0;
+				for(int i = 0; i < entries.size(); i++) {
+					writeEntry(w, entries.get(i));
+					int newprogress = (int)((100L * (i+1)) / entries.size());
+					if(newprogress != progress) {
+						progress = newprogress;
+						setProgress(progress);
+					}
+				}
+			indent(w, 0);
+			w.writeEndElement();
+			w.writeCharacters("\n");
+			w.writeEndDocument();
+			w.flush();
+			w.close();
+		}
+		catch(XMLStreamException e) {
+			throw new IOException("Cannot write journal: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes an entry element as specified by {@link Entry#getConfiguration()}
+	 */
+	private void writeEntry(XMLStreamWriter w, Entry e) throws XMLStreamException {
+		indent(w, 1);
+		w.writeStartElement("entry");
+			writeElement(w, 2, "name", e.getName());
+			writeElement(w, 2, "value", e.getValue() + "");
+			writeElement(w, 2, "currency", e.getCurrency().getCurrencyCode());
+			writeElement(w, 2, "date", dateFormat.format(e.getDate().getTime()));
+			indent(w, 2);
+			w.writeStartElement("category");
+			for(String tail : e.getCategory().getOrderedList()) {
+				writeElement(w, 3, "tail", tail);
+			}
+			if(e.getCategory() != Category.getRootCategory()) indent(w, 2);
+			w.writeEndElement();
+			writeElement(w, 2, "account", e.getAccount().getID());
+			indent(w, 2);
+			w.writeStartElement("accountinformation");
+			HashMap<String, String> info = e.getAccountInformation();
+			for(String key : info.keySet()) {
+				writeElement(w, 3, key, info.get(key));
+			}
+			if(info.size() > 0) indent(w, 2);
+			w.writeEndElement();
+			writeElement(w, 2, "additionalinformation", e.getAdditionalInformation());
+		indent(w, 1);
+		w.writeEndElement();
+	}
+
+	/**
+	 * Writes an element containing only the given text on a new line with the given indentation
+	 */
+	private static void writeElement(XMLStreamWriter w, int level, String name, String text) throws XMLStreamException {
+		indent(w, level);
+		w.writeStartElement(name);
+		if(text != null) w.writeCharacters(text);
+		w.writeEndElement();
+	}
+
+	/**
+	 * Writes a line break and two spaces per level
+	 */
+	private static void indent(XMLStreamWriter w, int level) throws XMLStreamException {
+		w.writeCharacters("\n");
+		for(int i = 0; i < level; i++) w.writeCharacters("  ");
+	}
+
+	// SWINGWORKER ***********************************
+	// ***********************************************
+
+	/**
+	 * Notifies all listeners that the task begins and executes this writer in a background thread
+	 */
+	public void start() {
+		fireTaskBegins();
+		execute();
+	}
+
+	@Override
+	protected Object doInBackground() throws Exception {
+		write();
+		return null;
+	}
+
+	@Override
+	protected void done() {
+		fireTaskFinished();
+	}
+
+	// LISTENER MECHANISM ****************************
+	// ***********************************************
+
+	public void addProgressListener(ProgressListener<Object, Object> l) {
+		if(l != null) listeners.add(l);
+	}
+
+	public void removeProgressListener(ProgressListener<Object, Object> l) {
+		listeners.remove(l);
+	}
+
+	protected void fireTaskBegins() {
+		for(ProgressListener<Object, Object> l : listeners) l.taskBegins(this);
+	}
+
+	protected void fireProgressed() {
+		for(ProgressListener<Object, Object> l : listeners) l.progressed(this);
+	}
+
+	protected void fireTaskFinished() {
+		for(ProgressListener<Object, Object> l : listeners) l.taskFinished(this);
+	}
+
+}
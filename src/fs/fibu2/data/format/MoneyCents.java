@@ -0,0 +1,81 @@
+package fs.fibu2.data.format;
+
+import java.math.BigDecimal;
+
+/**
+ * This class contains methods for monetary arithmetic in fixed-point representation: A monetary value is represented as a primitive long containing
+ * the number of cents (i.e. the value multiplied by 100). All operations work on primitive values, so they are exact (a long can hold
+ * any realistic sum of money) and don't create any objects. This should be used for all sums over many entries. A {@link BigDecimal} should only be created when a value
+ * is actually displayed.
+ * @author Simon Hampe
+ *
+ */
+public final class MoneyCents {
+
+	/**
+	 * The value 0
+	 */
+	public final static long zero = 0;
+
+	private MoneyCents() {
+		//Only static methods
+	}
+
+	// CONVERSION *****************************
+	// ****************************************
+
+	/**
+	 * @return The value of f in cents, rounded HALF_UP as by {@link MoneyDecimal#bigd(float)}. Since a float has at most 24 significant bits,
+	 * the product with 100 is computed exactly in double precision, so rounding its absolute value is exactly a HALF_UP rounding.
+	 */
+	public static long valueOf(float f) {
+		long c = Math.round(Math.abs((double)f) * 100);
+		return f < 0? -c : c;
+	}
+
+	/**
+	 * @return The value of d in cents, rounded HALF_UP to two decimal places
+	 */
+	public static long valueOf(BigDecimal d) {
+		return d.setScale(2, MoneyDecimal.currm).unscaledValue().longValue();
+	}
+
+	/**
+	 * @return A {@link BigDecimal} with 2 decimal places representing the given value
+	 */
+	public static BigDecimal toBigDecimal(long cents) {
+		return BigDecimal.valueOf(cents, 2);
+	}
+
+	/**
+	 * @return The given value as float (e.g. for formatting or charts). This might of course lose precision.
+	 */
+	public static float toFloat(long cents) {
+		return (float)(cents / 100.0);
+	}
+
+	// ARITHMETIC *****************************
+	// ****************************************
+
+	/**
+	 * @return a + b
+	 */
+	public static long add(long a, long b) {
+		return a + b;
+	}
+
+	/**
+	 * @return a - b
+	 */
+	public static long substract(long a, long b) {
+		return a - b;
+	}
+
+	/**
+	 * @return A negative integer, zero or a positive integer, if a is smaller than, equal to or greater than b
+	 */
+	public static int compare(long a, long b) {
+		return a < b? -1 : (a > b? 1 : 0);
+	}
+
+}
@@ -1,8 +1,11 @@
 package fs.fibu2.data.model;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
@@ -19,6 +22,12 @@ import fs.xml.XMLWriteConfigurationException;
  * Implements a category specification for fsfibu2 entries. A category is a sequence of strings, where latter strings specify a more detailed
  * category (e.g. 'Living being' - 'Animal' - 'Fish' - 'Shark'). Category objects are immutable and there is only one category object for each category, so
  * there is no public constructor. The root category is represented by the empty list. <br>
+ * The existing categories form a tree, where each category knows its subcategories by their tail. A category is found by walking down this tree
+ * from the root, so looking up a category does not need any lock and the methods creating categories can be called from several threads. <br>
+ * Each category has a dense integer ID (see {@link #getID()}), so data about categories can be kept in arrays. Furthermore the tree of all categories is
+ * numbered in pre- and post-order, where the subcategories of each category are ordered by their tail. So c is a subcategory of p, if and only if
+ * the interval [pre(c), post(c)] is contained in [pre(p), post(p)], and the order of categories (see {@link #compareTo(Category)}) is the
+ * pre-order. The numbering is recomputed when it is needed for a category created after the last numbering. <br>
  * Though this class implements XMLConfigurable, only read access is allowed. Any call of configure() will cause an XMLWriteConfiurationException
  * @author Simon Hampe
  *
@@ -26,15 +35,25 @@ import fs.xml.XMLWriteConfigurationException;
 public final class Category implements XMLConfigurable, Comparable<Category>{
 
 	//A reference to the root group
-	private static Category root = null;
-	//A list of existing categories: Which category has string s at position n (counting from most general = 1)?
-	private static HashMap<String, HashMap<Integer,HashSet<Category>>> categories = new HashMap<String, HashMap<Integer,HashSet<Category>>>();
+	private static volatile Category root = null;
+	//All categories, indexed by ID
+	private static Vector<Category> categoriesByID = new Vector<Category>();
+	//The current numbering of the category tree
+	private static volatile Numbering numbering = null;
 	
 	//The category represented by this object
 	public final Category parent;
 	public final String tail;
 	private final int hashCode;
 	private final Vector<String> orderedList = new Vector<String>(); //We keep a double copy of the data, since both formats might be efficient depending on the task 
+	private final int id;
+	//The IDs of this category and all its supercategories
+	private final int[] path;
+	//The direct subcategories, sorted by their tail. Only accessed while holding the lock of Category.class
+	private final Vector<Category> children = new Vector<Category>();
+	//The direct subcategories, indexed by their tail. This is the registry of all existing categories: A category is looked up by 
+	//walking down from the root category
+	private final ConcurrentHashMap<String, Category> childrenByTail = new ConcurrentHashMap<String, Category>();
 	
 	//A logger
 	private static Logger logger = Logger.getLogger(Category.class);
@@ -55,107 +74,55 @@ public final class Category implements XMLConfigurable, Comparable<Category>{
 		for(String s : orderedList) hash = 31*hash + s.hashCode();
 		hashCode = hash;
 		
-		//Register in categories map
-		for(int i = 0; i < orderedList.size(); i++) {
-			String s = orderedList.get(i);
-			HashMap<Integer,HashSet<Category>> mapat = categories.get(s);
-			if(mapat == null) mapat = new HashMap<Integer, HashSet<Category>>();
-			HashSet<Category> cmap = mapat.get(i+1);
-			if(cmap == null) cmap = new HashSet<Category>();
-			cmap.add(this);
-			mapat.put(i+1, cmap);
-			categories.put(s, mapat);
+		//Assign ID and register in parent
+		synchronized (Category.class) {
+			id = categoriesByID.size();
+			categoriesByID.add(this);
+			if(parent != null) {
+				int position = Collections.binarySearch(parent.children, this, tailComparator);
+				parent.children.add(-position - 1, this);
+			}
 		}
+		path = parent == null? new int[]{id} : Arrays.copyOf(parent.path, parent.path.length + 1);
+		path[path.length - 1] = id;
 		
 		logger.trace("Created category: " + toString());	
 	}
 	
+	/**
+	 * @return The category with the given parent and tail. If tail == null, this is the parent (resp. the root category, if parent == null as well). If
+	 * parent == null, the parent is the root category.
+	 */
 	public static Category getCategory(Category parent, String tail) {
+		if(parent == null) parent = getRootCategory();
 		//If tail == null, this is just the parent category
-		if(tail == null) return parent == null? getCategory((Vector<String>)null) : parent;
+		if(tail == null) return parent;
 		
-		//Create associated string sequence
-		Vector<String> sequence = (parent == null? new Vector<String>() : parent.getOrderedList());
-		sequence.add(tail);
-		
-		return getCategory(sequence);			
+		//Look up without locking. Only the creation of a category is synchronized, so there is exactly one object for each category
+		Category c = parent.childrenByTail.get(tail);
+		if(c != null) return c;
+		synchronized (Category.class) {
+			c = parent.childrenByTail.get(tail);
+			if(c == null) {
+				c = new Category(parent, tail);
+				//Only publish the category when it is completely constructed
+				parent.childrenByTail.put(tail, c);
+			}
+		}
+		return c;
 	}
 	
+	/**
+	 * @return The category defined by the given sequence of strings, ordered from general to specific. For the empty or null list, this is the root category.
+	 * Null elements are treated as the empty string.
+	 */
 	public static Category getCategory(Vector<String> sequence) {
-		//If this is the empty or null list, the root group is returned
-		if(sequence == null || sequence.size() == 0) {
-			if(root != null) return root;
-			else {
-				root = new Category(null,null);
-				return root;
-			}
-		}
-		
-		//Otherwise determine, if this category already exists
-		
-		//Will contain at position n: A list of categories containing the first n+1 strings of the sequence at the right position
-		//So of course vector(n) contains vector(m) for all n <= m
-		Vector<HashSet<Category>> nthOrderParents = new Vector<HashSet<Category>>(sequence.size());
-		
-		//Create first order parents
-		nthOrderParents.add(new HashSet<Category>());
-		HashMap<Integer,HashSet<Category>> containfirst = categories.get(sequence.get(0));
-		if(containfirst != null) {
-			nthOrderParents.set(0,containfirst.get(1));
-		}
-		
-		//Create higher order parents
-		for(int i = 1; i < sequence.size(); i++) {
-			//Start with the last parent list
-			HashSet<Category> ithParents = new HashSet<Category>(nthOrderParents.get(i-1));
-			if(ithParents.size() == 0) {
-				nthOrderParents.add(ithParents); 
-				continue;
-			}
-
-			HashMap<Integer,HashSet<Category>> containthis = categories.get(sequence.get(i));
-			//If there's no category containing this string, we're done.
-			if(containthis == null) {
-				nthOrderParents.add(new HashSet<Category>());
-				continue;
-			}
-			
-			//Else remove all categories from the list of possible ones that do not contain the string at the right position
-			HashSet<Category> containsthisat = containthis.get(i+1);
-			if(containsthisat == null) containsthisat = new HashSet<Category>();
-			for(Category c : nthOrderParents.get(i-1)) {
-				if(!containsthisat.contains(c)) ithParents.remove(c);
-			}
-			nthOrderParents.add(ithParents);
-		}		
-		
-		//Find nearest existing parent
-		int s = sequence.size();
-		Category nearestparent = null;
-		for(int i = s-1; i >= 0; i--) {
-			if(nthOrderParents.get(i).size() > 0) {
-				for(Category c : nthOrderParents.get(i)) if(c.getOrder() == i+1) {
-					nearestparent= c; break;
-				}
-				if(nearestparent!= null) break;
-			}
-		}
-		
-		//If nearestparent == null, it is the root category
-		if(nearestparent == null) nearestparent = getRootCategory();
-		
-		//If the nearest parent has the same order as the sequence, it IS the category
-		if(nearestparent.getOrder() == s) return nearestparent;
-		
-		//Else create it, starting with the highest order parent
-		int o = nearestparent.getOrder();
-		for(int i = o + 1; i <= s; i++) {
-			nearestparent = new Category(nearestparent,sequence.get(i-1));
+		Category c = getRootCategory();
+		if(sequence == null) return c;
+		for(String s : sequence) {
+			c = getCategory(c, s == null? "" : s);
 		}
-		return nearestparent;
-		
-		
-		
+		return c;
 	}
 	
 	// GETTER METHODS ********************************************************
@@ -168,6 +135,47 @@ public final class Category implements XMLConfigurable, Comparable<Category>{
 		return new Vector<String>(orderedList);
 	}
 	
+	/**
+	 * @param level A number between 1 and {@link #getOrder()}
+	 * @return The string at the given level of the sequence defining this category (1 being the most general one)
+	 */
+	public String getString(int level) {
+		return orderedList.get(level - 1);
+	}
+	
+	/**
+	 * @return The ID of this category. The IDs of all categories are 0,...,{@link #getNumberOfCategories()} - 1, the root category has ID 0.
+	 */
+	public int getID() {
+		return id;
+	}
+	
+	/**
+	 * @return The IDs of all supercategories of this category and of this category itself, starting with the root category. The array must not be modified.
+	 */
+	public int[] getPathIDs() {
+		return path;
+	}
+	
+	/**
+	 * @return The number of existing categories (including the root category)
+	 */
+	public static int getNumberOfCategories() {
+		synchronized (Category.class) {
+			return categoriesByID.size();
+		}
+	}
+	
+	/**
+	 * @return The category with the given ID
+	 * @throws ArrayIndexOutOfBoundsException - If there is no such category
+	 */
+	public static Category getCategory(int id) {
+		synchronized (Category.class) {
+			return categoriesByID.get(id);
+		}
+	}
+	
 	/**
 	 * Returns the length of the string sequence defining this category
 	 */
@@ -180,11 +188,10 @@ public final class Category implements XMLConfigurable, Comparable<Category>{
 	 */
 	public static HashSet<Category> getExistingCategories() {
 		HashSet<Category> returnValue = new HashSet<Category>();
-		for(HashMap<Integer,HashSet<Category>> map : categories.values()) {
-			for(HashSet<Category> set : map.values()) {
-				returnValue.addAll(set);
-			}
+		synchronized (Category.class) {
+			returnValue.addAll(categoriesByID);
 		}
+		returnValue.remove(root);
 		return returnValue;
 	}
 	
@@ -192,7 +199,14 @@ public final class Category implements XMLConfigurable, Comparable<Category>{
 	 * @return The root category
 	 */
 	public static Category getRootCategory() {
-		return root != null? root : getCategory(null,null);
+		Category r = root;
+		if(r == null) {
+			synchronized (Category.class) {
+				if(root == null) root = new Category(null, null);
+				r = root;
+			}
+		}
+		return r;
 	}
 	
 	/**
@@ -201,7 +215,8 @@ public final class Category implements XMLConfigurable, Comparable<Category>{
 	 */
 	public boolean isSubCategoryOf(Category p) {
 		if(p == null) return false;
-		return this == p || (parent == null? false : parent.isSubCategoryOf(p));
+		Numbering n = getNumbering(this, p);
+		return n.pre[p.id] <= n.pre[id] && n.post[id] <= n.post[p.id];
 	}
 	
 	/**
@@ -381,15 +396,77 @@ public final class Category implements XMLConfigurable, Comparable<Category>{
 		if(this == o) return 0;
 		//Null is smaller than any
 		if(o == null) return 1;
-		//Root is smaller than any
-		if(o == getRootCategory()) return 1;
-		//Subcategory
-		if(isSubCategoryOf(o)) return 1;
-		//Supercategory
-		if(isSuperCategoryOf(o)) return -1;
-		//Find gcp and do lexicographical comparison
-		Category gcp = getGreatestCommonParent(o);
-		return orderedList.get(gcp.getOrder()).compareTo(o.getOrderedList().get(gcp.getOrder()));
+		//This is exactly the pre-order of the category tree
+		Numbering n = getNumbering(this, o);
+		return n.pre[id] < n.pre[o.id]? -1 : 1;
+	}
+	
+	// NUMBERING *************************************
+	// ***********************************************
+	
+	/**
+	 * @return A numbering containing both categories. The tree is renumbered, if necessary.
+	 */
+	private static Numbering getNumbering(Category a, Category b) {
+		Numbering n = numbering;
+		if(n == null || a.id >= n.pre.length || b.id >= n.pre.length) {
+			synchronized (Category.class) {
+				n = numbering;
+				if(n == null || n.pre.length != categoriesByID.size()) {
+					n = new Numbering(categoriesByID.size());
+					numbering = n;
+				}
+			}
+		}
+		return n;
+	}
+	
+	/**
+	 * Sorts categories by their tail
+	 */
+	private static final Comparator<Category> tailComparator = new Comparator<Category>() {
+		@Override
+		public int compare(Category o1, Category o2) {
+			return o1.tail.compareTo(o2.tail);
+		}
+	};
+	
+	/**
+	 * The pre- and post-order numbers of all categories, indexed by ID. The subcategories of each category are visited in the order of their tails.
+	 */
+	private static class Numbering {
+		public final int[] pre;
+		public final int[] post;
+		
+		/**
+		 * Numbers the whole tree. Must be called while holding the lock of Category.class.
+		 */
+		public Numbering(int size) {
+			pre = new int[size];
+			post = new int[size];
+			int preCount = 0;
+			int postCount = 0;
+			//Iterative depth first search: The stack contains the categories and the index of the next child to visit
+			Category[] stack = new Category[size];
+			int[] nextChild = new int[size];
+			int depth = 0;
+			stack[0] = root;
+			pre[root.id] = preCount++;
+			while(depth >= 0) {
+				Category c = stack[depth];
+				if(nextChild[depth] < c.children.size()) {
+					Category child = c.children.get(nextChild[depth]++);
+					pre[child.id] = preCount++;
+					depth++;
+					stack[depth] = child;
+					nextChild[depth] = 0;
+				}
+				else {
+					post[c.id] = postCount++;
+					depth--;
+				}
+			}
+		}
 	}
 
 }
@@ -10,7 +10,9 @@ import org.dom4j.Element;
 import org.dom4j.Node;
 import org.dom4j.tree.DefaultElement;
 
+import fs.fibu2.data.format.EpochDay;
 import fs.fibu2.data.format.Fsfibu2DateFormats;
+import fs.fibu2.data.format.MoneyCents;
 import fs.fibu2.lang.Fsfibu2StringTableMgr;
 import fs.xml.XMLConfigurable;
 import fs.xml.XMLReadConfigurationException;
@@ -28,8 +30,9 @@ public final class Entry implements XMLConfigurable {
 	
 	private String 					name;	
 	private float 					value;
+	private long					cents;
 	private Currency 				currency;
-	private GregorianCalendar		date;
+	private int						day;
 	private Category				category;
 	private Account					account;
 	private HashMap<String,String> 	accountInformation;
@@ -181,11 +184,19 @@ public final class Entry implements XMLConfigurable {
 		return value;
 	}
 
+	/**
+	 * @return The value of this entry in cents, rounded to two decimal places (see {@link MoneyCents}). Use this for any arithmetic.
+	 */
+	public long getCents() {
+		return cents;
+	}
+
 	/**
 	 * Sets the value of this entry. The number of fraction digits actually displayed is determined by the currency.
 	 */
 	private void setValue(float value) {
 		this.value = value;
+		this.cents = MoneyCents.valueOf(value);
 	}
 
 	/**
@@ -205,19 +216,27 @@ public final class Entry implements XMLConfigurable {
 	}
 
 	/**
-	 * The date of this entry (usually the invoice date)
+	 * The date of this entry (usually the invoice date). This creates a new calendar object each time, so use {@link #getEpochDay()}, 
+	 * whenever possible.
 	 */
 	public GregorianCalendar getDate() {
-		return (GregorianCalendar)date.clone();
+		return EpochDay.toCalendar(day);
+	}
+	
+	/**
+	 * @return The date of this entry as epoch day (see {@link EpochDay})
+	 */
+	public int getEpochDay() {
+		return day;
 	}
 
 	/**
-	 * Sets the date of this entry. 
+	 * Sets the date of this entry. Only year, month and day are kept.
 	 * @throws NullPointerException - If date == null
 	 */
 	private void setDate(GregorianCalendar date) throws NullPointerException {
 		if(date == null) throw new NullPointerException("Null date invalid");
-		this.date = (GregorianCalendar)date.clone();
+		this.day = EpochDay.valueOf(date);
 	}
 
 	/**
@@ -296,7 +315,7 @@ public final class Entry implements XMLConfigurable {
 		b.append(Fsfibu2StringTableMgr.getString(sgroup + ".currency"));
 		b.append(": " + currency.getSymbol() + "\n");
 		b.append(Fsfibu2StringTableMgr.getString(sgroup + ".date"));
-		b.append(": " + Fsfibu2DateFormats.getEntryDateFormat().format(date.getTime()) + "\n");
+		b.append(": " + Fsfibu2DateFormats.getEntryDateFormat().format(getDate().getTime()) + "\n");
 		b.append(Fsfibu2StringTableMgr.getString(sgroup + ".category"));
 		b.append(": " + category.toString() + "\n");
 		b.append(Fsfibu2StringTableMgr.getString(sgroup + ".account"));
@@ -364,7 +383,7 @@ public final class Entry implements XMLConfigurable {
 		root.add(currencyNode);
 		
 		DefaultElement dateNode = new DefaultElement("date");
-		dateNode.setText(Fsfibu2DateFormats.getEntryDateFormat().format(date.getTime()));
+		dateNode.setText(Fsfibu2DateFormats.getEntryDateFormat().format(getDate().getTime()));
 		root.add(dateNode);
 		
 		Node categoryNode = category.getConfiguration();
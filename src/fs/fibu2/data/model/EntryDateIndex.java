@@ -0,0 +1,108 @@
+package fs.fibu2.data.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import fs.fibu2.data.format.EntryComparator;
+
+/**
+ * An entry date index keeps entries sorted by their date. The entries are grouped by their day (as epoch day, see {@link Entry#getEpochDay()})
+ * in a sorted map. The entries of one day are kept sorted by {@link EntryComparator}, so the complete order is exactly the order induced by an
+ * {@link EntryComparator}. Adding or removing an entry only needs a lookup of its day and a binary search among the entries of this day. <br>
+ * The complete sorted list is created only when it is requested after a modification (without any comparisons, since all days are already sorted)
+ * and is then shared by all callers until the next modification. <br>
+ * The index is not synchronized. It is modified only by its journal, which does all synchronization.
+ * @author Simon Hampe
+ *
+ */
+public class EntryDateIndex {
+
+	//All entries of each day, sorted by the comparator
+	private TreeMap<Integer, Vector<Entry>> days = new TreeMap<Integer, Vector<Entry>>();
+	private int size = 0;
+
+	private EntryComparator comparator = new EntryComparator(false);
+
+	//All entries sorted. Null, if it has to be recomputed
+	private List<Entry> sorted = null;
+
+	// MODIFICATION *************************************
+	// **************************************************
+
+	/**
+	 * Adds e to the index. It should not be contained in it already
+	 */
+	public void add(Entry e) {
+		int day = e.getEpochDay();
+		Vector<Entry> entries = days.get(day);
+		if(entries == null) {
+			entries = new Vector<Entry>(2);
+			days.put(day, entries);
+		}
+		//Binary search for the insertion point
+		int low = 0;
+		int high = entries.size();
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(comparator.compare(entries.get(mid), e) < 0) low = mid + 1;
+			else high = mid;
+		}
+		entries.add(low, e);
+		size++;
+		sorted = null;
+	}
+
+	/**
+	 * Removes e from the index
+	 * @return false, if e is not contained in the index
+	 */
+	public boolean remove(Entry e) {
+		int day = e.getEpochDay();
+		Vector<Entry> entries = days.get(day);
+		if(entries == null) return false;
+		for(int i = 0; i < entries.size(); i++) {
+			if(entries.get(i) == e) {
+				entries.remove(i);
+				if(entries.size() == 0) days.remove(day);
+				size--;
+				sorted = null;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// QUERIES ******************************************
+	// **************************************************
+
+	/**
+	 * @return A read-only list of all entries, sorted by {@link EntryComparator}. The list is never modified, so it can be used in any thread.
+	 */
+	public List<Entry> getSortedEntries() {
+		if(sorted == null) {
+			Entry[] array = new Entry[size];
+			int i = 0;
+			for(Vector<Entry> entries : days.values()) {
+				for(Entry e : entries) array[i++] = e;
+			}
+			sorted = Collections.unmodifiableList(Arrays.asList(array));
+		}
+		return sorted;
+	}
+
+	/**
+	 * @return A sorted list of all entries between the given epoch days (both inclusive).
+	 */
+	public Vector<Entry> getEntriesBetween(int fromDay, int toDay) {
+		Vector<Entry> result = new Vector<Entry>();
+		if(fromDay > toDay) return result;
+		for(Vector<Entry> entries : days.subMap(fromDay, true, toDay, true).values()) {
+			result.addAll(entries);
+		}
+		return result;
+	}
+
+}
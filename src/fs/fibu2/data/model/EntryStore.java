@@ -0,0 +1,385 @@
+package fs.fibu2.data.model;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Vector;
+
+import fs.fibu2.data.format.EpochDay;
+
+/**
+ * An entry store keeps the entries of a {@link Journal} in columns (one array for each property) instead of a set of objects. Each entry is identified
+ * by an integer ID (its index in the columns), which is stable as long as the entry is contained in the store. The IDs of removed entries are reused. <br>
+ * Apart from the entries themselves, the store contains the following columns: The date as epoch day (days since 1.1.1970), the value in cents and
+ * the IDs of category, account and name. Categories, accounts and names are each stored only once in a dictionary. <br>
+ * Read access is possible via {@link View}s: A view is a read-only snapshot of the store, which shares its arrays with the store. Only
+ * when the store is modified after a view has been created, the arrays are copied once. So creating a view costs nothing and a view can be safely used in
+ * any thread, even if the store is modified meanwhile. <br>
+ * Furthermore the store remembers the IDs changed by the last modifications, so a result computed for an older view can be updated by only
+ * looking at these IDs (see {@link View#getChangedIDs(int)}). <br>
+ * The store itself is not synchronized. It is modified only by its journal, which does all synchronization.
+ * @author Simon Hampe
+ *
+ */
+public class EntryStore {
+
+	//The columns
+	private Entry[] entries = new Entry[16];
+	private int[] days = new int[16];
+	private long[] cents = new long[16];
+	private int[] categoryIDs = new int[16];
+	private int[] accountIDs = new int[16];
+	private int[] nameIDs = new int[16];
+
+	//The number of used slots (including free ones) and the number of entries
+	private int capacity = 0;
+	private int size = 0;
+
+	//IDs of all entries and free slots
+	private HashMap<Entry, Integer> ids = new HashMap<Entry, Integer>();
+	private Vector<Integer> freeIDs = new Vector<Integer>();
+
+	//Dictionaries. These are only appended to, so they can be shared by all views
+	private Dictionary<Category> categories = new Dictionary<Category>();
+	private Dictionary<Account> accounts = new Dictionary<Account>();
+	private Dictionary<String> names = new Dictionary<String>();
+
+	//The ID changed by the modification which created version v is changes[(v-1) % changeLogLength]. Only the last modifications are kept
+	private static final int changeLogLength = 4096;
+	private int[] changes = new int[changeLogLength];
+	
+	//Whether the current arrays are used by a view (and have to be copied before modification)
+	private boolean shared = false;
+	//Counts all modifications
+	private int version = 0;
+
+	// MODIFICATION *************************************
+	// **************************************************
+
+	/**
+	 * Adds e to the store
+	 * @return false, if e is null or already contained in the store
+	 */
+	public boolean add(Entry e) {
+		if(e == null || ids.containsKey(e)) return false;
+		prepareModification();
+		int id;
+		if(freeIDs.size() > 0) id = freeIDs.remove(freeIDs.size() - 1);
+		else {
+			if(capacity == entries.length) grow(2 * capacity);
+			id = capacity++;
+		}
+		entries[id] = e;
+		days[id] = e.getEpochDay();
+		cents[id] = e.getCents();
+		categoryIDs[id] = categories.add(e.getCategory());
+		accountIDs[id] = accounts.add(e.getAccount());
+		nameIDs[id] = names.add(e.getName());
+		ids.put(e, id);
+		changes[(version - 1) & (changeLogLength - 1)] = id;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Removes e from the store
+	 * @return false, if e is not contained in the store
+	 */
+	public boolean remove(Entry e) {
+		Integer id = e == null? null : ids.remove(e);
+		if(id == null) return false;
+		prepareModification();
+		entries[id] = null;
+		categories.remove(categoryIDs[id]);
+		accounts.remove(accountIDs[id]);
+		names.remove(nameIDs[id]);
+		freeIDs.add(id);
+		changes[(version - 1) & (changeLogLength - 1)] = id;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Copies the arrays, if they are used by a view
+	 */
+	private void prepareModification() {
+		version++;
+		if(shared) {
+			grow(entries.length);
+			changes = Arrays.copyOf(changes, changeLogLength);
+			shared = false;
+		}
+	}
+
+	/**
+	 * Replaces all columns by copies of the given length
+	 */
+	private void grow(int length) {
+		entries = Arrays.copyOf(entries, length);
+		days = Arrays.copyOf(days, length);
+		cents = Arrays.copyOf(cents, length);
+		categoryIDs = Arrays.copyOf(categoryIDs, length);
+		accountIDs = Arrays.copyOf(accountIDs, length);
+		nameIDs = Arrays.copyOf(nameIDs, length);
+	}
+
+	// QUERIES ******************************************
+	// **************************************************
+
+	/**
+	 * @return The number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The ID of e or -1, if e is not contained in the store
+	 */
+	public int getID(Entry e) {
+		Integer id = ids.get(e);
+		return id == null? -1 : id;
+	}
+
+	/**
+	 * @return Whether e is contained in the store
+	 */
+	public boolean contains(Entry e) {
+		return ids.containsKey(e);
+	}
+
+	/**
+	 * @return The number of modifications of the store. This is the version of all views created now (see {@link View#getVersion()})
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	/**
+	 * @return A read-only snapshot of the current state of the store
+	 */
+	public View getView() {
+		shared = true;
+		return new View();
+	}
+
+	/**
+	 * @return All categories used by at least one entry
+	 */
+	public Vector<Category> getUsedCategories() {
+		return categories.getUsedValues();
+	}
+
+	/**
+	 * @return All accounts used by at least one entry
+	 */
+	public Vector<Account> getUsedAccounts() {
+		return accounts.getUsedValues();
+	}
+
+	/**
+	 * @return All names used by at least one entry
+	 */
+	public Vector<String> getUsedNames() {
+		return names.getUsedValues();
+	}
+
+	// VIEW *********************************************
+	// **************************************************
+
+	/**
+	 * A read-only snapshot of the store. It is a collection of all entries (in the order of their IDs) and provides access to the columns via the
+	 * entry IDs. All methods taking an ID return undefined values for IDs which are not used (see {@link #isUsed(int)}).
+	 */
+	public class View extends AbstractCollection<Entry> {
+
+		private final Entry[] viewEntries = entries;
+		private final int[] viewDays = days;
+		private final long[] viewCents = cents;
+		private final int[] viewCategoryIDs = categoryIDs;
+		private final int[] viewAccountIDs = accountIDs;
+		private final int[] viewNameIDs = nameIDs;
+		private final int viewCapacity = capacity;
+		private final int viewSize = size;
+		private final int viewVersion = version;
+		private final int[] viewChanges = changes;
+
+		private View() {
+		}
+
+		@Override
+		public int size() {
+			return viewSize;
+		}
+
+		/**
+		 * @return An iterator over all entries. It does not support removal
+		 */
+		@Override
+		public Iterator<Entry> iterator() {
+			return new Iterator<Entry>() {
+				private int next = nextUsed(0);
+				@Override
+				public boolean hasNext() {
+					return next < viewCapacity;
+				}
+				@Override
+				public Entry next() {
+					if(next >= viewCapacity) throw new NoSuchElementException();
+					Entry e = viewEntries[next];
+					next = nextUsed(next + 1);
+					return e;
+				}
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException("Cannot modify entry store view");
+				}
+			};
+		}
+
+		/**
+		 * @return The smallest used ID which is at least id or {@link #getCapacity()}, if there is none
+		 */
+		public int nextUsed(int id) {
+			while(id < viewCapacity && viewEntries[id] == null) id++;
+			return id;
+		}
+
+		/**
+		 * @return An upper bound for all IDs
+		 */
+		public int getCapacity() {
+			return viewCapacity;
+		}
+
+		/**
+		 * @return Whether there is an entry with this ID
+		 */
+		public boolean isUsed(int id) {
+			return id >= 0 && id < viewCapacity && viewEntries[id] != null;
+		}
+
+		/**
+		 * @return The version of the store this view shows. Two views with the same version show the same entries.
+		 */
+		public int getVersion() {
+			return viewVersion;
+		}
+
+		/**
+		 * @return The IDs of all entries added or removed after the given version up to the version of this view (possibly containing duplicates)
+		 * or null, if the modifications are not known anymore (or the given version is newer than this view). 
+		 */
+		public int[] getChangedIDs(int sinceVersion) {
+			int count = viewVersion - sinceVersion;
+			if(count < 0 || count > changeLogLength) return null;
+			int[] result = new int[count];
+			for(int i = 0; i < count; i++) result[i] = viewChanges[(sinceVersion + i) & (changeLogLength - 1)];
+			return result;
+		}
+		
+		public Entry getEntry(int id) {
+			return viewEntries[id];
+		}
+
+		/**
+		 * @return The date of the entry as epoch day (see {@link EpochDay})
+		 */
+		public int getEpochDay(int id) {
+			return viewDays[id];
+		}
+
+		/**
+		 * @return The value of the entry in cents
+		 */
+		public long getCents(int id) {
+			return viewCents[id];
+		}
+
+		public int getCategoryID(int id) {
+			return viewCategoryIDs[id];
+		}
+
+		public int getAccountID(int id) {
+			return viewAccountIDs[id];
+		}
+
+		public int getNameID(int id) {
+			return viewNameIDs[id];
+		}
+
+		/**
+		 * @return The category with the given category ID
+		 */
+		public Category getCategory(int categoryID) {
+			return categories.get(categoryID);
+		}
+
+		/**
+		 * @return The account with the given account ID
+		 */
+		public Account getAccount(int accountID) {
+			return accounts.get(accountID);
+		}
+
+		/**
+		 * @return The name with the given name ID
+		 */
+		public String getName(int nameID) {
+			return names.get(nameID);
+		}
+	}
+
+	// DICTIONARY ***************************************
+	// **************************************************
+
+	/**
+	 * Assigns IDs to values and counts how often each value is used. IDs are never removed, so the dictionary can be shared by all views
+	 */
+	private static class Dictionary<T> {
+		private HashMap<T, Integer> ids = new HashMap<T, Integer>();
+		private Vector<T> values = new Vector<T>();
+		private int[] counts = new int[16];
+
+		/**
+		 * Increments the usage count of t
+		 * @return The ID of t
+		 */
+		public int add(T t) {
+			Integer id = ids.get(t);
+			if(id == null) {
+				id = values.size();
+				values.add(t);
+				ids.put(t, id);
+				if(id == counts.length) counts = Arrays.copyOf(counts, 2 * id);
+			}
+			counts[id]++;
+			return id;
+		}
+
+		/**
+		 * Decrements the usage count of the value with the given ID
+		 */
+		public void remove(int id) {
+			counts[id]--;
+		}
+
+		public T get(int id) {
+			return values.get(id);
+		}
+
+		/**
+		 * @return All values with a positive usage count
+		 */
+		public Vector<T> getUsedValues() {
+			Vector<T> result = new Vector<T>();
+			for(int i = 0; i < values.size(); i++) {
+				if(counts[i] > 0) result.add(values.get(i));
+			}
+			return result;
+		}
+	}
+
+}
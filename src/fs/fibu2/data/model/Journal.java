@@ -2,8 +2,11 @@ package fs.fibu2.data.model;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Vector;
 
 import javax.swing.undo.CompoundEdit;
 import javax.swing.undo.UndoManager;
@@ -15,6 +18,8 @@ import org.dom4j.tree.DefaultElement;
 
 import fs.fibu2.data.event.JournalListener;
 import fs.fibu2.data.event.ReadingPointListener;
+import fs.fibu2.data.format.EntryComparator;
+import fs.fibu2.data.format.EpochDay;
 import fs.fibu2.undo.JournalUndoManager;
 import fs.fibu2.undo.UndoableJournalEntryEdit;
 import fs.fibu2.undo.UndoableJournalInfoEdit;
@@ -43,7 +48,12 @@ public class Journal implements XMLConfigurable, ReadingPointListener {
 	// FIELDS ****************************************
 	// ***********************************************
 	
-	private HashSet<Entry> listOfEntries = new HashSet<Entry>();
+	private EntryStore listOfEntries = new EntryStore();
+	private EntryDateIndex dateIndex = new EntryDateIndex();
+	//The index of the current state. Null, if it has not been requested yet
+	private JournalIndex index = null;
+	//The text index. Null, if it has not been requested yet
+	private TextIndex textIndex = null;
 	private HashSet<ReadingPoint> listOfReadingPoints = new HashSet<ReadingPoint>();
 	private HashMap<Account, Float> startValues = new HashMap<Account, Float>();
 	
@@ -75,10 +85,71 @@ public class Journal implements XMLConfigurable, ReadingPointListener {
 	// ***********************************************
 	
 	/**
-	 * @return The list of entries
+	 * @return The list of entries. This is a copy, so it should only be used, if a modifiable set is needed. Otherwise use {@link #getEntryView()}
 	 */
 	public synchronized HashSet<Entry> getEntries() {
-		return new HashSet<Entry>(listOfEntries);
+		return new HashSet<Entry>(listOfEntries.getView());
+	}
+	
+	/**
+	 * @return A read-only snapshot of the entries, which also gives access to the entry IDs and their data columns. Creating it doesn't copy anything and
+	 * it can be used in any thread.
+	 */
+	public synchronized EntryStore.View getEntryView() {
+		return listOfEntries.getView();
+	}
+	
+	/**
+	 * @return A read-only list of all entries sorted by date (more precisely, by {@link EntryComparator}). The list is only recomputed
+	 * after the journal has been modified (without sorting) and is never modified, so it can be used in any thread.
+	 */
+	public synchronized List<Entry> getSortedEntries() {
+		return dateIndex.getSortedEntries();
+	}
+	
+	/**
+	 * @return A list of all entries whose date lies between from and to (both days inclusive, all other fields of the dates are ignored), sorted
+	 * as in {@link #getSortedEntries()}. If from or to is null, the range is unbounded in that direction.
+	 */
+	public synchronized Vector<Entry> entriesBetween(GregorianCalendar from, GregorianCalendar to) {
+		return dateIndex.getEntriesBetween(from == null? Integer.MIN_VALUE : EpochDay.valueOf(from), 
+											to == null? Integer.MAX_VALUE : EpochDay.valueOf(to));
+	}
+	
+	/**
+	 * @return A {@link JournalIndex} for the current state of the journal. It is only recreated, when the journal has been modified since the 
+	 * last call. Like the entry view, it can be used in any thread.
+	 */
+	public synchronized JournalIndex getIndex() {
+		if(index == null || index.getVersion() != listOfEntries.getVersion()) {
+			List<Entry> sorted = dateIndex.getSortedEntries();
+			int[] sortedIDs = new int[sorted.size()];
+			for(int i = 0; i < sortedIDs.length; i++) sortedIDs[i] = listOfEntries.getID(sorted.get(i));
+			index = new JournalIndex(this, listOfEntries.getView(), sorted, sortedIDs);
+		}
+		return index;
+	}
+	
+	/**
+	 * @return The {@link TextIndex} of this journal. It is created at the first call and afterwards kept up to date. It can be used in any thread.
+	 */
+	public synchronized TextIndex getTextIndex() {
+		if(textIndex == null) textIndex = new TextIndex(this, listOfEntries);
+		return textIndex;
+	}
+	
+	/**
+	 * @return The number of entries
+	 */
+	public synchronized int getNumberOfEntries() {
+		return listOfEntries.size();
+	}
+	
+	/**
+	 * @return The ID of the entry in this journal (see {@link EntryStore}) or -1, if it is not contained in this journal
+	 */
+	public synchronized int getEntryID(Entry e) {
+		return listOfEntries.getID(e);
 	}
 	
 	/**
@@ -123,8 +194,7 @@ public class Journal implements XMLConfigurable, ReadingPointListener {
 	 */
 	public synchronized HashSet<Category> getListOfCategories() {
 		HashSet<Category> cats = new HashSet<Category>();
-		for(Entry e : getEntries()) {
-			Category c = e.getCategory();
+		for(Category c : listOfEntries.getUsedCategories()) {
 			for(int i = c.getOrder(); i >= 1; i--) {
 				cats.add(c);
 				c = c.parent;
@@ -133,14 +203,18 @@ public class Journal implements XMLConfigurable, ReadingPointListener {
 		return cats;
 	}
 	
+	/**
+	 * @return A list of all entry names used in this journal
+	 */
+	public synchronized HashSet<String> getListOfNames() {
+		return new HashSet<String>(listOfEntries.getUsedNames());
+	}
+	
 	/**
 	 * @return A list of all accounts used by entries in this journal or which have a start value
 	 */
 	public synchronized HashSet<Account> getListOfAccounts() {
-		HashSet<Account> accounts = new HashSet<Account>();
-		for(Entry e : getEntries()) {
-			accounts.add(e.getAccount());
-		}
+		HashSet<Account> accounts = new HashSet<Account>(listOfEntries.getUsedAccounts());
 		for(Account a : startValues.keySet()) {
 			accounts.add(a);
 		}
@@ -154,7 +228,10 @@ public class Journal implements XMLConfigurable, ReadingPointListener {
 	public synchronized void addEntry(Entry e) {
 		if(e != null) {
 			boolean b = listOfEntries.add(e);
-			if(b) fireEntriesAdded(new Entry[] {e});
+			if(b) {
+				dateIndex.add(e);
+				fireEntriesAdded(new Entry[] {e});
+			}
 		}
 		
 	}
@@ -165,7 +242,10 @@ public class Journal implements XMLConfigurable, ReadingPointListener {
 	public synchronized void removeEntry(Entry e) {
 		if(e != null) {
 			boolean b = listOfEntries.remove(e);
-			if(b) fireEntriesRemoved(new Entry[] {e});
+			if(b) {
+				dateIndex.remove(e);
+				fireEntriesRemoved(new Entry[] {e});
+			}
 		}
 		
 	}
@@ -181,6 +261,7 @@ public class Journal implements XMLConfigurable, ReadingPointListener {
 				if(e != null) {
 					boolean b = listOfEntries.add(e);
 					if(b) {
+						dateIndex.add(e);
 						trueEntries[i] = e;
 						i++;
 					}
@@ -201,6 +282,7 @@ public class Journal implements XMLConfigurable, ReadingPointListener {
 				if(e != null) {
 					boolean b = listOfEntries.remove(e);
 					if(b) {
+						dateIndex.remove(e);
 						trueEntries[i] = e;
 						i++;
 					}
@@ -216,8 +298,8 @@ public class Journal implements XMLConfigurable, ReadingPointListener {
 	 */
 	public synchronized void replaceEntry(Entry oldEntry, Entry newEntry) {
 		if(oldEntry != null && newEntry != null && oldEntry != newEntry) {
-			listOfEntries.remove(oldEntry);
-			listOfEntries.add(newEntry);
+			if(listOfEntries.remove(oldEntry)) dateIndex.remove(oldEntry);
+			if(listOfEntries.add(newEntry)) dateIndex.add(newEntry);
 			fireEntryReplaced(oldEntry, newEntry);
 		}
 	}
@@ -492,15 +574,37 @@ public class Journal implements XMLConfigurable, ReadingPointListener {
 			}
 		}
 		
+		configure(newname, newdescription, newstartvalues, newreadings, newentries);
+	}
+	
+	/**
+	 * Replaces the complete content of this journal by the given data (i.e. all entries, reading points and start values are removed and the
+	 * given ones are added). This is what {@link #configure(Node)} does after parsing the node and can be used by any reader which parses the journal
+	 * format without creating a DOM (e.g. {@link fs.fibu2.data.format.JournalReader}). This operation is not undoable, however it will reset the 
+	 * associated undomanager.
+	 * @param newname The name of the journal. If null, the empty string is used
+	 * @param newdescription The description of the journal. If null, the empty string is used
+	 * @param newstartvalues The start values of the accounts. If null, there are no start values
+	 * @param newreadings The reading points. If null, there are none
+	 * @param newentries The entries. If null, there are none
+	 */
+	public synchronized void configure(String newname, String newdescription, HashMap<Account, Float> newstartvalues, 
+				Collection<ReadingPoint> newreadings, Collection<Entry> newentries) {
+		if(newname == null) newname = "";
+		if(newdescription == null) newdescription = "";
+		if(newstartvalues == null) newstartvalues = new HashMap<Account, Float>();
+		if(newreadings == null) newreadings = new HashSet<ReadingPoint>();
+		if(newentries == null) newentries = new HashSet<Entry>();
+		
 		//Copy values and reset manager
 		
-		removeAllEntries(listOfEntries);
+		removeAllEntries(listOfEntries.getView());
 		addAllEntries(newentries);
 		
-		for(ReadingPoint rp : listOfReadingPoints) removeReadingPoint(rp);
+		for(ReadingPoint rp : new HashSet<ReadingPoint>(listOfReadingPoints)) removeReadingPoint(rp);
 		for(ReadingPoint rp : newreadings) addReadingPoint(rp);
 		
-		for(Account a : startValues.keySet()) removeStartValue(a);
+		for(Account a : new HashSet<Account>(startValues.keySet())) removeStartValue(a);
 		for(Account a : newstartvalues.keySet()) setStartValue(a, newstartvalues.get(a));
 		
 		setName(newname);
@@ -537,7 +641,7 @@ public class Journal implements XMLConfigurable, ReadingPointListener {
 			root.add(rp.getConfiguration());
 		}
 		
-		for(Entry e : listOfEntries) {
+		for(Entry e : listOfEntries.getView()) {
 			root.add(e.getConfiguration());
 		}
 		
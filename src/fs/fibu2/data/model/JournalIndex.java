@@ -0,0 +1,381 @@
+package fs.fibu2.data.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A journal index answers queries about one state of a journal (given by an {@link EntryStore.View}) by bitmaps of entry IDs. This way a
+ * filter can be evaluated by combining bitmaps instead of looking at each entry. The following indexes are created the first time they are needed: <br>
+ * - All entry IDs sorted by date and by value, so a range query only touches the entries in the range <br>
+ * - A bitmap of the entries of each category and account, so a query only touches the matching categories or accounts <br>
+ * - A list of the entries of each name, each additional information and, for each account information key, each value. Lists are used,
+ * since these fields often have a different value for almost every entry <br>
+ * Regular expression queries on names, additional information and account information are answered by matching each distinct value only once,
+ * where the {@link TextIndex} of the journal sorts out most values beforehand. <br>
+ * Furthermore the index contains the sorted list of entries of this state and their IDs, so the results of a query can be applied
+ * to the sorted entries. <br>
+ * All methods returning a bitmap return a new one, which can be modified by the caller. Since the index never changes (apart from creating
+ * the indexes), it can be used by several threads.
+ * @author Simon Hampe
+ *
+ */
+public class JournalIndex {
+
+	private final Journal journal;
+	private final EntryStore.View view;
+	private final List<Entry> sortedEntries;
+	private final int[] sortedIDs;
+
+	//All used IDs
+	private BitSet all;
+
+	//The IDs sorted by day and by value and the sorted keys. Values are kept as sortable ints (see sortableValue)
+	private int[] idsByDay;
+	private int[] sortedDays;
+	private int[] idsByValue;
+	private int[] sortedValues;
+
+	//The entries of each category / account ID
+	private HashMap<Integer, BitSet> categories;
+	private HashMap<Integer, BitSet> accounts;
+
+	//The entries of each name / additional information
+	private HashMap<String, IDList> names;
+	private HashMap<String, IDList> additionalInformation;
+
+	//For each account information key the entries of each value
+	private HashMap<String, HashMap<String, IDList>> accountInformation = new HashMap<String, HashMap<String, IDList>>();
+
+	// CONSTRUCTOR ****************************
+	// ****************************************
+
+	/**
+	 * Creates an index
+	 * @param journal The journal
+	 * @param view The state of the journal
+	 * @param sortedEntries The entries of this state, sorted
+	 * @param sortedIDs The IDs of the entries in sortedEntries, in the same order
+	 */
+	JournalIndex(Journal journal, EntryStore.View view, List<Entry> sortedEntries, int[] sortedIDs) {
+		this.journal = journal;
+		this.view = view;
+		this.sortedEntries = sortedEntries;
+		this.sortedIDs = sortedIDs;
+	}
+
+	// GETTERS ********************************
+	// ****************************************
+
+	/**
+	 * @return The state of the journal this index refers to
+	 */
+	public EntryStore.View getView() {
+		return view;
+	}
+
+	/**
+	 * @return The version of the entry store this index refers to (see {@link EntryStore.View#getVersion()})
+	 */
+	public int getVersion() {
+		return view.getVersion();
+	}
+
+	/**
+	 * @return The entries, sorted as in {@link Journal#getSortedEntries()}
+	 */
+	public List<Entry> getSortedEntries() {
+		return sortedEntries;
+	}
+
+	/**
+	 * @return The IDs of the entries in {@link #getSortedEntries()}, in the same order. The array must not be modified
+	 */
+	public int[] getSortedIDs() {
+		return sortedIDs;
+	}
+
+	// QUERIES ********************************
+	// ****************************************
+
+	/**
+	 * @return The IDs of all entries
+	 */
+	public BitSet getAll() {
+		synchronized (this) {
+			if(all == null) {
+				all = new BitSet(view.getCapacity());
+				for(int id : sortedIDs) all.set(id);
+			}
+		}
+		return (BitSet)all.clone();
+	}
+
+	/**
+	 * @return The IDs of all entries whose epoch day lies between fromDay and toDay (both inclusive)
+	 */
+	public BitSet getDateRange(int fromDay, int toDay) {
+		synchronized (this) {
+			if(idsByDay == null) {
+				long[] keys = new long[sortedIDs.length];
+				for(int i = 0; i < keys.length; i++) keys[i] = pack(view.getEpochDay(sortedIDs[i]), sortedIDs[i]);
+				Arrays.sort(keys);
+				sortedDays = new int[keys.length];
+				idsByDay = new int[keys.length];
+				unpack(keys, sortedDays, idsByDay);
+			}
+		}
+		return getRange(sortedDays, idsByDay, fromDay, toDay);
+	}
+
+	/**
+	 * @param min The minimal value. Null means no bound
+	 * @param max The maximal value. Null means no bound
+	 * @return The IDs of all entries whose value lies between min and max (both inclusive, values compared as by {@link Float#compare(float, float)})
+	 */
+	public BitSet getValueRange(Float min, Float max) {
+		synchronized (this) {
+			if(idsByValue == null) {
+				long[] keys = new long[sortedIDs.length];
+				for(int i = 0; i < keys.length; i++) keys[i] = pack(sortableValue(view.getEntry(sortedIDs[i]).getValue()), sortedIDs[i]);
+				Arrays.sort(keys);
+				sortedValues = new int[keys.length];
+				idsByValue = new int[keys.length];
+				unpack(keys, sortedValues, idsByValue);
+			}
+		}
+		return getRange(sortedValues, idsByValue,
+				min == null? Integer.MIN_VALUE : sortableValue(min), max == null? Integer.MAX_VALUE : sortableValue(max));
+	}
+
+	/**
+	 * @return The IDs of all entries in c or one of its subcategories
+	 */
+	public BitSet getCategorySubtree(Category c) {
+		BitSet result = new BitSet(view.getCapacity());
+		for(java.util.Map.Entry<Integer, BitSet> category : getCategories().entrySet()) {
+			if(view.getCategory(category.getKey()).isSubCategoryOf(c)) result.or(category.getValue());
+		}
+		return result;
+	}
+
+	/**
+	 * @return The IDs of all entries in the account a
+	 */
+	public BitSet getAccount(Account a) {
+		BitSet result = new BitSet(view.getCapacity());
+		for(java.util.Map.Entry<Integer, BitSet> account : getAccounts().entrySet()) {
+			if(view.getAccount(account.getKey()) == a) result.or(account.getValue());
+		}
+		return result;
+	}
+
+	/**
+	 * @return The IDs of all entries with the given name
+	 */
+	public BitSet getName(String name) {
+		return getEntries(getNames(), name);
+	}
+
+	/**
+	 * @return The IDs of all entries whose name matches p
+	 */
+	public BitSet getNameMatches(Pattern p) {
+		return getMatches(getNames(), TextIndex.Field.NAME, null, p);
+	}
+
+	/**
+	 * @return The IDs of all entries whose additional information equals value
+	 */
+	public BitSet getAdditionalInformation(String value) {
+		return getEntries(getAdditionalInformationValues(), value);
+	}
+
+	/**
+	 * @return The IDs of all entries whose additional information matches p
+	 */
+	public BitSet getAdditionalInformationMatches(Pattern p) {
+		return getMatches(getAdditionalInformationValues(), TextIndex.Field.ADDITIONALINFORMATION, null, p);
+	}
+
+	/**
+	 * @return The IDs of all entries whose account information for the given key equals value. An entry without information for the key
+	 * is regarded as having the empty string as value
+	 */
+	public BitSet getAccountInformation(String key, String value) {
+		return getEntries(getAccountInformationValues(key), value);
+	}
+
+	/**
+	 * @return The IDs of all entries whose account information for the given key matches p. An entry without information for the key
+	 * is regarded as having the empty string as value
+	 */
+	public BitSet getAccountInformationMatches(String key, Pattern p) {
+		return getMatches(getAccountInformationValues(key), TextIndex.Field.ACCOUNTINFORMATION, key, p);
+	}
+
+	// INTERNAL METHODS ***********************
+	// ****************************************
+
+	private synchronized HashMap<Integer, BitSet> getCategories() {
+		if(categories == null) {
+			categories = new HashMap<Integer, BitSet>();
+			for(int id : sortedIDs) getBitSet(categories, view.getCategoryID(id)).set(id);
+		}
+		return categories;
+	}
+
+	private synchronized HashMap<Integer, BitSet> getAccounts() {
+		if(accounts == null) {
+			accounts = new HashMap<Integer, BitSet>();
+			for(int id : sortedIDs) getBitSet(accounts, view.getAccountID(id)).set(id);
+		}
+		return accounts;
+	}
+
+	private synchronized HashMap<String, IDList> getNames() {
+		if(names == null) {
+			names = new HashMap<String, IDList>();
+			for(int id : sortedIDs) getIDList(names, view.getName(view.getNameID(id))).add(id);
+		}
+		return names;
+	}
+
+	private synchronized HashMap<String, IDList> getAdditionalInformationValues() {
+		if(additionalInformation == null) {
+			additionalInformation = new HashMap<String, IDList>();
+			for(int id : sortedIDs) getIDList(additionalInformation, view.getEntry(id).getAdditionalInformation()).add(id);
+		}
+		return additionalInformation;
+	}
+
+	private synchronized HashMap<String, IDList> getAccountInformationValues(String key) {
+		HashMap<String, IDList> values = accountInformation.get(key);
+		if(values == null) {
+			values = new HashMap<String, IDList>();
+			for(int id : sortedIDs) {
+				String info = view.getEntry(id).getAccountInformation().get(key);
+				getIDList(values, info == null? "" : info).add(id);
+			}
+			accountInformation.put(key, values);
+		}
+		return values;
+	}
+
+	/**
+	 * @return The entries with the given value as a bitmap
+	 */
+	private BitSet getEntries(HashMap<String, IDList> values, String value) {
+		BitSet result = new BitSet(view.getCapacity());
+		IDList entries = values.get(value);
+		if(entries != null) entries.addTo(result);
+		return result;
+	}
+
+	/**
+	 * @param values The entries of each value of a field
+	 * @return The entries of all values matching p. Only the candidates returned by the text index are matched
+	 */
+	private BitSet getMatches(HashMap<String, IDList> values, TextIndex.Field field, String key, Pattern p) {
+		BitSet result = new BitSet(view.getCapacity());
+		for(String value : journal.getTextIndex().getCandidates(field, key, p, values.keySet(), getVersion())) {
+			if(p.matcher(value).matches()) values.get(value).addTo(result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return The list for the given value. It is created, if it does not exist
+	 */
+	private static IDList getIDList(HashMap<String, IDList> map, String value) {
+		IDList l = map.get(value);
+		if(l == null) {
+			l = new IDList();
+			map.put(value, l);
+		}
+		return l;
+	}
+
+	/**
+	 * @return The bitmap for the given key. It is created, if it does not exist
+	 */
+	private BitSet getBitSet(HashMap<Integer, BitSet> map, int key) {
+		BitSet b = map.get(key);
+		if(b == null) {
+			b = new BitSet(view.getCapacity());
+			map.put(key, b);
+		}
+		return b;
+	}
+
+	/**
+	 * @return A bitmap of all IDs, whose key lies between from and to (both inclusive)
+	 */
+	private BitSet getRange(int[] keys, int[] ids, int from, int to) {
+		BitSet result = new BitSet(view.getCapacity());
+		for(int i = lowerBound(keys, from); i < keys.length && keys[i] <= to; i++) result.set(ids[i]);
+		return result;
+	}
+
+	/**
+	 * @return The first index i with keys[i] >= key (or keys.length)
+	 */
+	private static int lowerBound(int[] keys, int key) {
+		int low = 0;
+		int high = keys.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(keys[mid] < key) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * @return A long, whose natural order is the order of the keys and for equal keys the order of the IDs
+	 */
+	private static long pack(int key, int id) {
+		return ((long)key << 32) | (id & 0xffffffffL);
+	}
+
+	/**
+	 * Splits packed longs into keys and ids
+	 */
+	private static void unpack(long[] packed, int[] keys, int[] ids) {
+		for(int i = 0; i < packed.length; i++) {
+			keys[i] = (int)(packed[i] >> 32);
+			ids[i] = (int)packed[i];
+		}
+	}
+
+	/**
+	 * @return An int whose natural order is the order of floats as defined by {@link Float#compare(float, float)}
+	 */
+	private static int sortableValue(float f) {
+		int bits = Float.floatToIntBits(f);
+		return bits ^ ((bits >> 31) & 0x7fffffff);
+	}
+
+	/**
+	 * A list of entry IDs
+	 */
+	private static class IDList {
+		private int[] ids = new int[1];
+		private int size = 0;
+
+		public void add(int id) {
+			if(size == ids.length) ids = Arrays.copyOf(ids, 2 * size);
+			ids[size++] = id;
+		}
+
+		/**
+		 * Sets the bits of all IDs in b
+		 */
+		public void addTo(BitSet b) {
+			for(int i = 0; i < size; i++) b.set(ids[i]);
+		}
+	}
+
+}
@@ -9,7 +9,7 @@ import org.dom4j.Node;
 import org.dom4j.tree.DefaultElement;
 
 import fs.fibu2.data.event.ReadingPointListener;
-import fs.fibu2.data.format.EntryDateComparator;
+import fs.fibu2.data.format.EpochDay;
 import fs.fibu2.data.format.Fsfibu2DateFormats;
 import fs.xml.XMLConfigurable;
 import fs.xml.XMLReadConfigurationException;
@@ -30,7 +30,7 @@ public class ReadingPoint implements EntrySeparator, XMLConfigurable {
 	// FIELDS **********************************
 	// *****************************************
 	
-	private GregorianCalendar readingDay;
+	private int readingDay;
 	private String name;
 	
 	private HashSet<ReadingPointListener> listeners = new HashSet<ReadingPointListener>();
@@ -49,7 +49,7 @@ public class ReadingPoint implements EntrySeparator, XMLConfigurable {
 	public ReadingPoint(String name, GregorianCalendar readingDay) throws NullPointerException {
 		if(readingDay == null) throw new NullPointerException("Can't construct reading point from null date");
 		this.name = name == null? "" : name;
-		this.readingDay = (GregorianCalendar)readingDay.clone();
+		this.readingDay = EpochDay.valueOf(readingDay);
 	}
 	
 	/**
@@ -64,10 +64,18 @@ public class ReadingPoint implements EntrySeparator, XMLConfigurable {
 	// ****************************************
 	
 	/**
-	 * @return The day associated to this reading
+	 * @return The day associated to this reading. This creates a new calendar object each time, so use {@link #getEpochDay()}, 
+	 * whenever possible.
 	 */
 	public GregorianCalendar getReadingDay() {
-		return (GregorianCalendar)readingDay.clone();
+		return EpochDay.toCalendar(readingDay);
+	}
+	
+	/**
+	 * @return The day associated to this reading as epoch day (see {@link EpochDay})
+	 */
+	public int getEpochDay() {
+		return readingDay;
 	}
 	
 	/**
@@ -77,7 +85,7 @@ public class ReadingPoint implements EntrySeparator, XMLConfigurable {
 	 */
 	public void setReadingDay(GregorianCalendar readingDay) throws NullPointerException{
 		if(readingDay == null) throw new NullPointerException("Null date invalid for reading point");
-		this.readingDay = (GregorianCalendar)readingDay.clone();
+		this.readingDay = EpochDay.valueOf(readingDay);
 		fireDateChanged();
 	}
 	
@@ -109,7 +117,7 @@ public class ReadingPoint implements EntrySeparator, XMLConfigurable {
 	 */
 	public int compareTo(Entry e) {
 		if(e == null) return 0;
-		return new EntryDateComparator().compare(readingDay, e.getDate());
+		return EpochDay.compare(readingDay, e.getEpochDay());
 	}
 	
 	/**
@@ -200,7 +208,7 @@ public class ReadingPoint implements EntrySeparator, XMLConfigurable {
 		nameNode.setText(name);
 		root.add(nameNode);
 		DefaultElement dateNode = new DefaultElement("readingday");
-		dateNode.setText(Fsfibu2DateFormats.getEntryDateFormat().format(readingDay.getTime()));
+		dateNode.setText(Fsfibu2DateFormats.getEntryDateFormat().format(getReadingDay().getTime()));
 		root.add(dateNode);
 		
 		return root;
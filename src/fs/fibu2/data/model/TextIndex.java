@@ -0,0 +1,409 @@
+package fs.fibu2.data.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Vector;
+import java.util.regex.Pattern;
+
+import fs.fibu2.data.event.JournalListener;
+
+/**
+ * A text index speeds up regular expression searches in the text fields of the entries of a journal: names, additional information and account
+ * information values. For each field it keeps the distinct values of all entries and for each trigram (sequence of three characters) the values
+ * containing it. <br>
+ * A regular expression is analyzed for literal strings, which every matching text has to contain (see {@link #getRequiredLiterals(Pattern)}). Only
+ * the values containing all trigrams of these literals are candidates and have to be matched against the expression. So e.g. looking up an
+ * invoice number only needs to look at very few values, no matter how large the journal is. <br>
+ * The index is created by the journal (see {@link Journal#getTextIndex()}) and updated incrementally, whenever entries are added or removed.
+ * All queries are synchronized, so it can be used in any thread.
+ * @author Simon Hampe
+ *
+ */
+public class TextIndex implements JournalListener {
+
+	/**
+	 * The fields of an entry which are indexed
+	 */
+	public enum Field {NAME, ADDITIONALINFORMATION, ACCOUNTINFORMATION};
+
+	//The store of the journal. Used to find out, to which version of the store the index corresponds
+	private EntryStore store;
+	private int version;
+
+	//All indexed entries
+	private HashSet<Entry> entries = new HashSet<Entry>();
+
+	//The values of each field
+	private TrigramIndex names = new TrigramIndex();
+	private TrigramIndex additionalInformation = new TrigramIndex();
+	private HashMap<String, TrigramIndex> accountInformation = new HashMap<String, TrigramIndex>();
+
+	// CONSTRUCTOR ****************************
+	// ****************************************
+
+	/**
+	 * Creates an index of all entries of the given journal and adds itself as listener to the journal. Must be called
+	 * while holding the lock of the journal
+	 * @param store The store containing the entries of j
+	 */
+	TextIndex(Journal j, EntryStore store) {
+		this.store = store;
+		for(Entry e : store.getView()) add(e);
+		version = store.getVersion();
+		j.addJournalListener(this);
+	}
+
+	// QUERIES ********************************
+	// ****************************************
+
+	/**
+	 * Returns all values of a field, which might match a certain expression, i.e. which contain all literals required by the expression
+	 * @param field The field
+	 * @param key The key of the account information. Ignored for other fields
+	 * @param p The expression
+	 * @param values All values of the field in a certain state of the journal
+	 * @param version The version of the entry store in this state (see {@link EntryStore#getVersion()}). Only if the index corresponds to the same state,
+	 * the values are looked up in the index. Otherwise each value is searched for the literals
+	 * @return A subset of values
+	 */
+	public synchronized Set<String> getCandidates(Field field, String key, Pattern p, Set<String> values, int version) {
+		Vector<String> literals = getRequiredLiterals(p);
+		if(literals.size() == 0) return values;
+		HashSet<String> candidates = new HashSet<String>();
+		if(version == this.version) {
+			TrigramIndex index = getTrigramIndex(field, key, false);
+			if(index != null) {
+				for(String s : index.getContaining(literals)) {
+					if(values.contains(s)) candidates.add(s);
+				}
+			}
+		}
+		else {
+			for(String s : values) {
+				if(containsAll(s, literals)) candidates.add(s);
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Analyzes a regular expression for literal strings of length at least three, which each text matched by the expression must contain.
+	 * The analysis is conservative: Whatever it does not understand (alternatives, flags, groups, character classes, escape sequences starting
+	 * with a letter or digit), it regards as matching anything.
+	 * @return The literals. If the vector is empty, any text might match
+	 */
+	public static Vector<String> getRequiredLiterals(Pattern p) {
+		Vector<String> literals = new Vector<String>();
+		String regex = p.pattern();
+		if((p.flags() & Pattern.LITERAL) != 0) {
+			if(regex.length() >= 3) literals.add(regex);
+			return literals;
+		}
+		if((p.flags() & (Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.CANON_EQ)) != 0
+				|| regex.contains("|") || regex.contains("(?")) return literals;
+
+		StringBuilder current = new StringBuilder();
+		//Whether the last element was a character appended to current
+		boolean lastWasLiteral = false;
+		int i = 0;
+		while(i < regex.length()) {
+			char c = regex.charAt(i);
+			switch(c) {
+			case '\\':
+				if(i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i+1))) {
+					//Special sequence: Stop here
+					addLiteral(literals, current);
+					return literals;
+				}
+				current.append(regex.charAt(i+1));
+				lastWasLiteral = true;
+				i += 2;
+				continue;
+			case '[':
+			case '(':
+				i = skipGroup(regex, i);
+				if(i < 0) {
+					//Unbalanced expression
+					literals.clear();
+					return literals;
+				}
+				addLiteral(literals, current);
+				break;
+			case '*':
+			case '?':
+			case '{':
+				//The last character is optional
+				if(lastWasLiteral) {
+					int length = current.length() - 1;
+					if(length > 0 && Character.isSurrogatePair(current.charAt(length - 1), current.charAt(length))) length--;
+					current.setLength(length);
+				}
+				addLiteral(literals, current);
+				if(c == '{') {
+					i = regex.indexOf('}', i);
+					if(i < 0) return literals;
+				}
+				break;
+			case '+':
+			case '.':
+			case '^':
+			case '$':
+				addLiteral(literals, current);
+				break;
+			case ')':
+			case ']':
+				literals.clear();
+				return literals;
+			default:
+				current.append(c);
+				lastWasLiteral = true;
+				i++;
+				continue;
+			}
+			lastWasLiteral = false;
+			i++;
+		}
+		addLiteral(literals, current);
+		return literals;
+	}
+
+	// INTERNAL METHODS ***********************
+	// ****************************************
+
+	/**
+	 * @param create Whether the index for an account information key should be created, if it doesn't exist
+	 * @return The index of the given field (and key)
+	 */
+	private TrigramIndex getTrigramIndex(Field field, String key, boolean create) {
+		switch(field) {
+		case NAME: return names;
+		case ADDITIONALINFORMATION: return additionalInformation;
+		default:
+			TrigramIndex index = accountInformation.get(key);
+			if(index == null && create) {
+				index = new TrigramIndex();
+				accountInformation.put(key, index);
+			}
+			return index;
+		}
+	}
+
+	private void add(Entry e) {
+		if(!entries.add(e)) return;
+		names.add(e.getName());
+		additionalInformation.add(e.getAdditionalInformation());
+		for(String key : e.getAccountInformation().keySet()) {
+			String value = e.getAccountInformation().get(key);
+			if(value != null) getTrigramIndex(Field.ACCOUNTINFORMATION, key, true).add(value);
+		}
+	}
+
+	private void remove(Entry e) {
+		if(!entries.remove(e)) return;
+		names.remove(e.getName());
+		additionalInformation.remove(e.getAdditionalInformation());
+		for(String key : e.getAccountInformation().keySet()) {
+			String value = e.getAccountInformation().get(key);
+			TrigramIndex index = getTrigramIndex(Field.ACCOUNTINFORMATION, key, false);
+			if(value != null && index != null) index.remove(value);
+		}
+	}
+
+	/**
+	 * Adds current to literals, if it has at least three characters, and clears it
+	 */
+	private static void addLiteral(Vector<String> literals, StringBuilder current) {
+		if(current.length() >= 3) literals.add(current.toString());
+		current.setLength(0);
+	}
+
+	/**
+	 * @param start The position of an opening bracket or parenthesis
+	 * @return The position of the corresponding closing one or -1, if there is none
+	 */
+	private static int skipGroup(String regex, int start) {
+		int depth = 0;
+		for(int i = start; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if(c == '\\') i++;
+			else if(c == '[' || c == '(') depth++;
+			else if(c == ']' || c == ')') {
+				//A closing bracket directly after the opening one (or its negation) is an ordinary character in a character class
+				if(c == ']' && (regex.charAt(i-1) == '[' || (regex.charAt(i-1) == '^' && regex.charAt(i-2) == '['))) continue;
+				depth--;
+				if(depth == 0) return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return Whether s contains all literals
+	 */
+	private static boolean containsAll(String s, Vector<String> literals) {
+		for(String l : literals) {
+			if(!s.contains(l)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return The trigram of s at position i as a long
+	 */
+	private static long trigram(String s, int i) {
+		return ((long)s.charAt(i) << 32) | ((long)s.charAt(i+1) << 16) | s.charAt(i+2);
+	}
+
+	// LISTENER METHODS ***********************
+	// ****************************************
+
+	@Override
+	public synchronized void entriesAdded(Journal source, Entry[] newEntries) {
+		for(Entry e : newEntries) add(e);
+		version = store.getVersion();
+	}
+
+	@Override
+	public synchronized void entriesRemoved(Journal source, Entry[] oldEntries) {
+		for(Entry e : oldEntries) remove(e);
+		version = store.getVersion();
+	}
+
+	@Override
+	public synchronized void entryReplaced(Journal source, Entry oldEntry, Entry newEntry) {
+		remove(oldEntry);
+		add(newEntry);
+		version = store.getVersion();
+	}
+
+	//Ignored
+
+	@Override
+	public void descriptionChanged(Journal source, String oldValue, String newValue) {}
+	@Override
+	public void nameChanged(Journal source, String oldValue, String newValue) {}
+	@Override
+	public void readingPointAdded(Journal source, ReadingPoint point) {}
+	@Override
+	public void readingPointRemoved(Journal source, ReadingPoint point) {}
+	@Override
+	public void startValueChanged(Journal source, Account a, Float oldValue, Float newValue) {}
+	@Override
+	public void dateChanged(ReadingPoint source) {}
+	@Override
+	public void nameChanged(ReadingPoint source) {}
+
+	// TRIGRAM INDEX **************************
+	// ****************************************
+
+	/**
+	 * The trigram index of a multiset of strings. Each distinct string gets an ID, for each trigram the IDs of the strings containing it are
+	 * listed. When a string is removed, its ID is freed, but stays in the lists of its trigrams, since removing it would mean searching all
+	 * these lists. Queries therefore check the strings found in the lists again. When there are more of these stale list elements than valid ones,
+	 * the lists are rebuilt.
+	 */
+	private static class TrigramIndex {
+
+		private HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		//The string and the number of its occurrences for each ID. The string is null for unused IDs
+		private String[] strings = new String[16];
+		private int[] counts = new int[16];
+		private int capacity = 0;
+		private Vector<Integer> freeIDs = new Vector<Integer>();
+
+		private HashMap<Long, Posting> postings = new HashMap<Long, Posting>();
+		private int validPostings = 0;
+		private int stalePostings = 0;
+
+		public void add(String s) {
+			Integer id = ids.get(s);
+			if(id != null) {
+				counts[id]++;
+				return;
+			}
+			if(freeIDs.size() > 0) id = freeIDs.remove(freeIDs.size() - 1);
+			else {
+				if(capacity == strings.length) {
+					strings = Arrays.copyOf(strings, 2 * capacity);
+					counts = Arrays.copyOf(counts, 2 * capacity);
+				}
+				id = capacity++;
+			}
+			strings[id] = s;
+			counts[id] = 1;
+			ids.put(s, id);
+			addPostings(s, id);
+		}
+
+		public void remove(String s) {
+			Integer id = ids.get(s);
+			if(id == null || --counts[id] > 0) return;
+			ids.remove(s);
+			strings[id] = null;
+			freeIDs.add(id);
+			int n = Math.max(0, s.length() - 2);
+			validPostings -= n;
+			stalePostings += n;
+			if(stalePostings > validPostings + 1024) rebuild();
+		}
+
+		/**
+		 * @return All strings containing all literals
+		 */
+		public HashSet<String> getContaining(Vector<String> literals) {
+			HashSet<String> result = new HashSet<String>();
+			//Look at the strings in the shortest list
+			Posting shortest = null;
+			for(String l : literals) {
+				for(int i = 0; i + 3 <= l.length(); i++) {
+					Posting p = postings.get(trigram(l, i));
+					if(p == null) return result;
+					if(shortest == null || p.size < shortest.size) shortest = p;
+				}
+			}
+			for(int i = 0; i < shortest.size; i++) {
+				String s = strings[shortest.ids[i]];
+				if(s != null && containsAll(s, literals)) result.add(s);
+			}
+			return result;
+		}
+
+		private void addPostings(String s, int id) {
+			for(int i = 0; i + 3 <= s.length(); i++) {
+				long t = trigram(s, i);
+				Posting p = postings.get(t);
+				if(p == null) {
+					p = new Posting();
+					postings.put(t, p);
+				}
+				p.add(id);
+				validPostings++;
+			}
+		}
+
+		private void rebuild() {
+			postings.clear();
+			validPostings = 0;
+			stalePostings = 0;
+			for(int id = 0; id < capacity; id++) {
+				if(strings[id] != null) addPostings(strings[id], id);
+			}
+		}
+	}
+
+	/**
+	 * A list of string IDs
+	 */
+	private static class Posting {
+		public int[] ids = new int[4];
+		public int size = 0;
+
+		public void add(int id) {
+			if(size == ids.length) ids = Arrays.copyOf(ids, 2 * size);
+			ids[size++] = id;
+		}
+	}
+
+}
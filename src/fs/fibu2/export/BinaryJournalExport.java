@@ -0,0 +1,43 @@
+package fs.fibu2.export;
+
+import java.io.File;
+import java.io.IOException;
+
+import fs.fibu2.data.format.BinaryJournalFormat;
+import fs.fibu2.data.format.JournalExport;
+import fs.fibu2.data.model.Journal;
+import fs.fibu2.lang.Fsfibu2StringTableMgr;
+
+/**
+ * Exports a journal to the binary fsfibu 2 format (see {@link BinaryJournalFormat}). Such a file can be opened like any
+ * other journal file.
+ * @author Simon Hampe
+ *
+ */
+public class BinaryJournalExport implements JournalExport {
+
+	private final static String sgroup = "fs.fibu2.export.BinaryJournalExport";
+	
+	@Override
+	public void exportJournal(Journal j, String fileName) throws IOException {
+		if(j == null) return;
+		if(fileName == null) throw new IOException("Cannot save to null file");
+		BinaryJournalFormat.write(j, new File(fileName));
+	}
+
+	@Override
+	public String getDescription() {
+		return Fsfibu2StringTableMgr.getString(sgroup + ".description");
+	}
+
+	@Override
+	public String getID() {
+		return "ff2export_binary";
+	}
+
+	@Override
+	public String getName() {
+		return Fsfibu2StringTableMgr.getString(sgroup + ".name");
+	}
+
+}
@@ -3,11 +3,9 @@ package fs.fibu2.export;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.TreeSet;
 
 import fs.fibu2.data.Fsfibu2Constants;
 import fs.fibu2.data.format.DefaultCurrencyFormat;
-import fs.fibu2.data.format.EntryComparator;
 import fs.fibu2.data.format.Fsfibu2DateFormats;
 import fs.fibu2.data.format.JournalExport;
 import fs.fibu2.data.model.Entry;
@@ -40,9 +38,7 @@ public class CSVTableExport implements JournalExport {
 		out.println();
 		
 		//Write entries
-		TreeSet<Entry> sortedSet = new TreeSet<Entry>(new EntryComparator(false));
-		sortedSet.addAll(j.getEntries());
-		for(Entry e : sortedSet) {
+		for(Entry e : j.getSortedEntries()) {
 			out.print(e.getName() + ";");
 			out.print(Fsfibu2DateFormats.getEntryDateFormat().format(e.getDate().getTime()) + ";");
 			out.print(DefaultCurrencyFormat.getFormat(Fsfibu2Constants.defaultCurrency).format(e.getValue()) + ";");
@@ -1,15 +1,12 @@
 package fs.fibu2.export;
 
+import java.io.File;
 import java.io.IOException;
 
-import org.dom4j.Element;
-import org.dom4j.tree.DefaultDocument;
-
 import fs.fibu2.data.format.JournalExport;
+import fs.fibu2.data.format.JournalWriter;
 import fs.fibu2.data.model.Journal;
 import fs.fibu2.lang.Fsfibu2StringTableMgr;
-import fs.xml.XMLReadConfigurationException;
-import fs.xml.XMLToolbox;
 
 /**
  * 'Exports' a journal to the standard fsfibu 2 XML format.
@@ -24,14 +21,7 @@ public class StandardJournalExport implements JournalExport {
 	public void exportJournal(Journal j, String fileName) throws IOException {
 		if(j == null) return;
 		if(fileName == null) throw new IOException("Cannot save to null file");
-		try {
-			Element d = j.getConfiguration();
-			DefaultDocument doc = new DefaultDocument();
-			doc.setRootElement(d);
-			XMLToolbox.saveXML(doc, fileName);
-		} catch (XMLReadConfigurationException e) {
-			throw new IOException("Cannot read journal configuration");
-		}
+		new JournalWriter(j, new File(fileName)).write();
 	}
 
 	@Override
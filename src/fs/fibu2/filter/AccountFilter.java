@@ -40,7 +40,7 @@ import fs.xml.XMLDirectoryTree;
  * @author Simon Hampe
  *
  */
-public class AccountFilter implements EntryFilter {
+public class AccountFilter implements IndexableFilter {
 
 	// FIELDS ************************
 	// *******************************
@@ -146,6 +146,15 @@ public class AccountFilter implements EntryFilter {
 		}
 	}
 
+	/**
+	 * @return An account query, if this filter admits a certain account, null otherwise
+	 */
+	@Override
+	public IndexQuery getIndexQuery() {
+		if(typeOfFilter == Selection.EQUALITY && equalityAccount != null) return IndexQuery.account(equalityAccount);
+		return null;
+	}
+	
 	@Override
 	public EntryFilter createMeFromPreferences(Preferences filterNode)
 			throws IllegalArgumentException {
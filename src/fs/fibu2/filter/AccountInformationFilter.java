@@ -49,7 +49,7 @@ import fs.xml.XMLDirectoryTree;
  * @author Simon Hampe
  *
  */
-public class AccountInformationFilter implements EntryFilter {
+public class AccountInformationFilter implements IndexableFilter {
 
 	private AccountInformation information; 
 	
@@ -64,8 +64,12 @@ public class AccountInformationFilter implements EntryFilter {
 	private String		maxFloatFilter;
 	
 	private boolean 	numericalRangeFilter;
+	//The numerical bounds. Null means no bound
+	private Float		minFloat;
+	private Float		maxFloat;
 	
 	private static NumberFormat format = NumberFormat.getInstance();
+	private static final DefaultStringComparator stringComparator = new DefaultStringComparator();
 	
 	// CONSTRUCTORS ****************************
 	// *****************************************
@@ -126,6 +130,9 @@ public class AccountInformationFilter implements EntryFilter {
 			typeOfFilter = Selection.RANGE;
 			minFloatFilter = min == null? null : format.format(min);
 			maxFloatFilter = max == null? null : format.format(max);
+			//The bounds are compared in the way they are displayed
+			minFloat = parseBound(minFloatFilter);
+			maxFloat = parseBound(maxFloatFilter);
 			numericalRangeFilter = true;
 		}
 	}
@@ -179,24 +186,52 @@ public class AccountInformationFilter implements EntryFilter {
 		case REGEX: Matcher m = regexFilter.matcher(entryInfo);
 					return m.matches();
 		case RANGE: if(!numericalRangeFilter) {
-						DefaultStringComparator comp = new DefaultStringComparator();
-						return comp.compare(minFilter, entryInfo) <= 0 && comp.compare(entryInfo, maxFilter) <= 0;
+						return stringComparator.compare(minFilter, entryInfo) <= 0 && stringComparator.compare(entryInfo, maxFilter) <= 0;
 					}
 					else {
+						float value;
 						try {
-							format.parse(entryInfo).floatValue();
-							DefaultFloatComparator comp = new DefaultFloatComparator(format);
-							return  comp.compare(minFloatFilter, entryInfo) <= 0 && comp.compare(entryInfo, maxFloatFilter) <= 0;
+							synchronized (format) {
+								value = format.parse(entryInfo).floatValue();
+							}
 						}
 						catch(ParseException pe) {
 							return false; //If the info is not parseable, the entry is not valid
 						}
+						return (minFloat == null || minFloat <= value) && (maxFloat == null || value <= maxFloat);
 					}			
 					
 		default: return false;
 		}
 	}
 	
+	/**
+	 * @return The value of the given bound or null, if it is null or cannot be parsed (Both is interpreted as no bound)
+	 */
+	private static Float parseBound(String bound) {
+		if(bound == null) return null;
+		try {
+			synchronized (format) {
+				return format.parse(bound).floatValue();
+			}
+		}
+		catch(ParseException pe) {
+			return null;
+		}
+	}
+	
+	/**
+	 * @return An account information query for EQUALITY filters and REGEX filters requiring some literal text, null otherwise
+	 */
+	@Override
+	public IndexQuery getIndexQuery() {
+		switch(typeOfFilter) {
+		case EQUALITY: return IndexQuery.accountInformation(information.getId(), equalityString);
+		case REGEX: return IndexQuery.accountInformationMatches(information.getId(), regexFilter);
+		default: return null;
+		}
+	}
+	
 	@Override
 	public EntryFilter createMeFromPreferences(Preferences filterNode)
 			throws IllegalArgumentException {
@@ -18,7 +18,7 @@ import fs.validate.ValidationResult.Result;
  * @author Simon Hampe
  *
  */
-public class AdditionalInformationFilter implements EntryFilter {
+public class AdditionalInformationFilter implements IndexableFilter {
 	
 	private Selection typeOfFilter;	//Equality, regex or range
 	private String firstFilter;		//The filter for equality or regex and the min value for range
@@ -128,6 +128,18 @@ public class AdditionalInformationFilter implements EntryFilter {
 		//We cannot arrive here...
 		return false;
 	}
+	
+	/**
+	 * @return An additional information query for EQUALITY filters and REGEX filters requiring some literal text, null otherwise
+	 */
+	@Override
+	public IndexQuery getIndexQuery() {
+		switch(typeOfFilter) {
+		case EQUALITY: return IndexQuery.additionalInformation(firstFilter);
+		case REGEX: return IndexQuery.additionalInformationMatches(pattern);
+		default: return null;
+		}
+	}
 
 	@Override
 	public EntryFilter createMeFromPreferences(Preferences filterNode)
@@ -1,5 +1,6 @@
 package fs.fibu2.filter;
 
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Vector;
 import java.util.prefs.BackingStoreException;
@@ -47,7 +48,7 @@ import fs.xml.XMLDirectoryTree;
  * @author Simon Hampe
  *
  */
-public class CategoryFilter implements EntryFilter {
+public class CategoryFilter implements IndexableFilter {
 
 	// FIELDS ************************
 	// *******************************
@@ -61,6 +62,12 @@ public class CategoryFilter implements EntryFilter {
 	private String				minFilter;
 	private String				maxFilter;
 	
+	private static final Comparator<String> stringComparator = new DefaultStringComparator();
+	
+	//The results of the level based filters for each category, indexed by category ID: 0 = unknown, 1 = admitted, 2 = rejected.
+	//A filter only sees a few different categories, so each string comparison or regular expression is evaluated only once per category
+	private volatile byte[] levelResults = new byte[0];
+	
 	// CONSTRUCTORS ********************
 	// *********************************
 	
@@ -157,20 +164,58 @@ public class CategoryFilter implements EntryFilter {
 		switch(typeOfFilter) {
 		case EQUALITY: 
 			if(equalityCategory != null) return e.getCategory().isSubCategoryOf(equalityCategory);
-			else {
-				if(e.getCategory().getOrder() < levelToCheck || levelToCheck <= 0) return false;
-				return e.getCategory().getOrderedList().get(levelToCheck-1).equals(equalityString);
+			return cachedLevelResult(e.getCategory());
+		case REGEX:
+		case RANGE: return cachedLevelResult(e.getCategory());
+		default: return false;
+		}
+	}
+	
+	/**
+	 * @return Whether the string of c at the level of this filter is admitted. The result is looked up in the result cache by the ID of c and
+	 * computed with {@link #verifyLevel(Category)}, if it is not yet known
+	 */
+	private boolean cachedLevelResult(Category c) {
+		byte[] results = levelResults;
+		int id = c.getID();
+		if(id < results.length && results[id] != 0) return results[id] == 1;
+		boolean admitted = verifyLevel(c);
+		synchronized (this) {
+			results = levelResults;
+			if(id >= results.length) {
+				results = Arrays.copyOf(results, Math.max(Category.getNumberOfCategories(), id + 1));
 			}
-		case REGEX: Matcher m = regexFilter.matcher(e.getCategory().getOrderedList().get(levelToCheck-1));
+			results[id] = admitted? (byte)1 : (byte)2;
+			levelResults = results;
+		}
+		return admitted;
+	}
+	
+	/**
+	 * @return Whether the string of c at the level of this filter is admitted. Categories of lower order are never admitted
+	 */
+	private boolean verifyLevel(Category c) {
+		if(c.getOrder() < levelToCheck || levelToCheck <= 0) return false;
+		String s = c.getString(levelToCheck);
+		switch(typeOfFilter) {
+		case EQUALITY: return s.equals(equalityString);
+		case REGEX: Matcher m = regexFilter.matcher(s);
 					return m.matches();
-		case RANGE: Comparator<String> c = new DefaultStringComparator();
-					String toCompare = e.getCategory().getOrderedList().get(levelToCheck-1);
-					return c.compare(minFilter, toCompare) <= 0 && c.compare(toCompare, maxFilter) <= 0;
+		case RANGE: return stringComparator.compare(minFilter, s) <= 0 && stringComparator.compare(s, maxFilter) <= 0;
 		default: return false;
 		}
 	}
 	
 
+	/**
+	 * @return A category query, if this filter admits a category and its subcategories, null otherwise
+	 */
+	@Override
+	public IndexQuery getIndexQuery() {
+		if(typeOfFilter == Selection.EQUALITY && equalityCategory != null) return IndexQuery.categorySubtree(equalityCategory);
+		return null;
+	}
+	
 	@Override
 	public EntryFilter createMeFromPreferences(Preferences filterNode)
 			throws IllegalArgumentException {
@@ -0,0 +1,174 @@
+package fs.fibu2.filter;
+
+import java.util.BitSet;
+import java.util.Vector;
+
+import fs.fibu2.data.ParallelCalculation;
+import fs.fibu2.data.model.Entry;
+import fs.fibu2.data.model.EntryStore;
+import fs.fibu2.data.model.JournalIndex;
+
+/**
+ * A compiled filter is the optimized form of the active filters of a {@link StackFilter}: Inactive filters are dropped and the negation flags
+ * are resolved once. An entry is verified by asking the filters in the order of increasing cost per rejected entry, so a filter which is cheap and
+ * rejects many entries is asked first and the evaluation stops at the first filter rejecting the entry. <br>
+ * Cost and selectivity of the filters are measured while verifying: The first entries after the compilation (and afterwards a few entries in regular
+ * intervals) are verified by all filters, recording the time needed and the result of each filter. After each such sample the order is recomputed. <br>
+ * Furthermore all entries of a journal can be filtered at once via a {@link JournalIndex}: The filters which can be expressed as 
+ * {@link IndexQuery} are evaluated by intersecting the query results, only the remaining filters are asked for each entry in the intersection
+ * (in parallel, if enabled, see {@link ParallelCalculation}). <br>
+ * A compiled filter can be used by several threads at the same time. The statistics might then be slightly inaccurate, which only affects the order.
+ * @author Simon Hampe
+ *
+ */
+class CompiledFilter {
+
+	//The number of entries in each sample and the distance between two samples. The interval must be a power of 2
+	private static final int sampleSize = 256;
+	private static final int sampleInterval = 1 << 14;
+
+	private final EntryFilter[] filters;
+	private final boolean[] negated;
+	//The index queries of the filters. Null for filters which cannot be expressed by a query 
+	private final IndexQuery[] queries;
+
+	//The order, in which the filters are asked. A new array is created for each change
+	private volatile int[] order;
+
+	//The statistics: Time spent in each filter and number of rejected entries during samples
+	private final long[] nanos;
+	private final int[] rejections;
+	private int calls = 0;
+
+	//The modification count of the stack filter this was compiled from
+	final int stamp;
+
+	// CONSTRUCTOR ****************************
+	// ****************************************
+
+	/**
+	 * Creates a compiled filter, which admits an entry, if and only if for each i filters[i] verifies it XOR negated[i] is true
+	 * @param stamp An arbitrary number, which can be retrieved later via {@link #stamp}
+	 */
+	CompiledFilter(Vector<EntryFilter> filters, Vector<Boolean> negated, int stamp) {
+		this.filters = filters.toArray(new EntryFilter[filters.size()]);
+		this.negated = new boolean[filters.size()];
+		for(int i = 0; i < this.negated.length; i++) this.negated[i] = negated.get(i);
+		queries = new IndexQuery[this.filters.length];
+		for(int i = 0; i < queries.length; i++) {
+			if(this.filters[i] instanceof IndexableFilter) queries[i] = ((IndexableFilter)this.filters[i]).getIndexQuery();
+		}
+		nanos = new long[this.filters.length];
+		rejections = new int[this.filters.length];
+		int[] initialOrder = new int[this.filters.length];
+		for(int i = 0; i < initialOrder.length; i++) initialOrder[i] = i;
+		order = initialOrder;
+		this.stamp = stamp;
+	}
+
+	// FILTER METHODS *************************
+	// ****************************************
+
+	/**
+	 * @return true, if and only if e is admitted by all filters (or rejected by all negated ones)
+	 */
+	boolean verifyEntry(Entry e) {
+		if(filters.length == 0) return true;
+		int position = (calls++) & (sampleInterval - 1);
+		if(position < sampleSize) return sampleEntry(e, position == sampleSize - 1);
+		int[] currentOrder = order;
+		for(int i : currentOrder) {
+			if(filters[i].verifyEntry(e) == negated[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return The IDs of all entries in the index admitted by this filter
+	 */
+	BitSet getAdmittedIDs(JournalIndex index) {
+		BitSet result = index.getAll();
+		int capacity = index.getView().getCapacity();
+		boolean unindexed = false;
+		for(int i = 0; i < filters.length; i++) {
+			if(queries[i] == null) {
+				unindexed = true;
+				continue;
+			}
+			BitSet matches = queries[i].evaluate(index);
+			if(negated[i]) matches.flip(0, capacity);
+			result.and(matches);
+		}
+		if(unindexed) {
+			//Verify the remaining entries in chunks (see ParallelCalculation) and collect the rejected ones
+			final BitSet candidates = result;
+			final EntryStore.View view = index.getView();
+			final int[] currentOrder = order;
+			BitSet rejected = new ParallelCalculation.Reduction<BitSet>() {
+				@Override
+				protected BitSet reduce(int from, int to) {
+					BitSet chunkRejected = new BitSet();
+					int verified = 0;
+					for(int id = candidates.nextSetBit(from); id >= 0 && id < to; id = candidates.nextSetBit(id + 1)) {
+						if((verified++ & 1023) == 0) checkpoint();
+						Entry e = view.getEntry(id);
+						for(int i : currentOrder) {
+							if(queries[i] == null && filters[i].verifyEntry(e) == negated[i]) {
+								chunkRejected.set(id);
+								break;
+							}
+						}
+					}
+					return chunkRejected;
+				}
+				@Override
+				protected BitSet merge(BitSet left, BitSet right) {
+					left.or(right);
+					return left;
+				}
+			}.compute(capacity);
+			result.andNot(rejected);
+		}
+		return result;
+	}
+
+	/**
+	 * Verifies e by all filters and records their time and result
+	 * @param reorder Whether the order should be recomputed afterwards
+	 */
+	private boolean sampleEntry(Entry e, boolean reorder) {
+		boolean result = true;
+		for(int i = 0; i < filters.length; i++) {
+			long start = System.nanoTime();
+			boolean admitted = filters[i].verifyEntry(e) != negated[i];
+			nanos[i] += System.nanoTime() - start;
+			if(!admitted) {
+				rejections[i]++;
+				result = false;
+			}
+		}
+		if(reorder) recomputeOrder();
+		return result;
+	}
+
+	/**
+	 * Sorts the filters by their average time per rejected entry. A filter which never rejected an entry is ranked by its time only,
+	 * i.e. as if it had rejected one entry
+	 */
+	private void recomputeOrder() {
+		int[] newOrder = new int[filters.length];
+		double[] rank = new double[filters.length];
+		for(int i = 0; i < filters.length; i++) {
+			rank[i] = (nanos[i] + 1.0) / (rejections[i] + 1.0);
+			//Insertion sort, since there are only a few filters
+			int j = i;
+			while(j > 0 && rank[newOrder[j-1]] > rank[i]) {
+				newOrder[j] = newOrder[j-1];
+				j--;
+			}
+			newOrder[j] = i;
+		}
+		order = newOrder;
+	}
+
+}
@@ -8,6 +8,7 @@ import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import fs.fibu2.data.format.EntryDateComparator;
+import fs.fibu2.data.format.EpochDay;
 import fs.fibu2.data.format.Fsfibu2DateFormats;
 import fs.fibu2.data.format.GivenFormatValidator;
 import fs.fibu2.data.model.Entry;
@@ -22,7 +23,7 @@ import fs.validate.ValidationResult.Result;
  * @author Simon Hampe
  *
  */
-public class DateFilter implements EntryFilter {
+public class DateFilter implements IndexableFilter {
 
 	// FIELDS ************************
 	// *******************************
@@ -33,6 +34,11 @@ public class DateFilter implements EntryFilter {
 	private GregorianCalendar	minFilter;
 	private GregorianCalendar	maxFilter;
 	
+	//The filter dates as epoch days, so entries can be verified by integer comparisons. Null bounds are replaced by the extreme int values.
+	private int					equalityDay;
+	private int					minDay = Integer.MIN_VALUE;
+	private int					maxDay = Integer.MAX_VALUE;
+	
 	// CONSTRUCTORS ***********************
 	// ************************************
 	
@@ -55,9 +61,12 @@ public class DateFilter implements EntryFilter {
 	public DateFilter(Selection typeOfFilter, GregorianCalendar equalityFilter, GregorianCalendar minFilter, GregorianCalendar maxFilter, String regexFilter) {
 		this.typeOfFilter = typeOfFilter == null? Selection.EQUALITY : typeOfFilter;
 		switch(this.typeOfFilter) {
-		case EQUALITY: equalityDate = equalityFilter == null? new GregorianCalendar() : equalityFilter; break;
+		case EQUALITY: equalityDate = equalityFilter == null? new GregorianCalendar() : equalityFilter; 
+						equalityDay = EpochDay.valueOf(equalityDate); break;
 		case REGEX: this.regexFilter = regexFilter == null? Pattern.compile("") : Pattern.compile(regexFilter); break;
-		case RANGE: this.minFilter = minFilter; this.maxFilter = maxFilter ;		
+		case RANGE: this.minFilter = minFilter; this.maxFilter = maxFilter ;
+					if(minFilter != null) minDay = EpochDay.valueOf(minFilter);
+					if(maxFilter != null) maxDay = EpochDay.valueOf(maxFilter);
 		}
 	}
 	
@@ -93,15 +102,27 @@ public class DateFilter implements EntryFilter {
 	public boolean verifyEntry(Entry e) {
 		if(e == null) return false;
 		switch(typeOfFilter) {
-		case EQUALITY: return new EntryDateComparator().compare(equalityDate, e.getDate()) == 0;
+		case EQUALITY: return e.getEpochDay() == equalityDay;
 		case REGEX: Matcher m = regexFilter.matcher(Fsfibu2DateFormats.getEntryDateFormat().format(e.getDate().getTime()));
 					return m.matches();
-		case RANGE: EntryDateComparator c = new EntryDateComparator();
-					return c.compare(minFilter, e.getDate()) <= 0 && c.compare(e.getDate(), maxFilter) <= 0;
+		case RANGE: int day = e.getEpochDay();
+					return minDay <= day && day <= maxDay;
 		default: return false;
 		}
 	}
 	
+	/**
+	 * @return A date range query for EQUALITY and RANGE filters, null for REGEX filters
+	 */
+	@Override
+	public IndexQuery getIndexQuery() {
+		switch(typeOfFilter) {
+		case EQUALITY: return IndexQuery.dateRange(equalityDay, equalityDay);
+		case RANGE: return IndexQuery.dateRange(minDay, maxDay);
+		default: return null;
+		}
+	}
+	
 	@Override
 	public EntryFilter createMeFromPreferences(Preferences filterNode)
 			throws IllegalArgumentException {
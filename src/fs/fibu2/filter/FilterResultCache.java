@@ -0,0 +1,124 @@
+package fs.fibu2.filter;
+
+import java.util.BitSet;
+import java.util.WeakHashMap;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import fs.fibu2.data.model.EntryStore;
+import fs.fibu2.data.model.Journal;
+import fs.fibu2.data.model.JournalIndex;
+
+/**
+ * A filter result cache keeps for each filter applied to a journal the IDs of the admitted entries (see {@link IndexQuery#getAdmittedIDs(EntryFilter, JournalIndex)}),
+ * together with the version of the journal and the state of the filter they were computed for. Several views showing the same filter
+ * (e.g. the table, bilancial and chart of a filter from the {@link FilterPool}) thus evaluate it only once per change. <br>
+ * If the journal has been modified since the last computation, only the entries changed in between are verified again (see {@link EntryStore.View#getChangedIDs(int)}).
+ * If a {@link StackFilter} changes, its result is thrown away. Computing the result for a filter is synchronized on this filter, so if
+ * several threads request the same result at the same time, it is computed only once. <br>
+ * There is one cache for each journal. Neither journals nor filters are kept alive by the cache.
+ * @author Simon Hampe
+ *
+ */
+public class FilterResultCache {
+
+	private static WeakHashMap<Journal, FilterResultCache> cacheMap = new WeakHashMap<Journal, FilterResultCache>();
+
+	//The results for each filter
+	private WeakHashMap<EntryFilter, Result> results = new WeakHashMap<EntryFilter, Result>();
+
+	//Throws away the result of a stack filter, when it changes
+	private ChangeListener filterListener = new ChangeListener() {
+		@Override
+		public void stateChanged(ChangeEvent e) {
+			if(e.getSource() instanceof EntryFilter) {
+				Result r = getResult((EntryFilter)e.getSource(), false);
+				if(r != null) {
+					synchronized (r) {
+						r.admitted = null;
+					}
+				}
+			}
+		}
+	};
+
+	// CONSTRUCTION ***************************
+	// ****************************************
+
+	private FilterResultCache() {
+	}
+
+	/**
+	 * @return The cache for the given journal or null, if j == null
+	 */
+	public static synchronized FilterResultCache getInstance(Journal j) {
+		if(j == null) return null;
+		FilterResultCache cache = cacheMap.get(j);
+		if(cache == null) {
+			cache = new FilterResultCache();
+			cacheMap.put(j, cache);
+		}
+		return cache;
+	}
+
+	// QUERY **********************************
+	// ****************************************
+
+	/**
+	 * @param index An index of the journal of this cache
+	 * @return The IDs of all entries in the index admitted by the filter (all entries, if filter == null). The result may be modified by the caller.
+	 */
+	public BitSet getAdmittedIDs(EntryFilter filter, JournalIndex index) {
+		if(filter == null) return index.getAll();
+		Result r = getResult(filter, true);
+		synchronized (r) {
+			int stamp = filter instanceof StackFilter? ((StackFilter)filter).getModifications() : 0;
+			int version = index.getVersion();
+			if(r.admitted == null || r.stamp != stamp) {
+				r.admitted = IndexQuery.getAdmittedIDs(filter, index);
+			}
+			else if(r.version != version) {
+				EntryStore.View view = index.getView();
+				int[] changed = view.getChangedIDs(r.version);
+				//Recompute completely, if the result is newer or the changes are unknown or too many
+				if(changed == null || changed.length > view.getCapacity() / 8) {
+					r.admitted = IndexQuery.getAdmittedIDs(filter, index);
+				}
+				else {
+					for(int id : changed) {
+						if(view.isUsed(id) && filter.verifyEntry(view.getEntry(id))) r.admitted.set(id);
+						else r.admitted.clear(id);
+					}
+				}
+			}
+			r.stamp = stamp;
+			r.version = version;
+			return (BitSet)r.admitted.clone();
+		}
+	}
+
+	/**
+	 * @param create Whether a result should be created, if none exists
+	 * @return The result object for the given filter
+	 */
+	private synchronized Result getResult(EntryFilter filter, boolean create) {
+		Result r = results.get(filter);
+		if(r == null && create) {
+			r = new Result();
+			results.put(filter, r);
+			if(filter instanceof StackFilter) ((StackFilter)filter).addChangeListener(filterListener);
+		}
+		return r;
+	}
+
+	/**
+	 * The admitted IDs of a filter (null, if not computed yet) and the journal version and filter state they were computed for
+	 */
+	private static class Result {
+		public BitSet admitted = null;
+		public int version;
+		public int stamp;
+	}
+
+}
@@ -0,0 +1,186 @@
+package fs.fibu2.filter;
+
+import java.util.BitSet;
+import java.util.Vector;
+import java.util.regex.Pattern;
+
+import fs.fibu2.data.model.Account;
+import fs.fibu2.data.model.Category;
+import fs.fibu2.data.model.JournalIndex;
+import fs.fibu2.data.model.TextIndex;
+
+/**
+ * An index query describes a set of entries in a way that can be answered by a {@link JournalIndex}: A date range, a value range, a category
+ * with all its subcategories, an account or a name, additional information or value for an account information key, which is either given exactly
+ * or by a regular expression. Queries are created by
+ * {@link IndexableFilter}s. This class also contains the method {@link #getAdmittedIDs(EntryFilter, JournalIndex)}, which evaluates an arbitrary
+ * filter as far as possible with an index.
+ * @author Simon Hampe
+ *
+ */
+public final class IndexQuery {
+
+	/**
+	 * The types of queries
+	 */
+	public enum Type {DATE, VALUE, CATEGORY, ACCOUNT, NAME, ADDITIONALINFORMATION, ACCOUNTINFORMATION};
+
+	private final Type type;
+
+	private int fromDay;
+	private int toDay;
+	private Float minValue;
+	private Float maxValue;
+	private Category category;
+	private Account account;
+	private String key;
+	private String value;
+	//The expression for text queries by regular expression. Null for exact text queries
+	private Pattern pattern;
+
+	private IndexQuery(Type type) {
+		this.type = type;
+	}
+
+	// CREATION *******************************
+	// ****************************************
+
+	/**
+	 * @return A query for all entries whose epoch day lies between fromDay and toDay (both inclusive)
+	 */
+	public static IndexQuery dateRange(int fromDay, int toDay) {
+		IndexQuery q = new IndexQuery(Type.DATE);
+		q.fromDay = fromDay;
+		q.toDay = toDay;
+		return q;
+	}
+
+	/**
+	 * @return A query for all entries whose value lies between min and max (both inclusive, compared as by {@link Float#compare(float, float)}).
+	 * Null means no bound.
+	 */
+	public static IndexQuery valueRange(Float min, Float max) {
+		IndexQuery q = new IndexQuery(Type.VALUE);
+		q.minValue = min;
+		q.maxValue = max;
+		return q;
+	}
+
+	/**
+	 * @return A query for all entries in c or one of its subcategories
+	 */
+	public static IndexQuery categorySubtree(Category c) {
+		IndexQuery q = new IndexQuery(Type.CATEGORY);
+		q.category = c;
+		return q;
+	}
+
+	/**
+	 * @return A query for all entries in account a
+	 */
+	public static IndexQuery account(Account a) {
+		IndexQuery q = new IndexQuery(Type.ACCOUNT);
+		q.account = a;
+		return q;
+	}
+
+	/**
+	 * @return A query for all entries with the given name
+	 */
+	public static IndexQuery name(String name) {
+		IndexQuery q = new IndexQuery(Type.NAME);
+		q.value = name;
+		return q;
+	}
+
+	/**
+	 * @return A query for all entries whose name matches p or null, if p doesn't require any literal text (see {@link TextIndex#getRequiredLiterals(Pattern)}).
+	 * In this case the text index cannot sort out any names, so it is not worth using the index
+	 */
+	public static IndexQuery nameMatches(Pattern p) {
+		if(TextIndex.getRequiredLiterals(p).size() == 0) return null;
+		IndexQuery q = new IndexQuery(Type.NAME);
+		q.pattern = p;
+		return q;
+	}
+	
+	/**
+	 * @return A query for all entries with the given additional information
+	 */
+	public static IndexQuery additionalInformation(String information) {
+		IndexQuery q = new IndexQuery(Type.ADDITIONALINFORMATION);
+		q.value = information;
+		return q;
+	}
+	
+	/**
+	 * @return A query for all entries whose additional information matches p or null, if p doesn't require any literal text (see {@link #nameMatches(Pattern)})
+	 */
+	public static IndexQuery additionalInformationMatches(Pattern p) {
+		if(TextIndex.getRequiredLiterals(p).size() == 0) return null;
+		IndexQuery q = new IndexQuery(Type.ADDITIONALINFORMATION);
+		q.pattern = p;
+		return q;
+	}
+
+	/**
+	 * @return A query for all entries whose account information for key is equal to value (missing information counts as the empty string)
+	 */
+	public static IndexQuery accountInformation(String key, String value) {
+		IndexQuery q = new IndexQuery(Type.ACCOUNTINFORMATION);
+		q.key = key;
+		q.value = value;
+		return q;
+	}
+	
+	/**
+	 * @return A query for all entries whose account information for key matches p (missing information counts as the empty string) or null,
+	 * if p doesn't require any literal text (see {@link #nameMatches(Pattern)})
+	 */
+	public static IndexQuery accountInformationMatches(String key, Pattern p) {
+		if(TextIndex.getRequiredLiterals(p).size() == 0) return null;
+		IndexQuery q = new IndexQuery(Type.ACCOUNTINFORMATION);
+		q.key = key;
+		q.pattern = p;
+		return q;
+	}
+
+	// EVALUATION *****************************
+	// ****************************************
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return The IDs of all entries in the index admitted by this query
+	 */
+	public BitSet evaluate(JournalIndex index) {
+		switch(type) {
+		case DATE: return index.getDateRange(fromDay, toDay);
+		case VALUE: return index.getValueRange(minValue, maxValue);
+		case CATEGORY: return index.getCategorySubtree(category);
+		case ACCOUNT: return index.getAccount(account);
+		case NAME: return pattern == null? index.getName(value) : index.getNameMatches(pattern);
+		case ADDITIONALINFORMATION: return pattern == null? index.getAdditionalInformation(value) : index.getAdditionalInformationMatches(pattern);
+		case ACCOUNTINFORMATION: return pattern == null? index.getAccountInformation(key, value) : index.getAccountInformationMatches(key, pattern);
+		default: return index.getAll();
+		}
+	}
+
+	/**
+	 * @return The IDs of all entries in the index admitted by the filter. Stack filters and {@link IndexableFilter}s are evaluated with the
+	 * index as far as possible, all other filters by verifying each entry. If the filter is null, all IDs are returned.
+	 */
+	public static BitSet getAdmittedIDs(EntryFilter filter, JournalIndex index) {
+		if(filter == null) return index.getAll();
+		if(filter instanceof StackFilter) return ((StackFilter)filter).getAdmittedIDs(index);
+		//A single filter is evaluated like a stack containing only this filter
+		Vector<EntryFilter> filters = new Vector<EntryFilter>();
+		filters.add(filter);
+		Vector<Boolean> negated = new Vector<Boolean>();
+		negated.add(false);
+		return new CompiledFilter(filters, negated, 0).getAdmittedIDs(index);
+	}
+
+}
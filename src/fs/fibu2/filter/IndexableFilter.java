@@ -0,0 +1,18 @@
+package fs.fibu2.filter;
+
+/**
+ * An indexable filter is a filter, which can (at least in some configurations) describe the set of entries it admits by an {@link IndexQuery}. 
+ * Such a filter can then be evaluated with a {@link fs.fibu2.data.model.JournalIndex} instead of verifying each entry. This interface is optional:
+ * Filters which don't implement it are always evaluated via {@link EntryFilter#verifyEntry(fs.fibu2.data.model.Entry)}.
+ * @author Simon Hampe
+ *
+ */
+public interface IndexableFilter extends EntryFilter {
+
+	/**
+	 * @return A query, which admits exactly the entries verified by this filter or null, if the current configuration of this filter 
+	 * cannot be expressed as a query (e.g. a regular expression).
+	 */
+	public IndexQuery getIndexQuery();
+	
+}
@@ -18,7 +18,7 @@ import fs.validate.ValidationResult.Result;
  * @author Simon Hampe
  *
  */
-public class NameFilter implements EntryFilter {
+public class NameFilter implements IndexableFilter {
 
 	private Selection typeOfFilter;	//Equality, regex or range
 	private String firstFilter;		//The filter for equality or regex and the min value for range
@@ -130,6 +130,18 @@ public class NameFilter implements EntryFilter {
 		return false;
 	}
 	
+	/**
+	 * @return A name query for EQUALITY filters and REGEX filters requiring some literal text, null otherwise
+	 */
+	@Override
+	public IndexQuery getIndexQuery() {
+		switch(typeOfFilter) {
+		case EQUALITY: return IndexQuery.name(firstFilter);
+		case REGEX: return IndexQuery.nameMatches(pattern);
+		default: return null;
+		}
+	}
+	
 	@Override
 	public EntryFilter createMeFromPreferences(Preferences filterNode)
 			throws IllegalArgumentException {
@@ -5,6 +5,7 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Vector;
 import java.util.prefs.BackingStoreException;
@@ -29,6 +30,7 @@ import org.dom4j.Document;
 
 import fs.fibu2.data.model.Entry;
 import fs.fibu2.data.model.Journal;
+import fs.fibu2.data.model.JournalIndex;
 import fs.fibu2.filter.StandardFilterComponent.Selection;
 import fs.fibu2.lang.Fsfibu2StringTableMgr;
 import fs.fibu2.resource.Fsfibu2DefaultReference;
@@ -58,6 +60,11 @@ public class StackFilter implements EntryFilter {
 	//A list of listeners
 	private HashSet<ChangeListener> listeners = new HashSet<ChangeListener>();
 	
+	//The compiled form of the stack, which is used for verifying entries, and the number of changes of the stack. The compiled filter is
+	//recreated, whenever its stamp differs from the number of changes
+	private volatile CompiledFilter compiled = null;
+	private volatile int modifications = 0;
+	
 	private ChangeListener editorListener = new ChangeListener() {
 		@Override
 		public void stateChanged(ChangeEvent e) {fireStateChanged();}
@@ -93,7 +100,9 @@ public class StackFilter implements EntryFilter {
 	
 	public StackFilter clone() {
 		StackFilter filter = new StackFilter();
-		filter.filterList = new Vector<StackFilterElement>(filterList);
+		for(StackFilterElement f : filterList) {
+			filter.filterList.add(new StackFilterElement(f.filter, f.isActive, f.isNegated));
+		}
 		return filter;
 	}
 	
@@ -126,16 +135,50 @@ public class StackFilter implements EntryFilter {
 
 	/**
 	 * @return true, if and only if e != null and all active filters verify e (i.e. return true, if they are not
-	 * negated, false otherwise)
+	 * negated, false otherwise). The filters are asked in the order given by a {@link CompiledFilter}, not in the order of the stack.
 	 */
 	@Override
 	public boolean verifyEntry(Entry e) {
 		if(e == null) return false;
-		for(StackFilterElement f : filterList) {
-			//(f active) AND (NOT((e valid wrt f) XOR (f negated)))
-			if(f.isActive && !(f.filter.verifyEntry(e) ^ f.isNegated)) return false;
+		return getCompiledFilter().verifyEntry(e);
+	}
+	
+	/**
+	 * @return The IDs of all entries in the index admitted by this filter. Filters which are {@link IndexableFilter}s are evaluated by the index,
+	 * all others only for the entries admitted by the indexable ones.
+	 */
+	public BitSet getAdmittedIDs(JournalIndex index) {
+		return getCompiledFilter().getAdmittedIDs(index);
+	}
+	
+	/**
+	 * @return The number of changes of this stack so far. Results computed for an older number are out of date
+	 */
+	int getModifications() {
+		return modifications;
+	}
+	
+	/**
+	 * @return The compiled form of the current stack. It is recompiled, if the stack has changed since the last call
+	 */
+	private CompiledFilter getCompiledFilter() {
+		CompiledFilter c = compiled;
+		int stamp = modifications;
+		if(c == null || c.stamp != stamp) {
+			Vector<EntryFilter> activeFilters = new Vector<EntryFilter>();
+			Vector<Boolean> negated = new Vector<Boolean>();
+			synchronized (filterList) {
+				for(StackFilterElement f : filterList) {
+					if(f.isActive) {
+						activeFilters.add(f.filter);
+						negated.add(f.isNegated);
+					}
+				}
+			}
+			c = new CompiledFilter(activeFilters, negated, stamp);
+			compiled = c;
 		}
-		return true;
+		return c;
 	}
 
 	@Override
@@ -207,6 +250,8 @@ public class StackFilter implements EntryFilter {
 	}
 	
 	protected void fireStateChanged() {
+		//Each change of the stack is reported here, so the compiled filter is recreated on the next verification
+		modifications++;
 		for(ChangeListener l : listeners) l.stateChanged(new ChangeEvent(this));
 	}
 	
@@ -3,7 +3,6 @@ package fs.fibu2.filter;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.util.prefs.Preferences;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -21,7 +20,7 @@ import fs.validate.ValidationResult.Result;
  * @author Simon Hampe
  *
  */
-public class ValueFilter implements EntryFilter {
+public class ValueFilter implements IndexableFilter {
 
 	// FIELDS *************************
 	// ********************************
@@ -132,12 +131,31 @@ public class ValueFilter implements EntryFilter {
 		switch(typeOfFilter) {
 		case EQUALITY: return e.getValue() == equalityFilter;
 		case RANGE: return comp.compare(minFilter, e.getValue()) <= 0 && comp.compare(e.getValue(), maxFilter) <= 0;
-		case REGEX: Matcher m = (regexFilter.matcher(format.format(e.getValue())));
-					return m.matches();
+		case REGEX: String formatted;
+					synchronized (format) {
+						formatted = format.format(e.getValue());
+					}
+					return regexFilter.matcher(formatted).matches();
 		default: 	return false;
 		}
 	}
 	
+	/**
+	 * @return A value range query for EQUALITY and RANGE filters, null for REGEX filters
+	 */
+	@Override
+	public IndexQuery getIndexQuery() {
+		switch(typeOfFilter) {
+		case EQUALITY: 
+			//Equality is checked via ==, so 0 equals -0 and NaN equals nothing
+			if(Float.isNaN(equalityFilter)) return null;
+			if(equalityFilter == 0) return IndexQuery.valueRange(-0.0f, 0.0f);
+			return IndexQuery.valueRange(equalityFilter, equalityFilter);
+		case RANGE: return IndexQuery.valueRange(minFilter, maxFilter);
+		default: return null;
+		}
+	}
+	
 	@Override
 	public EntryFilter createMeFromPreferences(Preferences filterNode)
 			throws IllegalArgumentException {
@@ -8,6 +8,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.util.Date;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
@@ -27,6 +28,9 @@ import org.dom4j.Document;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.chart.event.AxisChangeEvent;
+import org.jfree.chart.event.AxisChangeListener;
 
 import fs.fibu2.data.model.Journal;
 import fs.fibu2.filter.EntryFilterEditor;
@@ -96,6 +100,15 @@ public class ChartPane extends JPanel implements ResourceDependent {
 		}
 	};
 	
+	//Displays the series in the level of detail appropriate for the visible range, whenever the chart is zoomed or moved
+	private AxisChangeListener zoomListener = new AxisChangeListener() {
+		@Override
+		public void axisChanged(AxisChangeEvent event) {
+			ValueAxis axis = chart.getXYPlot().getDomainAxis();
+			series.setVisibleRange(new Date((long)axis.getLowerBound()), new Date((long)axis.getUpperBound()));
+		}
+	};
+	
 	private ActionListener filterListener = new ActionListener() {
 		@Override
 		public void actionPerformed(ActionEvent e) {
@@ -160,6 +173,7 @@ public class ChartPane extends JPanel implements ResourceDependent {
 		chart = ChartFactory.createTimeSeriesChart(title == null? "" : title, Fsfibu2StringTableMgr.getString(sgroup + ".xaxis"), 
 					Fsfibu2StringTableMgr.getString(sgroup + ".yaxis"), series, true, true, false);
 		ChartPanel chartPane = new ChartPanel(chart);
+		chart.getXYPlot().getDomainAxis().addChangeListener(zoomListener);
 		
 		filterButton.setIcon(new ImageIcon(Fsfibu2DefaultReference.getDefaultReference().getFullResourcePath(this, "graphics/ChartPane/filter.png")));
 		filterButton.setToolTipText(Fsfibu2StringTableMgr.getString("fs.fibu2.module.FilterPane.filter"));
@@ -74,7 +74,7 @@ public class FilterPane extends JPanel implements ResourceDependent {
 		//Init components
 		filter = f == null? new StackFilter() : f;
 		
-		table = new JournalTable(new JournalTableModel(j,null,true,true));
+		table = new JournalTable(new JournalTableModel(j,null,true,true,true));
 		//Read out preferences
 		if(node != null) {
 			String displayyear = node.get("displayyear", null);
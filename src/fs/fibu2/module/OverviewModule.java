@@ -171,7 +171,7 @@ public class OverviewModule extends JPanel implements JournalModule, ResourceDep
 		
 		associatedJournal = j == null? new Journal() : j;
 		
-		table = new JournalTable(new JournalTableModel(j,null,true,true));
+		table = new JournalTable(new JournalTableModel(j,null,true,true,true));
 		categoryBox.setModel(new CategoryListModel(j,true));
 		categoryBox.setSelectedIndex(0);
 		categoryBox.setRenderer(new CategoryListRenderer(" > "));
@@ -87,15 +87,15 @@ public class AccountInformationListModel extends AbstractListModel implements
 	}
 	
 	/**
-	 * Executes a swing worker object for model recalculation. If a recalculation is already running, it is aborted and 
-	 * the new one started immediately
+	 * Schedules a swing worker object for model recalculation with the {@link RecalculationScheduler} of the journal. If a recalculation 
+	 * is already running or waiting, it is aborted
 	 */
 	protected void updateThreaded() {
 		if(currentRecalculator != null) {
 			currentRecalculator.cancel(true);
 		}
 		currentRecalculator = new Recalculator();
-		currentRecalculator.execute();
+		RecalculationScheduler.getInstance(associatedJournal).schedule(this, currentRecalculator);
 	}
 	
 	// LIST AND COMBOBOX METHODS ****************************
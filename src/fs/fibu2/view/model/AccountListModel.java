@@ -83,14 +83,14 @@ public class AccountListModel extends AbstractListModel implements
 	}
 	
 	/**
-	 * Creates and executes a swing worker to recalculate the model
+	 * Creates a swing worker to recalculate the model and schedules it with the {@link RecalculationScheduler} of the journal
 	 */
 	protected void updateThreaded() {
 		if(currentRecalculator != null) {
 			currentRecalculator.cancel(true);
 		}
 		currentRecalculator = new Recalculator();
-		currentRecalculator.execute();
+		RecalculationScheduler.getInstance(associatedJournal).schedule(this, currentRecalculator);
 	}
 	
 	@Override
@@ -1,6 +1,6 @@
 package fs.fibu2.view.model;
 
-import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.TreeSet;
 import java.util.Vector;
@@ -10,14 +10,15 @@ import javax.swing.event.TableModelListener;
 import javax.swing.table.TableModel;
 
 import fs.fibu2.data.format.DefaultAccountComparator;
-import fs.fibu2.data.format.MoneyDecimal;
+import fs.fibu2.data.format.MoneyCents;
 import fs.fibu2.data.model.Account;
 import fs.fibu2.data.model.Entry;
 import fs.fibu2.lang.Fsfibu2StringTableMgr;
 
 /**
  * This class implements a model for a very small table containing information about account states at the 
- * beginning and the end of a certain {@link JournalTableModel} (or a connected subset of it)
+ * beginning and the end of a certain {@link JournalTableModel} (or a connected subset of it). The sorted accounts and the 
+ * account states are computed once for each range and version of the journal table model (see {@link JournalTableModel#getVersion()}).
  * @author Simon Hampe
  *
  */
@@ -29,10 +30,19 @@ public class AccountTableModel implements TableModel {
 	private Object fromObject;
 	private Object toObject;
 	private Vector<Entry> entries;
+	private int[] rows;
+	
+	//Cached data: The sorted accounts and their states (in cents) before and after the range. Valid, as long as the version of the
+	//associated model is cachedVersion and the range doesn't change
+	private int cachedVersion = -1;
+	private Vector<Account> accounts = new Vector<Account>();
+	private long[] beforeCents = new long[0];
+	private long[] afterCents = new long[0];
 	
 	private TableModelListener modelListener = new TableModelListener() {
 		@Override
 		public void tableChanged(TableModelEvent e) {
+			cachedVersion = -1;
 			fireTableDataChanged();
 		}		
 	};
@@ -77,6 +87,21 @@ public class AccountTableModel implements TableModel {
 	 */
 	public void setEntries(Vector<Entry> entries) {
 		this.entries = new Vector<Entry>(entries);
+		rows = null;
+		cachedVersion = -1;
+		fireTableDataChanged();
+	}
+	
+	/**
+	 * Configures this model to sum up the values of the entries in the given rows of the associated model. This has the same
+	 * effect as {@link #setEntries(Vector)} for these entries, but the sums are obtained from the bilancial index of the model
+	 * (see {@link JournalTableModel#getSelectionInformation(int[])}), so it is much faster for large selections. 
+	 */
+	public void setRows(int[] rows) {
+		this.rows = rows.clone();
+		Arrays.sort(this.rows);
+		entries = null;
+		cachedVersion = -1;
 		fireTableDataChanged();
 	}
 	
@@ -89,6 +114,8 @@ public class AccountTableModel implements TableModel {
 		fromObject = from;
 		toObject = to;
 		entries = null;
+		rows = null;
+		cachedVersion = -1;
 		fireTableDataChanged();
 	}
 	
@@ -136,7 +163,8 @@ public class AccountTableModel implements TableModel {
 	@Override
 	public int getRowCount() {
 		if(associatedModel != null) {
-			return associatedModel.getBilancialMapping(associatedModel.getRowCount()-1).getMostRecent().information().getAccountMappings().keySet().size();
+			validate();
+			return accounts.size();
 		}
 		else return 0;
 	}
@@ -144,34 +172,13 @@ public class AccountTableModel implements TableModel {
 	@Override
 	public Object getValueAt(int rowIndex, int columnIndex) {
 		if(associatedModel == null) return "";
-		TreeSet<Account> accounts = new TreeSet<Account>(new DefaultAccountComparator());
-		accounts.addAll(associatedModel.getBilancialMapping(associatedModel.getRowCount()-1).getMostRecent().information().getAccountMappings().keySet());
-		Vector<Account> indexAccounts = new Vector<Account>(accounts);
-		Account rowAccount = indexAccounts.get(rowIndex);
+		validate();
+		Account rowAccount = accounts.get(rowIndex);
 		switch(columnIndex) {
 		case 0: return rowAccount.getName();
-		case 1: if(entries == null)  {
-					BilancialInformation info = fromObject == null? associatedModel.getBilancialMapping(0).getMostRecent().information() :
-												associatedModel.getBilancialMapping(fromObject).getMostRecent().information();
-					if(fromObject == null || !(fromObject instanceof Entry)) return info.getAccountMappings().get(rowAccount);
-					else return info.decrement((Entry)fromObject).getAccountMappings().get(rowAccount);
-				}
-				else {
-					BilancialInformation info = associatedModel.getBilancialMapping(entries.firstElement()).getMostRecent().information();
-					return info.decrement(entries.firstElement()).getAccountMappings().get(rowAccount);
-				}
-		case 2: if(entries == null) {
-					return (toObject == null? associatedModel.getBilancialMapping(associatedModel.getRowCount()-1).getMostRecent().information() :
-										associatedModel.getBilancialMapping(toObject).getMostRecent().information()).getAccountMappings().get(rowAccount);
-				}
-				else {
-					BilancialInformation info = associatedModel.getBilancialMapping(entries.firstElement()).getMostRecent().information()
-															.decrement(entries.firstElement());
-					for(Entry e : entries) info = info.increment(e);
-					return info.getAccountMappings().get(rowAccount);
-				}
-		case 3: return //(Float)getValueAt(rowIndex, 2) - (Float)getValueAt(rowIndex, 1);
-				MoneyDecimal.substract((BigDecimal)getValueAt(rowIndex, 2), (BigDecimal)getValueAt(rowIndex, 1));
+		case 1: return MoneyCents.toBigDecimal(beforeCents[rowIndex]);
+		case 2: return MoneyCents.toBigDecimal(afterCents[rowIndex]);
+		case 3: return MoneyCents.toBigDecimal(MoneyCents.substract(afterCents[rowIndex], beforeCents[rowIndex]));
 		default: return "";
 		}
 	}
@@ -194,6 +201,45 @@ public class AccountTableModel implements TableModel {
 		throw new UnsupportedOperationException("Cannot modify account table manually");
 	}
 	
+	/**
+	 * Recomputes the sorted accounts and their states before and after the range, if the range or the version of the 
+	 * associated model changed
+	 */
+	protected void validate() {
+		if(cachedVersion == associatedModel.getVersion()) return;
+		TreeSet<Account> sortedAccounts = new TreeSet<Account>(new DefaultAccountComparator());
+		sortedAccounts.addAll(associatedModel.getBilancialMapping(associatedModel.getRowCount()-1).getMostRecent().information().getAccounts());
+		accounts = new Vector<Account>(sortedAccounts);
+		BilancialInformation before;
+		BilancialInformation after;
+		if(rows != null) {
+			//The account states before the first entry
+			int first = 0;
+			while(first < rows.length - 1 && !(associatedModel.getValueAt(rows[first], 0) instanceof Entry)) first++;
+			before = associatedModel.getBilancialMapping(Math.max(0, rows[first] - 1)).getMostRecent().information();
+			after = before.incrementAccounts(associatedModel.getSelectionInformation(rows));
+		}
+		else if(entries == null) {
+			before = fromObject == null? associatedModel.getBilancialMapping(0).getMostRecent().information() :
+										associatedModel.getBilancialMapping(fromObject).getMostRecent().information();
+			if(fromObject != null && fromObject instanceof Entry) before = before.decrement((Entry)fromObject);
+			after = toObject == null? associatedModel.getBilancialMapping(associatedModel.getRowCount()-1).getMostRecent().information() :
+										associatedModel.getBilancialMapping(toObject).getMostRecent().information();
+		}
+		else {
+			before = associatedModel.getBilancialMapping(entries.firstElement()).getMostRecent().information().decrement(entries.firstElement());
+			after = before;
+			for(Entry e : entries) after = after.increment(e);
+		}
+		beforeCents = new long[accounts.size()];
+		afterCents = new long[accounts.size()];
+		for(int i = 0; i < accounts.size(); i++) {
+			beforeCents[i] = before.getAccountCents(accounts.get(i));
+			afterCents[i] = after.getAccountCents(accounts.get(i));
+		}
+		cachedVersion = associatedModel.getVersion();
+	}
+	
 	protected void fireTableDataChanged() {
 		for(TableModelListener l : listeners) l.tableChanged(new TableModelEvent(this));
 	}
@@ -0,0 +1,344 @@
+package fs.fibu2.view.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+
+import fs.fibu2.data.format.MoneyCents;
+import fs.fibu2.data.model.Account;
+import fs.fibu2.data.model.Category;
+import fs.fibu2.data.model.Entry;
+import fs.fibu2.data.model.EntrySeparator;
+import fs.fibu2.data.model.Journal;
+
+/**
+ * A bilancial index stores the running sums of a sorted list of journal table rows (as used by {@link JournalTableModel}) in a compact way:
+ * All sums are kept as cents in primitive long arrays with one column for the overall sum, one for each account and one for each category. Instead
+ * of storing the sums for each row, they are only stored for every {@link #checkpointInterval}-th row (or for every n-th row, if another interval
+ * is given) and for each displayed separator. The sums of any other row are obtained by adding up the entries since the last checkpoint. Apart from 
+ * the checkpoints, the index does not store anything per row, so the rows can also be a list computed on demand. The {@link BilancialInformation} of a row relative to
+ * a separator is then just the difference of two such sums. Similarly the sums of any set of row intervals are obtained from two sums per interval
+ * (see {@link #getRangeInformation(int[], int[])}). <br>
+ * An index is immutable. If the rows change, a new index can be created from an old one, reusing all data before the first changed row.
+ * @author Simon Hampe
+ *
+ */
+public final class BilancialIndex {
+
+	/**
+	 * The default number of rows between two stored sums
+	 */
+	public final static int checkpointInterval = 64;
+
+	//The rows: Entries and EntrySeparators. This list is never modified
+	private List<Object> rows;
+	//The number of rows between two stored sums
+	private int interval = checkpointInterval;
+	//The index of the first displayed row (i.e. the start separator). All separators before are ignored
+	private int firstIndexDisplayed;
+
+	//Columns: 0 is the overall sum, then there is one column for each account and category
+	private HashMap<Account, Integer> accountColumns = new HashMap<Account, Integer>();
+	private HashMap<Category, Integer> categoryColumns = new HashMap<Category, Integer>();
+	//For each category, the columns of itself and all its supercategories (including the root category)
+	private HashMap<Category, int[]> categoryPaths = new HashMap<Category, int[]>();
+	private Vector<Account> accounts = new Vector<Account>();
+	private Vector<Category> categories = new Vector<Category>();
+	private int columnCount = 1;
+	//The start values in cents, indexed by account column
+	private long[] startValues = new long[0];
+
+	//checkpoints.get(k) contains the sums of all rows before row k * interval
+	private Vector<long[]> checkpoints = new Vector<long[]>();
+	//The indices of the displayed separators (including the start separator) and the sums up to them
+	private int[] separatorRows;
+	private Vector<long[]> separatorSums = new Vector<long[]>();
+
+	// CONSTRUCTORS ***************************************
+	// ****************************************************
+
+	/**
+	 * Creates an index for the given rows, using the start values of the given journal and the default checkpoint interval
+	 * @param j The journal which provides the start values of the accounts. If null, there are no start values
+	 * @param rows The sorted rows. The list should not be modified afterwards
+	 * @param firstIndexDisplayed The index of the first displayed row
+	 */
+	public BilancialIndex(Journal j, List<Object> rows, int firstIndexDisplayed) {
+		this(j, rows, firstIndexDisplayed, checkpointInterval);
+	}
+	
+	/**
+	 * Creates an index for the given rows, using the start values of the given journal
+	 * @param j The journal which provides the start values of the accounts. If null, there are no start values
+	 * @param rows The sorted rows. The list should not be modified afterwards
+	 * @param firstIndexDisplayed The index of the first displayed row
+	 * @param interval The number of rows between two stored sums. A larger interval needs less memory, but computing the sums
+	 * of a row takes longer
+	 */
+	public BilancialIndex(Journal j, List<Object> rows, int firstIndexDisplayed, int interval) {
+		this.rows = rows;
+		this.firstIndexDisplayed = firstIndexDisplayed;
+		this.interval = Math.max(1, interval);
+		if(j != null) {
+			for(Account a : j.getListOfAccounts()) {
+				int column = getAccountColumn(a);
+				startValues[column] = MoneyCents.valueOf(j.getStartValue(a));
+			}
+		}
+		build(0);
+	}
+
+	/**
+	 * Creates an index for the given rows, where all rows before the index from are identical to the rows of base (in particular the start
+	 * separator is not moved, if from > firstIndexDisplayed). All data before this row is taken from base.
+	 * @param base The index to take the data from.
+	 * @param rows The sorted rows. The list should not be modified afterwards
+	 * @param firstIndexDisplayed The index of the first displayed row
+	 * @param from The index of the first row, which might have changed
+	 */
+	public BilancialIndex(BilancialIndex base, List<Object> rows, int firstIndexDisplayed, int from) {
+		this.rows = rows;
+		this.firstIndexDisplayed = firstIndexDisplayed;
+		interval = base.interval;
+		accountColumns = new HashMap<Account, Integer>(base.accountColumns);
+		categoryColumns = new HashMap<Category, Integer>(base.categoryColumns);
+		categoryPaths = new HashMap<Category, int[]>(base.categoryPaths);
+		accounts = new Vector<Account>(base.accounts);
+		categories = new Vector<Category>(base.categories);
+		columnCount = base.columnCount;
+		startValues = base.startValues.clone();
+
+		from = Math.max(0, Math.min(from, Math.min(base.rows.size(), rows.size())));
+		//If the start separator has moved, all displayed separators have to be recomputed
+		if(base.firstIndexDisplayed != firstIndexDisplayed) from = Math.min(from, firstIndexDisplayed);
+		int startCheckpoint = Math.min(from / interval, base.checkpoints.size() - 1);
+		checkpoints = new Vector<long[]>(base.checkpoints.subList(0, startCheckpoint + 1));
+		build(from);
+
+		//Copy the data of all separators before from
+		int reusedSeparators = 0;
+		while(reusedSeparators < base.separatorRows.length && base.separatorRows[reusedSeparators] < from &&
+				base.separatorRows[reusedSeparators] >= firstIndexDisplayed) reusedSeparators++;
+		if(reusedSeparators > 0) {
+			int[] newRows = new int[reusedSeparators + separatorRows.length];
+			System.arraycopy(base.separatorRows, 0, newRows, 0, reusedSeparators);
+			System.arraycopy(separatorRows, 0, newRows, reusedSeparators, separatorRows.length);
+			separatorRows = newRows;
+			Vector<long[]> newSums = new Vector<long[]>(base.separatorSums.subList(0, reusedSeparators));
+			newSums.addAll(separatorSums);
+			separatorSums = newSums;
+		}
+	}
+
+	// BUILDING ******************************************
+	// ***************************************************
+
+	/**
+	 * Computes all data from the given row on, starting at the last existing checkpoint.
+	 */
+	private void build(int from) {
+		if(checkpoints.size() == 0) checkpoints.add(new long[columnCount]);
+		int startCheckpoint = checkpoints.size() - 1;
+		long[] running = Arrays.copyOf(checkpoints.lastElement(), columnCount);
+
+		Vector<Integer> newSeparatorRows = new Vector<Integer>();
+		int size = rows.size();
+		for(int i = startCheckpoint * interval; i < size; i++) {
+			if(i % interval == 0 && i / interval >= checkpoints.size()) {
+				RecalculationScheduler.checkpoint();
+				checkpoints.add(Arrays.copyOf(running, columnCount));
+			}
+			Object o = rows.get(i);
+			if(o instanceof Entry) {
+				running = add(running, (Entry)o);
+			}
+			else if(i >= from && i >= firstIndexDisplayed) {
+				newSeparatorRows.add(i);
+				separatorSums.add(Arrays.copyOf(running, columnCount));
+			}
+		}
+		separatorRows = new int[newSeparatorRows.size()];
+		for(int i = 0; i < separatorRows.length; i++) separatorRows[i] = newSeparatorRows.get(i);
+	}
+
+	/**
+	 * Adds the value of e to all columns associated to e. The array is enlarged, if e introduces new columns
+	 * @return The array containing the new sums (which is sums, if no new columns were created)
+	 */
+	private long[] add(long[] sums, Entry e) {
+		long value = e.getCents();
+		int accountColumn = getAccountColumn(e.getAccount());
+		int[] path = getCategoryPath(e.getCategory());
+		if(sums.length < columnCount) sums = Arrays.copyOf(sums, columnCount);
+		sums[0] += value;
+		sums[accountColumn] += value;
+		for(int c : path) sums[c] += value;
+		return sums;
+	}
+
+	/**
+	 * @return The column of the given account. It is created, if necessary
+	 */
+	private int getAccountColumn(Account a) {
+		Integer column = accountColumns.get(a);
+		if(column == null) {
+			column = columnCount++;
+			accountColumns.put(a, column);
+			accounts.add(a);
+			categories.add(null);
+			startValues = Arrays.copyOf(startValues, columnCount);
+		}
+		return column;
+	}
+
+	/**
+	 * @return The columns of the given category and all its supercategories. They are created, if necessary
+	 */
+	private int[] getCategoryPath(Category c) {
+		int[] path = categoryPaths.get(c);
+		if(path == null) {
+			Vector<Integer> columns = new Vector<Integer>();
+			for(Category cat = c; cat != null; cat = cat.parent) {
+				Integer column = categoryColumns.get(cat);
+				if(column == null) {
+					column = columnCount++;
+					categoryColumns.put(cat, column);
+					accounts.add(null);
+					categories.add(cat);
+					startValues = Arrays.copyOf(startValues, columnCount);
+				}
+				columns.add(column);
+			}
+			path = new int[columns.size()];
+			for(int i = 0; i < path.length; i++) path[i] = columns.get(i);
+			categoryPaths.put(c, path);
+		}
+		return path;
+	}
+
+	// QUERIES ********************************************
+	// ****************************************************
+
+	/**
+	 * @return The number of rows
+	 */
+	public int size() {
+		return rows.size();
+	}
+
+	/**
+	 * @return The set of accounts for which there are sums
+	 */
+	public Set<Account> getAccounts() {
+		return accountColumns.keySet();
+	}
+
+	/**
+	 * @return The sums (in cents) of all rows up to and including the given row. Only the columns up to the length of the array
+	 * are filled, all others are 0.
+	 */
+	public long[] getSums(int row) {
+		if(row < 0) return new long[columnCount];
+		int checkpoint = Math.min((row + 1) / interval, checkpoints.size() - 1);
+		long[] sums = Arrays.copyOf(checkpoints.get(checkpoint), columnCount);
+		for(int i = checkpoint * interval; i <= row; i++) {
+			Object o = rows.get(i);
+			if(o instanceof Entry) sums = add(sums, (Entry)o);
+		}
+		return sums;
+	}
+	
+	/**
+	 * @return The index of the last entry at or before the given row or -1, if there is none. Since separators never follow each other
+	 * in large numbers, this only looks at a few rows.
+	 */
+	private int lastEntry(int row) {
+		for(int i = row; i >= 0; i--) {
+			if(rows.get(i) instanceof Entry) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The bilancial information of the given row relative to the separator in the row separatorRow (i.e. the sums of all
+	 * rows after separatorRow up to and including row). The account sums are always absolute values including the start values. If
+	 * separatorRow < 0, the information is relative to the beginning.
+	 */
+	public BilancialInformation getInformation(int row, int separatorRow) {
+		long[] sums = getSums(row);
+		long[] base = null;
+		if(separatorRow >= 0) {
+			int s = Arrays.binarySearch(separatorRows, separatorRow);
+			base = s >= 0? separatorSums.get(s) : getSums(separatorRow);
+		}
+		HashMap<Category, Long> categorySums = new HashMap<Category, Long>();
+		HashMap<Account, Long> accountSums = new HashMap<Account, Long>();
+		for(int c = 1; c < columnCount; c++) {
+			long value = sums[c];
+			if(accounts.get(c-1) != null) {
+				accountSums.put(accounts.get(c-1), value + startValues[c]);
+			}
+			else {
+				if(base != null && c < base.length) value -= base[c];
+				if(value != 0) categorySums.put(categories.get(c-1), value);
+			}
+		}
+		long overall = sums[0] - (base == null? 0 : base[0]);
+		return new BilancialInformation(overall, categorySums, accountSums);
+	}
+	
+	/**
+	 * @return The bilancial information of all entries in the row intervals [from[i], to[i]], which should not overlap: The overall sum
+	 * and the sums of all categories and accounts of these entries only (i.e. without start values). A long interval is computed as the difference
+	 * of the sums up to its end and up to its beginning, a short one by adding up its entries. So the time needed for an interval is bounded by the
+	 * checkpoint interval, no matter how long it is.
+	 */
+	public BilancialInformation getRangeInformation(int[] from, int[] to) {
+		long[] sums = new long[columnCount];
+		for(int i = 0; i < from.length; i++) {
+			if(to[i] - from[i] < 2 * interval) {
+				for(int row = from[i]; row <= to[i]; row++) {
+					Object o = rows.get(row);
+					if(o instanceof Entry) sums = add(sums, (Entry)o);
+				}
+			}
+			else {
+				long[] upper = getSums(to[i]);
+				long[] lower = getSums(from[i] - 1);
+				if(sums.length < upper.length) sums = Arrays.copyOf(sums, upper.length);
+				for(int c = 0; c < upper.length; c++) sums[c] += upper[c] - (c < lower.length? lower[c] : 0);
+			}
+		}
+		HashMap<Category, Long> categorySums = new HashMap<Category, Long>();
+		HashMap<Account, Long> accountSums = new HashMap<Account, Long>();
+		for(int c = 1; c < sums.length; c++) {
+			if(accounts.get(c-1) != null) accountSums.put(accounts.get(c-1), sums[c]);
+			else if(sums[c] != 0) categorySums.put(categories.get(c-1), sums[c]);
+		}
+		return new BilancialInformation(sums[0], categorySums, accountSums);
+	}
+
+	/**
+	 * @return The bilancial mapping of the given row. It contains a mapping for null (i.e. relative to the beginning) and for each displayed
+	 * separator before this row, which is followed by at least one entry up to this row. The actual information is only calculated, when it is
+	 * requested. If row is out of bounds, null is returned.
+	 */
+	public BilancialMapping getMapping(int row) {
+		if(row < 0 || row >= rows.size()) return null;
+		Vector<EntrySeparator> keys = new Vector<EntrySeparator>();
+		Vector<Integer> keyRows = new Vector<Integer>();
+		keys.add(null);
+		keyRows.add(-1);
+		int last = lastEntry(row);
+		for(int i = 0; i < separatorRows.length && separatorRows[i] < row; i++) {
+			if(last > separatorRows[i]) {
+				keys.add((EntrySeparator)rows.get(separatorRows[i]));
+				keyRows.add(separatorRows[i]);
+			}
+		}
+		return new BilancialMapping(this, row, keys, keyRows);
+	}
+
+}
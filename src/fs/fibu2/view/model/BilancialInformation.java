@@ -2,12 +2,16 @@ package fs.fibu2.view.model;
 
 import java.math.BigDecimal;
 import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Currency;
 import java.util.HashMap;
 import java.util.Locale;
+import java.util.Set;
 
 import fs.fibu2.data.format.DefaultCurrencyFormat;
-import fs.fibu2.data.format.MoneyDecimal;
+import fs.fibu2.data.format.MoneyCents;
 import fs.fibu2.data.model.Account;
 import fs.fibu2.data.model.Category;
 import fs.fibu2.data.model.Entry;
@@ -26,19 +30,21 @@ import fs.fibu2.lang.Fsfibu2StringTableMgr;
 public final class BilancialInformation {
 
 	/**
-	 * The overall sum of all entries
+	 * The overall sum of all entries (in cents)
 	 */
-	private BigDecimal overallSum = MoneyDecimal.bigd(0);
+	private long overallSum = MoneyCents.zero;
 	
 	/**
-	 * Sums of entries in certain categories
+	 * Sums of entries in certain categories (in cents), indexed by category ID (see {@link Category#getID()}). The categories having a mapping
+	 * are marked in categoryMapped
 	 */
-	private HashMap<Category, BigDecimal> categorySums = new HashMap<Category, BigDecimal>();
+	private long[] categorySums = new long[0];
+	private BitSet categoryMapped = new BitSet();
 	
 	/**
-	 * Sums of entries using certain accounts
+	 * Sums of entries using certain accounts (in cents)
 	 */
-	private HashMap<Account, BigDecimal> accountSums = new HashMap<Account, BigDecimal>();
+	private HashMap<Account, Long> accountSums = new HashMap<Account, Long>();
 	
 	// CONSTRUCTOR ***************************
 	// ***************************************
@@ -47,16 +53,31 @@ public final class BilancialInformation {
 	 * Creates a new bilancial information with overall value 0 and empty maps
 	 */
 	public BilancialInformation() {
-		this(MoneyDecimal.bigd(0),null,null);
+		this(MoneyCents.zero,null,null);
 	}
 	
 	/**
 	 * Creates a new bilancial information. The maps are cloned
 	 */
 	public BilancialInformation(BigDecimal overallSum, HashMap<Category, BigDecimal> categorySums, HashMap<Account, BigDecimal> accountSums) {
+		this.overallSum = MoneyCents.valueOf(overallSum);
+		if(categorySums != null) {
+			for(Category c : categorySums.keySet()) setCategoryCents(c, MoneyCents.valueOf(categorySums.get(c)));
+		}
+		if(accountSums != null) {
+			for(Account a : accountSums.keySet()) this.accountSums.put(a, MoneyCents.valueOf(accountSums.get(a)));
+		}
+	}
+	
+	/**
+	 * Creates a new bilancial information from values given in cents (see {@link MoneyCents}). The maps are cloned
+	 */
+	public BilancialInformation(long overallSum, HashMap<Category, Long> categorySums, HashMap<Account, Long> accountSums) {
 		this.overallSum = overallSum;
-		this.categorySums = categorySums == null? new HashMap<Category, BigDecimal>() : new HashMap<Category, BigDecimal>(categorySums);
-		this.accountSums = accountSums == null? new HashMap<Account, BigDecimal>() : new HashMap<Account, BigDecimal>(accountSums);
+		if(categorySums != null) {
+			for(Category c : categorySums.keySet()) setCategoryCents(c, categorySums.get(c));
+		}
+		this.accountSums = accountSums == null? new HashMap<Account, Long>() : new HashMap<Account, Long>(accountSums);
 	}
 	
 	/**
@@ -65,9 +86,9 @@ public final class BilancialInformation {
 	 */
 	public BilancialInformation(Journal j) {
 		if(j != null) {	
-			HashMap<Account, BigDecimal> start = new HashMap<Account, BigDecimal>();
+			HashMap<Account, Long> start = new HashMap<Account, Long>();
 			for(Account a : j.getListOfAccounts()) {				
-				start.put(a, MoneyDecimal.bigd(j.getStartValue(a)));
+				start.put(a, MoneyCents.valueOf(j.getStartValue(a)));
 			}
 			accountSums = start;
 		}
@@ -79,7 +100,7 @@ public final class BilancialInformation {
 	 * @param info
 	 */
 	public BilancialInformation(BilancialInformation info) {
-		this(MoneyDecimal.bigd(0),null,info == null? null: info.getAccountMappings());
+		this(MoneyCents.zero,null,info == null? null: info.accountSums);
 	}
 	
 	// GETTERS ******************************
@@ -91,20 +112,7 @@ public final class BilancialInformation {
 	 */
 	public BilancialInformation increment(Entry e) {
 		if(e == null)return clone();
-		BigDecimal evalue = MoneyDecimal.bigd(e.getValue());
-		HashMap<Category, BigDecimal> newcategory = new HashMap<Category, BigDecimal>(categorySums);
-			Category cat = e.getCategory();
-			do {
-				BigDecimal c = newcategory.get(cat);
-				newcategory.put(cat, c == null? 
-						evalue : MoneyDecimal.add(evalue, c));
-				cat = cat.parent;
-			}
-			while(/*cat != Category.getRootCategory() && */ cat != null);
-		HashMap<Account, BigDecimal> newaccount = new HashMap<Account, BigDecimal>(accountSums);
-			BigDecimal a = newaccount.get(e.getAccount());
-			newaccount.put(e.getAccount(), a == null? evalue : MoneyDecimal.add(evalue, a));
-		return new BilancialInformation(MoneyDecimal.add(overallSum, evalue), newcategory,newaccount);
+		return add(e, e.getCents(), true);
 	}
 	
 	/**
@@ -112,11 +120,18 @@ public final class BilancialInformation {
 	 */
 	public BilancialInformation incrementAccount(Entry e) {
 		if(e == null) return clone();
-		BigDecimal evalue = MoneyDecimal.bigd(e.getValue());
-		HashMap<Account, BigDecimal> newaccount = new HashMap<Account, BigDecimal>(accountSums);
-			BigDecimal a = newaccount.get(e.getAccount());
-			newaccount.put(e.getAccount(), a == null? evalue : MoneyDecimal.add(evalue, a));
-		return new BilancialInformation(overallSum, categorySums, newaccount);
+		return add(e, e.getCents(), false);
+	}
+	
+	/**
+	 * @return A copy of this information, where the account sums of info are added to the account mappings. If info == null, a clone is created
+	 */
+	public BilancialInformation incrementAccounts(BilancialInformation info) {
+		BilancialInformation result = clone();
+		if(info != null) {
+			for(Account a : info.accountSums.keySet()) addTo(result.accountSums, a, info.accountSums.get(a));
+		}
+		return result;
 	}
 	
 	/**
@@ -124,28 +139,110 @@ public final class BilancialInformation {
 	 */
 	public BilancialInformation decrement(Entry e) {
 		if(e == null) return clone();
-		return increment(new Entry(e.getName(),-e.getValue(),
-				e.getCurrency(),e.getDate(),e.getCategory(),e.getAccount().getID(),e.getAccountInformation(),e.getAdditionalInformation()));
+		return add(e, -e.getCents(), true);
+	}
+	
+	/**
+	 * @return A copy of this information, where value is added to the account of e and, if all is true, to the overall sum and the category of e
+	 * and all its supercategories
+	 */
+	private BilancialInformation add(Entry e, long value, boolean all) {
+		BilancialInformation result = clone();
+		if(all) {
+			result.overallSum += value;
+			int[] path = e.getCategory().getPathIDs();
+			result.ensureCategoryCapacity(path[path.length - 1] + 1);
+			for(int id : path) {
+				result.categorySums[id] = result.categoryMapped.get(id)? MoneyCents.add(result.categorySums[id], value) : value;
+				result.categoryMapped.set(id);
+			}
+		}
+		addTo(result.accountSums, e.getAccount(), value);
+		return result;
+	}
+	
+	/**
+	 * Adds value to the mapping of key (which is created, if it doesn't exist)
+	 */
+	private static <K> void addTo(HashMap<K, Long> map, K key, long value) {
+		Long old = map.get(key);
+		map.put(key, old == null? value : MoneyCents.add(old, value));
+	}
+	
+	/**
+	 * Sets the mapping of c to value
+	 */
+	private void setCategoryCents(Category c, long value) {
+		int id = c.getID();
+		ensureCategoryCapacity(id + 1);
+		categorySums[id] = value;
+		categoryMapped.set(id);
+	}
+	
+	/**
+	 * Makes sure the category sums can take at least the given number of categories
+	 */
+	private void ensureCategoryCapacity(int capacity) {
+		if(categorySums.length < capacity) {
+			categorySums = Arrays.copyOf(categorySums, Math.max(capacity, Category.getNumberOfCategories()));
+		}
 	}
 	
 	public BigDecimal getOverallSum() {
-		return overallSum;
+		return MoneyCents.toBigDecimal(overallSum);
 	}
 	
 	public HashMap<Account, BigDecimal> getAccountMappings() {
-		return new HashMap<Account, BigDecimal>(accountSums);
+		HashMap<Account, BigDecimal> map = new HashMap<Account, BigDecimal>();
+		for(Account a : accountSums.keySet()) map.put(a, MoneyCents.toBigDecimal(accountSums.get(a)));
+		return map;
 	}
 	
 	public HashMap<Category, BigDecimal> getCategoryMappings() {
-		return new HashMap<Category, BigDecimal>(categorySums);
+		HashMap<Category, BigDecimal> map = new HashMap<Category, BigDecimal>();
+		for(int id = categoryMapped.nextSetBit(0); id >= 0; id = categoryMapped.nextSetBit(id + 1)) {
+			map.put(Category.getCategory(id), MoneyCents.toBigDecimal(categorySums[id]));
+		}
+		return map;
+	}
+	
+	/**
+	 * @return The overall sum in cents
+	 */
+	public long getOverallCents() {
+		return overallSum;
+	}
+	
+	/**
+	 * @return The accounts having a mapping. The set is backed by this information and can't be modified
+	 */
+	public Set<Account> getAccounts() {
+		return Collections.unmodifiableSet(accountSums.keySet());
+	}
+	
+	/**
+	 * @return The sum of the given account in cents (0, if there is no mapping)
+	 */
+	public long getAccountCents(Account a) {
+		Long value = accountSums.get(a);
+		return value == null? MoneyCents.zero : value;
+	}
+	
+	/**
+	 * @return The sum of the given category in cents (0, if there is no mapping)
+	 */
+	public long getCategoryCents(Category c) {
+		int id = c.getID();
+		return id < categorySums.length && categoryMapped.get(id)? categorySums[id] : MoneyCents.zero;
 	}
 	
 	public BilancialInformation clone() {
 		BilancialInformation clone = new BilancialInformation();
 		
 		clone.overallSum = overallSum;
-		clone.categorySums = new HashMap<Category, BigDecimal>(categorySums);
-		clone.accountSums = new HashMap<Account, BigDecimal>(accountSums);
+		clone.categorySums = categorySums.clone();
+		clone.categoryMapped = (BitSet)categoryMapped.clone();
+		clone.accountSums = new HashMap<Account, Long>(accountSums);
 		
 		return clone;
 	}
@@ -163,15 +260,14 @@ public final class BilancialInformation {
 		b.append(Fsfibu2StringTableMgr.getString("fs.fibu2.model.BilancialInformation.report"));
 		b.append(":</b><br>");
 		b.append(Fsfibu2StringTableMgr.getString("fs.fibu2.model.BilancialInformation.overallsum"));
-			b.append(format.format(overallSum.floatValue()));
+			b.append(format.format(MoneyCents.toBigDecimal(overallSum)));
 			b.append("<br>");
 		if(c != null) {
 			Category cat = c;
 			do {
 				b.append(cat.tail);
 				b.append(": ");
-				BigDecimal value = categorySums.get(cat);
-				b.append(format.format(value == null? 0 : value.floatValue()));
+				b.append(format.format(MoneyCents.toBigDecimal(getCategoryCents(cat))));
 				b.append("<br>");
 				cat = cat.parent;
 			}
@@ -180,8 +276,7 @@ public final class BilancialInformation {
 		if(a != null) {
 			b.append(a.getName());
 			b.append(": ");
-			BigDecimal value = accountSums.get(a);
-			b.append(format.format(value == null? 0 : value.floatValue()));
+			b.append(format.format(MoneyCents.toBigDecimal(getAccountCents(a))));
 		}
 		b.append("</html>");
 		return b.toString();
@@ -21,18 +21,45 @@ public class BilancialMapping {
 	private HashMap<EntrySeparator, BilancialPairing> mapping = new HashMap<EntrySeparator, BilancialPairing>();
 	//An ordered list of the pairings
 	private TreeSet<BilancialPairing> pairing = new TreeSet<BilancialPairing>(new PairingComparator());
+	//If the mapping was created from an index, the information is only retrieved from it when requested
+	private BilancialIndex index = null;
+	private int row = -1;
 	
 	// CONSTRUCTORS *****************************************
 	// ******************************************************
 	
 	public BilancialMapping() {}
 	
+	/**
+	 * Creates a mapping for the given keys, whose information is retrieved from the index only when it is requested.
+	 * @param index The index containing the sums
+	 * @param row The row of the index for which this mapping is created
+	 * @param keys The separators used as keys, in ascending order
+	 * @param keyRows The rows of the separators in the index (-1 for the null separator)
+	 */
+	BilancialMapping(BilancialIndex index, int row, Vector<EntrySeparator> keys, Vector<Integer> keyRows) {
+		this.index = index;
+		this.row = row;
+		for(int i = 0; i < keys.size(); i++) {
+			BilancialPairing pair = new BilancialPairing(keys.get(i), keyRows.get(i));
+			mapping.put(keys.get(i), pair);
+			pairing.add(pair);
+		}
+	}
+	
 	// A private copy constructor
 	private BilancialMapping(HashMap<EntrySeparator,BilancialPairing> mappingtoclone, TreeSet<BilancialPairing> pairingtoclone) {
 		mapping = new HashMap<EntrySeparator, BilancialPairing>(mappingtoclone);
 		pairing = new TreeSet<BilancialPairing>(pairingtoclone);
 	}
 	
+	// A private copy constructor for mappings created from an index
+	private BilancialMapping(HashMap<EntrySeparator,BilancialPairing> mappingtoclone, TreeSet<BilancialPairing> pairingtoclone, BilancialIndex index, int row) {
+		this(mappingtoclone, pairingtoclone);
+		this.index = index;
+		this.row = row;
+	}
+	
 	// GETTERS / SETTERS ************************************
 	// ******************************************************
 	
@@ -49,7 +76,7 @@ public class BilancialMapping {
 			if(previous != null) {
 				pairing.remove(previous);
 				pairing.add(pair);
-				return previous.information;
+				return previous.information();
 			}
 			else {
 				pairing.add(pair);
@@ -67,7 +94,7 @@ public class BilancialMapping {
 		BilancialPairing previous = mapping.remove(key);
 		if(previous != null) {
 			pairing.remove(previous);
-			return previous.information;
+			return previous.information();
 		}
 		return null;
 	}
@@ -95,7 +122,7 @@ public class BilancialMapping {
 	 */
 	public BilancialInformation get(EntrySeparator key) {
 		BilancialPairing pair = mapping.get(key);
-		if(pair != null) return pair.information;
+		if(pair != null) return pair.information();
 		else return null;
 	}
 	
@@ -107,7 +134,7 @@ public class BilancialMapping {
 	}
 	
 	public BilancialMapping clone() {
-		return new BilancialMapping(mapping,pairing);
+		return new BilancialMapping(mapping,pairing,index,row);
 	}
 	
 	// LOCAL COMPARATOR CLASS *******************************
@@ -121,6 +148,8 @@ public class BilancialMapping {
 	public class BilancialPairing {
 		private EntrySeparator separator;
 		private BilancialInformation information;
+		//The row of the separator in the index, if the information is retrieved from it
+		private int separatorRow = -1;
 		
 		/**
 		 * Creates a new pairing.
@@ -130,6 +159,14 @@ public class BilancialMapping {
 			information = b;
 		}
 		
+		/**
+		 * Creates a pairing whose information is retrieved from the index of the mapping, when it is requested
+		 */
+		private BilancialPairing(EntrySeparator s, int separatorRow) {
+			separator = s;
+			this.separatorRow = separatorRow;
+		}
+		
 		/**
 		 * @return The separator of this pairing
 		 */
@@ -140,7 +177,8 @@ public class BilancialMapping {
 		/**
 		 * @return The bilancial information of this pairing
 		 */
-		public BilancialInformation information() {
+		public synchronized BilancialInformation information() {
+			if(information == null && index != null) information = index.getInformation(row, separatorRow);
 			return information;
 		}
 	}
@@ -1,14 +1,17 @@
 package fs.fibu2.view.model;
 
-import java.math.BigDecimal;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.Vector;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
@@ -22,13 +25,17 @@ import org.jfree.data.general.DefaultPieDataset;
 import org.jfree.data.general.PieDataset;
 import org.jfree.util.SortOrder;
 
+import fs.fibu2.data.ParallelCalculation;
 import fs.fibu2.data.event.JournalListener;
-import fs.fibu2.data.format.MoneyDecimal;
+import fs.fibu2.data.format.EntryComparator;
+import fs.fibu2.data.format.MoneyCents;
 import fs.fibu2.data.model.Account;
 import fs.fibu2.data.model.Category;
 import fs.fibu2.data.model.Entry;
 import fs.fibu2.data.model.Journal;
+import fs.fibu2.data.model.JournalIndex;
 import fs.fibu2.data.model.ReadingPoint;
+import fs.fibu2.filter.FilterResultCache;
 import fs.fibu2.filter.StackFilter;
 import fs.fibu2.view.event.ProgressListener;
 
@@ -59,19 +66,24 @@ public class BilancialTreeModel implements TreeModel, JournalListener, ChangeLis
 	//The direct subcategories of each used category
 	private HashMap<ExtendedCategory, Vector<ExtendedCategory>> directSubcategories = new HashMap<ExtendedCategory, Vector<ExtendedCategory>>();
 	
-	//The bilancials for each category, including subcategories (the last is of course the sum of the first two)
-	private HashMap<Category, BigDecimal> plus = new HashMap<Category, BigDecimal>();
-	private HashMap<Category, BigDecimal> minus = new HashMap<Category, BigDecimal>();
-	private HashMap<Category, BigDecimal> sum = new HashMap<Category, BigDecimal>();
+	//The bilancials for each category in cents, including subcategories (the last is of course the sum of the first two)
+	private HashMap<Category, Long> plus = new HashMap<Category, Long>();
+	private HashMap<Category, Long> minus = new HashMap<Category, Long>();
+	private HashMap<Category, Long> sum = new HashMap<Category, Long>();
 	
 	//The bilancials for each category - without subcategories!
-	private HashMap<Category, BigDecimal> plusIndiv = new HashMap<Category, BigDecimal>();
-	private HashMap<Category, BigDecimal> minusIndiv = new HashMap<Category, BigDecimal>();
-	private HashMap<Category, BigDecimal> sumIndiv = new HashMap<Category, BigDecimal>();
+	private HashMap<Category, Long> plusIndiv = new HashMap<Category, Long>();
+	private HashMap<Category, Long> minusIndiv = new HashMap<Category, Long>();
+	private HashMap<Category, Long> sumIndiv = new HashMap<Category, Long>();
+	//The number of accepted entries directly in each category
+	private HashMap<Category, Integer> countIndiv = new HashMap<Category, Integer>();
+	
+	//The first accepted entry (null, if there is none)
+	private Entry firstAccepted = null;
 	
 	//The before/after status of accounts
-	private HashMap<Account, BigDecimal> before = new HashMap<Account, BigDecimal>();
-	private HashMap<Account, BigDecimal> after = new HashMap<Account, BigDecimal>();
+	private HashMap<Account, Long> before = new HashMap<Account, Long>();
+	private HashMap<Account, Long> after = new HashMap<Account, Long>();
 	
 	//Each category contained in here is invisble. 
 	private HashSet<ExtendedCategory> invisibles = new HashSet<ExtendedCategory>();
@@ -94,6 +106,12 @@ public class BilancialTreeModel implements TreeModel, JournalListener, ChangeLis
 	
 	private Recalculator runningInstance = null;
 	
+	//Journal changes with more entries than this are not applied incrementally, but by recalculating the model
+	private static final int incrementalLimit = 256;
+	
+	private static final EntryComparator entryComparator = new EntryComparator(false);
+	private static final ExtCatComparator extCatComparator = new ExtCatComparator();
+	
 	private Logger logger = Logger.getLogger(this.getClass());
 	
 	// CONSTRUCTOR *****************
@@ -152,6 +170,8 @@ public class BilancialTreeModel implements TreeModel, JournalListener, ChangeLis
 			sumIndiv = v.sumIndiv;
 			plusIndiv = v.plusIndiv;
 			minusIndiv = v.minusIndiv;
+			countIndiv = v.countIndiv;
+			firstAccepted = v.firstAccepted;
 		
 		//Clean up invisibles and masked
 		for(ExtendedCategory ec : new HashSet<ExtendedCategory>(invisibles)) {
@@ -175,61 +195,88 @@ public class BilancialTreeModel implements TreeModel, JournalListener, ChangeLis
 		}
 		runningInstance = new Recalculator();
 		fireTaskBegins(runningInstance);
-		runningInstance.execute();
+		RecalculationScheduler.getInstance(associatedJournal).schedule(this, runningInstance);
 	}
 	
 	protected DataVector recalculateModel() {
 		DataVector v = new DataVector();
 		
-		//The bilancial of all entries 'before'
-		BilancialInformation biBefore = new BilancialInformation(associatedJournal);
-		//The individual bilancials of all accepted entries
-		HashMap<Category, BigDecimal> biAcceptedPlusIndiv = new HashMap<Category, BigDecimal>();
-		HashMap<Category, BigDecimal>  biAcceptedMinusIndiv = new HashMap<Category, BigDecimal>();
-		HashMap<Category, BigDecimal>  biAcceptedSumIndiv = new  HashMap<Category, BigDecimal>();
-		//The overall bilancial of all 'before' and accepted entries
-		BilancialInformation biOverall = new BilancialInformation(associatedJournal);
+		//All entries, sorted. The filter is evaluated for all entries at once (and shared with other views) via the filter result cache
+		JournalIndex index = associatedJournal.getIndex();
+		final List<Entry> sortedEntries = index.getSortedEntries();
+		final int[] sortedIDs = index.getSortedIDs();
+		final BitSet admitted = filter == null? null : FilterResultCache.getInstance(associatedJournal).getAdmittedIDs(filter, index);
 		
-		//Whether an entry has already been accepted by the filter
-		boolean entriesAccepted = false;
-		
-		//The sorted set of all entries
-		TreeSet<Entry> entries = new TreeSet<Entry>(new TableModelComparator());
-			entries.addAll(associatedJournal.getEntries());
+		//Entries are 'before', if they are not accepted and lie before the first accepted entry
+		int firstAccepted = 0;
+		if(admitted != null) {
+			while(firstAccepted < sortedIDs.length && !admitted.get(sortedIDs[firstAccepted])) firstAccepted++;
+		}
+		final int firstAcceptedIndex = firstAccepted;
+		if(firstAccepted < sortedEntries.size()) v.firstAccepted = sortedEntries.get(firstAccepted);
 		
-		for(Entry e : entries) {
-			//Add accepted entries to the individual bilancial
-			if(filter == null || filter.verifyEntry(e)) {
-				entriesAccepted = true;
-				if(isInheritedVisible(e.getCategory(), true) && isInheritedVisible(e.getCategory(),false)) biOverall = biOverall.increment(e);
-				//If accounts ignore invisibility, we have to add this entry to the account bilancials anyway
-				else  {
-					if(accountsIgnoreInvisibility) {
-						biOverall = biOverall.incrementAccount(e);
+		//Sum up the entries in chunks (see ParallelCalculation)
+		PartialSums sums = new ParallelCalculation.Reduction<PartialSums>() {
+			@Override
+			protected PartialSums reduce(int from, int to) {
+				PartialSums p = new PartialSums();
+				for(int i = from; i < to; i++) {
+					if((i & 4095) == 0) checkpoint();
+					Entry e = sortedEntries.get(i);
+					long value = e.getCents();
+					//Add accepted entries to the individual bilancial
+					if(admitted == null || admitted.get(sortedIDs[i])) {
+						//If accounts ignore invisibility, we have to add this entry to the account bilancials anyway
+						if(accountsIgnoreInvisibility || (isInheritedVisible(e.getCategory(), true) && isInheritedVisible(e.getCategory(),false))) {
+							addTo(p.accepted, e.getAccount(), value);
+						}
+						
+						long[] indiv = p.indiv.get(e.getCategory());
+						if(indiv == null) {
+							indiv = new long[4];
+							p.indiv.put(e.getCategory(), indiv);
+						}
+						if(value >= 0) indiv[0] += value;
+						else indiv[1] += value;
+						indiv[2] += value;
+						indiv[3]++;
+					}
+					//Add non-accepted entries to the 'before' bilancials as long as no entry has been accepted
+					else if(i < firstAcceptedIndex) {
+						addTo(p.before, e.getAccount(), value);
 					}
 				}
-				
-				if(!biAcceptedMinusIndiv.keySet().contains(e.getCategory())) biAcceptedMinusIndiv.put(e.getCategory(), MoneyDecimal.bigd(0));
-				if(!biAcceptedPlusIndiv.keySet().contains(e.getCategory())) biAcceptedPlusIndiv.put(e.getCategory(), MoneyDecimal.bigd(0));
-				if(!biAcceptedSumIndiv.keySet().contains(e.getCategory())) biAcceptedSumIndiv.put(e.getCategory(), MoneyDecimal.bigd(0));
-				
-				if(e.getValue() >= 0) {
-					biAcceptedPlusIndiv.put(e.getCategory(), MoneyDecimal.add(biAcceptedPlusIndiv.get(e.getCategory()), MoneyDecimal.bigd(e.getValue())));
-				}
-				else {
-					biAcceptedMinusIndiv.put(e.getCategory(), MoneyDecimal.add(biAcceptedMinusIndiv.get(e.getCategory()), MoneyDecimal.bigd(e.getValue())));
-				}
-				
-				biAcceptedSumIndiv.put(e.getCategory(), MoneyDecimal.add(biAcceptedSumIndiv.get(e.getCategory()), MoneyDecimal.bigd(e.getValue())));
-				
+				return p;
 			}
-			//Add non-accepted entries to the 'before' bilancials as long as no entry has been accepted
-			else {
-				if(!entriesAccepted) {
-					biBefore = biBefore.increment(e);
-					biOverall = biOverall.increment(e);
-				}
+			@Override
+			protected PartialSums merge(PartialSums left, PartialSums right) {
+				left.add(right);
+				return left;
 			}
+		}.compute(sortedEntries.size());
+		
+		RecalculationScheduler.checkpoint();
+		
+		//The account sums of all entries 'before' (in cents)
+		HashMap<Account, long[]> accountsBefore = getStartValues();
+		//The account sums of all 'before' and accepted entries (in cents)
+		HashMap<Account, long[]> accountsOverall = getStartValues();
+		for(Account a : sums.before.keySet()) {
+			addTo(accountsBefore, a, sums.before.get(a)[0]);
+			addTo(accountsOverall, a, sums.before.get(a)[0]);
+		}
+		for(Account a : sums.accepted.keySet()) addTo(accountsOverall, a, sums.accepted.get(a)[0]);
+		//The individual bilancials of all accepted entries (in cents): plus, minus, sum and the number of entries
+		HashMap<Category, long[]> biAcceptedIndiv = sums.indiv;
+		HashMap<Category, Long> biAcceptedPlusIndiv = new HashMap<Category, Long>();
+		HashMap<Category, Long>  biAcceptedMinusIndiv = new HashMap<Category, Long>();
+		HashMap<Category, Long>  biAcceptedSumIndiv = new  HashMap<Category, Long>();
+		for(Category c : biAcceptedIndiv.keySet()) {
+			long[] indiv = biAcceptedIndiv.get(c);
+			biAcceptedPlusIndiv.put(c, indiv[0]);
+			biAcceptedMinusIndiv.put(c, indiv[1]);
+			biAcceptedSumIndiv.put(c, indiv[2]);
+			v.countIndiv.put(c, (int)indiv[3]);
 		}
 		
 		//Create categories and subcategory hierarchy
@@ -265,37 +312,94 @@ public class BilancialTreeModel implements TreeModel, JournalListener, ChangeLis
 			if((v.directSubcategories.get(c) != null && v.directSubcategories.get(c).size() > 0) || 
 					(c.category() == Category.getRootCategory() && !c.isAdditional())) continue;
 			//For leafs, just pass up the bilancial value while you're still in a visible range
-			BigDecimal plus = v.plusIndiv.get(c.category());
-			BigDecimal minus = v.minusIndiv.get(c.category());
-			BigDecimal sum = v.sumIndiv.get(c.category());
+			long plus = v.plusIndiv.get(c.category());
+			long minus = v.minusIndiv.get(c.category());
+			long sum = v.sumIndiv.get(c.category());
 			//Non-additional leaf nodes add their bilancials to their sum anyway
 			if(!c.isAdditional) {
-				if(!v.sum.containsKey(c.category())) v.sum.put(c.category(), sum);
-				else v.sum.put(c.category(), MoneyDecimal.add(v.sum.get(c.category()),sum));
-				if(!v.plus.containsKey(c.category())) v.plus.put(c.category(), plus);
-				else v.plus.put(c.category(), MoneyDecimal.add(v.plus.get(c.category()),plus));
-				if(!v.minus.containsKey(c.category())) v.minus.put(c.category(), minus);
-				else v.minus.put(c.category(), MoneyDecimal.add(v.minus.get(c.category()),minus));
+				addTo(v.sum, c.category(), sum);
+				addTo(v.plus, c.category(), plus);
+				addTo(v.minus, c.category(), minus);
 			}
 			while(!invisibles.contains(c) && c != null) {
 				ExtendedCategory ecp = new ExtendedCategory(c.isAdditional()? c.category() : c.category().parent,false);
-				if(!v.sum.containsKey(ecp.category())) v.sum.put(ecp.category(), sum);
-				else v.sum.put(ecp.category(), MoneyDecimal.add(v.sum.get(ecp.category()),sum));
-				if(!v.plus.containsKey(ecp.category())) v.plus.put(ecp.category(), plus);
-				else v.plus.put(ecp.category(), MoneyDecimal.add(v.plus.get(ecp.category()),plus));
-				if(!v.minus.containsKey(ecp.category())) v.minus.put(ecp.category(), minus);
-				else v.minus.put(ecp.category(), MoneyDecimal.add(v.minus.get(ecp.category()), minus));
+				addTo(v.sum, ecp.category(), sum);
+				addTo(v.plus, ecp.category(), plus);
+				addTo(v.minus, ecp.category(), minus);
 				c = ecp.category() == Category.getRootCategory()? null : ecp;
 			}
 		}
 		
 		//Finally copy account values
-		v.before = biBefore.getAccountMappings();
-		v.after = biOverall.getAccountMappings();
+		for(Account a : accountsBefore.keySet()) v.before.put(a, accountsBefore.get(a)[0]);
+		for(Account a : accountsOverall.keySet()) v.after.put(a, accountsOverall.get(a)[0]);
 
 		return v;
 	}
 	
+	/**
+	 * The sums over a range of sorted entries (in cents): For each account the sum of the 'before' entries and of the accepted entries 
+	 * (if they are visible or accounts ignore invisibility) and for each category plus, minus, sum and number of the accepted entries
+	 */
+	private static class PartialSums {
+		public HashMap<Account, long[]> before = new HashMap<Account, long[]>();
+		public HashMap<Account, long[]> accepted = new HashMap<Account, long[]>();
+		public HashMap<Category, long[]> indiv = new HashMap<Category, long[]>();
+		
+		/**
+		 * Adds the sums of p to these sums
+		 */
+		public void add(PartialSums p) {
+			for(Account a : p.before.keySet()) addTo(before, a, p.before.get(a)[0]);
+			for(Account a : p.accepted.keySet()) addTo(accepted, a, p.accepted.get(a)[0]);
+			for(Category c : p.indiv.keySet()) {
+				long[] other = p.indiv.get(c);
+				long[] own = indiv.get(c);
+				if(own == null) indiv.put(c, other);
+				else {
+					for(int i = 0; i < own.length; i++) own[i] += other[i];
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return A map containing the start value (in cents) of each account of the associated journal
+	 */
+	private HashMap<Account, long[]> getStartValues() {
+		HashMap<Account, long[]> map = new HashMap<Account, long[]>();
+		for(Account a : associatedJournal.getListOfAccounts()) {
+			map.put(a, new long[]{MoneyCents.valueOf(associatedJournal.getStartValue(a))});
+		}
+		return map;
+	}
+	
+	/**
+	 * Adds value to the sum of key (which is created, if it doesn't exist)
+	 */
+	private static <K> void addTo(HashMap<K, long[]> map, K key, long value) {
+		long[] sum = map.get(key);
+		if(sum == null) map.put(key, new long[]{value});
+		else sum[0] += value;
+	}
+	
+	/**
+	 * Adds value to the mapping of c (which is created, if it doesn't exist)
+	 */
+	private static void addTo(HashMap<Category, Long> map, Category c, long value) {
+		Long old = map.get(c);
+		map.put(c, old == null? value : MoneyCents.add(old, value));
+	}
+	
+	/**
+	 * @return Whether the two maps have different values for c
+	 */
+	private static boolean differs(HashMap<Category, Long> a, HashMap<Category, Long> b, Category c) {
+		Long x = a.get(c);
+		Long y = b.get(c);
+		return x == null? y != null : !x.equals(y);
+	}
+	
 	/**
 	 * Copies the values from the given data vector and fires appropriate listener calls. Visibility and mask status of removed categories
 	 * are lost. This call is ignored, if v == null
@@ -319,12 +423,12 @@ public class BilancialTreeModel implements TreeModel, JournalListener, ChangeLis
 		for(ExtendedCategory ec : v.used) {
 			if(!used.contains(ec)) addedNodes.add(ec);
 			else {
-				if(sum.get(ec.category()) != v.sum.get(ec.category()) ||
-				   sumIndiv.get(ec.category()) != v.sumIndiv.get(ec.category()) || 
-				   minus.get(ec.category()) != v.minus.get(ec.category()) ||
-				   minusIndiv.get(ec.category()) != v.minusIndiv.get(ec.category()) ||
-				   plus.get(ec.category()) != v.plus.get(ec.category()) ||
-				   plusIndiv.get(ec.category()) != v.plusIndiv.get(ec.category())) {
+				if(differs(sum, v.sum, ec.category()) ||
+				   differs(sumIndiv, v.sumIndiv, ec.category()) || 
+				   differs(minus, v.minus, ec.category()) ||
+				   differs(minusIndiv, v.minusIndiv, ec.category()) ||
+				   differs(plus, v.plus, ec.category()) ||
+				   differs(plusIndiv, v.plusIndiv, ec.category())) {
 					ExtendedCategory ecp = new ExtendedCategory(ec.category() == Category.getRootCategory() ? ec.category() : ec.category().parent,false);
 					changes.add(new TreeModelEvent(this,getPath(ecp),new int[]{getIndex(ec)},new Object[]{ec}));
 				}
@@ -342,6 +446,8 @@ public class BilancialTreeModel implements TreeModel, JournalListener, ChangeLis
 		sumIndiv = v.sumIndiv;
 		plusIndiv = v.plusIndiv;
 		minusIndiv = v.minusIndiv;
+		countIndiv = v.countIndiv;
+		firstAccepted = v.firstAccepted;
 		
 		//Update mask and visibility
 		HashSet<ExtendedCategory> noLongerInvisible = new HashSet<ExtendedCategory>();
@@ -385,6 +491,334 @@ public class BilancialTreeModel implements TreeModel, JournalListener, ChangeLis
 		}
 	}
 	
+	// INCREMENTAL UPDATES *********
+	// *****************************
+	
+	/*
+	 * Added, removed and replaced entries are applied to the model as a change of the sums along the category path of each entry. Only the nodes
+	 * on this path are reported as changed and nodes are inserted or removed one by one (with the corresponding events), when a category gets its
+	 * first or loses its last accepted entry. This is only done in the event dispatch thread when no recalculation is running (otherwise the
+	 * data might be replaced by the running recalculation). If a change cannot be applied locally, the model is recalculated completely. This
+	 * is the case when the first accepted entry changes (since the 'before' status of the accounts might change for many entries), when an
+	 * invisible node would be removed or when too many entries change at once.
+	 */
+	
+	/**
+	 * Applies the given changes to the model, if possible
+	 * @return Whether the changes were applied. If false, the model has to be recalculated (it might have been modified partially)
+	 */
+	protected boolean applyIncrementally(Entry[] added, Entry[] removed) {
+		if(!SwingUtilities.isEventDispatchThread() || runningInstance != null) return false;
+		if(added.length + removed.length > incrementalLimit) return false;
+		for(Entry e : removed) {
+			if(e == null) continue;
+			if(!decrementEntry(e)) return false;
+		}
+		for(Entry e : added) {
+			if(e == null) continue;
+			if(!incrementEntry(e)) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Adds a new entry to the model and fires the appropriate events
+	 * @return false, if the entry cannot be added incrementally. In this case the model is unchanged
+	 */
+	protected boolean incrementEntry(Entry e) {
+		Category c = e.getCategory();
+		long value = e.getCents();
+		Account a = e.getAccount();
+		HashSet<ExtendedCategory> touched = new HashSet<ExtendedCategory>();
+		if(filter == null || filter.verifyEntry(e)) {
+			//If the entry lies before the first accepted entry, the 'before' status changes
+			if(compareToFirstAccepted(e) <= 0) return false;
+			boolean countsForAccounts = accountsIgnoreInvisibility || (isInheritedVisible(c, true) && isInheritedVisible(c, false));
+			//Create all missing nodes, starting with the most general one
+			Vector<Category> missing = new Vector<Category>();
+			for(Category cat = c; !used.contains(new ExtendedCategory(cat,false)); cat = cat.parent) missing.add(0, cat);
+			for(Category cat : missing) insertNode(new ExtendedCategory(cat,false), touched);
+			//The first own entry of a category with subcategories creates its additional node
+			if(getCount(c) == 0 && hasSubcategories(c)) insertNode(new ExtendedCategory(c,true), touched);
+			addToIndividual(c, value, 1);
+			addContribution(c, value, 1, touched);
+			if(countsForAccounts) {
+				addToAccount(after, a, value);
+				touched.add(new ExtendedCategory(Category.getRootCategory(),false));
+			}
+		}
+		else {
+			int position = compareToFirstAccepted(e);
+			if(position == 0) return false;
+			if(position < 0) {
+				addToAccount(before, a, value);
+				addToAccount(after, a, value);
+				touched.add(new ExtendedCategory(Category.getRootCategory(),false));
+			}
+		}
+		fireNodesChanged(touched);
+		return true;
+	}
+	
+	/**
+	 * Removes an entry from the model and fires the appropriate events
+	 * @return false, if the entry cannot be removed incrementally. In this case the model is unchanged
+	 */
+	protected boolean decrementEntry(Entry e) {
+		Category c = e.getCategory();
+		long value = e.getCents();
+		Account a = e.getAccount();
+		HashSet<ExtendedCategory> touched = new HashSet<ExtendedCategory>();
+		if(filter == null || filter.verifyEntry(e)) {
+			if(e == firstAccepted || getCount(c) == 0) return false;
+			Vector<ExtendedCategory> obsolete = getCount(c) == 1? getObsoleteNodes(c) : new Vector<ExtendedCategory>();
+			//The visibility status of removed nodes would be lost, which changes the sums of the remaining ones
+			for(ExtendedCategory ec : obsolete) {
+				if(invisibles.contains(ec)) return false;
+			}
+			boolean countsForAccounts = accountsIgnoreInvisibility || (isInheritedVisible(c, true) && isInheritedVisible(c, false));
+			addContribution(c, value, -1, touched);
+			addToIndividual(c, value, -1);
+			for(ExtendedCategory ec : obsolete) removeNode(ec, touched);
+			if(countsForAccounts) {
+				addToAccount(after, a, -value);
+				touched.add(new ExtendedCategory(Category.getRootCategory(),false));
+			}
+		}
+		else {
+			int position = compareToFirstAccepted(e);
+			if(position == 0) return false;
+			if(position < 0) {
+				addToAccount(before, a, -value);
+				addToAccount(after, a, -value);
+				touched.add(new ExtendedCategory(Category.getRootCategory(),false));
+			}
+		}
+		//Accounts which are not used anymore disappear
+		if(!associatedJournal.getListOfAccounts().contains(a)) {
+			before.remove(a);
+			after.remove(a);
+		}
+		fireNodesChanged(touched);
+		return true;
+	}
+	
+	/**
+	 * @return -1, if e lies before the first accepted entry (or there is none), 1, if e lies after it and 0, if this cannot be decided
+	 */
+	private int compareToFirstAccepted(Entry e) {
+		if(firstAccepted == null) return -1;
+		int c1 = entryComparator.compare(e, firstAccepted);
+		int c2 = entryComparator.compare(firstAccepted, e);
+		if(c1 < 0 && c2 > 0) return -1;
+		if(c1 > 0 && c2 < 0) return 1;
+		return 0;
+	}
+	
+	/**
+	 * Adds (sign = 1) or subtracts (sign = -1) the value of an entry to the bilancials of the node of c (which is the additional node, if c 
+	 * has subcategories) and passes it on to its supercategories as long as the nodes are visible (as in {@link #recalculateModel()}). 
+	 * All changed nodes are added to touched.
+	 */
+	private void addContribution(Category c, long entryValue, int sign, HashSet<ExtendedCategory> touched) {
+		long value = sign * entryValue;
+		long plusValue = entryValue >= 0? value : 0;
+		long minusValue = entryValue < 0? value : 0;
+		ExtendedCategory node;
+		if(hasSubcategories(c)) {
+			node = new ExtendedCategory(c,true);
+		}
+		else {
+			//The root category without subcategories has no sums
+			if(c == Category.getRootCategory()) return;
+			node = new ExtendedCategory(c,false);
+			addToSums(c, value, plusValue, minusValue);
+		}
+		touched.add(node);
+		while(!invisibles.contains(node)) {
+			Category parent = node.isAdditional()? node.category() : node.category().parent;
+			addToSums(parent, value, plusValue, minusValue);
+			node = new ExtendedCategory(parent,false);
+			touched.add(node);
+			if(parent == Category.getRootCategory()) break;
+		}
+	}
+	
+	/**
+	 * Adds (sign = 1) or subtracts (sign = -1) the value of an entry to the individual bilancials of c and the number of its entries. If there are 
+	 * no more entries, the mappings are removed
+	 */
+	private void addToIndividual(Category c, long entryValue, int sign) {
+		int newCount = getCount(c) + sign;
+		if(newCount == 0) {
+			sumIndiv.remove(c);
+			plusIndiv.remove(c);
+			minusIndiv.remove(c);
+			countIndiv.remove(c);
+		}
+		else {
+			if(!plusIndiv.containsKey(c)) plusIndiv.put(c, MoneyCents.zero);
+			if(!minusIndiv.containsKey(c)) minusIndiv.put(c, MoneyCents.zero);
+			addTo(entryValue >= 0? plusIndiv : minusIndiv, c, sign * entryValue);
+			addTo(sumIndiv, c, sign * entryValue);
+			countIndiv.put(c, newCount);
+		}
+	}
+	
+	/**
+	 * Adds the given values to sum, plus and minus of c
+	 */
+	private void addToSums(Category c, long sumValue, long plusValue, long minusValue) {
+		addTo(sum, c, sumValue);
+		addTo(plus, c, plusValue);
+		addTo(minus, c, minusValue);
+	}
+	
+	/**
+	 * Adds value to the status of a in the given account map. If a has no status yet, it is initialized with the start value in both maps
+	 */
+	private void addToAccount(HashMap<Account, Long> map, Account a, long value) {
+		if(!after.containsKey(a)) {
+			long start = MoneyCents.valueOf(associatedJournal.getStartValue(a));
+			before.put(a, start);
+			after.put(a, start);
+		}
+		map.put(a, MoneyCents.add(map.get(a), value));
+	}
+	
+	/**
+	 * @return The number of accepted entries directly in c
+	 */
+	private int getCount(Category c) {
+		Integer count = countIndiv.get(c);
+		return count == null? 0 : count;
+	}
+	
+	/**
+	 * @return Whether the node of c has subcategory nodes (not counting the additional node)
+	 */
+	private boolean hasSubcategories(Category c) {
+		Vector<ExtendedCategory> children = directSubcategories.get(new ExtendedCategory(c,false));
+		if(children == null || children.size() == 0) return false;
+		return children.size() > 1 || !children.get(0).isAdditional();
+	}
+	
+	/**
+	 * @return The nodes which have to be removed, if c loses its last accepted entry, in the order of removal (i.e. subcategories first)
+	 */
+	private Vector<ExtendedCategory> getObsoleteNodes(Category c) {
+		Vector<ExtendedCategory> obsolete = new Vector<ExtendedCategory>();
+		if(hasSubcategories(c)) {
+			obsolete.add(new ExtendedCategory(c,true));
+			return obsolete;
+		}
+		if(c == Category.getRootCategory()) return obsolete;
+		obsolete.add(new ExtendedCategory(c,false));
+		//Go up while categories lose their last subcategory
+		for(Category p = c.parent; ; p = p.parent) {
+			Vector<ExtendedCategory> children = directSubcategories.get(new ExtendedCategory(p,false));
+			ExtendedCategory additional = new ExtendedCategory(p,true);
+			if(children.size() - (children.contains(additional)? 1 : 0) > 1) break;
+			//A category with own entries keeps its node, but loses its additional node
+			if(children.contains(additional)) {
+				obsolete.add(additional);
+				break;
+			}
+			if(p == Category.getRootCategory()) break;
+			obsolete.add(new ExtendedCategory(p,false));
+		}
+		return obsolete;
+	}
+	
+	/**
+	 * Inserts the node into the subcategories of its parent node and fires an insertion event. If it is the first subcategory of a category with own
+	 * entries, the additional node of this category is inserted before.
+	 */
+	private void insertNode(ExtendedCategory node, HashSet<ExtendedCategory> touched) {
+		Category c = node.category();
+		ExtendedCategory parent = new ExtendedCategory(node.isAdditional()? c : c.parent,false);
+		if(!node.isAdditional() && getCount(parent.category()) > 0 && !hasSubcategories(parent.category())) {
+			insertNode(new ExtendedCategory(parent.category(),true), touched);
+		}
+		Vector<ExtendedCategory> children = directSubcategories.get(parent);
+		if(children == null) {
+			children = new Vector<ExtendedCategory>();
+			directSubcategories.put(parent, children);
+		}
+		int index = -Collections.binarySearch(children, node, extCatComparator) - 1;
+		children.add(index, node);
+		used.add(node);
+		//The own entries of the root category only count in its sums, if it has an additional node
+		if(node.isAdditional() && c == Category.getRootCategory()) {
+			addToSums(c, getValue(sumIndiv, c), getValue(plusIndiv, c), getValue(minusIndiv, c));
+			touched.add(parent);
+		}
+		fireTreeNodesInserted(new TreeModelEvent(this, getTreePath(parent.category()), new int[]{index}, new Object[]{node}));
+	}
+	
+	/**
+	 * Removes the node (which must not have any subcategory nodes) from the subcategories of its parent node and fires a removal event
+	 */
+	private void removeNode(ExtendedCategory node, HashSet<ExtendedCategory> touched) {
+		Category c = node.category();
+		ExtendedCategory parent = new ExtendedCategory(node.isAdditional()? c : c.parent,false);
+		Vector<ExtendedCategory> children = directSubcategories.get(parent);
+		int index = children.indexOf(node);
+		TreePath parentPath = getTreePath(parent.category());
+		children.remove(index);
+		if(children.size() == 0) directSubcategories.remove(parent);
+		used.remove(node);
+		touched.remove(node);
+		invisibles.remove(node);
+		mask.remove(node);
+		if(node.isAdditional()) {
+			if(c == Category.getRootCategory()) {
+				addToSums(c, -getValue(sumIndiv, c), -getValue(plusIndiv, c), -getValue(minusIndiv, c));
+				touched.add(parent);
+			}
+		}
+		else {
+			sum.remove(c);
+			plus.remove(c);
+			minus.remove(c);
+		}
+		fireTreeNodesRemoved(new TreeModelEvent(this, parentPath, new int[]{index}, new Object[]{node}));
+	}
+	
+	/**
+	 * @return The value of c in the given map (0, if there is none)
+	 */
+	private static long getValue(HashMap<Category, Long> map, Category c) {
+		Long value = map.get(c);
+		return value == null? MoneyCents.zero : value;
+	}
+	
+	/**
+	 * @return The complete tree path from the root to the (non-additional) node of c
+	 */
+	private TreePath getTreePath(Category c) {
+		Object[] nodes = new Object[c.getOrder() + 1];
+		for(Category cat = c; cat != null; cat = cat.parent) nodes[cat.getOrder()] = new ExtendedCategory(cat,false);
+		return new TreePath(nodes);
+	}
+	
+	/**
+	 * Fires a change event for each of the given nodes which is still contained in the tree
+	 */
+	private void fireNodesChanged(HashSet<ExtendedCategory> nodes) {
+		for(ExtendedCategory ec : nodes) {
+			if(!used.contains(ec)) continue;
+			if(ec.category() == Category.getRootCategory() && !ec.isAdditional()) {
+				fireTreeNodesChanged(new TreeModelEvent(this, getTreePath(ec.category()), null, null));
+			}
+			else {
+				ExtendedCategory parent = new ExtendedCategory(ec.isAdditional()? ec.category() : ec.category().parent,false);
+				fireTreeNodesChanged(new TreeModelEvent(this, getTreePath(parent.category()),
+						new int[]{directSubcategories.get(parent).indexOf(ec)}, new Object[]{ec}));
+			}
+		}
+	}
+	
 	// GETTERS & SETTERS ***********
 	// *****************************
 	
@@ -392,48 +826,48 @@ public class BilancialTreeModel implements TreeModel, JournalListener, ChangeLis
 	 * @return The sum over all positive entries in this category and subcategories (0, if there are none)
 	 */
 	public float getCategoryPlus(Category c) {
-		BigDecimal f = plus.get(c);
-		return f == null? 0 : f.floatValue();
+		Long f = plus.get(c);
+		return f == null? 0 : MoneyCents.toFloat(f);
 	}
 	
 	/**
 	 * @return The sum over all negative entries in this category and subcategories (0, if there are none)
 	 */
 	public float getCategoryMinus(Category c) {
-		BigDecimal f = minus.get(c);
-		return f == null? 0 : f.floatValue();
+		Long f = minus.get(c);
+		return f == null? 0 : MoneyCents.toFloat(f);
 	}
 	
 	/**
 	 * @return The sum over all entries in this category and subcategories (0, if there are none)
 	 */
 	public float getCategorySum(Category c) {
-		BigDecimal f = sum.get(c);
-		return f == null? 0 : f.floatValue();
+		Long f = sum.get(c);
+		return f == null? 0 : MoneyCents.toFloat(f);
 	}
 	
 	/**
 	 * @return The sum over all positive entries directly in this category (0, if there are none)
 	 */
 	public float getIndividualPlus(Category c) {
-		BigDecimal f = plusIndiv.get(c);
-		return f == null? 0 : f.floatValue();
+		Long f = plusIndiv.get(c);
+		return f == null? 0 : MoneyCents.toFloat(f);
 	}
 	
 	/**
 	 * @return The sum over all negative entries directly in this category (0, if there are none)
 	 */
 	public float getIndividualMinus(Category c) {
-		BigDecimal f = minusIndiv.get(c);
-		return f == null? 0 : f.floatValue();
+		Long f = minusIndiv.get(c);
+		return f == null? 0 : MoneyCents.toFloat(f);
 	}
 	
 	/**
 	 * @return The sum over all entries directly in this category (0, if there are none)
 	 */
 	public float getIndividualSum(Category c) {
-		BigDecimal f = sumIndiv.get(c);
-		return f == null? 0 : f.floatValue();
+		Long f = sumIndiv.get(c);
+		return f == null? 0 : MoneyCents.toFloat(f);
 	}
 	
 	/**
@@ -533,18 +967,18 @@ public class BilancialTreeModel implements TreeModel, JournalListener, ChangeLis
 	 * @return The status of a before the regarded entries (or 0, if the account does not figure in this bilancial)
 	 */
 	public float getAccountBefore(Account a) {
-		BigDecimal f = before.get(a);
+		Long f = before.get(a);
 		if(f == null) return 0;
-		else return f.floatValue();
+		else return MoneyCents.toFloat(f);
 	}
 	
 	/**
 	 * @return The status of a after the regarded entries (or 0, if the account does not figure in this bilancial)
 	 */
 	public float getAccountAfter(Account a) {
-		BigDecimal f = after.get(a);
+		Long f = after.get(a);
 		if(f == null) return 0;
-		else return f.floatValue();
+		else return MoneyCents.toFloat(f);
 	}
 	
 	/**
@@ -623,12 +1057,12 @@ public class BilancialTreeModel implements TreeModel, JournalListener, ChangeLis
 			else {
 				float value = 0.0f;
 				if(bilancial && sum.get(c) != null) {
-					if(positive && sum.get(c).compareTo(MoneyDecimal.bigd(0)) > 0) value = sum.get(c).floatValue();
-					if(!positive && sum.get(c).compareTo(MoneyDecimal.bigd(0)) < 0) value = -sum.get(c).floatValue();
+					if(positive && sum.get(c) > 0) value = MoneyCents.toFloat(sum.get(c));
+					if(!positive && sum.get(c) < 0) value = -MoneyCents.toFloat(sum.get(c));
 				}
 				else {
-					if(positive && plus.get(c) != null) value = plus.get(c).floatValue();
-					if(!positive && minus.get(c) != null) value = -minus.get(c).floatValue();
+					if(positive && plus.get(c) != null) value = MoneyCents.toFloat(plus.get(c));
+					if(!positive && minus.get(c) != null) value = -MoneyCents.toFloat(minus.get(c));
 				}
 				dataset.setValue(c,value);
 				return dataset;
@@ -642,12 +1076,12 @@ public class BilancialTreeModel implements TreeModel, JournalListener, ChangeLis
 					float value = 0.0f;
 					Category cat = ecc.category();
 					if(bilancial && sum.get(cat) != null) {
-						if(positive && sum.get(cat).compareTo(MoneyDecimal.bigd(0)) > 0) value = sum.get(cat).floatValue();
-						if(!positive && sum.get(cat).compareTo(MoneyDecimal.bigd(0)) < 0) value = -sum.get(cat).floatValue();
+						if(positive && sum.get(cat) > 0) value = MoneyCents.toFloat(sum.get(cat));
+						if(!positive && sum.get(cat) < 0) value = -MoneyCents.toFloat(sum.get(cat));
 					}
 					else {
-						if(positive && plus.get(cat) != null) value = plus.get(cat).floatValue();
-						if(!positive && minus.get(cat) != null) value = -minus.get(cat).floatValue();
+						if(positive && plus.get(cat) != null) value = MoneyCents.toFloat(plus.get(cat));
+						if(!positive && minus.get(cat) != null) value = -MoneyCents.toFloat(minus.get(cat));
 					}
 					dataset.setValue(ecc.category(), value);
 				}
@@ -660,12 +1094,12 @@ public class BilancialTreeModel implements TreeModel, JournalListener, ChangeLis
 					float value = 0.0f;
 					Category cat = ecc.category();
 					if(bilancial && sum.get(cat) != null) {
-						if(positive && sum.get(cat).compareTo(MoneyDecimal.bigd(0)) > 0) value = sum.get(cat).floatValue();
-						if(!positive && sum.get(cat).compareTo(MoneyDecimal.bigd(0)) < 0) value = -sum.get(cat).floatValue();
+						if(positive && sum.get(cat) > 0) value = MoneyCents.toFloat(sum.get(cat));
+						if(!positive && sum.get(cat) < 0) value = -MoneyCents.toFloat(sum.get(cat));
 					}
 					else {
-						if(positive && plus.get(cat) != null) value = plus.get(cat).floatValue();
-						if(!positive && minus.get(cat) != null) value = -minus.get(cat).floatValue();
+						if(positive && plus.get(cat) != null) value = MoneyCents.toFloat(plus.get(cat));
+						if(!positive && minus.get(cat) != null) value = -MoneyCents.toFloat(minus.get(cat));
 					}
 					dataset.setValue(ecc.category(), value);
 				}
@@ -765,17 +1199,17 @@ public class BilancialTreeModel implements TreeModel, JournalListener, ChangeLis
 
 	@Override
 	public void entriesAdded(Journal source, Entry[] newEntries) {
-		recalculate();
+		if(!applyIncrementally(newEntries, new Entry[0])) recalculate();
 	}
 
 	@Override
 	public void entriesRemoved(Journal source, Entry[] oldEntries) {
-		recalculate();
+		if(!applyIncrementally(new Entry[0], oldEntries)) recalculate();
 	}
 
 	@Override
 	public void entryReplaced(Journal source, Entry oldEntry, Entry newEntry) {
-		recalculate();
+		if(!applyIncrementally(new Entry[]{newEntry}, new Entry[]{oldEntry})) recalculate();
 	}
 
 	@Override
@@ -945,17 +1379,19 @@ public class BilancialTreeModel implements TreeModel, JournalListener, ChangeLis
 	private class DataVector {
 		public HashSet<ExtendedCategory> used = new HashSet<ExtendedCategory>();
 		public HashMap<ExtendedCategory, Vector<ExtendedCategory>> directSubcategories = new HashMap<ExtendedCategory, Vector<ExtendedCategory>>();
-		public HashMap<Category, BigDecimal> minus = new HashMap<Category, BigDecimal>();
-		public HashMap<Category, BigDecimal> plus = new HashMap<Category, BigDecimal>();
-		public HashMap<Category, BigDecimal> sum = new HashMap<Category, BigDecimal>();
-		public HashMap<Category, BigDecimal> minusIndiv = new HashMap<Category, BigDecimal>();
-		public HashMap<Category, BigDecimal> plusIndiv = new HashMap<Category, BigDecimal>();
-		public HashMap<Category, BigDecimal> sumIndiv = new HashMap<Category, BigDecimal>();
-		public HashMap<Account, BigDecimal> before = new HashMap<Account, BigDecimal>();
-		public HashMap<Account, BigDecimal> after = new HashMap<Account, BigDecimal>();
+		public HashMap<Category, Long> minus = new HashMap<Category, Long>();
+		public HashMap<Category, Long> plus = new HashMap<Category, Long>();
+		public HashMap<Category, Long> sum = new HashMap<Category, Long>();
+		public HashMap<Category, Long> minusIndiv = new HashMap<Category, Long>();
+		public HashMap<Category, Long> plusIndiv = new HashMap<Category, Long>();
+		public HashMap<Category, Long> sumIndiv = new HashMap<Category, Long>();
+		public HashMap<Category, Integer> countIndiv = new HashMap<Category, Integer>();
+		public Entry firstAccepted = null;
+		public HashMap<Account, Long> before = new HashMap<Account, Long>();
+		public HashMap<Account, Long> after = new HashMap<Account, Long>();
 	}
 	
-	private class ExtCatComparator implements Comparator<ExtendedCategory>{
+	private static class ExtCatComparator implements Comparator<ExtendedCategory>{
 		@Override
 		public int compare(ExtendedCategory o1, ExtendedCategory o2) {
 			if(o1 == null && o2 == null) return 0;
@@ -985,6 +1421,7 @@ public class BilancialTreeModel implements TreeModel, JournalListener, ChangeLis
 					//Ignore
 				}
 			}
+			if(runningInstance == this) runningInstance = null;
 			fireTaskFinished(this);
 		}
 	}
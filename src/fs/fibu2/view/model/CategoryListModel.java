@@ -19,7 +19,7 @@ import fs.fibu2.data.model.ReadingPoint;
 /**
  * This class implements a simple list of categories of a journal. It listens to the journal and reloads its content, every time the journal changes.
  * It orders the categories according to ordering induced by its Comparable interface. Recalculation of the list's content is done via a SwingWorker
- * object on a separate thread, so the application remains responsive. 
+ * object on a separate thread (scheduled by the {@link RecalculationScheduler} of the journal), so the application remains responsive. 
  * @author Simon Hampe
  *
  */
@@ -87,7 +87,7 @@ public class CategoryListModel extends AbstractListModel implements JournalListe
 			currentRecalculator.cancel(true);
 		}
 		currentRecalculator = new Recalculator();
-		currentRecalculator.execute();
+		RecalculationScheduler.getInstance(associatedJournal).schedule(this, currentRecalculator);
 	}
 	
 	protected void fireContentsChanged() {
@@ -1,6 +1,11 @@
 package fs.fibu2.view.model;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.Vector;
 
@@ -19,8 +24,10 @@ import fs.fibu2.data.model.Entry;
 import fs.fibu2.data.model.EntrySeparator;
 import fs.fibu2.data.model.ExtremeSeparator;
 import fs.fibu2.data.model.Journal;
+import fs.fibu2.data.model.JournalIndex;
 import fs.fibu2.data.model.ReadingPoint;
 import fs.fibu2.filter.EntryFilter;
+import fs.fibu2.filter.FilterResultCache;
 import fs.fibu2.filter.StackFilter;
 import fs.fibu2.lang.Fsfibu2StringTableMgr;
 import fs.fibu2.view.event.ProgressListener;
@@ -30,7 +37,11 @@ import fs.fibu2.view.event.YearSeparatorListener;
  * This class implements a model for a Journal table. Each model is associated to a {@link StackFilter} to which is listens, as well as to the associated {@link Journal}.
  * There are several visibility settings for reading points and the model provides bilancial information for each entry. Since model recalculation
  * is rather extensive, it happens in a separate thread. There is an interface for adding listeners which want to be notified of running recalculation
- * tasks. 
+ * tasks. <br>
+ * A model can be created in windowed mode: Then the rows are not kept in lists, but computed on demand from the sorted entries of the journal's
+ * {@link JournalIndex} a few pages at a time (see {@link WindowedRows}) and the bilancials keep fewer sums. The memory needed is then roughly 
+ * proportional to the rows viewed instead of the size of the journal. Changes of the journal are applied incrementally in this mode as well: 
+ * Only the pages and sums from the first changed row on are recomputed.
  * @author Simon Hampe
  *
  */
@@ -44,21 +55,25 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 	
 	//A sorted list of all displayed entries and separators + all entries not displayed which come before the first entry displayed
 	//Despite the order induced by the comparator the starting separator will be moved to firstIndexDisplayed when creating the list
-	//private Vector<Object> indexedData = new Vector<Object>();
+	private Vector<Object> indexedData = new Vector<Object>();
 	//The index of the first element displayed in indexedData (i.e. of the start separator)
 	private int firstIndexDisplayed;
+	//In windowed mode, this replaces indexedData and displayedData, which stay empty
+	private WindowedRows window = null;
 	
 	private EntryFilter filter;
 	private Journal		associatedJournal;
 	
 	//Displayed elements
 	private Vector<Object> displayedData = new Vector<Object>();
-	//In 1:1-corr. with indexedData, contains for each element a bilancial mapping. For the starting separator and for
+	//Contains the running sums of indexedData, from which the bilancial mapping of each element is derived. For the starting separator and for
 		//all entries before indexToStartDisplay, this is just one single mapping for null, containing an overall sum. For the starting separator this is actually a
 		//an overall sum (for the account mappings) over all entries not displayed. 
-	private Vector<BilancialMapping> bilancialData = new Vector<BilancialMapping>();
+	private BilancialIndex bilancialIndex;
 	//Displayed separators, sorted
 	private Vector<EntrySeparator> displayedSeparators = new Vector<EntrySeparator>();
+	//Maps each displayed element to its row. It is created when it is needed for the first time after a recalculation (only if the model is not windowed)
+	private RowIndex rowIndex = null;
 	
 	//Listeners ******
 	
@@ -76,10 +91,16 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 	//The currently running/last requested instance of the recalculator
 	private Recalculator runningInstance = null;
 	
+	//The number of times the data of this model has been replaced by a recalculation
+	private int version = 0;
+	
 	//Visibility flags
 	private boolean displayYearSeparators = true;
 	private boolean displayReadingPoints = true;
 	
+	//Whether rows are computed on demand
+	private final boolean windowed;
+	
 	// CONSTRUCTOR **************************************
 	// **************************************************
 	
@@ -89,11 +110,23 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 	 */
 	public JournalTableModel(Journal associatedJournal, EntryFilter filter, boolean displayYearSeparators, 
 									boolean displayReadingPoints) {
+		this(associatedJournal, filter, displayYearSeparators, displayReadingPoints, false);
+	}
+	
+	/**
+	 * Creates a table model, where all contained reading points are initially visible and entries are filtered according to
+	 * the given filter.
+	 * @param windowed Whether rows should only be computed when they are requested. This is recommended for tables
+	 * displaying large journals
+	 */
+	public JournalTableModel(Journal associatedJournal, EntryFilter filter, boolean displayYearSeparators, 
+									boolean displayReadingPoints, boolean windowed) {
 		//Copy data
 		this.associatedJournal = associatedJournal == null? new Journal() : associatedJournal;
 		this.filter = filter;
 		this.displayYearSeparators = displayYearSeparators;
 		this.displayReadingPoints = displayReadingPoints;
+		this.windowed = windowed;
 		
 		//Register listeners
 		associatedJournal.addJournalListener(this);
@@ -104,11 +137,12 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 		DataVector v = new DataVector();
 		recalculateLists(v);
 		recalculateBilancials(0,v);
-		//indexedData = v.indexedData;
+		indexedData = v.indexedData;
 		displayedData = v.displayedData;
+		window = v.window;
 		firstIndexDisplayed = v.firstIndexDisplayed;
 		displayedSeparators = v.displayedSeparators;
-		bilancialData = v.bilancialData;
+		bilancialIndex = v.bilancialIndex;
 	}
 	
 	// GETTERS / SETTERS ********************************
@@ -118,7 +152,40 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 	 * @returns The bilancial mapping for the given row or null, if there is none
 	 */
 	public BilancialMapping getBilancialMapping(Object row) {
-		return getBilancialMapping(displayedData.indexOf(row));
+		return getBilancialMapping(indexOf(row));
+	}
+	
+	/**
+	 * @return The bilancial information of the entries in the given rows (separators and rows out of bounds are ignored): The overall sum and 
+	 * the sums of all categories and accounts of these entries only, without start values. Consecutive rows are summed up as one interval, 
+	 * so the time needed depends on the number of intervals, not on the number of rows (see {@link BilancialIndex#getRangeInformation(int[], int[])}).
+	 */
+	public BilancialInformation getSelectionInformation(int[] rows) {
+		int[] sorted = rows.clone();
+		Arrays.sort(sorted);
+		int[] from = new int[sorted.length];
+		int[] to = new int[sorted.length];
+		int count = 0;
+		int rowCount = getRowCount();
+		for(int row : sorted) {
+			if(row < 0 || row >= rowCount) continue;
+			int index = row + firstIndexDisplayed;
+			if(count > 0 && index <= to[count-1] + 1) to[count-1] = Math.max(to[count-1], index);
+			else {
+				from[count] = index;
+				to[count] = index;
+				count++;
+			}
+		}
+		return bilancialIndex.getRangeInformation(Arrays.copyOf(from, count), Arrays.copyOf(to, count));
+	}
+	
+	/**
+	 * @return The number of times the data of this model (rows and bilancials) has changed. Data derived from the model, 
+	 * e.g. by a renderer, can be cached as long as this number doesn't change.
+	 */
+	public int getVersion() {
+		return version;
 	}
 	
 	/**
@@ -126,28 +193,39 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 	 */
 	public BilancialMapping getBilancialMapping(int index) {
 		if(index < 0 || index >= getRowCount()) return null;
-		else return bilancialData.get(index+ firstIndexDisplayed);
+		else return bilancialIndex.getMapping(index+ firstIndexDisplayed);
 	}
 	
 	/**
-	 * @return An instance of Recalculator. Cancels a running instance, if it exists 
+	 * @return An instance of Recalculator which applies the given changes or recalculates everything, if delta == null. 
+	 * Cancels a running instance, if it exists. If the last instance has not yet copied its data into this model, 
+	 * the current data is no valid base for an incremental recalculation, so the delta is dropped in this case.
 	 */
-	private synchronized Recalculator getRecalculatorInstance() {
+	private synchronized Recalculator getRecalculatorInstance(Delta delta) {
 		if(runningInstance == null) {
-			runningInstance = new Recalculator();
+			runningInstance = new Recalculator(delta);
 			return runningInstance;
 		}
 		else {
+			if(!runningInstance.isFinished()) delta = null;
 			runningInstance.cancel(true);
-			runningInstance = new Recalculator();
+			runningInstance = new Recalculator(delta);
 			return runningInstance;
 		}
 	}
 	
 	private void doRecalculation() {
-		Recalculator c = getRecalculatorInstance();
+		doRecalculation(null);
+	}
+	
+	/**
+	 * Schedules a recalculation which only applies the given changes to the current data. If delta == null, everything is recalculated.
+	 * The recalculation is executed by the {@link RecalculationScheduler} of the journal.
+	 */
+	private void doRecalculation(Delta delta) {
+		Recalculator c = getRecalculatorInstance(delta);
 		fireTaskBegins(c);
-		c.execute();
+		RecalculationScheduler.getInstance(associatedJournal).schedule(this, c);
 	}
 	
 	/**
@@ -168,6 +246,7 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 	 * @return A vector consisting of all displayed data, i.e. Entries and EntrySeparators
 	 */
 	public Vector<Object> getData() {
+		if(window != null) return new Vector<Object>(window.subList(firstIndexDisplayed, window.size()));
 		return new Vector<Object>(displayedData);
 	}
 	
@@ -175,7 +254,24 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 	 * @return The index of o in the visible model or -1 if it is not contained
 	 */
 	public int indexOf(Object o) {
-		return displayedData.indexOf(o);
+		if(window != null) {
+			int index = window.indexOf(o);
+			return index < firstIndexDisplayed? -1 : index - firstIndexDisplayed;
+		}
+		RowIndex index = rowIndex;
+		if(index == null || index.data != displayedData) {
+			index = new RowIndex(displayedData);
+			rowIndex = index;
+		}
+		Integer row = index.rows.get(o);
+		return row == null? -1 : row;
+	}
+	
+	/**
+	 * @return Whether rows are only computed, when they are requested
+	 */
+	public boolean isWindowed() {
+		return windowed;
 	}
 	
 	/**
@@ -262,6 +358,7 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 
 	@Override
 	public int getRowCount() {
+		if(window != null) return window.size() - firstIndexDisplayed;
 		return displayedData.size();
 	}
 
@@ -270,6 +367,7 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 	 */
 	@Override
 	public Object getValueAt(int rowIndex, int columnIndex) {
+		if(window != null) return window.get(rowIndex + firstIndexDisplayed);
 		return displayedData.get(rowIndex);
 	}
 
@@ -299,16 +397,42 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 	
 	/**
 	 * This method recalculates the sorted lists of entries/reading points. The unsorted reading point collections
-	 * are not reloaded but used as they are.  The final data is copied into the given DataVector
+	 * are not reloaded but used as they are.  The final data is copied into the given DataVector. In windowed mode, only
+	 * the {@link WindowedRows} are created.
 	 */
 	protected void recalculateLists(DataVector v) {
-		TreeSet<Object> sortedSet = new TreeSet<Object>(new TableModelComparator());
-		TreeSet<EntrySeparator> sortedSeparators = new TreeSet<EntrySeparator>(new TableModelComparator());
-		//Load all entries and add separators
-		sortedSet.addAll(associatedJournal.getEntries());
-		if(displayReadingPoints) sortedSet.addAll(associatedJournal.getReadingPoints());
-		if(displayYearSeparators) sortedSet.addAll(YearSeparators.getInstance(associatedJournal).getNecessarySeparators());
-		sortedSet.add(endSeparator);
+		if(windowed) {
+			recalculateWindow(v);
+			return;
+		}
+		TableModelComparator comparator = new TableModelComparator();
+		TreeSet<EntrySeparator> sortedSeparators = new TreeSet<EntrySeparator>(comparator);
+		//Load all separators and merge them into the sorted entries of the journal
+		TreeSet<EntrySeparator> allSeparators = new TreeSet<EntrySeparator>(comparator);
+		if(displayReadingPoints) allSeparators.addAll(associatedJournal.getReadingPoints());
+		if(displayYearSeparators) allSeparators.addAll(YearSeparators.getInstance(associatedJournal).getNecessarySeparators());
+		allSeparators.add(endSeparator);
+		Vector<Object> sortedSet = new Vector<Object>(associatedJournal.getNumberOfEntries() + allSeparators.size());
+		Iterator<EntrySeparator> separatorIterator = allSeparators.iterator();
+		EntrySeparator nextSeparator = separatorIterator.next();
+		//The filter is evaluated for all entries at once (and shared with other views) via the filter result cache. The positions of all admitted entries in sortedSet are marked
+		JournalIndex index = associatedJournal.getIndex();
+		List<Entry> sortedEntries = index.getSortedEntries();
+		int[] sortedIDs = index.getSortedIDs();
+		BitSet admitted = filter == null? null : FilterResultCache.getInstance(associatedJournal).getAdmittedIDs(filter, index);
+		BitSet admittedPositions = new BitSet(sortedSet.size());
+		for(int i = 0; i < sortedEntries.size(); i++) {
+			if((i & 4095) == 0) RecalculationScheduler.checkpoint();
+			Entry e = sortedEntries.get(i);
+			while(nextSeparator != null && comparator.compare(nextSeparator, e) < 0) {
+				sortedSet.add(nextSeparator);
+				nextSeparator = separatorIterator.hasNext()? separatorIterator.next() : null;
+			}
+			if(admitted == null || admitted.get(sortedIDs[i])) admittedPositions.set(sortedSet.size());
+			sortedSet.add(e);
+		}
+		if(nextSeparator != null) sortedSet.add(nextSeparator);
+		while(separatorIterator.hasNext()) sortedSet.add(separatorIterator.next());
 		
 		//Remove unused entries and reading points
 		int firstContainedIndex = -1; 	//The index of the first element actually displayed
@@ -320,7 +444,7 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 		for(Object o : sortedSet) {
 			if(o instanceof Entry) {
 				//We keep entries which are filtered out, if we have not reached any accepted entry yet
-				if(filter != null && !filter.verifyEntry(((Entry)o))) {
+				if(!admittedPositions.get(currentIndex)) {
 					if(firstContainedIndex  >= 0) {
 						elementsToRemove.add(((Entry)o));
 					}
@@ -369,66 +493,417 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 	}
 	
 	/**
-	 * Recalculates the bilancial vector, starting from a given index in the range of the size of indexedData. All preceding bilancial 
-	 * data will be used as a base for further calculation. If index <= 0, the data is computed completely anew. If the
-	 * index is greater than the actual size of indexedData, nothing changes. Only the bilancial data for displayed elements is stored in detail.
-	 * The bilancial data for all elements which come before is only stored in sum in the start separator. The element data is taken from the data vector and the 
-	 * final bilancial data is copied into the DataVector
+	 * Creates the rows of the windowed mode and copies them into the given DataVector. Reading points are added before year separators,
+	 * so they are preferred, if both are considered equal (as in {@link #recalculateLists(DataVector)}).
+	 */
+	protected void recalculateWindow(DataVector v) {
+		JournalIndex index = associatedJournal.getIndex();
+		BitSet admitted = filter == null? null : FilterResultCache.getInstance(associatedJournal).getAdmittedIDs(filter, index);
+		setWindow(v, new WindowedRows(index, admitted, getAvailableSeparators(), startSeparator, endSeparator));
+	}
+	
+	/**
+	 * Copies the given rows of the windowed mode and the separators displayed in them into the DataVector
+	 */
+	private void setWindow(DataVector v, WindowedRows window) {
+		v.window = window;
+		v.firstIndexDisplayed = window.getFirstIndexDisplayed();
+		v.displayedSeparators = new Vector<EntrySeparator>();
+		v.displayedSeparators.add(startSeparator);
+		v.displayedSeparators.addAll(Arrays.asList(window.getSeparators()));
+		v.displayedSeparators.add(endSeparator);
+	}
+	
+	/**
+	 * Recalculates the bilancial index, starting from a given index in the range of the size of indexedData. All preceding bilancial 
+	 * data (taken from the bilancial index of the DataVector) will be reused. If index <= 0, the data is computed completely anew. If the
+	 * index is greater than the actual size of indexedData, nothing changes. Only the bilancial data for displayed elements is available in detail.
+	 * The bilancial data for all elements which come before is only available in sum in the start separator. The element data is taken from the data vector and the 
+	 * final bilancial index is copied into the DataVector. In windowed mode, the index always refers to the rows of the window, so it is also 
+	 * recreated, if the index is out of range.
 	 */
 	protected void recalculateBilancials(int index, DataVector v) {
-		if(index >= v.displayedData.size()) return;
-		if(index <  0) index = 0;
-		
-		Vector<BilancialMapping> newbilancials = new Vector<BilancialMapping>();
-		//Copy correct data
+		if(v.window != null) {
+			//Only a checkpoint for each page is kept
+			if(index <= 0 || v.bilancialIndex == null) {
+				v.bilancialIndex = new BilancialIndex(associatedJournal, v.window, v.firstIndexDisplayed, WindowedRows.pageSize);
+			}
+			else {
+				v.bilancialIndex = new BilancialIndex(v.bilancialIndex, v.window, v.firstIndexDisplayed, index);
+			}
+			return;
+		}
+		if(index >= v.indexedData.size()) return;
+		if(index <= 0 || v.bilancialIndex == null) {
+			v.bilancialIndex = new BilancialIndex(associatedJournal, v.indexedData, v.firstIndexDisplayed);
+		}
+		else {
+			v.bilancialIndex = new BilancialIndex(v.bilancialIndex, v.indexedData, v.firstIndexDisplayed, index);
+		}
+	}
+	
+	/**
+	 * Applies the changes described by the delta to a copy of the current data and recalculates the bilancials from the first row affected 
+	 * onwards. The positions of changed entries and separators are found by binary search in the sorted data. 
+	 * @return A DataVector containing the new data and the {@link TableModelEvent}s describing the changes or null, if the changes 
+	 * cannot be applied incrementally (e.g. if they change the first displayed entry). In that case, everything has to be recalculated.
+	 */
+	protected DataVector applyDelta(Delta delta) {
+		if(windowed) return applyWindowDelta(delta);
+		DataVector v = new DataVector();
 		synchronized (this) {
-			for(int i = 0; i < index; i++) {
-				newbilancials.add(bilancialData.get(i));
+			v.indexedData = new Vector<Object>(indexedData);
+			v.firstIndexDisplayed = firstIndexDisplayed;
+			v.bilancialIndex = bilancialIndex;
+		}
+		int oldRowCount = v.indexedData.size() - v.firstIndexDisplayed;
+		//We only work incrementally, if there is at least one displayed entry and the data is consistent
+		if(oldRowCount <= 0 || v.indexedData.get(v.firstIndexDisplayed) != startSeparator || 
+				!(v.indexedData.lastElement() == endSeparator) || lastEntryIndex(v) < 0) return null;
+		
+		//The smallest index in indexedData where something changed and the structural changes of the displayed rows
+		int minIndex = delta.bilancialsChanged? 0 : v.indexedData.size();
+		Vector<TableModelEvent> structuralEvents = new Vector<TableModelEvent>();
+		TableModelComparator comparator = new TableModelComparator();
+		
+		for(Entry e : delta.removedEntries) {
+			int index = removeEntry(v, e, comparator, structuralEvents);
+			if(index == Integer.MIN_VALUE) return null;
+			minIndex = Math.min(minIndex, index);
+		}
+		for(EntrySeparator s : delta.removedSeparators) {
+			int index = removeSeparator(v, s, comparator, structuralEvents);
+			minIndex = Math.min(minIndex, index);
+		}
+		for(Entry e : delta.addedEntries) {
+			int index = addEntry(v, e, comparator, structuralEvents);
+			if(index == Integer.MIN_VALUE) return null;
+			minIndex = Math.min(minIndex, index);
+		}
+		for(EntrySeparator s : delta.addedSeparators) {
+			int index = addSeparator(v, s, comparator, structuralEvents);
+			if(index == Integer.MIN_VALUE) return null;
+			minIndex = Math.min(minIndex, index);
+		}
+		if(!hasExpectedSeparators(v, comparator)) return null;
+		//If the set of accounts changed, the start bilancial changes
+		if(delta.addedEntries.size() > 0 || delta.removedEntries.size() > 0) {
+			if(!v.bilancialIndex.getAccounts().equals(associatedJournal.getListOfAccounts())) minIndex = 0;
+		}
+		
+		//Copy data and recalculate bilancials
+		v.displayedData = new Vector<Object>(v.indexedData.subList(v.firstIndexDisplayed, v.indexedData.size()));
+		v.displayedSeparators = new Vector<EntrySeparator>();
+		for(Object o : v.displayedData) {
+			if(o instanceof EntrySeparator) v.displayedSeparators.add((EntrySeparator)o);
+		}
+		recalculateBilancials(minIndex, v);
+		
+		//Create events: A single structural change can be reported as such, as well as a replacement of one row by another. 
+		//Everything else is reported as a change of the complete table
+		int rowCount = v.displayedData.size();
+		int firstChangedRow = Math.max(0, minIndex - v.firstIndexDisplayed);
+		v.events = new Vector<TableModelEvent>();
+		if(structuralEvents.size() == 1) {
+			v.events.add(structuralEvents.get(0));
+		}
+		else if(structuralEvents.size() > 1) {
+			if(rowCount != oldRowCount || structuralEvents.size() != 2) {
+				v.events = null;
+				return v;
 			}
 		}
+		if(firstChangedRow < rowCount) {
+			v.events.add(new TableModelEvent(this,firstChangedRow,rowCount-1,TableModelEvent.ALL_COLUMNS, TableModelEvent.UPDATE));
+		}
+		for(EntrySeparator s : delta.changedSeparators) {
+			int row = v.displayedData.indexOf(s);
+			if(row >= 0 && row < firstChangedRow) v.events.add(new TableModelEvent(this,row,row,TableModelEvent.ALL_COLUMNS,TableModelEvent.UPDATE));
+		}
+		return v;
+	}
+	
+	/**
+	 * Applies the changes described by the delta in windowed mode: The rows are only walked through again from the page containing the first row 
+	 * affected (see {@link WindowedRows#WindowedRows(WindowedRows, JournalIndex, BitSet, java.util.Collection, int, int)}) and the bilancials 
+	 * are recalculated from this row on. The changed rows are found by binary search in the old and the new rows. Changes of the hidden entries 
+	 * only cause a recalculation of all bilancials, as long as the first displayed entry stays the same.
+	 * @return A DataVector as in {@link #applyDelta(Delta)} or null, if the changes cannot be applied incrementally
+	 */
+	protected DataVector applyWindowDelta(Delta delta) {
+		DataVector v = new DataVector();
+		WindowedRows old;
+		synchronized (this) {
+			old = window;
+			v.firstIndexDisplayed = firstIndexDisplayed;
+			v.bilancialIndex = bilancialIndex;
+		}
+		int oldFirst = v.firstIndexDisplayed;
+		//We only work incrementally, if there is at least one displayed entry
+		if(old == null || old.size() - oldFirst <= 2) return null;
+		Object firstEntry = old.get(oldFirst + 1);
 		
-		//Derive last valid bilancial data
-		BilancialMapping lastMapping = new BilancialMapping();
-		Vector<EntrySeparator> precedingSeparators = new Vector<EntrySeparator>();
-		if(index == 0) {
-			BilancialInformation initInfo = new BilancialInformation(associatedJournal);
-			lastMapping.put(null, initInfo);
-			precedingSeparators.add(null);
+		//The first changed index and the end of the changed indices in the old rows, as well as the first changed position of the sorted entries
+		int from = old.size();
+		int oldEnd = 0;
+		int fromPosition = Integer.MAX_VALUE;
+		for(Entry e : delta.removedEntries) {
+			int index = old.indexOf(e);
+			if(index > oldFirst) {
+				from = Math.min(from, index);
+				oldEnd = Math.max(oldEnd, index + 1);
+			}
+			fromPosition = Math.min(fromPosition, old.getInsertionPosition(e));
 		}
-		else {
-			lastMapping= newbilancials.get(index -1);
-			precedingSeparators.addAll(lastMapping.keySet());
+		for(Entry e : delta.addedEntries) {
+			if(filter == null || filter.verifyEntry(e)) from = Math.min(from, old.getInsertionRow(e));
+			fromPosition = Math.min(fromPosition, old.getInsertionPosition(e));
+		}
+		for(EntrySeparator s : delta.removedSeparators) {
+			int index = old.indexOf(s);
+			if(index > oldFirst) {
+				from = Math.min(from, index);
+				oldEnd = Math.max(oldEnd, index + 1);
+			}
+		}
+		//If the last entry is removed, the separators before it are hidden as well
+		if(delta.removedEntries.size() > 0) {
+			while(from < old.size() && from - 1 > oldFirst + 1 && old.get(from - 1) instanceof EntrySeparator) from--;
 		}
 		
-		//Calculate new bilancial
-		for(int i = index; i < v.indexedData.size(); i++) {
-			Object o = v.indexedData.get(i);
-			BilancialMapping nextMapping = lastMapping.clone();
-			//If this is the first displayed element, add the StartSeparator
-			if(i == v.firstIndexDisplayed) {
-				precedingSeparators.add(startSeparator);
+		//Create the new rows. Separators are only added rarely, so the rows are walked through completely in this case 
+		WindowedRows rows = old;
+		if(delta.addedEntries.size() > 0 || delta.removedEntries.size() > 0 || 
+				delta.addedSeparators.size() > 0 || delta.removedSeparators.size() > 0) {
+			JournalIndex index = associatedJournal.getIndex();
+			BitSet admitted = filter == null? null : FilterResultCache.getInstance(associatedJournal).getAdmittedIDs(filter, index);
+			if(delta.addedSeparators.size() > 0 || fromPosition <= oldFirst || from <= oldFirst + 1) {
+				rows = new WindowedRows(index, admitted, getAvailableSeparators(), startSeparator, endSeparator);
+			}
+			else {
+				rows = new WindowedRows(old, index, admitted, getAvailableSeparators(), from, fromPosition);
 			}
-			//If it is a reading point, just copy the last bilancial info and add it to the separator list
-			//But if we are not yet at the displayed elements, we don't add the separator
-			if(o instanceof EntrySeparator && i > v.firstIndexDisplayed) {
-				precedingSeparators.add((EntrySeparator)o);
+		}
+		int newFirst = rows.getFirstIndexDisplayed();
+		if(rows.size() - newFirst <= 2 || rows.get(newFirst + 1) != firstEntry) return null;
+		
+		//Find the changed rows (relative to the start separator): [first, oldEnd) in the old rows were replaced by [first, newEnd)
+		int oldRowCount = old.size() - oldFirst;
+		int rowCount = rows.size() - newFirst;
+		int first = from - oldFirst;
+		int newEnd = 0;
+		Vector<Object> added = new Vector<Object>(delta.addedEntries);
+		added.addAll(delta.addedSeparators);
+		for(Object o : added) {
+			int index = rows.indexOf(o);
+			if(index > newFirst) {
+				first = Math.min(first, index - newFirst);
+				newEnd = Math.max(newEnd, index - newFirst + 1);
 			}
-			//If it is an entry, add values
-			if(o instanceof Entry) {
-				for(EntrySeparator s : precedingSeparators) {
-					BilancialInformation info = lastMapping.get(s);
-					//If there is not yet a mapping, create one 
-					if(info == null) {
-						info = new BilancialInformation(lastMapping.getMostRecent().information());
-					}
-					info = info.increment((Entry)o);
-					nextMapping.put(s, info);
-				}
+		}
+		oldEnd = Math.max(Math.max(oldEnd - oldFirst, first), newEnd - (rowCount - oldRowCount));
+		newEnd = oldEnd + rowCount - oldRowCount;
+		if(first > oldRowCount || oldEnd > oldRowCount || newEnd < first || newEnd > rowCount) return null;
+		//The rows around the changed rows have to be the same
+		if(first > 0 && old.get(oldFirst + first - 1) != rows.get(newFirst + first - 1)) return null;
+		if(oldEnd < oldRowCount && old.get(oldFirst + oldEnd) != rows.get(newFirst + newEnd)) return null;
+		
+		//Recalculate bilancials. If the hidden entries, the start values or the set of accounts changed, the start bilancial changes
+		setWindow(v, rows);
+		int minIndex = newFirst + first;
+		if(delta.bilancialsChanged || newFirst != oldFirst) minIndex = 0;
+		if(delta.addedEntries.size() > 0 || delta.removedEntries.size() > 0) {
+			if(!v.bilancialIndex.getAccounts().equals(associatedJournal.getListOfAccounts())) minIndex = 0;
+		}
+		recalculateBilancials(minIndex, v);
+		
+		//Create events: The changed rows are reported as inserted or removed at their end and all rows from the first changed row are updated
+		int firstChangedRow = Math.min(first, minIndex - newFirst);
+		v.events = new Vector<TableModelEvent>();
+		if(newEnd > oldEnd) {
+			v.events.add(new TableModelEvent(this, oldEnd, newEnd - 1, TableModelEvent.ALL_COLUMNS, TableModelEvent.INSERT));
+		}
+		if(newEnd < oldEnd) {
+			v.events.add(new TableModelEvent(this, newEnd, oldEnd - 1, TableModelEvent.ALL_COLUMNS, TableModelEvent.DELETE));
+		}
+		firstChangedRow = Math.max(0, firstChangedRow);
+		if(firstChangedRow < rowCount) {
+			v.events.add(new TableModelEvent(this, firstChangedRow, rowCount - 1, TableModelEvent.ALL_COLUMNS, TableModelEvent.UPDATE));
+		}
+		for(EntrySeparator s : delta.changedSeparators) {
+			int row = rows.indexOf(s) - newFirst;
+			if(row >= 0 && row < firstChangedRow) v.events.add(new TableModelEvent(this, row, row, TableModelEvent.ALL_COLUMNS, TableModelEvent.UPDATE));
+		}
+		return v;
+	}
+	
+	/**
+	 * Inserts e into the data, if it is displayed or hidden before the first displayed entry.
+	 * @return The index at which it was inserted (or the size of the data, if it is not inserted) or Integer.MIN_VALUE, 
+	 * if it cannot be inserted incrementally
+	 */
+	private int addEntry(DataVector v, Entry e, TableModelComparator comparator, Vector<TableModelEvent> events) {
+		int first = v.firstIndexDisplayed;
+		int lastEntry = lastEntryIndex(v);
+		boolean accepted = filter == null || filter.verifyEntry(e);
+		if(comparator.compare(e, v.indexedData.get(first+1)) < 0) {
+			//A new first displayed entry changes the set of hidden elements
+			if(accepted) return Integer.MIN_VALUE;
+			int index = insertionPoint(binarySearch(v.indexedData, 0, first, e, comparator));
+			v.indexedData.add(index, e);
+			v.firstIndexDisplayed++;
+			return index;
+		}
+		//Entries which are filtered out after the first displayed entry are not contained in the data
+		if(!accepted) return v.indexedData.size();
+		int index = insertionPoint(binarySearch(v.indexedData, first+1, v.indexedData.size(), e, comparator));
+		if(index <= lastEntry) {
+			v.indexedData.add(index, e);
+			events.add(new TableModelEvent(this,index - first,index - first,TableModelEvent.ALL_COLUMNS,TableModelEvent.INSERT));
+			return index;
+		}
+		//If it is the new last entry, all separators between the old last entry and e become visible
+		TreeSet<EntrySeparator> separators = new TreeSet<EntrySeparator>(comparator);
+		Object lastEntryObject = v.indexedData.get(lastEntry);
+		for(EntrySeparator s : getAvailableSeparators()) {
+			if(comparator.compare(lastEntryObject, s) < 0 && comparator.compare(s, e) < 0) separators.add(s);
+		}
+		Vector<Object> inserted = new Vector<Object>(separators);
+		inserted.add(e);
+		v.indexedData.addAll(index, inserted);
+		events.add(new TableModelEvent(this,index - first, index - first + inserted.size() - 1,TableModelEvent.ALL_COLUMNS, TableModelEvent.INSERT));
+		return index;
+	}
+	
+	/**
+	 * Removes e from the data.
+	 * @return The index at which it was removed (or the size of the data, if it is not contained) or Integer.MIN_VALUE, if it cannot be removed
+	 * incrementally.
+	 */
+	private int removeEntry(DataVector v, Entry e, TableModelComparator comparator, Vector<TableModelEvent> events) {
+		int first = v.firstIndexDisplayed;
+		int lastEntry = lastEntryIndex(v);
+		boolean accepted = filter == null || filter.verifyEntry(e);
+		if(comparator.compare(e, v.indexedData.get(first+1)) < 0) {
+			int index = binarySearch(v.indexedData, 0, first, e, comparator);
+			if(index < 0) return Integer.MIN_VALUE;
+			v.indexedData.remove(index);
+			v.firstIndexDisplayed--;
+			return index;
+		}
+		int index = binarySearch(v.indexedData, first + 1, v.indexedData.size(), e, comparator);
+		if(index < 0) return accepted? Integer.MIN_VALUE : v.indexedData.size();
+		//Removing the first displayed entry changes the set of hidden elements
+		if(index == first + 1) return Integer.MIN_VALUE;
+		if(index < lastEntry) {
+			v.indexedData.remove(index);
+			events.add(new TableModelEvent(this,index - first, index - first, TableModelEvent.ALL_COLUMNS, TableModelEvent.DELETE));
+			return index;
+		}
+		//If it is the last entry, all separators between the preceding entry and e are hidden
+		int start = index - 1;
+		while(!(v.indexedData.get(start) instanceof Entry)) start--;
+		start++;
+		v.indexedData.subList(start, index + 1).clear();
+		events.add(new TableModelEvent(this, start - first, index - first, TableModelEvent.ALL_COLUMNS, TableModelEvent.DELETE));
+		return start;
+	}
+	
+	/**
+	 * Inserts s into the data, if it lies between the first and the last displayed entry.
+	 * @return The index at which it was inserted (or the size of the data, if it is not inserted) or Integer.MIN_VALUE, if 
+	 * it cannot be inserted incrementally (because there is a separator which is considered equal)
+	 */
+	private int addSeparator(DataVector v, EntrySeparator s, TableModelComparator comparator, Vector<TableModelEvent> events) {
+		int first = v.firstIndexDisplayed;
+		int index = binarySearch(v.indexedData, first+1, v.indexedData.size(), s, comparator);
+		if(index >= 0) return Integer.MIN_VALUE;
+		index = insertionPoint(index);
+		if(index <= first + 1 || index > lastEntryIndex(v)) return v.indexedData.size();
+		v.indexedData.add(index,s);
+		events.add(new TableModelEvent(this,index - first,index - first,TableModelEvent.ALL_COLUMNS,TableModelEvent.INSERT));
+		return index;
+	}
+	
+	/**
+	 * Removes s from the data. Since separators might have changed their date, s is searched linearly.
+	 * @return The index at which it was removed or the size of the data, if it is not contained
+	 */
+	private int removeSeparator(DataVector v, EntrySeparator s, TableModelComparator comparator, Vector<TableModelEvent> events) {
+		int index = v.indexedData.indexOf(s, v.firstIndexDisplayed + 1);
+		if(index < 0) return v.indexedData.size();
+		v.indexedData.remove(index);
+		events.add(new TableModelEvent(this,index - v.firstIndexDisplayed, index - v.firstIndexDisplayed, TableModelEvent.ALL_COLUMNS, TableModelEvent.DELETE));
+		return index;
+	}
+	
+	/**
+	 * @return Whether the displayed separators in the data are exactly the available separators lying between the first and the last 
+	 * displayed entry (separators considered equal by the comparator are only displayed once). This is used as a consistency check 
+	 * for incremental changes. 
+	 */
+	private boolean hasExpectedSeparators(DataVector v, TableModelComparator comparator) {
+		int lastEntry = lastEntryIndex(v);
+		if(lastEntry < 0) return false;
+		Object firstEntryObject = v.indexedData.get(v.firstIndexDisplayed + 1);
+		Object lastEntryObject = v.indexedData.get(lastEntry);
+		TreeSet<EntrySeparator> expected = new TreeSet<EntrySeparator>(comparator);
+		for(EntrySeparator s : getAvailableSeparators()) {
+			if(comparator.compare(firstEntryObject, s) < 0 && comparator.compare(s, lastEntryObject) < 0) expected.add(s);
+		}
+		int displayed = 0;
+		for(int i = v.firstIndexDisplayed + 1; i < lastEntry; i++) {
+			Object o = v.indexedData.get(i);
+			if(o instanceof EntrySeparator) {
+				if(!expected.contains(o)) return false;
+				displayed++;
 			}
-			newbilancials.add(nextMapping);
-			lastMapping = nextMapping;
 		}
-		v.bilancialData = newbilancials;
+		return displayed == expected.size();
+	}
+	
+	/**
+	 * @return All reading points and year separators which are displayed in this model, if they lie in the displayed range
+	 */
+	private Vector<EntrySeparator> getAvailableSeparators() {
+		Vector<EntrySeparator> separators = new Vector<EntrySeparator>();
+		if(displayReadingPoints) separators.addAll(associatedJournal.getReadingPoints());
+		if(displayYearSeparators) separators.addAll(YearSeparators.getInstance(associatedJournal).getNecessarySeparators());
+		return separators;
+	}
+	
+	/**
+	 * @return The index of the last displayed entry in the data or -1, if there is none.
+	 */
+	private int lastEntryIndex(DataVector v) {
+		for(int i = v.indexedData.size() - 1; i > v.firstIndexDisplayed; i--) {
+			if(v.indexedData.get(i) instanceof Entry) return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Performs a binary search for o in the sorted range [from, to) of the given list
+	 * @return The index of o, if it is found, (-(insertion point) - 1) otherwise
+	 */
+	private static int binarySearch(Vector<Object> list, int from, int to, Object o, TableModelComparator comparator) {
+		int low = from;
+		int high = to - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = comparator.compare(list.get(mid), o);
+			if(c < 0) low = mid + 1;
+			else if(c > 0) high = mid - 1;
+			else return mid;
+		}
+		return -(low + 1);
+	}
+	
+	/**
+	 * @return The insertion point encoded in the result of {@link #binarySearch(Vector, int, int, Object, TableModelComparator)}
+	 */
+	private static int insertionPoint(int searchResult) {
+		return searchResult < 0? -(searchResult + 1) : searchResult;
 	}
 	
 	// CHANGELISTENER **********************************************
@@ -445,12 +920,18 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 	
 	@Override
 	public void separatorAdded(Journal source, ReadingPoint yearSeparator) {
-		doRecalculation();
+		if(!displayYearSeparators) return;
+		Delta delta = new Delta();
+		delta.addedSeparators.add(yearSeparator);
+		doRecalculation(delta);
 	}
 
 	@Override
 	public void separatorRemoved(Journal source, ReadingPoint yearSeparator) {
-		doRecalculation();
+		if(!displayYearSeparators) return;
+		Delta delta = new Delta();
+		delta.removedSeparators.add(yearSeparator);
+		doRecalculation(delta);
 	}
 
 	// LISTENER MECHANISM ***********************************************
@@ -496,17 +977,24 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 
 	@Override
 	public void entriesAdded(Journal source, Entry[] newEntries) {
-		doRecalculation();
+		Delta delta = new Delta();
+		delta.addedEntries.addAll(Arrays.asList(newEntries));
+		doRecalculation(delta);
 	}
 
 	@Override
 	public void entriesRemoved(Journal source, Entry[] oldEntries) {
-		doRecalculation();
+		Delta delta = new Delta();
+		delta.removedEntries.addAll(Arrays.asList(oldEntries));
+		doRecalculation(delta);
 	}
 
 	@Override
 	public void entryReplaced(Journal source, Entry oldEntry, Entry newEntry) {
-		doRecalculation();
+		Delta delta = new Delta();
+		delta.removedEntries.add(oldEntry);
+		delta.addedEntries.add(newEntry);
+		doRecalculation(delta);
 	}
 
 	@Override
@@ -516,42 +1004,77 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 
 	@Override
 	public void readingPointAdded(Journal source, ReadingPoint point) {
-		doRecalculation();
+		if(!displayReadingPoints) return;
+		Delta delta = new Delta();
+		delta.addedSeparators.add(point);
+		doRecalculation(delta);
 	}
 
 	@Override
 	public void readingPointRemoved(Journal source, ReadingPoint point) {
-		doRecalculation();
+		if(!displayReadingPoints) return;
+		Delta delta = new Delta();
+		delta.removedSeparators.add(point);
+		doRecalculation(delta);
 	}
 
 	@Override
 	public void startValueChanged(Journal source, Account a, Float oldValue,
 			Float newValue) {
-		doRecalculation();
+		Delta delta = new Delta();
+		delta.bilancialsChanged = true;
+		doRecalculation(delta);
 	}
 
 	@Override
 	public void dateChanged(ReadingPoint source) {
-		doRecalculation();
+		if(!displayReadingPoints) return;
+		Delta delta = new Delta();
+		delta.removedSeparators.add(source);
+		delta.addedSeparators.add(source);
+		doRecalculation(delta);
 	}
 
 	@Override
 	public void nameChanged(ReadingPoint source) {
-		doRecalculation();
+		if(!displayReadingPoints) return;
+		Delta delta = new Delta();
+		delta.changedSeparators.add(source);
+		doRecalculation(delta);
 	}
 	
 	// RECALCULATOR CLASS *******************************************************
 	// *************************************************************************
 
 	/**
-	 * Recalculates all entries and their bilancials. Originally this class was intended to do this in a faster way, depending on the changes made, but
-	 * the recalculation is still so quick that it did eventually seem a bit too much effort. Its background method does not return anything, it
-	 * just calls the corresponding calculation methods of the {@link JournalTableModel}
+	 * Recalculates all entries and their bilancials. If it is given a {@link Delta}, it tries to apply only these changes to the current data
+	 * and reports them by fine-grained {@link TableModelEvent}s. If this is not possible, it recalculates everything.
+	 * Its background method does not return anything, it just calls the corresponding calculation methods of the {@link JournalTableModel}
 	 */
 	protected class Recalculator extends SwingWorker<Object, Object> {
 		
+		//The changes to apply or null, if everything should be recalculated
+		private Delta delta;
+		//Whether the data of this instance has been copied to the model
+		private volatile boolean finished = false;
+		
+		public Recalculator(Delta delta) {
+			this.delta = delta;
+		}
+		
+		/**
+		 * @return Whether this instance has terminated and copied its data (if it wasn't cancelled)
+		 */
+		public boolean isFinished() {
+			return finished;
+		}
+		
 		@Override
 		protected Object doInBackground() throws Exception {
+			if(delta != null) {
+				DataVector v = applyDelta(delta);
+				if(v != null) return v;
+			}
 			DataVector v = new DataVector();
 			recalculateLists(v);
 			recalculateBilancials(0,v);
@@ -560,22 +1083,32 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 
 		@Override
 		protected void done() {
+			Vector<TableModelEvent> events = null;
 			if(!isCancelled()) {
 				DataVector v;
 				try {
 					v = (DataVector)get();
-					//indexedData = v.indexedData;
-					displayedData = v.displayedData;
-					firstIndexDisplayed = v.firstIndexDisplayed;
-					displayedSeparators = v.displayedSeparators;
-					bilancialData = v.bilancialData;
+					synchronized (JournalTableModel.this) {
+						indexedData = v.indexedData;
+						displayedData = v.displayedData;
+						window = v.window;
+						firstIndexDisplayed = v.firstIndexDisplayed;
+						displayedSeparators = v.displayedSeparators;
+						bilancialIndex = v.bilancialIndex;
+						version++;
+					}
+					events = v.events;
 					logger.trace(Fsfibu2StringTableMgr.getString(sgroup + ".logrecalculate"));
 				} catch (Exception e) {
 					//Ignore
 				}
 			}
+			finished = true;
 			fireTaskFinished(this);
-			fireTableChanged(new TableModelEvent(JournalTableModel.this));
+			//A cancelled instance didn't change anything
+			if(isCancelled()) return;
+			if(events == null) fireTableChanged(new TableModelEvent(JournalTableModel.this));
+			else for(TableModelEvent e : events) fireTableChanged(e);
 		}	
 	}
 	
@@ -585,7 +1118,36 @@ public class JournalTableModel implements TableModel, JournalListener, YearSepar
 		public Vector<Object> displayedData = new Vector<Object>();
 		public int firstIndexDisplayed = 0;
 		public Vector<EntrySeparator> displayedSeparators = new Vector<EntrySeparator>();
-		public Vector<BilancialMapping> bilancialData = new Vector<BilancialMapping>();		
+		public BilancialIndex bilancialIndex = null;
+		//The rows in windowed mode. Then indexedData and displayedData are empty
+		public WindowedRows window = null;
+		//The events describing the changes or null, if the complete table changed
+		public Vector<TableModelEvent> events = null;
+	}
+	
+	//Maps the elements of a list of displayed data to their rows. Since no element overrides equals, elements are mapped by identity
+	private static class RowIndex {
+		public final Vector<Object> data;
+		public final IdentityHashMap<Object, Integer> rows;
+		
+		public RowIndex(Vector<Object> data) {
+			this.data = data;
+			rows = new IdentityHashMap<Object, Integer>(data.size());
+			//Go backwards, so that the first occurrence wins (as in Vector.indexOf)
+			for(int i = data.size() - 1; i >= 0; i--) rows.put(data.get(i), i);
+		}
+	}
+	
+	//Describes changes of the journal, which can be applied incrementally by a Recalculator
+	protected class Delta {
+		public Vector<Entry> addedEntries = new Vector<Entry>();
+		public Vector<Entry> removedEntries = new Vector<Entry>();
+		public Vector<EntrySeparator> addedSeparators = new Vector<EntrySeparator>();
+		public Vector<EntrySeparator> removedSeparators = new Vector<EntrySeparator>();
+		//Separators which changed only their name
+		public Vector<EntrySeparator> changedSeparators = new Vector<EntrySeparator>();
+		//Whether all bilancials have to be recalculated (e.g. if a start value changed)
+		public boolean bilancialsChanged = false;
 	}
 	
 }
@@ -1,34 +1,45 @@
 package fs.fibu2.view.model;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.TreeSet;
+import java.util.List;
+import java.util.Vector;
 
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
 import org.jfree.data.time.Day;
-import org.jfree.data.time.MovingAverage;
 import org.jfree.data.time.TimeSeries;
 import org.jfree.data.time.TimeSeriesCollection;
 
+import fs.fibu2.data.ParallelCalculation;
 import fs.fibu2.data.event.JournalListener;
-import fs.fibu2.data.format.EntryComparator;
-import fs.fibu2.data.format.EntryDateComparator;
-import fs.fibu2.data.format.MoneyDecimal;
+import fs.fibu2.data.format.EpochDay;
+import fs.fibu2.data.format.MoneyCents;
 import fs.fibu2.data.model.Account;
 import fs.fibu2.data.model.Entry;
 import fs.fibu2.data.model.Journal;
+import fs.fibu2.data.model.JournalIndex;
 import fs.fibu2.data.model.ReadingPoint;
+import fs.fibu2.filter.FilterResultCache;
 import fs.fibu2.filter.StackFilter;
 import fs.fibu2.lang.Fsfibu2StringTableMgr;
 import fs.fibu2.view.event.ProgressListener;
 
 /**
  * This class implements a time series collection for an fsfibu 2 {@link Journal}. The collection contains a bilancial time series
- * for all entries admitted by a certain filter and optionally a moving average.
+ * for all entries admitted by a certain filter and optionally a moving average. Added, removed or replaced entries are applied incrementally
+ * to the daily bilancials, so only the values from the first changed day on are updated (see {@link #applyIncrementally(Entry[], Entry[])}). <br>
+ * The series don't contain a value for each day with entries, but only as many as necessary to draw the visible range of days 
+ * (see {@link #setVisibleRange(Date, Date)}): If there are too many days in this range, only the first and last day and the days with minimal 
+ * and maximal value of each week, month or year are displayed. 
  * @author Simon Hampe
  *
  */
@@ -42,9 +53,23 @@ public class JournalTimeSeriesCollection extends TimeSeriesCollection implements
 	 */
 	private static final long serialVersionUID = 6169851143672341898L;
 	
+	//The displayed series
 	private TimeSeries averageData;
 	private TimeSeries entryData;
 	
+	//The daily bilancials from which the series are built and their aggregates by weeks, months and years
+	private DailyBilancials daily;
+	private DetailLevels entryLevels;
+	private DetailLevels averageLevels;
+	
+	//The visible range of days and the maximal number of periods displayed in it
+	private int visibleFrom = Integer.MIN_VALUE;
+	private int visibleTo = Integer.MAX_VALUE;
+	private int maxPeriods = 250;
+	
+	//The days contained in the displayed series (by epoch day), which are reused when refilling the series
+	private HashMap<Integer, Day> displayedDays = new HashMap<Integer, Day>();
+	
 	private int avgPeriod;
 	
 	private boolean displayAvg;
@@ -59,6 +84,9 @@ public class JournalTimeSeriesCollection extends TimeSeriesCollection implements
 	
 	private Recalculator runningInstance = null;
 	
+	//Journal changes with more entries than this are not applied incrementally, but by recalculating the data
+	private static final int incrementalLimit = 256;
+	
 	// CONSTRUCTOR *********************************
 	// *********************************************
 
@@ -79,8 +107,12 @@ public class JournalTimeSeriesCollection extends TimeSeriesCollection implements
 		if(filter != null) filter.addChangeListener(this);
 		
 		DataVector v = recalculateData();
-		entryData = v.dataSeries;
-		averageData = v.avgSeries;
+		daily = v.daily;
+		entryLevels = v.entryLevels;
+		averageLevels = v.averageLevels;
+		entryData = new TimeSeries(Fsfibu2StringTableMgr.getString(sgroup + ".data"), Day.class);
+		averageData = new TimeSeries(Fsfibu2StringTableMgr.getString(sgroup + ".average",avgPeriod), Day.class);
+		refreshSeries();
 		addSeries(entryData);
 		if(displayAverage) {
 			addSeries(averageData);
@@ -93,42 +125,121 @@ public class JournalTimeSeriesCollection extends TimeSeriesCollection implements
 	private DataVector recalculateData() {
 		DataVector v = new DataVector();
 		
-		TimeSeries data = new TimeSeries(Fsfibu2StringTableMgr.getString(sgroup + ".data"), Day.class);
-		TreeSet<Entry> sortedSet = new TreeSet<Entry>(new EntryComparator(false));
-		sortedSet.addAll(associatedJournal.getEntries());
+		JournalIndex index = associatedJournal.getIndex();
+		final List<Entry> sortedSet = index.getSortedEntries();
+		final int[] sortedIDs = index.getSortedIDs();
+		final BitSet admitted = filter == null? null : FilterResultCache.getInstance(associatedJournal).getAdmittedIDs(filter, index);
 		
-		if(sortedSet.size() != 0) {
-			EntryDateComparator comparator = new EntryDateComparator();
-			GregorianCalendar currentDay = sortedSet.first().getDate();
-			boolean validEntryOccured = false;
-			BigDecimal currentValue = MoneyDecimal.bigd(0);
-			
-			for(Entry e : sortedSet) {
-				BigDecimal evalue = MoneyDecimal.bigd(e.getValue());
-				if(filter == null || filter.verifyEntry(e)) {
-					//If the entry belongs to the same day, add its value
-					if(comparator.compare(e.getDate(), currentDay) == 0) {
-						currentValue = MoneyDecimal.add(currentValue, evalue);
+		//Sum up the admitted entries of each day in chunks (see ParallelCalculation). Each chunk yields a list of triples (epoch day, sum of that day,
+		//number of entries of that day) in ascending order. When merging two chunks, the sums of a day spanning both chunks are joined
+		Vector<long[]> daySums = new ParallelCalculation.Reduction<Vector<long[]>>() {
+			@Override
+			protected Vector<long[]> reduce(int from, int to) {
+				Vector<long[]> chunkSums = new Vector<long[]>();
+				long[] current = null;
+				for(int i = from; i < to; i++) {
+					if((i & 4095) == 0) checkpoint();
+					if(admitted == null || admitted.get(sortedIDs[i])) {
+						Entry e = sortedSet.get(i);
+						if(current == null || current[0] != e.getEpochDay()) {
+							current = new long[]{e.getEpochDay(), MoneyCents.zero, 0};
+							chunkSums.add(current);
+						}
+						current[1] = MoneyCents.add(current[1], e.getCents());
+						current[2]++;
 					}
-					//Otherwise add a time series value (if this is NOT the first entry, which might occur when using  a filter)
-					else {
-						if(validEntryOccured)data.add(new Day(currentDay.getTime()), currentValue);
-						currentDay = e.getDate();
-						currentValue = MoneyDecimal.add(currentValue, evalue);					
-					}
-					validEntryOccured = true;
 				}
+				return chunkSums;
+			}
+			@Override
+			protected Vector<long[]> merge(Vector<long[]> left, Vector<long[]> right) {
+				if(left.size() > 0 && right.size() > 0 && left.lastElement()[0] == right.firstElement()[0]) {
+					long[] first = right.remove(0);
+					left.lastElement()[1] = MoneyCents.add(left.lastElement()[1], first[1]);
+					left.lastElement()[2] += first[2];
+				}
+				left.addAll(right);
+				return left;
 			}
-			//A last chunk of entries is left after the last entry was processed - but only if any valid entry occured
-			if(validEntryOccured) data.add(new Day(currentDay.getTime()),currentValue);
+		}.compute(sortedSet.size());
+		RecalculationScheduler.checkpoint();
+		
+		//The value of each day is the sum over all admitted entries up to this day
+		DailyBilancials bilancials = new DailyBilancials(daySums.size());
+		for(long[] daySum : daySums) {
+			bilancials.append((int)daySum[0], daySum[1], (int)daySum[2]);
 		}
+		updateAverages(bilancials, avgPeriod, 0, bilancials.size - 1);
 		
-		TimeSeries avg = MovingAverage.createMovingAverage(data, Fsfibu2StringTableMgr.getString(sgroup + ".average",avgPeriod), avgPeriod, 0);
-		v.dataSeries = data;
-		v.avgSeries = avg;
+		v.daily = bilancials;
+		v.entryLevels = new DetailLevels(false);
+		v.entryLevels.update(bilancials, 0);
+		v.averageLevels = new DetailLevels(true);
+		v.averageLevels.update(bilancials, 0);
 		return v;
 	}
 	
+	/**
+	 * Computes the moving average of the given bilancials for the days with indices from, ..., to: The value of each day is the average over 
+	 * the values of all days with entries in the last period days (including the day itself), as in {@link org.jfree.data.time.MovingAverage}. 
+	 * The window of days is moved along the days, so this takes linear time independently of the period.
+	 */
+	private static void updateAverages(DailyBilancials bilancials, int period, int from, int to) {
+		if(from > to) return;
+		int first = from;
+		long windowSum = bilancials.cumulative[from];
+		while(first > 0 && bilancials.days[first - 1] > bilancials.days[from] - period) windowSum += bilancials.cumulative[--first];
+		for(int i = from; i <= to; i++) {
+			if(i > from) {
+				windowSum += bilancials.cumulative[i];
+				while(bilancials.days[first] <= bilancials.days[i] - period) windowSum -= bilancials.cumulative[first++];
+			}
+			bilancials.averages[i] = windowSum / 100.0 / (i - first + 1);
+		}
+	}
+	
+	/**
+	 * Refills both series with the days to display for the current visible range. Each series fires one change event.
+	 */
+	private void refreshSeries() {
+		HashMap<Integer, Day> newDays = new HashMap<Integer, Day>();
+		BitSet entryDays = entryLevels.getDisplayedIndices(daily, visibleFrom, visibleTo, maxPeriods);
+		entryData.setNotify(false);
+		entryData.clear();
+		for(int i = entryDays.nextSetBit(0); i >= 0; i = entryDays.nextSetBit(i + 1)) {
+			entryData.add(getDisplayedDay(daily.days[i], newDays), MoneyCents.toBigDecimal(daily.cumulative[i]));
+		}
+		entryData.setNotify(true);
+		BitSet averageDays = averageLevels.getDisplayedIndices(daily, visibleFrom, visibleTo, maxPeriods);
+		averageData.setNotify(false);
+		averageData.clear();
+		for(int i = averageDays.nextSetBit(0); i >= 0; i = averageDays.nextSetBit(i + 1)) {
+			averageData.add(getDisplayedDay(daily.days[i], newDays), daily.averages[i]);
+		}
+		averageData.setNotify(true);
+		displayedDays = newDays;
+	}
+	
+	/**
+	 * @return The jfreechart day corresponding to the given epoch day. If it has been displayed before, the same object is returned (creating a 
+	 * day is comparatively expensive). The day is added to newDays
+	 */
+	private Day getDisplayedDay(int epochDay, HashMap<Integer, Day> newDays) {
+		Day day = displayedDays.get(epochDay);
+		if(day == null) day = newDays.get(epochDay);
+		if(day == null) day = toDay(epochDay);
+		newDays.put(epochDay, day);
+		return day;
+	}
+	
+	/**
+	 * @return The jfreechart day corresponding to the given epoch day
+	 */
+	private static Day toDay(int epochDay) {
+		int ymd = EpochDay.toYearMonthDay(epochDay);
+		return new Day(ymd % 100, (ymd / 100) % 100, ymd / 10000);
+	}
+	
 	/**
 	 * @return An instance of Recalculator. Cancels a running instance, if it exists 
 	 */
@@ -147,7 +258,7 @@ public class JournalTimeSeriesCollection extends TimeSeriesCollection implements
 	private void doRecalculation() {
 		Recalculator c = getRecalculatorInstance();
 		fireTaskBegins(c);
-		c.execute();
+		RecalculationScheduler.getInstance(associatedJournal).schedule(this, c);
 	}
 	
 	/**
@@ -167,9 +278,10 @@ public class JournalTimeSeriesCollection extends TimeSeriesCollection implements
 	 */
 	public void setMovingAveragePeriod(int days) {
 		avgPeriod = days >= 1? days : 1;
-		if(displayAvg) removeSeries(averageData);
-		averageData = MovingAverage.createMovingAverage(entryData, Fsfibu2StringTableMgr.getString(sgroup + ".average",avgPeriod), avgPeriod, 0);
-		if(displayAvg) addSeries(averageData);
+		updateAverages(daily, avgPeriod, 0, daily.size - 1);
+		averageLevels.update(daily, 0);
+		averageData.setKey(Fsfibu2StringTableMgr.getString(sgroup + ".average",avgPeriod));
+		refreshSeries();
 	}
 	
 	/**
@@ -186,6 +298,132 @@ public class JournalTimeSeriesCollection extends TimeSeriesCollection implements
 		return displayAvg;
 	}
 	
+	/**
+	 * Sets the range of days which is visible in the chart. Within this range (and for one more day on each side) the series contain a value 
+	 * for each day with entries, as long as these are at most as many as the maximal number of periods. Otherwise they only contain 
+	 * the first and last day and the days with minimal and maximal value of each week, month or year (the finest of these, for which the number
+	 * of periods doesn't exceed the maximum). Outside the visible range the same is done for each year, so the series always 
+	 * have the same bounds as if they contained all days.
+	 * @param from The first visible day. If null, all days before to are visible
+	 * @param to The last visible day. If null, all days after from are visible
+	 */
+	public void setVisibleRange(Date from, Date to) {
+		int fromDay = from == null? Integer.MIN_VALUE : toEpochDay(from);
+		int toDay = to == null? Integer.MAX_VALUE : toEpochDay(to);
+		if(fromDay == visibleFrom && toDay == visibleTo) return;
+		visibleFrom = fromDay;
+		visibleTo = toDay;
+		refreshSeries();
+	}
+	
+	/**
+	 * Sets the maximal number of periods (days, weeks, months or years) displayed in the visible range (see {@link #setVisibleRange(Date, Date)}).
+	 * The default is 250, so months are displayed for a range of 20 years.
+	 * @param count The maximal number. If < 1, the value is set to 1
+	 */
+	public void setMaximumPeriodCount(int count) {
+		maxPeriods = count >= 1? count : 1;
+		refreshSeries();
+	}
+	
+	/**
+	 * @return The maximal number of periods (days, weeks, months or years) displayed in the visible range
+	 */
+	public int getMaximumPeriodCount() {
+		return maxPeriods;
+	}
+	
+	/**
+	 * @return The epoch day of the given date in the default time zone
+	 */
+	private static int toEpochDay(Date date) {
+		GregorianCalendar c = new GregorianCalendar();
+		c.setTime(date);
+		return EpochDay.valueOf(c);
+	}
+	
+	// INCREMENTAL UPDATES *************************
+	// *********************************************
+	
+	/**
+	 * Applies the given changes to the daily bilancials and updates the series: The values are recomputed from the first changed day on (as long as
+	 * they change) and the moving average for all days whose period contains a changed value. Each series fires one change event.
+	 * This is only done in the event dispatch thread when no recalculation is running (otherwise the data might be replaced by the running
+	 * recalculation).
+	 * @return Whether the changes were applied. If false, the data has to be recalculated (it might have been modified partially)
+	 */
+	protected boolean applyIncrementally(Entry[] added, Entry[] removed) {
+		if(!SwingUtilities.isEventDispatchThread() || runningInstance != null) return false;
+		if(added.length + removed.length > incrementalLimit) return false;
+		Vector<Entry> admittedAdded = getAdmitted(added);
+		Vector<Entry> admittedRemoved = getAdmitted(removed);
+		if(admittedAdded.size() == 0 && admittedRemoved.size() == 0) return true;
+		
+		int minDay = Integer.MAX_VALUE;
+		int maxDay = Integer.MIN_VALUE;
+		for(Entry e : admittedRemoved) {
+			if(!changeDay(e.getEpochDay(), -e.getCents(), -1)) return false;
+			minDay = Math.min(minDay, e.getEpochDay());
+			maxDay = Math.max(maxDay, e.getEpochDay());
+		}
+		for(Entry e : admittedAdded) {
+			changeDay(e.getEpochDay(), e.getCents(), 1);
+			minDay = Math.min(minDay, e.getEpochDay());
+			maxDay = Math.max(maxDay, e.getEpochDay());
+		}
+		
+		//Recompute the values from the first changed day on. After the last changed day all values change by the same amount, so 
+		//we can stop at the first unchanged one
+		int from = daily.ceilingIndex(minDay);
+		int to = daily.ceilingIndex(maxDay + 1) - 1;
+		long value = from == 0? MoneyCents.zero : daily.cumulative[from - 1];
+		int lastChangedDay = maxDay;
+		for(int i = from; i < daily.size; i++) {
+			value = MoneyCents.add(value, daily.sums[i]);
+			if(i > to && value == daily.cumulative[i]) break;
+			daily.cumulative[i] = value;
+			lastChangedDay = Math.max(lastChangedDay, daily.days[i]);
+		}
+		//The average of a day changes, if its period contains a changed value or a day which has been inserted or removed
+		updateAverages(daily, avgPeriod, from, daily.ceilingIndex(lastChangedDay + avgPeriod) - 1);
+		//The aggregates of all periods before the first changed day remain unchanged
+		entryLevels.update(daily, from);
+		averageLevels.update(daily, from);
+		refreshSeries();
+		return true;
+	}
+	
+	/**
+	 * @return All entries in the array which are admitted by the filter (null elements are ignored)
+	 */
+	private Vector<Entry> getAdmitted(Entry[] entries) {
+		Vector<Entry> admitted = new Vector<Entry>();
+		for(Entry e : entries) {
+			if(e != null && (filter == null || filter.verifyEntry(e))) admitted.add(e);
+		}
+		return admitted;
+	}
+	
+	/**
+	 * Adds value to the sum and count to the number of entries of the given day. Inserts the day into the daily bilancials, 
+	 * if it is not contained yet, and removes it, if it has no more entries. The cumulative values and averages are not updated.
+	 * @return false, if entries should be removed from a day which doesn't exist. In this case nothing is changed
+	 */
+	private boolean changeDay(int day, long value, int count) {
+		int index = daily.indexOf(day);
+		if(index < 0) {
+			if(count < 0) return false;
+			index = -index - 1;
+			daily.insert(index, day);
+		}
+		daily.counts[index] += count;
+		daily.sums[index] = MoneyCents.add(daily.sums[index], value);
+		if(daily.counts[index] <= 0) {
+			daily.remove(index);
+		}
+		return true;
+	}
+	
 	// LISTENING ***********************************
 	// *********************************************
 	
@@ -197,17 +435,17 @@ public class JournalTimeSeriesCollection extends TimeSeriesCollection implements
 
 	@Override
 	public void entriesAdded(Journal source, Entry[] newEntries) {
-		doRecalculation();
+		if(!applyIncrementally(newEntries, new Entry[0])) doRecalculation();
 	}
 
 	@Override
 	public void entriesRemoved(Journal source, Entry[] oldEntries) {
-		doRecalculation();
+		if(!applyIncrementally(new Entry[0], oldEntries)) doRecalculation();
 	}
 
 	@Override
 	public void entryReplaced(Journal source, Entry oldEntry, Entry newEntry) {
-		doRecalculation();
+		if(!applyIncrementally(new Entry[]{newEntry}, new Entry[]{oldEntry})) doRecalculation();
 	}
 
 	@Override
@@ -267,8 +505,229 @@ public class JournalTimeSeriesCollection extends TimeSeriesCollection implements
 	// **************************************************
 	
 	private class DataVector {
-		public TimeSeries dataSeries;
-		public TimeSeries avgSeries;
+		public DailyBilancials daily;
+		public DetailLevels entryLevels;
+		public DetailLevels averageLevels;
+	}
+	
+	/**
+	 * The daily bilancials of the admitted entries: The days with admitted entries in ascending order and for each day the number and sum of its 
+	 * entries, the sum of all entries up to this day (in cents) and the moving average. Only the first size elements of the arrays are used.
+	 */
+	private static class DailyBilancials {
+		public int size = 0;
+		public int[] days;
+		public int[] counts;
+		public long[] sums;
+		public long[] cumulative;
+		public double[] averages;
+		
+		public DailyBilancials(int capacity) {
+			capacity = Math.max(capacity, 16);
+			days = new int[capacity];
+			counts = new int[capacity];
+			sums = new long[capacity];
+			cumulative = new long[capacity];
+			averages = new double[capacity];
+		}
+		
+		/**
+		 * @return The index of day, if it is contained, otherwise (-(insertion point) - 1) as in {@link Arrays#binarySearch(int[], int, int, int)}
+		 */
+		public int indexOf(int day) {
+			return Arrays.binarySearch(days, 0, size, day);
+		}
+		
+		/**
+		 * @return The index of the first day which is not before the given day (size, if there is none)
+		 */
+		public int ceilingIndex(int day) {
+			int index = indexOf(day);
+			return index >= 0? index : -index - 1;
+		}
+		
+		/**
+		 * Appends a day after all other days and computes its cumulative value
+		 * @return The index of the new day
+		 */
+		public int append(int day, long sum, int count) {
+			insert(size, day);
+			sums[size - 1] = sum;
+			counts[size - 1] = count;
+			cumulative[size - 1] = MoneyCents.add(cumulative[size - 1], sum);
+			return size - 1;
+		}
+		
+		/**
+		 * Inserts a day without entries at the given index. Its cumulative value is the one of the previous day
+		 */
+		public void insert(int index, int day) {
+			if(size == days.length) {
+				int capacity = 2 * size;
+				days = Arrays.copyOf(days, capacity);
+				counts = Arrays.copyOf(counts, capacity);
+				sums = Arrays.copyOf(sums, capacity);
+				cumulative = Arrays.copyOf(cumulative, capacity);
+				averages = Arrays.copyOf(averages, capacity);
+			}
+			System.arraycopy(days, index, days, index + 1, size - index);
+			System.arraycopy(counts, index, counts, index + 1, size - index);
+			System.arraycopy(sums, index, sums, index + 1, size - index);
+			System.arraycopy(cumulative, index, cumulative, index + 1, size - index);
+			System.arraycopy(averages, index, averages, index + 1, size - index);
+			days[index] = day;
+			counts[index] = 0;
+			sums[index] = MoneyCents.zero;
+			cumulative[index] = index == 0? MoneyCents.zero : cumulative[index - 1];
+			size++;
+		}
+		
+		/**
+		 * Removes the day at the given index
+		 */
+		public void remove(int index) {
+			System.arraycopy(days, index + 1, days, index, size - index - 1);
+			System.arraycopy(counts, index + 1, counts, index, size - index - 1);
+			System.arraycopy(sums, index + 1, sums, index, size - index - 1);
+			System.arraycopy(cumulative, index + 1, cumulative, index, size - index - 1);
+			System.arraycopy(averages, index + 1, averages, index, size - index - 1);
+			size--;
+		}
+	}
+	
+	/**
+	 * The aggregates of the daily bilancials or of the moving average by weeks (starting on monday), months and years: For each period the index 
+	 * of its first day and the indices of the days with minimal and maximal value. The first and last day and these two days of each period 
+	 * preserve the shape of the series, when the periods are too small to be distinguished in the chart.
+	 */
+	private static class DetailLevels {
+		//The levels, from fine to coarse
+		private static final int WEEK = 0;
+		private static final int MONTH = 1;
+		private static final int YEAR = 2;
+		private static final int levelCount = 3;
+		
+		//Whether the aggregates are taken over the averages or the bilancials
+		private final boolean average;
+		
+		//For each level: The number of periods and for each period the index of its first day (followed by the number of days), 
+		//of its day with minimal and of its day with maximal value
+		private int[] count = new int[levelCount];
+		private int[][] start = new int[levelCount][1];
+		private int[][] min = new int[levelCount][0];
+		private int[][] max = new int[levelCount][0];
+		
+		public DetailLevels(boolean average) {
+			this.average = average;
+		}
+		
+		/**
+		 * Recomputes the aggregates of all periods of the given bilancials which contain a day with index >= fromIndex or come after it. 
+		 * The days with lower index must not have changed since the last update.
+		 */
+		public void update(DailyBilancials bilancials, int fromIndex) {
+			for(int level = 0; level < levelCount; level++) {
+				if(start[level].length < bilancials.size + 1) {
+					int capacity = Math.max(2 * start[level].length, bilancials.size + 1);
+					start[level] = Arrays.copyOf(start[level], capacity);
+					min[level] = Arrays.copyOf(min[level], capacity);
+					max[level] = Arrays.copyOf(max[level], capacity);
+				}
+				//Start with the period containing the day before fromIndex, since the day at fromIndex might belong to it now
+				int p = getPeriodIndex(level, fromIndex - 1);
+				int i = 0;
+				if(p < 0) p = 0;
+				else i = start[level][p];
+				boolean first = true;
+				int currentKey = 0;
+				for(; i < bilancials.size; i++) {
+					int key = getPeriodKey(level, bilancials.days[i]);
+					if(first || key != currentKey) {
+						if(!first) p++;
+						first = false;
+						start[level][p] = i;
+						min[level][p] = i;
+						max[level][p] = i;
+						currentKey = key;
+					}
+					else {
+						double value = getValue(bilancials, i);
+						if(value < getValue(bilancials, min[level][p])) min[level][p] = i;
+						if(value > getValue(bilancials, max[level][p])) max[level][p] = i;
+					}
+				}
+				count[level] = first? p : p + 1;
+				start[level][count[level]] = bilancials.size;
+			}
+		}
+		
+		/**
+		 * @return The indices of the days to display, if the given range of days is visible (see {@link JournalTimeSeriesCollection#setVisibleRange(Date, Date)})
+		 */
+		public BitSet getDisplayedIndices(DailyBilancials bilancials, int fromDay, int toDay, int maxPeriods) {
+			BitSet displayed = new BitSet(bilancials.size);
+			if(bilancials.size == 0) return displayed;
+			//The visible days and one more day on each side
+			int low = Math.max(0, bilancials.ceilingIndex(fromDay) - 1);
+			int high = Math.min(bilancials.size - 1, toDay == Integer.MAX_VALUE? bilancials.size : bilancials.ceilingIndex(toDay + 1));
+			if(high < low) high = low;
+			//Display the finest level which has not too many periods in the visible range
+			if(high - low + 1 <= maxPeriods) {
+				displayed.set(low, high + 1);
+			}
+			else {
+				for(int level = 0; level < levelCount; level++) {
+					int firstPeriod = getPeriodIndex(level, low);
+					int lastPeriod = getPeriodIndex(level, high);
+					if(lastPeriod - firstPeriod + 1 <= maxPeriods || level == YEAR) {
+						for(int p = firstPeriod; p <= lastPeriod; p++) setAggregates(displayed, level, p);
+						low = start[level][firstPeriod];
+						high = start[level][lastPeriod + 1] - 1;
+						break;
+					}
+				}
+			}
+			//Display the years outside of this range
+			BitSet outside = new BitSet(bilancials.size);
+			for(int p = 0; p < count[YEAR]; p++) setAggregates(outside, YEAR, p);
+			outside.clear(low, high + 1);
+			displayed.or(outside);
+			return displayed;
+		}
+		
+		/**
+		 * Sets the indices of the first and last day and of the days with minimal and maximal value of the given period
+		 */
+		private void setAggregates(BitSet indices, int level, int period) {
+			indices.set(start[level][period]);
+			indices.set(min[level][period]);
+			indices.set(max[level][period]);
+			indices.set(start[level][period + 1] - 1);
+		}
+		
+		/**
+		 * @return The index of the period of the given level containing the day with the given index (-1, if there is none)
+		 */
+		private int getPeriodIndex(int level, int index) {
+			int p = Arrays.binarySearch(start[level], 0, count[level], index);
+			return p >= 0? p : -p - 2;
+		}
+		
+		/**
+		 * @return A number identifying the period of the given level containing the given epoch day
+		 */
+		private static int getPeriodKey(int level, int day) {
+			switch(level) {
+			//The epoch day 0 (1.1.1970) was a thursday
+			case WEEK: return day + 3 >= 0? (day + 3) / 7 : (day - 3) / 7;
+			case MONTH: return EpochDay.toYearMonthDay(day) / 100;
+			default: return EpochDay.getYear(day);
+			}
+		}
+		
+		private double getValue(DailyBilancials bilancials, int index) {
+			return average? bilancials.averages[index] : bilancials.cumulative[index];
+		}
 	}
 	
 	private class Recalculator extends SwingWorker<Object, Object> {
@@ -284,17 +743,15 @@ public class JournalTimeSeriesCollection extends TimeSeriesCollection implements
 				DataVector v;
 				try {
 					v = (DataVector)get();
-					removeAllSeries();
-					averageData = v.avgSeries;
-					entryData = v.dataSeries;
-					addSeries(entryData);
-					if(displayAvg) {
-						addSeries(averageData);
-					}
+					daily = v.daily;
+					entryLevels = v.entryLevels;
+					averageLevels = v.averageLevels;
+					refreshSeries();
 				} catch (Exception e) {
 					//Ignore
 				}
 			}
+			if(runningInstance == this) runningInstance = null;
 			fireTaskFinished(this);
 		}
 		
@@ -0,0 +1,158 @@
+package fs.fibu2.view.model;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Vector;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+
+import fs.fibu2.data.ParallelCalculation;
+import fs.fibu2.data.model.Journal;
+
+/**
+ * A recalculation scheduler coordinates the recalculations of all models bound to the same journal (e.g. {@link JournalTableModel},
+ * {@link BilancialTreeModel}, {@link JournalTimeSeriesCollection} and the list models). Instead of executing their {@link SwingWorker}s
+ * themselves, models hand them to the scheduler: <br>
+ * - Requests are collected for {@link #delay} milliseconds after the last one, so a burst of journal events (e.g. a large paste or the undo of a
+ * compound edit) results in only one recalculation per model. A worker which is still waiting is cancelled and replaced, if the same model
+ * schedules a new one. <br>
+ * - All collected workers are then run one after another in a single background pass, which first brings the shared index of the journal up to date.
+ * So the models don't compete for the processor and don't compute the same shared data at the same time. <br>
+ * - A model can still cancel its worker (with {@link SwingWorker#cancel(boolean)}), while it is running. Long computations call {@link #checkpoint()}
+ * regularly (or {@link ParallelCalculation.Reduction#checkpoint()} within parallel reductions), so a cancelled worker stops early and the pass continues with the next one. <br>
+ * The workers' done() methods are called in the event dispatch thread, as usual. There is one scheduler for each journal. Journals are not kept
+ * alive by their scheduler.
+ * @author Simon Hampe
+ *
+ */
+public class RecalculationScheduler {
+
+	/**
+	 * The time (in milliseconds) the scheduler waits for further requests before it starts a pass
+	 */
+	public final static int delay = 20;
+
+	private static WeakHashMap<Journal, RecalculationScheduler> schedulerMap = new WeakHashMap<Journal, RecalculationScheduler>();
+
+	private WeakReference<Journal> journal;
+
+	//The workers waiting for the next pass, at most one for each model
+	private LinkedHashMap<Object, SwingWorker<?, ?>> pending = new LinkedHashMap<Object, SwingWorker<?,?>>();
+	//The currently running pass or null
+	private Pass runningPass = null;
+
+	//Starts a pass, when no requests have arrived for a while
+	private Timer timer = new Timer(delay, new ActionListener() {
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			startPass();
+		}
+	});
+
+	// CONSTRUCTION ***************************
+	// ****************************************
+
+	private RecalculationScheduler(Journal j) {
+		journal = new WeakReference<Journal>(j);
+		timer.setRepeats(false);
+	}
+
+	/**
+	 * @return The scheduler for the given journal or null, if j == null
+	 */
+	public static synchronized RecalculationScheduler getInstance(Journal j) {
+		if(j == null) return null;
+		RecalculationScheduler scheduler = schedulerMap.get(j);
+		if(scheduler == null) {
+			scheduler = new RecalculationScheduler(j);
+			schedulerMap.put(j, scheduler);
+		}
+		return scheduler;
+	}
+
+	// SCHEDULING *****************************
+	// ****************************************
+
+	/**
+	 * Schedules the worker for the next pass. The worker must not have been executed. If there is still a worker of the same
+	 * owner waiting, it is cancelled and replaced.
+	 * @param owner The model the worker belongs to
+	 */
+	public synchronized void schedule(Object owner, SwingWorker<?, ?> worker) {
+		SwingWorker<?, ?> previous = pending.put(owner, worker);
+		if(previous != null && previous != worker) previous.cancel(false);
+		if(runningPass == null) timer.restart();
+	}
+
+	/**
+	 * A cancellation checkpoint for long computations of scheduled workers: A worker which is cancelled while it is running interrupts
+	 * the thread running it. In this case, this method throws an exception, so that the worker stops. Outside of a scheduled worker
+	 * this method does nothing.
+	 * @throws CancellationException - if the current thread has been interrupted
+	 */
+	public static void checkpoint() {
+		if(Thread.currentThread().isInterrupted()) throw new CancellationException();
+	}
+
+	/**
+	 * Starts a pass running all waiting workers, if no pass is running
+	 */
+	private synchronized void startPass() {
+		if(runningPass != null || pending.size() == 0) return;
+		runningPass = new Pass(new Vector<SwingWorker<?,?>>(pending.values()));
+		pending.clear();
+		runningPass.execute();
+	}
+
+	/**
+	 * Called when a pass has finished. Schedules the next one, if there are waiting workers
+	 */
+	private synchronized void passFinished() {
+		runningPass = null;
+		if(pending.size() > 0) timer.restart();
+	}
+
+	// PASS CLASS *****************************
+	// ****************************************
+
+	/**
+	 * Runs a list of workers in its background thread
+	 */
+	private class Pass extends SwingWorker<Object, Object> {
+
+		private Vector<SwingWorker<?, ?>> workers;
+
+		public Pass(Vector<SwingWorker<?, ?>> workers) {
+			this.workers = workers;
+		}
+
+		@Override
+		protected Object doInBackground() throws Exception {
+			//Most models need the index of the current state of the journal, so it is created once beforehand
+			Journal j = journal.get();
+			if(j != null) j.getIndex();
+			for(SwingWorker<?, ?> w : workers) {
+				//A cancelled worker does nothing here. Its done() method has already been called when it was cancelled
+				//Reductions computed by the worker (e.g. filtering or summing up in parallel) stop, when it is cancelled
+				ParallelCalculation.setCurrentTask(w);
+				w.run();
+				ParallelCalculation.setCurrentTask(null);
+				//A worker cancelled while running has interrupted this thread, which must not affect the next one
+				Thread.interrupted();
+			}
+			return null;
+		}
+
+		@Override
+		protected void done() {
+			passFinished();
+		}
+
+	}
+
+}
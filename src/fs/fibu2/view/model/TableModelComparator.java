@@ -4,7 +4,7 @@ import java.util.Arrays;
 import java.util.Comparator;
 
 import fs.fibu2.data.format.EntryComparator;
-import fs.fibu2.data.format.EntryDateComparator;
+import fs.fibu2.data.format.EpochDay;
 import fs.fibu2.data.model.Entry;
 import fs.fibu2.data.model.EntrySeparator;
 import fs.fibu2.data.model.ExtremeSeparator;
@@ -18,7 +18,6 @@ import fs.fibu2.data.model.ReadingPoint;
 public class TableModelComparator implements Comparator<Object> {
 
 	private EntryComparator entryComparator = new EntryComparator(false);
-	private EntryDateComparator entryDateComparator = new EntryDateComparator();
 	
 	@Override
 	public int compare(Object o1, Object o2) {
@@ -33,7 +32,7 @@ public class TableModelComparator implements Comparator<Object> {
 		}
 		
 		if(o1 instanceof ReadingPoint && o2 instanceof ReadingPoint) {
-			return entryDateComparator.compare(((ReadingPoint)o1).getReadingDay(), ((ReadingPoint)o2).getReadingDay());
+			return EpochDay.compare(((ReadingPoint)o1).getEpochDay(), ((ReadingPoint)o2).getEpochDay());
 		}
 		
 		if(o1 instanceof ExtremeSeparator && o2 instanceof ExtremeSeparator) {
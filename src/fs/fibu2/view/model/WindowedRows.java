@@ -0,0 +1,370 @@
+package fs.fibu2.view.model;
+
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.TreeSet;
+
+import fs.fibu2.data.model.Entry;
+import fs.fibu2.data.model.EntrySeparator;
+import fs.fibu2.data.model.ExtremeSeparator;
+import fs.fibu2.data.model.JournalIndex;
+
+/**
+ * The rows of a {@link JournalTableModel} in windowed mode, in the same order as the indexed data of the model: All entries which are hidden
+ * before the first displayed entry, the start separator, all displayed entries and separators and the end separator. <br>
+ * The rows are not stored, but derived from the sorted entries of a {@link JournalIndex} and the IDs admitted by the filter: For every
+ * {@link #pageSize}-th row only the position in the sorted entries and the number of separators before it are stored. A page of rows is
+ * computed from this, when one of its rows is requested. The most recently used pages are kept in a cache of {@link #cachedPages} pages.
+ * So apart from the index (which is shared with the journal) and a bitmap of admitted entries, the memory needed is proportional to the
+ * number of rows viewed, not to the size of the journal. <br>
+ * The list is immutable and can be used by several threads.
+ * @author Simon Hampe
+ *
+ */
+final class WindowedRows extends AbstractList<Object> implements RandomAccess {
+
+	/**
+	 * The number of rows in one page
+	 */
+	public final static int pageSize = 256;
+
+	/**
+	 * The number of pages kept in the cache
+	 */
+	public final static int cachedPages = 32;
+
+	//The sorted entries and the admitted IDs (null, if all entries are admitted)
+	private final List<Entry> sortedEntries;
+	private final int[] sortedIDs;
+	private final BitSet admitted;
+
+	private final ExtremeSeparator startSeparator;
+	private final ExtremeSeparator endSeparator;
+	//The displayed separators (except the extreme separators), sorted, and their rows
+	private final EntrySeparator[] separators;
+	private final int[] separatorRows;
+
+	//The number of hidden entries before the start separator, the sorted position of the last displayed entry and the number of rows
+	private final int hiddenCount;
+	private final int lastPosition;
+	private final int size;
+
+	//For each page the sorted position and the index of the separator, at which the walk through the rows continues at its first row
+	private final int[] pagePositions;
+	private final int[] pageSeparators;
+
+	//The most recently used pages
+	private final LinkedHashMap<Integer, Object[]> pages = new LinkedHashMap<Integer, Object[]>(cachedPages, 0.75f, true) {
+		private static final long serialVersionUID = 4718237349178523117L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Object[]> eldest) {
+			return size() > cachedPages;
+		}
+	};
+
+	private final TableModelComparator comparator = new TableModelComparator();
+
+	// CONSTRUCTOR ******************************
+	// ******************************************
+
+	/**
+	 * Creates the rows for the given index. Rows are ordered as in {@link JournalTableModel}. If no entry is admitted, all entries are hidden
+	 * and only the extreme separators are displayed.
+	 * @param index The index providing the sorted entries
+	 * @param admitted The IDs of the entries admitted by the filter or null, if all entries are admitted. The bitmap must not be modified afterwards
+	 * @param availableSeparators The separators which are displayed, if they lie between the first and the last displayed entry.
+	 * Of several separators considered equal by {@link TableModelComparator} only the first one is displayed
+	 */
+	public WindowedRows(JournalIndex index, BitSet admitted, Collection<EntrySeparator> availableSeparators,
+						ExtremeSeparator startSeparator, ExtremeSeparator endSeparator) {
+		this.sortedEntries = index.getSortedEntries();
+		this.sortedIDs = index.getSortedIDs();
+		this.admitted = admitted;
+		this.startSeparator = startSeparator;
+		this.endSeparator = endSeparator;
+
+		//Find the first and last displayed entry
+		int first = -1;
+		int last = -1;
+		int admittedCount = 0;
+		for(int i = 0; i < sortedIDs.length; i++) {
+			if(isAdmitted(i)) {
+				if(first < 0) first = i;
+				last = i;
+				admittedCount++;
+			}
+		}
+		hiddenCount = first < 0? sortedIDs.length : first;
+		lastPosition = last;
+
+		//Only the separators between the first and the last displayed entry are displayed
+		separators = findSeparators(first, last, availableSeparators);
+		separatorRows = new int[separators.length];
+		size = hiddenCount + admittedCount + separators.length + 2;
+
+		//Walk through all rows once to find the start of each page and the rows of the separators
+		int pageCount = (size + pageSize - 1) / pageSize;
+		pagePositions = new int[pageCount];
+		pageSeparators = new int[pageCount];
+		walk(new Walker(0, 0), 0);
+	}
+
+	/**
+	 * Creates the rows for the given index, reusing the data of base: All rows before the row from and all sorted entries before the position 
+	 * fromPosition must be the same as in base. In particular the first displayed entry must not change, i.e. fromPosition must be greater 
+	 * than the number of hidden entries of base. Only the rows from the last page starting before both of these on are walked through again 
+	 * and all pages before are taken from base (including the cached ones).
+	 * @param base The rows before the change
+	 * @param from The first row, which might differ from the rows of base
+	 * @param fromPosition The first sorted position, at which the entries (or their admission) might differ from the ones of base
+	 * @see #WindowedRows(JournalIndex, BitSet, Collection, ExtremeSeparator, ExtremeSeparator)
+	 */
+	public WindowedRows(WindowedRows base, JournalIndex index, BitSet admitted, Collection<EntrySeparator> availableSeparators,
+						int from, int fromPosition) {
+		this.sortedEntries = index.getSortedEntries();
+		this.sortedIDs = index.getSortedIDs();
+		this.admitted = admitted;
+		this.startSeparator = base.startSeparator;
+		this.endSeparator = base.endSeparator;
+
+		//The last page, which starts before the first changed row and the first changed position
+		int page = Math.max(0, Math.min(from / pageSize, base.pagePositions.length - 1));
+		while(page > 0 && base.pagePositions[page] > fromPosition) page--;
+		int pageStart = page * pageSize;
+
+		//The hidden entries don't change. The last displayed entry is searched from the end
+		hiddenCount = base.hiddenCount;
+		int last = sortedIDs.length - 1;
+		while(last > hiddenCount && !isAdmitted(last)) last--;
+		lastPosition = last;
+		separators = findSeparators(hiddenCount, last, availableSeparators);
+		separatorRows = new int[separators.length];
+
+		//Count the displayed entries before the page (from its first row) and after it (from the sorted entries)
+		int admittedCount = Math.max(0, pageStart - hiddenCount - 1 - base.pageSeparators[page]);
+		for(int i = base.pagePositions[page]; i <= last; i++) {
+			if(isAdmitted(i)) admittedCount++;
+		}
+		size = hiddenCount + admittedCount + separators.length + 2;
+
+		//Copy the data of all pages before and walk through the remaining rows
+		int pageCount = (size + pageSize - 1) / pageSize;
+		pagePositions = new int[pageCount];
+		pageSeparators = new int[pageCount];
+		System.arraycopy(base.pagePositions, 0, pagePositions, 0, page);
+		System.arraycopy(base.pageSeparators, 0, pageSeparators, 0, page);
+		System.arraycopy(base.separatorRows, 0, separatorRows, 0, base.pageSeparators[page]);
+		walk(new Walker(base.pagePositions[page], base.pageSeparators[page]), pageStart);
+		synchronized (base) {
+			for(Map.Entry<Integer, Object[]> cached : base.pages.entrySet()) {
+				if(cached.getKey() < page) pages.put(cached.getKey(), cached.getValue());
+			}
+		}
+	}
+
+	// LIST METHODS *****************************
+	// ******************************************
+
+	@Override
+	public Object get(int row) {
+		if(row < 0 || row >= size) throw new IndexOutOfBoundsException("Row " + row + " does not exist");
+		return getPage(row / pageSize)[row % pageSize];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The row of o or -1, if it is not contained. Entries are found by binary search, separators by their stored rows.
+	 */
+	@Override
+	public int indexOf(Object o) {
+		if(o == startSeparator) return hiddenCount;
+		if(o == endSeparator) return size - 1;
+		if(o instanceof EntrySeparator) {
+			for(int i = 0; i < separators.length; i++) {
+				if(separators[i] == o) return separatorRows[i];
+			}
+			return -1;
+		}
+		if(!(o instanceof Entry)) return -1;
+		int row = indexOf(o, hiddenCount + 1, size - 1);
+		return row >= 0? row : indexOf(o, 0, hiddenCount);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return indexOf(o) >= 0;
+	}
+
+	// GETTERS **********************************
+	// ******************************************
+
+	/**
+	 * @return The first displayed row, whose entry or separator is not smaller than o (according to {@link TableModelComparator}), i.e. the row
+	 * at which o would be inserted. If there is none, this is the row of the end separator.
+	 */
+	public int getInsertionRow(Object o) {
+		int low = hiddenCount + 1;
+		int high = size - 1;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(comparator.compare(get(mid), o) < 0) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * @return The first sorted position, whose entry is not smaller than e (according to {@link TableModelComparator}), i.e. the position
+	 * at which e would be inserted into the sorted entries
+	 */
+	public int getInsertionPosition(Entry e) {
+		int low = 0;
+		int high = sortedEntries.size();
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(comparator.compare(sortedEntries.get(mid), e) < 0) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * @return The index of the start separator, i.e. the number of hidden entries before it
+	 */
+	public int getFirstIndexDisplayed() {
+		return hiddenCount;
+	}
+
+	/**
+	 * @return The displayed separators between the first and the last displayed entry, sorted
+	 */
+	public EntrySeparator[] getSeparators() {
+		return separators.clone();
+	}
+
+	// INTERNAL METHODS *************************
+	// ******************************************
+
+	/**
+	 * @return Whether the entry at the given sorted position is admitted by the filter
+	 */
+	private boolean isAdmitted(int position) {
+		return admitted == null || admitted.get(sortedIDs[position]);
+	}
+
+	/**
+	 * @return The displayed separators, i.e. all available separators lying between the entries at the sorted positions first and last, sorted.
+	 * Of several separators considered equal only the first one is kept. If first < 0, there are none.
+	 */
+	private EntrySeparator[] findSeparators(int first, int last, Collection<EntrySeparator> availableSeparators) {
+		TreeSet<EntrySeparator> sorted = new TreeSet<EntrySeparator>(comparator);
+		if(first >= 0) {
+			Entry firstEntry = sortedEntries.get(first);
+			Entry lastEntry = sortedEntries.get(last);
+			for(EntrySeparator s : availableSeparators) {
+				if(comparator.compare(firstEntry, s) < 0 && comparator.compare(s, lastEntry) < 0) sorted.add(s);
+			}
+		}
+		return sorted.toArray(new EntrySeparator[sorted.size()]);
+	}
+
+	/**
+	 * Walks through all rows from the given row on (which must be the first row of a page) with the given walker to find the start 
+	 * of each page and the rows of the separators
+	 */
+	private void walk(Walker w, int from) {
+		for(int row = from; row < size; row++) {
+			if(row % pageSize == 0) {
+				RecalculationScheduler.checkpoint();
+				pagePositions[row / pageSize] = w.position;
+				pageSeparators[row / pageSize] = w.separator;
+			}
+			Object o = w.next(row);
+			if(o instanceof EntrySeparator && !(o instanceof ExtremeSeparator)) separatorRows[w.separator - 1] = row;
+		}
+	}
+
+	/**
+	 * @return The rows of the given page. It is computed, if it is not in the cache
+	 */
+	private synchronized Object[] getPage(int page) {
+		Object[] rows = pages.get(page);
+		if(rows == null) {
+			int start = page * pageSize;
+			rows = new Object[Math.min(pageSize, size - start)];
+			Walker w = new Walker(pagePositions[page], pageSeparators[page]);
+			for(int i = 0; i < rows.length; i++) rows[i] = w.next(start + i);
+			pages.put(page, rows);
+		}
+		return rows;
+	}
+
+	/**
+	 * Performs a binary search for the entry o in the rows [from, to), which must only contain entries and separators sorted
+	 * by {@link TableModelComparator}
+	 * @return The row of o or -1, if it is not contained
+	 */
+	private int indexOf(Object o, int from, int to) {
+		int low = from;
+		int high = to - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = comparator.compare(get(mid), o);
+			if(c < 0) low = mid + 1;
+			else if(c > 0) high = mid - 1;
+			else {
+				//Entries might be considered equal, so look at all neighbours which are equal
+				for(int i = mid; i >= from && comparator.compare(get(i), o) == 0; i--) {
+					if(get(i) == o) return i;
+				}
+				for(int i = mid + 1; i < to && comparator.compare(get(i), o) == 0; i++) {
+					if(get(i) == o) return i;
+				}
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Walks through the rows: Merges the admitted entries and the separators
+	 */
+	private class Walker {
+		//The sorted position of the next entry to look at and the index of the next separator
+		public int position;
+		public int separator;
+
+		public Walker(int position, int separator) {
+			this.position = position;
+			this.separator = separator;
+		}
+
+		/**
+		 * @return The object in the given row, which must be the row following the last row returned
+		 */
+		public Object next(int row) {
+			if(row < hiddenCount) {
+				position = row + 1;
+				return sortedEntries.get(row);
+			}
+			if(row == hiddenCount) return startSeparator;
+			if(row == size - 1) return endSeparator;
+			while(position <= lastPosition && !isAdmitted(position)) position++;
+			if(separator < separators.length &&
+					(position > lastPosition || comparator.compare(separators[separator], sortedEntries.get(position)) < 0)) {
+				return separators[separator++];
+			}
+			return sortedEntries.get(position++);
+		}
+	}
+
+}
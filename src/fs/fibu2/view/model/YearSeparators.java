@@ -7,6 +7,7 @@ import java.util.TreeSet;
 import java.util.Vector;
 
 import fs.fibu2.data.event.JournalAdapter;
+import fs.fibu2.data.format.EpochDay;
 import fs.fibu2.data.model.Entry;
 import fs.fibu2.data.model.Journal;
 import fs.fibu2.data.model.ReadingPoint;
@@ -55,8 +56,8 @@ public class YearSeparators extends JournalAdapter {
 	protected void calculateAllData() {
 		yearEntryMap = new HashMap<Integer, Integer>();
 		necessaryYears = new Vector<ReadingPoint>();
-		for(Entry e : associatedJournal.getEntries()) {
-			Integer entryYear = e.getDate().get(GregorianCalendar.YEAR);
+		for(Entry e : associatedJournal.getEntryView()) {
+			Integer entryYear = EpochDay.getYear(e.getEpochDay());
 			Integer noOfEntries = yearEntryMap.get(entryYear);
 			if(noOfEntries == null) {
 				yearEntryMap.put(entryYear, 1);
@@ -189,7 +190,7 @@ public class YearSeparators extends JournalAdapter {
 	public void entriesAdded(Journal source, Entry[] newEntries) {
 		if(newEntries != null) {
 			for(Entry e : newEntries) {
-				Integer entryYear = e.getDate().get(GregorianCalendar.YEAR);
+				Integer entryYear = EpochDay.getYear(e.getEpochDay());
 				incrementYear(entryYear);
 			}
 		}
@@ -199,7 +200,7 @@ public class YearSeparators extends JournalAdapter {
 	public void entriesRemoved(Journal source, Entry[] oldEntries) {
 		if(oldEntries != null) {
 			for(Entry e : oldEntries) {
-				Integer entryYear = e.getDate().get(GregorianCalendar.YEAR);
+				Integer entryYear = EpochDay.getYear(e.getEpochDay());
 				decrementYear(entryYear);
 			}
 		}
@@ -207,9 +208,11 @@ public class YearSeparators extends JournalAdapter {
 
 	@Override
 	public void entryReplaced(Journal source, Entry oldEntry, Entry newEntry) {
-		if(oldEntry.getDate().get(GregorianCalendar.YEAR) != newEntry.getDate().get(GregorianCalendar.YEAR)) {
-			incrementYear(newEntry.getDate().get(GregorianCalendar.YEAR));
-			decrementYear(oldEntry.getDate().get(GregorianCalendar.YEAR));
+		int oldYear = EpochDay.getYear(oldEntry.getEpochDay());
+		int newYear = EpochDay.getYear(newEntry.getEpochDay());
+		if(oldYear != newYear) {
+			incrementYear(newYear);
+			decrementYear(oldYear);
 		}
 	}
 	
@@ -9,9 +9,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
-import java.math.BigDecimal;
 import java.util.TreeSet;
-import java.util.Vector;
 
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
@@ -31,12 +29,13 @@ import javax.swing.event.TableModelListener;
 
 import fs.fibu2.data.Fsfibu2Constants;
 import fs.fibu2.data.format.DefaultCurrencyFormat;
-import fs.fibu2.data.format.MoneyDecimal;
+import fs.fibu2.data.format.MoneyCents;
 import fs.fibu2.data.model.Category;
 import fs.fibu2.data.model.Entry;
 import fs.fibu2.data.model.EntrySeparator;
 import fs.fibu2.lang.Fsfibu2StringTableMgr;
 import fs.fibu2.view.model.AccountTableModel;
+import fs.fibu2.view.model.BilancialInformation;
 import fs.fibu2.view.model.CategoryListModel;
 import fs.fibu2.view.model.JournalTableModel;
 import fs.fibu2.view.model.SeparatorModel;
@@ -299,8 +298,8 @@ public class BilancialPanel extends JPanel {
 		updateRange();
 		boolean unconnectedRange = false; //Whether we are in selection mode with an unconnected selection
 		int[] selected = table.getSelectedRows();
-		BigDecimal categorySum = MoneyDecimal.bigd(0);
-		BigDecimal overallSum = MoneyDecimal.bigd(0);
+		long categorySum = MoneyCents.zero;
+		long overallSum = MoneyCents.zero;
 		for (int i = 0; i < selected.length; i++) {
 			selected[i] = table.convertRowIndexToModel(selected[i]);
 		}
@@ -325,36 +324,27 @@ public class BilancialPanel extends JPanel {
 			if(first instanceof Entry) first = tableModel.getValueAt(tableModel.indexOf(first)-1, 0);
 			//Insert values
 			((AccountTableModel)tableAccount.getModel()).setRange(first, last);
-			categorySum = MoneyDecimal.substract(
-				saveValueOf(tableModel.getBilancialMapping(last).getOldest().information().getCategoryMappings().get((Category)comboCategory.getSelectedItem())),
-				(first == last? MoneyDecimal.bigd(0) : 
-								saveValueOf(tableModel.getBilancialMapping(first).getOldest().information().getCategoryMappings().get((Category)comboCategory.getSelectedItem())))); 
+			categorySum = MoneyCents.substract(
+				tableModel.getBilancialMapping(last).getOldest().information().getCategoryCents((Category)comboCategory.getSelectedItem()),
+				(first == last? MoneyCents.zero : 
+								tableModel.getBilancialMapping(first).getOldest().information().getCategoryCents((Category)comboCategory.getSelectedItem()))); 
 				
-			overallSum = MoneyDecimal.substract(
-				saveValueOf(tableModel.getBilancialMapping(last).getOldest().information().getOverallSum()), 
-				(first == last? MoneyDecimal.bigd(0) : 
-					saveValueOf(tableModel.getBilancialMapping(first).getOldest().information().getOverallSum())));
+			overallSum = MoneyCents.substract(
+				tableModel.getBilancialMapping(last).getOldest().information().getOverallCents(), 
+				(first == last? MoneyCents.zero : 
+					tableModel.getBilancialMapping(first).getOldest().information().getOverallCents()));
 			
 		}
-		//Difficult: Unconnected 
+		//Difficult: Unconnected. The sums are computed for each connected part of the selection
 		else {
-			Vector<Entry> entries = new Vector<Entry>();
-			for (int i = 0; i < selected.length; i++) {
-				Object o = tableModel.getValueAt(selected[i], 0);
-				if(o instanceof Entry) {
-					BigDecimal evalue = MoneyDecimal.bigd(((Entry)o).getValue());
-					overallSum = MoneyDecimal.add(overallSum, evalue);
-					if(((Entry)o).getCategory() == comboCategory.getSelectedItem()) {
-						categorySum = MoneyDecimal.add(categorySum, evalue);
-					}
-					entries.add((Entry)o);
-				}
-			}
-			((AccountTableModel)tableAccount.getModel()).setEntries(entries);
+			BilancialInformation info = tableModel.getSelectionInformation(selected);
+			overallSum = info.getOverallCents();
+			categorySum = info.getCategoryCents((Category)comboCategory.getSelectedItem());
+			((AccountTableModel)tableAccount.getModel()).setRows(selected);
 		}
 		
-		labelCategorySum.setText(DefaultCurrencyFormat.formatAsHTML(categorySum, Fsfibu2Constants.defaultCurrency));
-		labelOverallSum.setText(DefaultCurrencyFormat.formatAsHTML(overallSum, Fsfibu2Constants.defaultCurrency));
+		labelCategorySum.setText(DefaultCurrencyFormat.formatAsHTML(MoneyCents.toBigDecimal(categorySum), Fsfibu2Constants.defaultCurrency));
+		labelOverallSum.setText(DefaultCurrencyFormat.formatAsHTML(MoneyCents.toBigDecimal(overallSum), Fsfibu2Constants.defaultCurrency));
 	}
 	
 	/**
@@ -425,12 +415,4 @@ public class BilancialPanel extends JPanel {
 		return true;
 	}
 	
-	/**
-	 * @return 0, if f == null, the value of f otherwise
-	 */
-	private static BigDecimal saveValueOf(BigDecimal d) {
-		if(d == null) return MoneyDecimal.bigd(0);
-		else return d;
-	}
-	
 }
@@ -466,7 +466,7 @@ public class EntryDialog extends FrameworkDialog {
 		comboAccount.setModel(new AccountListModel(null));
 		comboAccount.setRenderer(new AccountListRenderer());
 			TreeSet<String> names = new TreeSet<String>();
-			for(Entry en : j.getEntries()) names.add(en.getName());
+			names.addAll(j.getListOfNames());
 		comboNames.setModel(new DefaultComboBoxModel(new Vector<String>(names)));
 			comboNames.setEditable(true);
 			comboNames.setSelectedItem("");
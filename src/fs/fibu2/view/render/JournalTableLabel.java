@@ -1,6 +1,7 @@
 package fs.fibu2.view.render;
 
 import java.awt.Color;
+import java.awt.Font;
 
 import javax.swing.JLabel;
 
@@ -43,6 +44,15 @@ public class JournalTableLabel extends JLabel {
 //	//A darker blue for borders of selected cells
 //	private final static Color color_border_selected = new Color(60,35,215);
 	
+	// DATA ******************************************************
+	// ***********************************************************
+	
+	//The font for entries. It is derived only once, since the label is reset for each rendered cell
+	private Font entryFont = null;
+	
+	//The source of the tooltip or null, if the tooltip is set directly
+	private ToolTipSource toolTipSource = null;
+	
 	/**
 	 * Creates a basic label with colors and borders set to appropriate default values
 	 * @param isSelected Whether the corresponding table cell is selected
@@ -59,19 +69,46 @@ public class JournalTableLabel extends JLabel {
 	 * - Icon = null<br>
 	 * - Foreground= black <br>
 	 * - Alignment = left <br>
-	 * - Tooltip = null <br>
+	 * - Tooltip = null (and no tooltip source)<br>
 	 * - Text = ""
 	 */
 	public void setValues(boolean isSelected, boolean isSeparator) {
 		setOpaque(true);
 		setBackground(isSelected? (isSeparator? color_separator_selected : color_background_selected) : 
 								(isSeparator? color_separator_normal : color_background_normal));
-		if(!isSeparator) setFont(getFont().deriveFont(10));
+		if(!isSeparator) {
+			if(entryFont == null) entryFont = getFont().deriveFont(10);
+			setFont(entryFont);
+		}
 		setIcon(null);
 		setForeground(color_foreground_normal);
 		setHorizontalAlignment(LEFT);
 		setText("");
 		setToolTipText(null);
+		toolTipSource = null;
+	}
+	
+	/**
+	 * Sets a source for the tooltip of this label, which is only asked when the tooltip is actually requested. This is useful for renderers, 
+	 * since the tooltip is requested much less often than a cell is rendered.
+	 */
+	public void setToolTipSource(ToolTipSource source) {
+		toolTipSource = source;
+	}
+	
+	/**
+	 * @return The tooltip of the tooltip source, if there is one. Otherwise the tooltip set by {@link #setToolTipText(String)}
+	 */
+	@Override
+	public String getToolTipText() {
+		return toolTipSource != null? toolTipSource.getToolTipText() : super.getToolTipText();
+	}
+	
+	/**
+	 * A tooltip, which is computed on request
+	 */
+	public static interface ToolTipSource {
+		public String getToolTipText();
 	}
 	
 }
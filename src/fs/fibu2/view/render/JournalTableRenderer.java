@@ -2,11 +2,17 @@ package fs.fibu2.view.render;
 
 import java.awt.Color;
 import java.awt.Component;
+import java.text.NumberFormat;
+import java.text.SimpleDateFormat;
 import java.util.Currency;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TreeSet;
 import java.util.Vector;
 
+import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import javax.swing.JTable;
 import javax.swing.SwingConstants;
@@ -15,8 +21,10 @@ import javax.swing.table.TableCellRenderer;
 import org.dom4j.Document;
 
 import fs.fibu2.data.error.EntryVerificationException;
+import fs.fibu2.data.event.JournalListener;
 import fs.fibu2.data.format.DefaultCurrencyFormat;
 import fs.fibu2.data.format.Fsfibu2DateFormats;
+import fs.fibu2.data.model.Account;
 import fs.fibu2.data.model.Entry;
 import fs.fibu2.data.model.EntrySeparator;
 import fs.fibu2.data.model.ExtremeSeparator;
@@ -30,11 +38,14 @@ import fs.xml.ResourceReference;
 import fs.xml.XMLDirectoryTree;
 
 /**
- * This class renders cells in a table with a {@link JournalTableModel}.
+ * This class renders cells in a table with a {@link JournalTableModel}. The display data of each row (formatted strings, icons, verification 
+ * results) is computed once and cached for the most recently rendered rows. Data depending on the bilancials is recomputed, when the
+ * version of the model changes (see {@link JournalTableModel#getVersion()}), tooltips are only computed when they are requested. Removed or 
+ * replaced entries and changed reading points are dropped from the cache.
  * @author Simon Hampe
  *
  */
-public class JournalTableRenderer implements TableCellRenderer, ResourceDependent {
+public class JournalTableRenderer implements TableCellRenderer, ResourceDependent, JournalListener {
 
 	//The associated data model
 	private JournalTableModel associatedModel;
@@ -60,6 +71,24 @@ public class JournalTableRenderer implements TableCellRenderer, ResourceDependen
 	//A global label
 	private JournalTableLabel label = new JournalTableLabel(false,false);
 	
+	// Render cache
+	
+	//The maximal number of rows in the cache
+	private final static int cacheSize = 2048;
+	
+	//The display data of the most recently rendered entries and separators. Neither of them overrides equals, so they are mapped by identity
+	private LinkedHashMap<Object, RowData> cache = new LinkedHashMap<Object, RowData>(cacheSize, 0.75f, true) {
+		private static final long serialVersionUID = -3034466418569337186L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, RowData> eldest) {
+			return size() > cacheSize;
+		}
+	};
+	
+	//Formats are created only once, since this is rather expensive. They are only used in the event dispatch thread
+	private SimpleDateFormat dateFormat = Fsfibu2DateFormats.getEntryDateFormat();
+	private HashMap<Currency, NumberFormat> currencyFormats = new HashMap<Currency, NumberFormat>();
+	
 	// CONSTRUCTOR ********************************************
 	// ********************************************************
 	
@@ -71,6 +100,7 @@ public class JournalTableRenderer implements TableCellRenderer, ResourceDependen
 	public JournalTableRenderer(JournalTableModel model, Currency currency) {
 		associatedModel = model == null? new JournalTableModel(new Journal(),null,true,true) : model;
 		this.currency = currency == null? this.currency: currency;
+		associatedModel.getAssociatedJournal().addJournalListener(this);
 	}
 	
 	// RENDERER ************************************************
@@ -81,78 +111,29 @@ public class JournalTableRenderer implements TableCellRenderer, ResourceDependen
 			boolean isSelected, boolean hasFocus, int row, int column) {
 		label.setValues(isSelected,value instanceof EntrySeparator);
 		if(value instanceof Entry) {
-			Entry e = (Entry)value;
+			RowData d = getRowData(value);
+			d.row = row;
 			switch(column) {
-			case 0: EntryVerificationException ev = null;
-					try {
-						e.getAccount().verifyEntry(e);
-					}
-					catch(EntryVerificationException x) {
-						ev = x;
-					}
-					if(e.getAdditionalInformation().length() > 0 && ev != null) {
-						label.setIcon(indic_double);
-						label.setToolTipText(ev.getHTMLRepresentation());
-						break;
-					}
-					if(e.getAdditionalInformation().length() > 0) {
-						label.setIcon(indic_info);
-						break;
-					}
-					if(ev != null) {
-						label.setIcon(indic_error);
-						label.setToolTipText(ev.getHTMLRepresentation());
-					}
+			case 0: label.setIcon(d.icon);
+					if(d.verificationError != null) label.setToolTipSource(d.verificationToolTip);
 					break;
-			case 1: label.setText(e.getName());
+			case 1: label.setText(((Entry)value).getName());
 					break;
-			case 2: label.setText(Fsfibu2DateFormats.getEntryDateFormat().format(e.getDate().getTime()));
+			case 2: label.setText(d.date);
 					break;
-			case 3: label.setText(DefaultCurrencyFormat.getFormat(e.getCurrency()).format(e.getValue()));
-					if(e.getValue() < 0) label.setForeground(color_value_negative);
+			case 3: label.setText(d.value);
+					if(d.negative) label.setForeground(color_value_negative);
 					label.setHorizontalAlignment(SwingConstants.RIGHT);
-					label.setToolTipText(associatedModel.getBilancialMapping(row).getMostRecent().information().
-							getHTMLRepresentation(e.getCategory(), e.getAccount(), e.getCurrency()));
+					label.setToolTipSource(d.bilancialToolTip);
 					break;
-			case 4: label.setText(e.getAccount().getName());
+			case 4: label.setText(((Entry)value).getAccount().getName());
 					break;
-			case 5: boolean usealternateone = true;
-					StringBuilder cb = new StringBuilder();
-					cb.append("<html>");
-					Vector<String> ol = e.getCategory().getOrderedList();
-					for(String c : ol) {
-						cb.append("<font color=\"" + (usealternateone? color_alternate_one : color_alternate_two) + "\">");
-						cb.append(c);
-						if(c != ol.lastElement()) cb.append(": ");
-						cb.append("</font>");
-						usealternateone = !usealternateone;
-					}
-					cb.append("</html>");
-					label.setText(cb.toString());
+			case 5: label.setText(d.category);
 					break;
-			case 6: StringBuilder b = new StringBuilder();
-					StringBuilder tooltip = new StringBuilder();
-					tooltip.append("<html><b>");
-					tooltip.append(Fsfibu2StringTableMgr.getString("fs.fibu2.view.JournalTableRenderer.accountreport"));
-					tooltip.append("</b><br>");
-					TreeSet<String> ids = new TreeSet<String>(e.getAccountInformation().keySet()); 
-					for(String id : ids) {
-						if(e.getAccount().getFieldNames().get(id) != null) {
-							b.append(e.getAccountInformation().get(id));
-							tooltip.append(e.getAccount().getFieldNames().get(id));
-							tooltip.append(": ");
-							tooltip.append(e.getAccountInformation().get(id));
-							if(id != ids.last()) {
-								b.append(" / ");
-								tooltip.append("<br>");
-							}
-						}
-					}
-					tooltip.append("</html>");
-					if(e.getAccountInformation().keySet().size() > 0) label.setToolTipText(tooltip.toString());
-					label.setText(b.toString());
+			case 6: label.setToolTipText(d.accountInformationToolTip);
+					label.setText(d.accountInformation);
 					break;
-			case 7: label.setText(e.getAdditionalInformation());
+			case 7: label.setText(((Entry)value).getAdditionalInformation());
 					break;
 			}
 		}
@@ -162,19 +143,208 @@ public class JournalTableRenderer implements TableCellRenderer, ResourceDependen
 			switch(column) {
 			case 1: label.setText(((EntrySeparator)value).getName());break;
 			case 2: if(value instanceof ReadingPoint) {
-				label.setText(Fsfibu2DateFormats.getEntryDateFormat().format(
-						((ReadingPoint)value).getReadingDay().getTime()));
+				label.setText(getRowData(value).date);
 			}
 			break;
 			case 3: if(!((value instanceof ExtremeSeparator) && ((ExtremeSeparator)value).isBeforeAll())) {
-						label.setText(DefaultCurrencyFormat.formatAsHTML(associatedModel.getBilancialMapping(row).getMostRecent().
-								information().getOverallSum(),currency));
+						RowData d = getRowData(value);
+						//The overall sum depends on the bilancials
+						if(d.version != associatedModel.getVersion()) {
+							d.value = DefaultCurrencyFormat.formatAsHTML(associatedModel.getBilancialMapping(row).getMostRecent().
+									information().getOverallSum(),currency);
+							d.version = associatedModel.getVersion();
+						}
+						label.setText(d.value);
 					}
 					break;
 			} 
 		}
 		return label;
 	}
+	
+	// RENDER CACHE ********************************************
+	// *********************************************************
+	
+	/**
+	 * @return The cached display data of the given entry or separator. If there is none, it is computed
+	 */
+	private RowData getRowData(Object value) {
+		RowData d = cache.get(value);
+		if(d == null) {
+			d = value instanceof Entry? createRowData((Entry)value) : createRowData((EntrySeparator)value);
+			cache.put(value, d);
+		}
+		return d;
+	}
+	
+	/**
+	 * @return The display data of an entry
+	 */
+	private RowData createRowData(final Entry e) {
+		final RowData d = new RowData();
+		try {
+			e.getAccount().verifyEntry(e);
+		}
+		catch(EntryVerificationException x) {
+			d.verificationError = x;
+		}
+		if(e.getAdditionalInformation().length() > 0) d.icon = d.verificationError != null? indic_double : indic_info;
+		else d.icon = d.verificationError != null? indic_error : null;
+		d.verificationToolTip = new JournalTableLabel.ToolTipSource() {
+			@Override
+			public String getToolTipText() {
+				return d.verificationError.getHTMLRepresentation();
+			}
+		};
+		
+		d.date = dateFormat.format(e.getDate().getTime());
+		d.value = getCurrencyFormat(e.getCurrency()).format(e.getValue());
+		d.negative = e.getValue() < 0;
+		//The bilancial tooltip depends on the bilancials, so it is recomputed when the model changes
+		d.bilancialToolTip = new JournalTableLabel.ToolTipSource() {
+			@Override
+			public String getToolTipText() {
+				if(d.bilancialText == null || d.version != associatedModel.getVersion()) {
+					d.bilancialText = associatedModel.getBilancialMapping(d.row).getMostRecent().information().
+							getHTMLRepresentation(e.getCategory(), e.getAccount(), e.getCurrency());
+					d.version = associatedModel.getVersion();
+				}
+				return d.bilancialText;
+			}
+		};
+		
+		boolean usealternateone = true;
+		StringBuilder cb = new StringBuilder();
+		cb.append("<html>");
+		Vector<String> ol = e.getCategory().getOrderedList();
+		for(String c : ol) {
+			cb.append("<font color=\"" + (usealternateone? color_alternate_one : color_alternate_two) + "\">");
+			cb.append(c);
+			if(c != ol.lastElement()) cb.append(": ");
+			cb.append("</font>");
+			usealternateone = !usealternateone;
+		}
+		cb.append("</html>");
+		d.category = cb.toString();
+		
+		StringBuilder b = new StringBuilder();
+		StringBuilder tooltip = new StringBuilder();
+		tooltip.append("<html><b>");
+		tooltip.append(Fsfibu2StringTableMgr.getString("fs.fibu2.view.JournalTableRenderer.accountreport"));
+		tooltip.append("</b><br>");
+		TreeSet<String> ids = new TreeSet<String>(e.getAccountInformation().keySet()); 
+		for(String id : ids) {
+			if(e.getAccount().getFieldNames().get(id) != null) {
+				b.append(e.getAccountInformation().get(id));
+				tooltip.append(e.getAccount().getFieldNames().get(id));
+				tooltip.append(": ");
+				tooltip.append(e.getAccountInformation().get(id));
+				if(id != ids.last()) {
+					b.append(" / ");
+					tooltip.append("<br>");
+				}
+			}
+		}
+		tooltip.append("</html>");
+		if(e.getAccountInformation().keySet().size() > 0) d.accountInformationToolTip = tooltip.toString();
+		d.accountInformation = b.toString();
+		return d;
+	}
+	
+	/**
+	 * @return The display data of a separator. The overall sum is computed when it is rendered
+	 */
+	private RowData createRowData(EntrySeparator s) {
+		RowData d = new RowData();
+		if(s instanceof ReadingPoint) d.date = dateFormat.format(((ReadingPoint)s).getReadingDay().getTime());
+		return d;
+	}
+	
+	/**
+	 * @return The format for the given currency
+	 */
+	private NumberFormat getCurrencyFormat(Currency c) {
+		NumberFormat format = currencyFormats.get(c);
+		if(format == null) {
+			format = DefaultCurrencyFormat.getFormat(c);
+			currencyFormats.put(c, format);
+		}
+		return format;
+	}
+	
+	/**
+	 * The display data of a row
+	 */
+	private class RowData {
+		//The row in which the entry has been rendered last
+		public int row;
+		//The model version for which the data depending on the bilancials has been computed
+		public int version = -1;
+		public EntryVerificationException verificationError = null;
+		public Icon icon = null;
+		public JournalTableLabel.ToolTipSource verificationToolTip;
+		public String date;
+		public String value;
+		public boolean negative;
+		public JournalTableLabel.ToolTipSource bilancialToolTip;
+		public String bilancialText = null;
+		public String category;
+		public String accountInformation;
+		public String accountInformationToolTip = null;
+	}
+	
+	// JOURNALLISTENER *****************************************
+	// *********************************************************
+	
+	@Override
+	public void entriesAdded(Journal source, Entry[] newEntries) {
+		//Ignore
+	}
+
+	@Override
+	public void entriesRemoved(Journal source, Entry[] oldEntries) {
+		for(Entry e : oldEntries) cache.remove(e);
+	}
+
+	@Override
+	public void entryReplaced(Journal source, Entry oldEntry, Entry newEntry) {
+		cache.remove(oldEntry);
+	}
+
+	@Override
+	public void readingPointAdded(Journal source, ReadingPoint point) {
+		//Ignore
+	}
+
+	@Override
+	public void readingPointRemoved(Journal source, ReadingPoint point) {
+		cache.remove(point);
+	}
+
+	@Override
+	public void dateChanged(ReadingPoint source) {
+		cache.remove(source);
+	}
+
+	@Override
+	public void nameChanged(ReadingPoint source) {
+		//Ignore, the name is not cached
+	}
+
+	@Override
+	public void startValueChanged(Journal source, Account a, Float oldValue, Float newValue) {
+		//Ignore, the bilancials are recomputed when the model changes
+	}
+
+	@Override
+	public void nameChanged(Journal source, String oldValue, String newValue) {
+		//Ignore
+	}
+
+	@Override
+	public void descriptionChanged(Journal source, String oldValue, String newValue) {
+		//Ignore
+	}
 
 	// RESROUCEDEPENDENT *************************************
 	// *******************************************************